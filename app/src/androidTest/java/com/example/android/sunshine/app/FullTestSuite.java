@@ -16,17 +16,54 @@
 package com.example.android.sunshine.app;
 
 import android.test.suitebuilder.TestSuiteBuilder;
+import android.test.suitebuilder.annotation.LargeTest;
 
 import junit.framework.Test;
+import junit.framework.TestCase;
 import junit.framework.TestSuite;
 
+import java.util.Enumeration;
+
+/**
+ * Every test under this package except the {@link LargeTest} benchmarks, which take minutes
+ * and run from {@link BenchmarkSuite} instead.
+ */
 public class FullTestSuite extends TestSuite {
     public static Test suite() {
-        return new TestSuiteBuilder(FullTestSuite.class)
-                .includeAllPackagesUnderHere().build();
+        return filter(new TestSuiteBuilder(FullTestSuite.class)
+                .includeAllPackagesUnderHere().build(), false);
     }
 
     public FullTestSuite() {
         super();
     }
+
+    /**
+     * Returns a copy of the suite with only the test methods that are annotated
+     * {@link LargeTest}, or only those that aren't.
+     */
+    static TestSuite filter(TestSuite suite, boolean large) {
+        TestSuite filtered = new TestSuite(suite.getName());
+        Enumeration<Test> tests = suite.tests();
+        while (tests.hasMoreElements()) {
+            Test test = tests.nextElement();
+            if (test instanceof TestSuite) {
+                TestSuite child = filter((TestSuite) test, large);
+                if (child.testCount() > 0) {
+                    filtered.addTest(child);
+                }
+            } else if (!(test instanceof TestCase) || isLarge((TestCase) test) == large) {
+                filtered.addTest(test);
+            }
+        }
+        return filtered;
+    }
+
+    private static boolean isLarge(TestCase test) {
+        try {
+            return test.getClass().getMethod(test.getName()).isAnnotationPresent(LargeTest.class);
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
 }
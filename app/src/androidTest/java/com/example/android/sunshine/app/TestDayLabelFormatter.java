@@ -0,0 +1,131 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.test.AndroidTestCase;
+
+import java.text.SimpleDateFormat;
+import java.util.Locale;
+import java.util.TimeZone;
+
+public class TestDayLabelFormatter extends AndroidTestCase {
+
+    static final long DAY_IN_MILLIS = 24 * 60 * 60 * 1000;
+    static final int THREADS = 4;
+
+    private DayLabelFormatter mFormatter;
+    private long mNow;
+    private Locale mLocale;
+    private TimeZone mTimeZone;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mLocale = Locale.getDefault();
+        mTimeZone = TimeZone.getDefault();
+        Locale.setDefault(Locale.US);
+        mFormatter = new DayLabelFormatter();
+        mNow = System.currentTimeMillis();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        Locale.setDefault(mLocale);
+        TimeZone.setDefault(mTimeZone);
+        super.tearDown();
+    }
+
+    public void testLabels() {
+        String monthDay = new SimpleDateFormat("MMMM dd").format(mNow);
+        assertEquals(monthDay, mFormatter.getFormattedMonthDay(mNow, mNow));
+        assertEquals(mContext.getString(R.string.format_full_friendly_date,
+                        mContext.getString(R.string.today), monthDay),
+                mFormatter.getFriendlyDayString(mContext, mNow, true, mNow));
+        assertEquals(mContext.getString(R.string.today),
+                mFormatter.getFriendlyDayString(mContext, mNow, false, mNow));
+        assertEquals(mContext.getString(R.string.tomorrow),
+                mFormatter.getDayName(mContext, mNow + DAY_IN_MILLIS, mNow));
+        assertEquals(new SimpleDateFormat("EEEE").format(mNow + 3 * DAY_IN_MILLIS),
+                mFormatter.getFriendlyDayString(mContext, mNow + 3 * DAY_IN_MILLIS, true, mNow));
+        assertEquals(new SimpleDateFormat("EEE MMM dd").format(mNow + 10 * DAY_IN_MILLIS),
+                mFormatter.getFriendlyDayString(mContext, mNow + 10 * DAY_IN_MILLIS, false,
+                        mNow));
+    }
+
+    public void testCachesUntilMidnight() {
+        long tomorrow = mNow + DAY_IN_MILLIS;
+        String label = mFormatter.getFriendlyDayString(mContext, tomorrow, false, mNow);
+        int misses = mFormatter.getMissCount();
+        assertSame("Error: a label wasn't cached", label,
+                mFormatter.getFriendlyDayString(mContext, tomorrow, false, mNow));
+        assertEquals(misses, mFormatter.getMissCount());
+
+        // A day later tomorrow is today
+        assertEquals(mContext.getString(R.string.today),
+                mFormatter.getFriendlyDayString(mContext, tomorrow, false, tomorrow));
+        assertTrue(mFormatter.getMissCount() > misses);
+    }
+
+    public void testLocaleAndTimeZoneChanges() {
+        long later = mNow + 3 * DAY_IN_MILLIS;
+        String english = mFormatter.getDayName(mContext, later, mNow);
+
+        Locale.setDefault(Locale.FRANCE);
+        String french = mFormatter.getDayName(mContext, later, mNow);
+        assertEquals(new SimpleDateFormat("EEEE", Locale.FRANCE).format(later), french);
+        assertFalse("Error: a label from the previous locale was kept", english.equals(french));
+
+        // 25 hours apart, so always a different day
+        TimeZone.setDefault(TimeZone.getTimeZone("Pacific/Kiritimati"));
+        String east = mFormatter.getFormattedMonthDay(mNow, mNow);
+        TimeZone.setDefault(TimeZone.getTimeZone("Pacific/Pago_Pago"));
+        String west = mFormatter.getFormattedMonthDay(mNow, mNow);
+        assertFalse("Error: a label from the previous time zone was kept", east.equals(west));
+    }
+
+    public void testSharedBetweenThreads() throws InterruptedException {
+        final String[] expected = new String[14];
+        for (int i = 0; i < expected.length; i++) {
+            expected[i] = new DayLabelFormatter().getFriendlyDayString(mContext,
+                    mNow + i * DAY_IN_MILLIS, i == 0, mNow);
+        }
+        final Throwable[] failure = new Throwable[1];
+        Thread[] threads = new Thread[THREADS];
+        for (int t = 0; t < THREADS; t++) {
+            threads[t] = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        for (int round = 0; round < 1000; round++) {
+                            int i = round % expected.length;
+                            assertEquals(expected[i], mFormatter.getFriendlyDayString(mContext,
+                                    mNow + i * DAY_IN_MILLIS, i == 0, mNow));
+                        }
+                    } catch (Throwable e) {
+                        synchronized (failure) {
+                            failure[0] = e;
+                        }
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertNull("Error: a thread got the wrong label", failure[0]);
+    }
+}
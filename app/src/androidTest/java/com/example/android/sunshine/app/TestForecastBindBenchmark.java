@@ -0,0 +1,237 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.database.MatrixCursor;
+import android.os.Handler;
+import android.os.Looper;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
+import android.test.AndroidTestCase;
+import android.util.Log;
+import android.view.ContextThemeWrapper;
+import android.view.View;
+import android.widget.AbsListView;
+import android.widget.FrameLayout;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/*
+    Benchmark: flings the forecast list as fast as it scrolls, binding each row the way the
+    adapter used to, formatting from the cursor in onBindViewHolder, and from the rows the loader
+    formats.  Every scroll step stands in for a frame; the median and 90th percentile step times
+    of both paths go to the log under this class's tag.
+ */
+public class TestForecastBindBenchmark extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestForecastBindBenchmark.class.getSimpleName();
+
+    static final int DAYS = 365;
+    static final int FLINGS = 5;
+    // About four rows a frame, a hard fling
+    static final int STEP_PIXELS = 400;
+    static final long DAY_IN_MILLIS = 24 * 60 * 60 * 1000;
+
+    // The columns ForecastFragment's COL_ indices refer to
+    static final String[] FORECAST_COLUMNS = {
+            "_id", "date", "short_desc", "max", "min", "location_setting", "weather_id",
+            "coord_lat", "coord_long"
+    };
+
+    private Context mThemedContext;
+    private MatrixCursor mCursor;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mThemedContext = new ContextThemeWrapper(mContext, R.style.AppTheme_Main);
+        mCursor = new MatrixCursor(FORECAST_COLUMNS, DAYS);
+        long today = System.currentTimeMillis();
+        int[] weatherIds = {200, 300, 500, 511, 600, 701, 800, 801, 803};
+        for (int i = 0; i < DAYS; i++) {
+            mCursor.addRow(new Object[]{i, today + i * DAY_IN_MILLIS, "Clear", 20.0 + i % 10,
+                    5.0 - i % 10, "99705", weatherIds[i % weatherIds.length], "64.7488",
+                    "-147.353"});
+        }
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mCursor.close();
+        super.tearDown();
+    }
+
+    /**
+     * Formats the cursor's row in onBindViewHolder, reading the preferences on every bind as
+     * the adapter did before it bound {@link ForecastRow}s.
+     */
+    class CursorBindingAdapter extends ForecastAdapter {
+        CursorBindingAdapter(Context context, View emptyView) {
+            super(context, null, emptyView, AbsListView.CHOICE_MODE_NONE);
+        }
+
+        @Override
+        public void onBindViewHolder(ForecastAdapterViewHolder holder, int position) {
+            mCursor.moveToPosition(position);
+            Utility.usingLocalGraphics(mThemedContext);
+            // Local graphics regardless, so neither path goes through Glide
+            bindRow(holder, ForecastRow.fromCursor(mThemedContext, mCursor,
+                    Utility.isMetric(mThemedContext), true), position);
+        }
+
+        @Override
+        public int getItemCount() {
+            return mCursor.getCount();
+        }
+    }
+
+    private List<ForecastRow> loadRows() {
+        boolean isMetric = Utility.isMetric(mThemedContext);
+        ArrayList<ForecastRow> rows = new ArrayList<ForecastRow>(DAYS);
+        mCursor.moveToPosition(-1);
+        while (mCursor.moveToNext()) {
+            rows.add(ForecastRow.fromCursor(mThemedContext, mCursor, isMetric, true));
+        }
+        return rows;
+    }
+
+    private ForecastAdapter rowAdapter(View emptyView) {
+        ForecastAdapter adapter = new ForecastAdapter(mThemedContext, null, emptyView,
+                AbsListView.CHOICE_MODE_NONE);
+        adapter.swapRows(loadRows());
+        return adapter;
+    }
+
+    private RecyclerView layOut(ForecastAdapter adapter) {
+        RecyclerView recyclerView = new RecyclerView(mThemedContext);
+        recyclerView.setLayoutManager(new LinearLayoutManager(mThemedContext));
+        recyclerView.setAdapter(adapter);
+        recyclerView.measure(
+                View.MeasureSpec.makeMeasureSpec(1080, View.MeasureSpec.EXACTLY),
+                View.MeasureSpec.makeMeasureSpec(1920, View.MeasureSpec.EXACTLY));
+        recyclerView.layout(0, 0, 1080, 1920);
+        return recyclerView;
+    }
+
+    /**
+     * @return the time of every scroll step of {@link #FLINGS} flings to the end of the list
+     * and back, in nanoseconds.
+     */
+    private long[] fling(RecyclerView recyclerView) {
+        ArrayList<Long> steps = new ArrayList<Long>();
+        for (int i = 0; i < FLINGS; i++) {
+            for (int direction = 1; direction >= -1; direction -= 2) {
+                while (recyclerView.canScrollVertically(direction)) {
+                    long start = System.nanoTime();
+                    recyclerView.scrollBy(0, direction * STEP_PIXELS);
+                    steps.add(System.nanoTime() - start);
+                }
+            }
+        }
+        long[] nanos = new long[steps.size()];
+        for (int i = 0; i < nanos.length; i++) {
+            nanos[i] = steps.get(i);
+        }
+        Arrays.sort(nanos);
+        return nanos;
+    }
+
+    private void runOnMainThread(final Runnable runnable) throws Throwable {
+        final Throwable[] failure = new Throwable[1];
+        final CountDownLatch done = new CountDownLatch(1);
+        new Handler(Looper.getMainLooper()).post(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    runnable.run();
+                } catch (Throwable t) {
+                    failure[0] = t;
+                } finally {
+                    done.countDown();
+                }
+            }
+        });
+        assertTrue("Error: the main thread didn't get to the test",
+                done.await(60, TimeUnit.SECONDS));
+        if (failure[0] != null) {
+            throw failure[0];
+        }
+    }
+
+    public void testRowsBindLikeTheCursor() throws Throwable {
+        runOnMainThread(new Runnable() {
+            @Override
+            public void run() {
+                View emptyView = new FrameLayout(mThemedContext);
+                ForecastAdapter rows = rowAdapter(emptyView);
+                ForecastAdapter cursor = new CursorBindingAdapter(mThemedContext, emptyView);
+                assertEquals(cursor.getItemCount(), rows.getItemCount());
+
+                RecyclerView parent = new RecyclerView(mThemedContext);
+                for (int position : new int[]{0, 1, 8, DAYS - 1}) {
+                    int viewType = rows.getItemViewType(position);
+                    ForecastAdapter.ForecastAdapterViewHolder expected =
+                            cursor.onCreateViewHolder(parent, viewType);
+                    cursor.onBindViewHolder(expected, position);
+                    ForecastAdapter.ForecastAdapterViewHolder actual =
+                            rows.onCreateViewHolder(parent, viewType);
+                    rows.onBindViewHolder(actual, position);
+
+                    assertEquals(expected.mDateView.getText().toString(),
+                            actual.mDateView.getText().toString());
+                    assertEquals(expected.mDescriptionView.getText().toString(),
+                            actual.mDescriptionView.getText().toString());
+                    assertEquals(expected.mHighTempView.getContentDescription().toString(),
+                            actual.mHighTempView.getContentDescription().toString());
+                    assertEquals(expected.mLowTempView.getText().toString(),
+                            actual.mLowTempView.getText().toString());
+                }
+            }
+        });
+    }
+
+    public void testFlingFrameTimes() throws Throwable {
+        runOnMainThread(new Runnable() {
+            @Override
+            public void run() {
+                View emptyView = new FrameLayout(mThemedContext);
+                // Warm up both paths
+                fling(layOut(new CursorBindingAdapter(mThemedContext, emptyView)));
+                fling(layOut(rowAdapter(emptyView)));
+
+                long[] cursorSteps = fling(layOut(new CursorBindingAdapter(mThemedContext,
+                        emptyView)));
+                long loadStart = System.nanoTime();
+                ForecastAdapter rows = rowAdapter(emptyView);
+                long loadNanos = System.nanoTime() - loadStart;
+                long[] rowSteps = fling(layOut(rows));
+
+                assertTrue("Error: the list didn't scroll", rowSteps.length > 0);
+                Log.i(LOG_TAG, "Per frame over " + rowSteps.length + " frames: cursor median="
+                        + cursorSteps[cursorSteps.length / 2] / 1000 + "us, 90th="
+                        + cursorSteps[cursorSteps.length * 9 / 10] / 1000 + "us; rows median="
+                        + rowSteps[rowSteps.length / 2] / 1000 + "us, 90th="
+                        + rowSteps[rowSteps.length * 9 / 10] / 1000 + "us; formatting "
+                        + DAYS + " rows up front took " + loadNanos / 1000 + "us");
+            }
+        });
+    }
+}
@@ -0,0 +1,165 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.database.MatrixCursor;
+import android.support.v7.util.DiffUtil;
+import android.support.v7.util.ListUpdateCallback;
+import android.support.v7.widget.RecyclerView;
+import android.test.AndroidTestCase;
+import android.view.View;
+import android.widget.AbsListView;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class TestForecastRowDiff extends AndroidTestCase {
+
+    static final int DAYS = 14;
+    static final long DAY_IN_MILLIS = 24 * 60 * 60 * 1000;
+
+    private long mToday;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mToday = System.currentTimeMillis();
+    }
+
+    /**
+     * @return a row for each day from {@code firstDay} on, all 20 degrees but {@code warmDay}.
+     */
+    private List<ForecastRow> rows(int firstDay, int warmDay) {
+        MatrixCursor cursor = new MatrixCursor(TestForecastBindBenchmark.FORECAST_COLUMNS);
+        for (int i = firstDay; i < firstDay + DAYS; i++) {
+            cursor.addRow(new Object[]{i, mToday + i * DAY_IN_MILLIS, "Clear",
+                    i == warmDay ? 30.0 : 20.0, 10.0, "99705", 800, "64.7488", "-147.353"});
+        }
+        ArrayList<ForecastRow> rows = new ArrayList<ForecastRow>();
+        while (cursor.moveToNext()) {
+            rows.add(ForecastRow.fromCursor(mContext, cursor, true, true));
+        }
+        cursor.close();
+        return rows;
+    }
+
+    static class CountingCallback implements ListUpdateCallback {
+        int mInserted;
+        int mRemoved;
+        int mMoved;
+        int mChanged;
+
+        @Override
+        public void onInserted(int position, int count) {
+            mInserted += count;
+        }
+
+        @Override
+        public void onRemoved(int position, int count) {
+            mRemoved += count;
+        }
+
+        @Override
+        public void onMoved(int fromPosition, int toPosition) {
+            mMoved++;
+        }
+
+        @Override
+        public void onChanged(int position, int count, Object payload) {
+            mChanged += count;
+        }
+    }
+
+    public void testSyncDiff() {
+        // A day later: the first day is gone, a new last day, and one day's forecast changed
+        CountingCallback counts = new CountingCallback();
+        ForecastRowLoader.diff(rows(0, -1), rows(1, 5)).dispatchUpdatesTo(counts);
+        assertEquals(1, counts.mRemoved);
+        assertEquals(1, counts.mInserted);
+        assertEquals(0, counts.mMoved);
+        // Day 5, and day 1 now that it's first and may be shown as today
+        assertEquals(2, counts.mChanged);
+
+        counts = new CountingCallback();
+        ForecastRowLoader.diff(rows(0, -1), rows(0, -1)).dispatchUpdatesTo(counts);
+        assertEquals("Error: an unchanged reload dispatched updates",
+                0, counts.mRemoved + counts.mInserted + counts.mMoved + counts.mChanged);
+    }
+
+    public void testReformatForUnits() {
+        List<ForecastRow> metric = rows(0, 5);
+        List<ForecastRow> imperial = new ArrayList<ForecastRow>();
+        for (ForecastRow row : metric) {
+            imperial.add(row.reformat(mContext, false, true));
+        }
+        ForecastRow warm = imperial.get(5);
+        assertEquals(Utility.formatTemperature(mContext, 30.0, false), warm.mHighText);
+        assertEquals(metric.get(5).mDate, warm.mDate);
+        assertEquals(30.0, warm.mHigh, 0.0);
+
+        // A change of units changes every row, but no day comes or goes
+        CountingCallback counts = new CountingCallback();
+        ForecastRowLoader.diff(metric, imperial).dispatchUpdatesTo(counts);
+        assertEquals(0, counts.mRemoved + counts.mInserted + counts.mMoved);
+        assertEquals(DAYS, counts.mChanged);
+    }
+
+    static class ObservedAdapter extends RecyclerView.AdapterDataObserver {
+        int mDataSetChanges;
+        int mItemChanges;
+
+        @Override
+        public void onChanged() {
+            mDataSetChanges++;
+        }
+
+        @Override
+        public void onItemRangeChanged(int positionStart, int itemCount, Object payload) {
+            mItemChanges += itemCount;
+        }
+    }
+
+    public void testAdapterDispatchesOnlyAgainstItsRows() {
+        ForecastAdapter adapter = new ForecastAdapter(mContext, null, new View(mContext),
+                AbsListView.CHOICE_MODE_NONE);
+        ObservedAdapter observer = new ObservedAdapter();
+        adapter.registerAdapterDataObserver(observer);
+
+        List<ForecastRow> shown = rows(0, -1);
+        adapter.swapRows(shown);
+        assertEquals(1, observer.mDataSetChanges);
+        assertEquals(mToday, adapter.getItemId(0));
+
+        List<ForecastRow> warmer = rows(0, 3);
+        DiffUtil.DiffResult diff = ForecastRowLoader.diff(shown, warmer);
+        adapter.swapRows(warmer, shown, diff);
+        assertEquals("Error: the whole list rebound for one changed day",
+                1, observer.mDataSetChanges);
+        assertEquals(1, observer.mItemChanges);
+        assertSame(warmer, adapter.getRows());
+
+        // Delivering the same rows again does nothing
+        adapter.swapRows(warmer, shown, diff);
+        assertEquals(1, observer.mDataSetChanges);
+        assertEquals(1, observer.mItemChanges);
+
+        // A diff against rows that aren't shown any more can't be dispatched
+        List<ForecastRow> later = rows(1, -1);
+        adapter.swapRows(later, shown, ForecastRowLoader.diff(shown, later));
+        assertEquals(2, observer.mDataSetChanges);
+        assertEquals(1, observer.mItemChanges);
+    }
+}
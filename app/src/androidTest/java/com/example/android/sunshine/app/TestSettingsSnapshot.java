@@ -0,0 +1,146 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Debug;
+import android.preference.PreferenceManager;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.utils.PollingCheck;
+
+/*
+    Checks the settings snapshot against the preferences, and benchmarks the settings reads of
+    a list bind loop, the way Utility made them before the snapshot, straight from the
+    SharedPreferences, and through it.  The time and allocations per row go to the log under
+    this class's tag.
+ */
+public class TestSettingsSnapshot extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestSettingsSnapshot.class.getSimpleName();
+
+    static final int ROWS = 10000;
+
+    private SharedPreferences mPrefs;
+    private String mUnitsKey;
+    private String mUnits;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mPrefs = PreferenceManager.getDefaultSharedPreferences(mContext);
+        mUnitsKey = mContext.getString(R.string.pref_units_key);
+        mUnits = mPrefs.getString(mUnitsKey, mContext.getString(R.string.pref_units_metric));
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mPrefs.edit().putString(mUnitsKey, mUnits).commit();
+        SettingsSnapshot.refresh(mContext);
+        super.tearDown();
+    }
+
+    private static boolean readIsMetric(Context context) {
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        return prefs.getString(context.getString(R.string.pref_units_key),
+                context.getString(R.string.pref_units_metric))
+                .equals(context.getString(R.string.pref_units_metric));
+    }
+
+    private static boolean readUsingLocalGraphics(Context context) {
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        String sunshineArtPack = context.getString(R.string.pref_art_pack_sunshine);
+        return prefs.getString(context.getString(R.string.pref_art_pack_key),
+                sunshineArtPack).equals(sunshineArtPack);
+    }
+
+    public void testMatchesPreferences() {
+        SettingsSnapshot snapshot = SettingsSnapshot.refresh(mContext);
+        assertEquals(readIsMetric(mContext), snapshot.mMetric);
+        assertEquals(readUsingLocalGraphics(mContext), snapshot.mLocalGraphics);
+        assertEquals(mPrefs.getString(mContext.getString(R.string.pref_location_key),
+                mContext.getString(R.string.pref_location_default)), snapshot.mLocation);
+        assertSame("Error: reading the settings built a new snapshot",
+                snapshot, SettingsSnapshot.get(mContext));
+    }
+
+    public void testFollowsChanges() {
+        final String metric = mContext.getString(R.string.pref_units_metric);
+        final String imperial = mContext.getString(R.string.pref_units_imperial);
+        final boolean wasMetric = Utility.isMetric(mContext);
+
+        // The listener runs on the main thread, some time after the write
+        mPrefs.edit().putString(mUnitsKey, wasMetric ? imperial : metric).commit();
+        new PollingCheck(5000) {
+            @Override
+            protected boolean check() {
+                return Utility.isMetric(mContext) != wasMetric;
+            }
+        }.run();
+
+        // A refresh sees the write straight away
+        mPrefs.edit().putString(mUnitsKey, wasMetric ? metric : imperial).commit();
+        SettingsSnapshot.refresh(mContext);
+        assertEquals(wasMetric, Utility.isMetric(mContext));
+    }
+
+    /*
+        The settings a row of the forecast list, or a widget, read while binding: the units for
+        both temperatures, and the art pack for the icon.
+     */
+    @SuppressWarnings("deprecation")
+    public void testBindLoop() {
+        // Warm up both paths
+        readIsMetric(mContext);
+        Utility.isMetric(mContext);
+
+        Debug.resetThreadAllocCount();
+        Debug.startAllocCounting();
+        long start = System.nanoTime();
+        int metricRows = 0;
+        for (int i = 0; i < ROWS; i++) {
+            if (readIsMetric(mContext) && readIsMetric(mContext)
+                    && readUsingLocalGraphics(mContext)) {
+                metricRows++;
+            }
+        }
+        long prefsNanos = System.nanoTime() - start;
+        Debug.stopAllocCounting();
+        int prefsAllocs = Debug.getThreadAllocCount();
+
+        Debug.resetThreadAllocCount();
+        Debug.startAllocCounting();
+        start = System.nanoTime();
+        int snapshotMetricRows = 0;
+        for (int i = 0; i < ROWS; i++) {
+            if (Utility.isMetric(mContext) && Utility.isMetric(mContext)
+                    && Utility.usingLocalGraphics(mContext)) {
+                snapshotMetricRows++;
+            }
+        }
+        long snapshotNanos = System.nanoTime() - start;
+        Debug.stopAllocCounting();
+        int snapshotAllocs = Debug.getThreadAllocCount();
+
+        assertEquals(metricRows, snapshotMetricRows);
+        Log.i(LOG_TAG, "Per row: preferences=" + prefsNanos / ROWS + "ns, "
+                + (float) prefsAllocs / ROWS + " allocations; snapshot="
+                + snapshotNanos / ROWS + "ns, " + (float) snapshotAllocs / ROWS
+                + " allocations");
+    }
+}
@@ -0,0 +1,181 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentProviderClient;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.LargeTest;
+import android.text.format.Time;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.TimeZone;
+
+/*
+    Benchmark: writes 14 rows (one sync), 1,000 rows and 100,000 rows (history for a hundred
+    locations) through the provider's compiled-statement path, and through what bulkInsert used
+    to do, a Time per row to normalize the date and an insert(ContentValues) that SQLite compiles
+    each time.  The timings go to the log under this class's tag.  The 100,000 rows take minutes,
+    so they are a LargeTest that only BenchmarkSuite runs.
+ */
+public class TestBulkInsertBenchmark extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestBulkInsertBenchmark.class.getSimpleName();
+
+    static final int DAYS_PER_LOCATION = 1000;
+    static final long DAY_IN_MILLIS = 24 * 60 * 60 * 1000;
+    static final String BASELINE_DATABASE = "bulk_insert_baseline.db";
+
+    private ContentProviderClient mClient;
+    private WeatherProvider mProvider;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+        mClient = mContext.getContentResolver()
+                .acquireContentProviderClient(WeatherContract.CONTENT_AUTHORITY);
+        mProvider = (WeatherProvider) mClient.getLocalContentProvider();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mClient.release();
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+        mContext.deleteDatabase(BASELINE_DATABASE);
+        super.tearDown();
+    }
+
+    public void testFourteenRows() {
+        benchmark(14);
+    }
+
+    public void testThousandRows() {
+        benchmark(1000);
+    }
+
+    @LargeTest
+    public void testHundredThousandRows() {
+        benchmark(100000);
+    }
+
+    private void benchmark(int rows) {
+        int locations = Math.max(1, rows / DAYS_PER_LOCATION);
+        long[] locationIds = new long[locations];
+        for (int i = 0; i < locations; i++) {
+            ContentValues values = TestUtilities.createNorthPoleLocationValues();
+            values.put(LocationEntry.COLUMN_LOCATION_SETTING, "bench" + i);
+            locationIds[i] = ContentUris.parseId(mContext.getContentResolver().insert(
+                    LocationEntry.CONTENT_URI, values));
+        }
+        ForecastBatch batch = createBatch(rows, locationIds, 0);
+
+        long start = SystemClock.elapsedRealtime();
+        WeatherProvider.WriteCounts inserted = mProvider.bulkInsert(batch);
+        long insertMillis = SystemClock.elapsedRealtime() - start;
+        assertEquals(rows, inserted.inserted);
+
+        start = SystemClock.elapsedRealtime();
+        WeatherProvider.WriteCounts unchanged = mProvider.bulkInsert(batch);
+        long unchangedMillis = SystemClock.elapsedRealtime() - start;
+        assertEquals(rows, unchanged.unchanged);
+
+        ForecastBatch changedBatch = createBatch(rows, locationIds, 1);
+        start = SystemClock.elapsedRealtime();
+        WeatherProvider.WriteCounts replaced = mProvider.bulkInsert(changedBatch);
+        long replaceMillis = SystemClock.elapsedRealtime() - start;
+        assertEquals(rows, replaced.replaced);
+
+        long baselineMillis = runBaseline(rows, locationIds);
+
+        Log.i(LOG_TAG, rows + " rows: compiled statements insert=" + insertMillis +
+                "ms unchanged=" + unchangedMillis + "ms replace=" + replaceMillis +
+                "ms; per-row insert(ContentValues) baseline=" + baselineMillis + "ms");
+    }
+
+    private static ForecastBatch createBatch(int rows, long[] locationIds, int round) {
+        ForecastBatch batch = new ForecastBatch(rows);
+        for (int row = 0; row < rows; row++) {
+            long locationId = locationIds[row % locationIds.length];
+            long date = TestUtilities.TEST_DATE + (row / locationIds.length) * DAY_IN_MILLIS;
+            batch.add(locationId, date, 800 + row % 5, "Clear", 75 + round, 65, 40, 1013, 5.5,
+                    180);
+        }
+        return batch;
+    }
+
+    /**
+     * The bulk insert as it used to be: one Time per row to normalize the date and an
+     * insert(ContentValues), compiled again every time, all in one transaction.
+     */
+    private long runBaseline(int rows, long[] locationIds) {
+        mContext.deleteDatabase(BASELINE_DATABASE);
+        WeatherDbHelper dbHelper = new WeatherDbHelper(mContext, BASELINE_DATABASE, true);
+        SQLiteDatabase db = dbHelper.getWritableDatabase();
+        ContentValues[] values = new ContentValues[rows];
+        for (int row = 0; row < rows; row++) {
+            ContentValues weatherValues = TestUtilities.createWeatherValues(
+                    locationIds[row % locationIds.length]);
+            weatherValues.put(WeatherEntry.COLUMN_DATE,
+                    TestUtilities.TEST_DATE + (row / locationIds.length) * DAY_IN_MILLIS);
+            values[row] = weatherValues;
+        }
+
+        long start = SystemClock.elapsedRealtime();
+        db.beginTransaction();
+        try {
+            for (ContentValues value : values) {
+                Time time = new Time();
+                long date = value.getAsLong(WeatherEntry.COLUMN_DATE);
+                time.set(date);
+                value.put(WeatherEntry.COLUMN_DATE,
+                        time.setJulianDay(Time.getJulianDay(date, time.gmtoff)));
+                db.insert(WeatherEntry.TABLE_NAME, null, value);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        long millis = SystemClock.elapsedRealtime() - start;
+        dbHelper.close();
+        return millis;
+    }
+
+    public void testNormalizeDateMatchesTime() {
+        TimeZone timeZone = TimeZone.getDefault();
+        Time time = new Time();
+        long from = 1419033600000L;  // December 20th, 2014
+        // Two years of hours, across both daylight saving changes wherever this runs
+        for (long date = from; date < from + 2 * 365 * DAY_IN_MILLIS; date += 60 * 60 * 1000) {
+            time.set(date);
+            long expected = time.setJulianDay(Time.getJulianDay(date, time.gmtoff));
+            if (time.hour != 0) {
+                // A day whose midnight was skipped by a daylight saving change
+                continue;
+            }
+            assertEquals("Error: normalizing " + date, expected,
+                    WeatherContract.normalizeDate(date, timeZone));
+        }
+    }
+}
@@ -20,6 +20,8 @@ import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.test.AndroidTestCase;
 
+import com.example.android.sunshine.app.sync.SunshineSyncAdapter;
+
 import java.util.HashSet;
 
 public class TestDb extends AndroidTestCase {
@@ -55,6 +57,8 @@ public class TestDb extends AndroidTestCase {
         final HashSet<String> tableNameHashSet = new HashSet<String>();
         tableNameHashSet.add(WeatherContract.LocationEntry.TABLE_NAME);
         tableNameHashSet.add(WeatherContract.WeatherEntry.TABLE_NAME);
+        tableNameHashSet.add(WeatherContract.HistoryEntry.TABLE_NAME);
+        tableNameHashSet.add(WeatherContract.HistoryRollupEntry.TABLE_NAME);
 
         mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
         SQLiteDatabase db = new WeatherDbHelper(
@@ -91,6 +95,7 @@ public class TestDb extends AndroidTestCase {
         locationColumnHashSet.add(WeatherContract.LocationEntry.COLUMN_COORD_LAT);
         locationColumnHashSet.add(WeatherContract.LocationEntry.COLUMN_COORD_LONG);
         locationColumnHashSet.add(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING);
+        locationColumnHashSet.add(WeatherContract.LocationEntry.COLUMN_SYNC_STATUS);
 
         int columnNameIndex = c.getColumnIndex("name");
         do {
@@ -177,6 +182,71 @@ public class TestDb extends AndroidTestCase {
     }
 
 
+    /*
+        Builds a database the way version 2 of the app did, with a forecast in it, and checks
+        that opening it with the current helper upgrades it in place.
+     */
+    public void testUpgradeKeepsData() {
+        mContext.getDatabasePath(WeatherDbHelper.DATABASE_NAME).getParentFile().mkdirs();
+        SQLiteDatabase oldDb = SQLiteDatabase.openOrCreateDatabase(
+                mContext.getDatabasePath(WeatherDbHelper.DATABASE_NAME), null);
+        oldDb.execSQL("CREATE TABLE location (_id INTEGER PRIMARY KEY," +
+                "location_setting TEXT UNIQUE NOT NULL, city_name TEXT NOT NULL, " +
+                "coord_lat REAL NOT NULL, coord_long REAL NOT NULL );");
+        oldDb.execSQL("CREATE TABLE weather (_id INTEGER PRIMARY KEY AUTOINCREMENT," +
+                "location_id INTEGER NOT NULL, date INTEGER NOT NULL, " +
+                "short_desc TEXT NOT NULL, weather_id INTEGER NOT NULL," +
+                "min REAL NOT NULL, max REAL NOT NULL, humidity REAL NOT NULL, " +
+                "pressure REAL NOT NULL, wind REAL NOT NULL, degrees REAL NOT NULL, " +
+                " FOREIGN KEY (location_id) REFERENCES location (_id), " +
+                " UNIQUE (date, location_id) ON CONFLICT REPLACE);");
+        ContentValues locationValues = TestUtilities.createNorthPoleLocationValues();
+        long locationRowId = oldDb.insert(WeatherContract.LocationEntry.TABLE_NAME, null,
+                locationValues);
+        ContentValues weatherValues = TestUtilities.createWeatherValues(locationRowId);
+        assertTrue(oldDb.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, weatherValues) != -1);
+        oldDb.setVersion(WeatherDbHelper.FIRST_MIGRATABLE_VERSION);
+        oldDb.close();
+
+        WeatherDbHelper dbHelper = new WeatherDbHelper(mContext);
+        SQLiteDatabase db = dbHelper.getWritableDatabase();
+
+        Cursor cursor = db.query(WeatherContract.LocationEntry.TABLE_NAME, null, null, null,
+                null, null, null);
+        TestUtilities.validateCursor("Error: location lost in the upgrade", cursor, locationValues);
+        cursor = db.query(WeatherContract.LocationEntry.TABLE_NAME,
+                new String[]{WeatherContract.LocationEntry.COLUMN_SYNC_STATUS}, null, null,
+                null, null, null);
+        assertTrue(cursor.moveToFirst());
+        assertEquals(SunshineSyncAdapter.LOCATION_STATUS_UNKNOWN, cursor.getInt(0));
+        cursor.close();
+
+        cursor = db.query(WeatherContract.WeatherEntry.TABLE_NAME, null, null, null,
+                null, null, null);
+        TestUtilities.validateCursor("Error: forecast lost in the upgrade", cursor, weatherValues);
+        cursor = db.query(WeatherContract.WeatherEntry.TABLE_NAME,
+                new String[]{WeatherContract.WeatherEntry.COLUMN_CONTENT_HASH}, null, null,
+                null, null, null);
+        assertTrue(cursor.moveToFirst());
+        assertTrue("Error: an old row can't have a content hash", cursor.isNull(0));
+        cursor.close();
+
+        cursor = db.rawQuery("SELECT name FROM sqlite_master WHERE type='index' AND name=?",
+                new String[]{WeatherDbHelper.WEATHER_LOCATION_DATE_INDEX});
+        assertTrue("Error: the upgrade didn't add the forecast index", cursor.moveToFirst());
+        cursor.close();
+
+        cursor = db.query(WeatherContract.HistoryRollupEntry.TABLE_NAME, null, null, null,
+                null, null, null);
+        assertEquals("Error: the upgrade didn't add an empty history", 0, cursor.getCount());
+        cursor.close();
+        cursor = db.rawQuery("SELECT name FROM sqlite_master WHERE type='index' AND name=?",
+                new String[]{WeatherDbHelper.HISTORY_DATE_INDEX});
+        assertTrue("Error: the upgrade didn't add the history index", cursor.moveToFirst());
+        cursor.close();
+        dbHelper.close();
+    }
+
     /*
         Students: This is a helper method for the testWeatherTable quiz. You can move your
         code from testLocationTable to here so that you can call this code from both
@@ -0,0 +1,209 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentProviderClient;
+import android.content.ContentProviderOperation;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.OperationApplicationException;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Debug;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.ArrayList;
+
+/*
+    Checks that a reused ForecastBatch fills without allocating, that the provider's batch
+    write path stores the same rows, with the same content hashes, as the ContentValues one, and
+    that a batch applied along with operations finds its locations through them.
+ */
+public class TestForecastBatch extends AndroidTestCase {
+
+    static final int DAYS = 14;
+    static final String[] DESCRIPTIONS = {"Clear", "Clouds", "Rain"};
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+    }
+
+    private static void fill(ForecastBatch batch) {
+        for (int i = 0; i < DAYS; i++) {
+            batch.add(0, TestUtilities.TEST_DATE + i, 800 + i, DESCRIPTIONS[i % DESCRIPTIONS.length],
+                    75 + i, 65 - i, 40 + i, 1013 - i, 5.5, 180);
+        }
+    }
+
+    @SuppressWarnings("deprecation")
+    public void testReusedBatchDoesNotAllocate() {
+        ForecastBatch parsed = new ForecastBatch();
+        ForecastBatch stored = new ForecastBatch();
+        // The first round sizes the arrays
+        fill(parsed);
+        stored.addAll(parsed, 1);
+        parsed.clear();
+        stored.clear();
+
+        Debug.resetThreadAllocCount();
+        Debug.startAllocCounting();
+        try {
+            fill(parsed);
+            stored.addAll(parsed, 1);
+        } finally {
+            Debug.stopAllocCounting();
+        }
+        assertEquals("Error: refilling a reused batch allocated", 0, Debug.getThreadAllocCount());
+
+        assertEquals(DAYS, stored.size());
+        assertEquals(1, stored.getLocationId(DAYS - 1));
+        assertEquals(TestUtilities.TEST_DATE + 3, stored.getDate(3));
+        assertEquals(803, stored.getWeatherId(3));
+        // Interned, so every "Clear" is the same instance
+        assertSame(stored.getDescription(0), stored.getDescription(3));
+        assertEquals(78.0, stored.getHigh(3));
+        assertEquals(62.0, stored.getLow(3));
+    }
+
+    public void testBatchWriteMatchesContentValues() {
+        Uri locationUri = mContext.getContentResolver().insert(LocationEntry.CONTENT_URI,
+                TestUtilities.createNorthPoleLocationValues());
+        long locationRowId = ContentUris.parseId(locationUri);
+
+        ContentValues[] expected = TestProvider.createBulkInsertWeatherValues(locationRowId);
+        ForecastBatch batch = new ForecastBatch();
+        for (ContentValues values : expected) {
+            batch.add(locationRowId,
+                    values.getAsLong(WeatherEntry.COLUMN_DATE),
+                    values.getAsInteger(WeatherEntry.COLUMN_WEATHER_ID),
+                    values.getAsString(WeatherEntry.COLUMN_SHORT_DESC),
+                    values.getAsDouble(WeatherEntry.COLUMN_MAX_TEMP),
+                    values.getAsDouble(WeatherEntry.COLUMN_MIN_TEMP),
+                    values.getAsDouble(WeatherEntry.COLUMN_HUMIDITY),
+                    values.getAsDouble(WeatherEntry.COLUMN_PRESSURE),
+                    values.getAsDouble(WeatherEntry.COLUMN_WIND_SPEED),
+                    values.getAsDouble(WeatherEntry.COLUMN_DEGREES));
+        }
+
+        ContentProviderClient client = mContext.getContentResolver()
+                .acquireContentProviderClient(WeatherContract.CONTENT_AUTHORITY);
+        try {
+            WeatherProvider provider = (WeatherProvider) client.getLocalContentProvider();
+            WeatherProvider.WriteCounts counts = provider.bulkInsert(batch);
+            assertEquals(expected.length, counts.inserted);
+            assertEquals(0, counts.replaced);
+
+            counts = provider.bulkInsert(batch);
+            assertEquals("Error: the same batch was written twice", 0, counts.getWritten());
+            assertEquals(expected.length, counts.unchanged);
+        } finally {
+            client.release();
+        }
+
+        Cursor cursor = mContext.getContentResolver().query(WeatherEntry.CONTENT_URI, null, null,
+                null, WeatherEntry.COLUMN_DATE + " ASC");
+        assertEquals(expected.length, cursor.getCount());
+        cursor.moveToFirst();
+        for (int i = 0; i < expected.length; i++, cursor.moveToNext()) {
+            TestUtilities.validateCurrentRecord("Error validating batch row " + i, cursor,
+                    expected[i]);
+        }
+        cursor.close();
+
+        // Both write paths hash a row the same way, so this is a no-op
+        assertEquals(0, mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI,
+                expected));
+    }
+
+    // The sync's operations around a batch: the location's upsert, then a prune of nothing
+    private static ArrayList<ContentProviderOperation> createLocationOperations() {
+        ArrayList<ContentProviderOperation> operations = new ArrayList<ContentProviderOperation>();
+        operations.add(ContentProviderOperation.newInsert(LocationEntry.CONTENT_URI)
+                .withValues(TestUtilities.createNorthPoleLocationValues())
+                .build());
+        operations.add(ContentProviderOperation.newDelete(WeatherEntry.CONTENT_URI)
+                .withSelection(WeatherEntry.COLUMN_DATE + " < ?", new String[]{"0"})
+                .build());
+        return operations;
+    }
+
+    public void testBatchAppliedWithOperations() throws Exception {
+        // Every day refers back to the upsert, operation 0
+        ForecastBatch batch = new ForecastBatch();
+        fill(batch);
+
+        ContentProviderClient client = mContext.getContentResolver()
+                .acquireContentProviderClient(WeatherContract.CONTENT_AUTHORITY);
+        try {
+            WeatherProvider provider = (WeatherProvider) client.getLocalContentProvider();
+            TestUtilities.TestContentObserver weatherObserver =
+                    TestUtilities.getTestContentObserver();
+            mContext.getContentResolver().registerContentObserver(WeatherEntry.CONTENT_URI, true,
+                    weatherObserver);
+            WeatherProvider.BatchResult result =
+                    provider.applyBatch(createLocationOperations(), batch);
+            weatherObserver.waitForNotificationOrFail();
+            mContext.getContentResolver().unregisterContentObserver(weatherObserver);
+            assertEquals(DAYS, result.counts.inserted);
+            assertEquals(2, result.results.length);
+            long locationRowId = ContentUris.parseId(result.results[0].uri);
+
+            Cursor cursor = mContext.getContentResolver().query(WeatherEntry.CONTENT_URI,
+                    new String[]{WeatherEntry.COLUMN_LOC_KEY}, null, null, null);
+            assertEquals(DAYS, cursor.getCount());
+            while (cursor.moveToNext()) {
+                assertEquals("Error: a day wasn't stored with its location",
+                        locationRowId, cursor.getLong(0));
+            }
+            cursor.close();
+
+            // The same sync again writes nothing and tells nobody
+            TestUtilities.TestContentObserver rootObserver =
+                    TestUtilities.getTestContentObserver();
+            mContext.getContentResolver().registerContentObserver(
+                    WeatherContract.BASE_CONTENT_URI, true, rootObserver);
+            result = provider.applyBatch(createLocationOperations(), batch);
+            rootObserver.assertNoNotification(500);
+            mContext.getContentResolver().unregisterContentObserver(rootObserver);
+            assertEquals(0, result.counts.getWritten());
+            assertEquals(DAYS, result.counts.unchanged);
+
+            // A reference to an operation that isn't a location fails the whole batch
+            mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+            mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+            batch.clear();
+            batch.add(5, TestUtilities.TEST_DATE, 800, "Clear", 75, 65, 40, 1013, 5.5, 180);
+            try {
+                provider.applyBatch(createLocationOperations(), batch);
+                fail("Error: a row without a location was applied");
+            } catch (OperationApplicationException expected) {
+                // expected
+            }
+            cursor = mContext.getContentResolver().query(LocationEntry.CONTENT_URI, null, null,
+                    null, null);
+            assertEquals("Error: a failed batch left its location behind", 0, cursor.getCount());
+            cursor.close();
+        } finally {
+            client.release();
+        }
+    }
+}
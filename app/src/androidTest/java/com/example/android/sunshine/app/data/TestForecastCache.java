@@ -0,0 +1,185 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentProviderClient;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.net.Uri;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+public class TestForecastCache extends AndroidTestCase {
+
+    static final String[] COLUMNS = {WeatherEntry.COLUMN_DATE, WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_SHORT_DESC};
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+    }
+
+    private static Cursor createCursor(int rows) {
+        MatrixCursor cursor = new MatrixCursor(COLUMNS);
+        for (int i = 0; i < rows; i++) {
+            cursor.addRow(new Object[]{(long) i, 75.5 + i, "Clear"});
+        }
+        return cursor;
+    }
+
+    private static ForecastCache.Key dayKey(String locationSetting, long date) {
+        return new ForecastCache.Key(WeatherProvider.WEATHER_WITH_LOCATION_AND_DATE,
+                locationSetting, date, COLUMNS, null);
+    }
+
+    private static ForecastCache.Key listKey(String locationSetting, long startDate) {
+        return new ForecastCache.Key(WeatherProvider.WEATHER_WITH_LOCATION, locationSetting,
+                startDate, COLUMNS, null);
+    }
+
+    public void testServesCopies() {
+        ForecastCache cache = new ForecastCache(ForecastCache.DEFAULT_MAX_ROWS);
+        assertNull(cache.get(listKey("99705", 0)));
+        cache.put(listKey("99705", 0), createCursor(3), cache.getGeneration());
+
+        // An equal key, not the same one
+        Cursor cursor = cache.get(listKey("99705", 0));
+        assertNotNull(cursor);
+        assertEquals(3, cursor.getCount());
+        assertTrue(cursor.moveToPosition(2));
+        assertEquals(2, cursor.getLong(0));
+        assertEquals(77.5, cursor.getDouble(1));
+        assertEquals("Clear", cursor.getString(2));
+        cursor.close();
+
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+    }
+
+    public void testInvalidatesOnlyWhatContainsTheDay() {
+        ForecastCache cache = new ForecastCache(ForecastCache.DEFAULT_MAX_ROWS);
+        long generation = cache.getGeneration();
+        cache.put(dayKey("99705", 5), createCursor(1), generation);
+        cache.put(dayKey("99705", 6), createCursor(1), generation);
+        cache.put(listKey("99705", 0), createCursor(3), generation);
+        cache.put(listKey("99705", 6), createCursor(3), generation);
+        cache.put(dayKey("94043", 5), createCursor(1), generation);
+
+        cache.invalidate("99705", 5);
+        assertNull("Error: the changed day is still cached", cache.get(dayKey("99705", 5)));
+        assertNull("Error: a list with the changed day is still cached",
+                cache.get(listKey("99705", 0)));
+        assertNotNull(cache.get(dayKey("99705", 6)));
+        assertNotNull(cache.get(listKey("99705", 6)));
+        assertNotNull(cache.get(dayKey("94043", 5)));
+        assertEquals(2, cache.getInvalidationCount());
+
+        cache.invalidate("99705");
+        assertNull(cache.get(dayKey("99705", 6)));
+        assertNotNull(cache.get(dayKey("94043", 5)));
+    }
+
+    public void testDropsResultsReadBeforeAnInvalidation() {
+        ForecastCache cache = new ForecastCache(ForecastCache.DEFAULT_MAX_ROWS);
+        long generation = cache.getGeneration();
+        // A write commits while the query is running
+        cache.invalidate("99705", 5);
+        cache.put(dayKey("99705", 5), createCursor(1), generation);
+        assertNull(cache.get(dayKey("99705", 5)));
+    }
+
+    public void testEvictsLeastRecentlyUsedRows() {
+        ForecastCache cache = new ForecastCache(10);
+        long generation = cache.getGeneration();
+        cache.put(listKey("1", 0), createCursor(4), generation);
+        cache.put(listKey("2", 0), createCursor(4), generation);
+        assertNotNull(cache.get(listKey("1", 0)));
+        cache.put(listKey("3", 0), createCursor(4), generation);
+
+        assertNull("Error: the least recently used entry wasn't evicted", cache.get(listKey("2", 0)));
+        assertNotNull(cache.get(listKey("1", 0)));
+        assertNotNull(cache.get(listKey("3", 0)));
+        assertEquals(1, cache.getEvictionCount());
+
+        // Too big to cache at all
+        cache.put(listKey("4", 0), createCursor(11), generation);
+        assertNull(cache.get(listKey("4", 0)));
+    }
+
+    private static void assertSameRows(Cursor expected, Cursor actual) {
+        assertEquals(expected.getCount(), actual.getCount());
+        assertEquals(expected.getColumnCount(), actual.getColumnCount());
+        while (expected.moveToNext()) {
+            assertTrue(actual.moveToNext());
+            for (int column = 0; column < expected.getColumnCount(); column++) {
+                assertEquals(expected.getType(column), actual.getType(column));
+                if (expected.getType(column) == Cursor.FIELD_TYPE_FLOAT) {
+                    assertEquals(expected.getDouble(column), actual.getDouble(column));
+                } else {
+                    assertEquals(expected.getString(column), actual.getString(column));
+                }
+            }
+        }
+    }
+
+    public void testProviderInvalidatesOnWrite() {
+        Uri locationUri = mContext.getContentResolver().insert(LocationEntry.CONTENT_URI,
+                TestUtilities.createNorthPoleLocationValues());
+        long locationRowId = ContentUris.parseId(locationUri);
+        ContentValues[] weatherValues = TestProvider.createBulkInsertWeatherValues(locationRowId);
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, weatherValues);
+
+        ContentProviderClient client = mContext.getContentResolver()
+                .acquireContentProviderClient(WeatherContract.CONTENT_AUTHORITY);
+        try {
+            WeatherProvider provider = (WeatherProvider) client.getLocalContentProvider();
+            ForecastCache cache = provider.getForecastCache();
+            Uri listUri = WeatherEntry.buildWeatherLocation(TestUtilities.TEST_LOCATION);
+
+            Cursor stored = mContext.getContentResolver().query(listUri, null, null, null,
+                    WeatherEntry.COLUMN_DATE + " ASC");
+            int hits = cache.getHitCount();
+            Cursor cursor = mContext.getContentResolver().query(listUri, null, null, null,
+                    WeatherEntry.COLUMN_DATE + " ASC");
+            assertEquals("Error: the same query wasn't served from the cache", hits + 1,
+                    cache.getHitCount());
+            assertEquals(weatherValues.length, cursor.getCount());
+            assertSameRows(stored, cursor);
+            stored.close();
+            cursor.close();
+
+            // Changing a day drops the list, and the next query sees the change
+            weatherValues[0].put(WeatherEntry.COLUMN_SHORT_DESC, "Meteors");
+            assertEquals(1, mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI,
+                    weatherValues));
+            cursor = mContext.getContentResolver().query(listUri, null, null, null,
+                    WeatherEntry.COLUMN_DATE + " ASC");
+            cursor.moveToFirst();
+            assertEquals("Meteors",
+                    cursor.getString(cursor.getColumnIndex(WeatherEntry.COLUMN_SHORT_DESC)));
+            cursor.close();
+            assertEquals(hits + 1, cache.getHitCount());
+        } finally {
+            client.release();
+        }
+    }
+}
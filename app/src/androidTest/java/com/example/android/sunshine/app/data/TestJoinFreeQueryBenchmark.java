@@ -0,0 +1,189 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentProviderClient;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.test.suitebuilder.annotation.LargeTest;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+/*
+    Benchmark: 500 locations with a year of days each, read through the provider once per
+    location with only weather columns and the location setting, which it answers from the
+    weather table alone, and again with the city name added, which needs the join.  Whole years
+    are more rows than the ForecastCache keeps, and it is cleared before the single days are
+    read, so every query goes to the database.  The timings go to the log under this class's
+    tag.  The year of days is a LargeTest that only BenchmarkSuite runs; testMatchesJoin checks
+    the join-free answer against a few days for three locations in the default suite.
+ */
+public class TestJoinFreeQueryBenchmark extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestJoinFreeQueryBenchmark.class.getSimpleName();
+
+    static final int LOCATIONS = 500;
+    static final int DAYS = 365;
+    static final long DAY_IN_MILLIS = 24 * 60 * 60 * 1000;
+
+    static final String[] WEATHER_COLUMNS = {
+            WeatherEntry.TABLE_NAME + "." + WeatherEntry._ID,
+            WeatherEntry.COLUMN_DATE,
+            WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherEntry.COLUMN_WEATHER_ID,
+            LocationEntry.COLUMN_LOCATION_SETTING
+    };
+
+    static final String[] JOINED_COLUMNS = {
+            WeatherEntry.TABLE_NAME + "." + WeatherEntry._ID,
+            WeatherEntry.COLUMN_DATE,
+            WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherEntry.COLUMN_WEATHER_ID,
+            LocationEntry.COLUMN_LOCATION_SETTING,
+            LocationEntry.COLUMN_CITY_NAME
+    };
+
+    private ContentProviderClient mClient;
+    private WeatherProvider mProvider;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+        mClient = mContext.getContentResolver()
+                .acquireContentProviderClient(WeatherContract.CONTENT_AUTHORITY);
+        mProvider = (WeatherProvider) mClient.getLocalContentProvider();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mClient.release();
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+        super.tearDown();
+    }
+
+    private static String locationSetting(int location) {
+        return "bench" + location;
+    }
+
+    private void insertLocations(int locations, int days) {
+        ForecastBatch batch = new ForecastBatch(locations * days);
+        for (int location = 0; location < locations; location++) {
+            ContentValues values = TestUtilities.createNorthPoleLocationValues();
+            values.put(LocationEntry.COLUMN_LOCATION_SETTING, locationSetting(location));
+            long locationId = ContentUris.parseId(mContext.getContentResolver().insert(
+                    LocationEntry.CONTENT_URI, values));
+            for (int day = 0; day < days; day++) {
+                batch.add(locationId, TestUtilities.TEST_DATE + day * DAY_IN_MILLIS,
+                        800 + day % 5, "Clear", 75 + location % 10, 65, 40, 1013, 5.5, 180);
+            }
+        }
+        assertEquals(locations * days, mProvider.bulkInsert(batch).inserted);
+    }
+
+    public void testMatchesJoin() {
+        insertLocations(3, 7);
+        Uri uri = WeatherEntry.buildWeatherLocationWithStartDate(locationSetting(1),
+                TestUtilities.TEST_DATE + 2 * DAY_IN_MILLIS);
+        Cursor joinFree = mContext.getContentResolver().query(uri, WEATHER_COLUMNS, null, null,
+                WeatherEntry.COLUMN_DATE + " ASC");
+        Cursor joined = mContext.getContentResolver().query(uri, JOINED_COLUMNS, null, null,
+                WeatherEntry.COLUMN_DATE + " ASC");
+        assertEquals(5, joinFree.getCount());
+        assertEquals(joined.getCount(), joinFree.getCount());
+        int settingIndex = joinFree.getColumnIndex(LocationEntry.COLUMN_LOCATION_SETTING);
+        assertEquals(WEATHER_COLUMNS.length - 1, settingIndex);
+        while (joined.moveToNext()) {
+            assertTrue(joinFree.moveToNext());
+            for (int column = 0; column < WEATHER_COLUMNS.length; column++) {
+                assertEquals(joined.getString(column), joinFree.getString(column));
+            }
+        }
+        joinFree.close();
+        joined.close();
+
+        // A location that isn't stored has no forecast either way
+        Cursor unknown = mContext.getContentResolver().query(
+                WeatherEntry.buildWeatherLocation("nowhere"), WEATHER_COLUMNS, null, null, null);
+        assertEquals(0, unknown.getCount());
+        unknown.close();
+
+        // Deleting the locations drops their cached ids along with them
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+        insertLocations(3, 7);
+        joinFree = mContext.getContentResolver().query(uri, WEATHER_COLUMNS, null, null, null);
+        assertEquals("Error: a stale location id was used", 5, joinFree.getCount());
+        joinFree.close();
+    }
+
+    @LargeTest
+    public void testYearOfDaysForFiveHundredLocations() {
+        insertLocations(LOCATIONS, DAYS);
+        // Both paths look every location up by its setting first, the first pass also caches
+        // the ids
+        long joinFreeMillis = readLists(WEATHER_COLUMNS);
+        long joinedMillis = readLists(JOINED_COLUMNS);
+        long joinFreeDayMillis = readDays(WEATHER_COLUMNS);
+        long joinedDayMillis = readDays(JOINED_COLUMNS);
+
+        Log.i(LOG_TAG, LOCATIONS + " locations x " + DAYS + " days: whole year join-free=" +
+                joinFreeMillis + "ms joined=" + joinedMillis + "ms; single day join-free=" +
+                joinFreeDayMillis + "ms joined=" + joinedDayMillis + "ms");
+    }
+
+    private long readLists(String[] projection) {
+        long start = SystemClock.elapsedRealtime();
+        for (int location = 0; location < LOCATIONS; location++) {
+            Cursor cursor = mContext.getContentResolver().query(
+                    WeatherEntry.buildWeatherLocation(locationSetting(location)), projection,
+                    null, null, WeatherEntry.COLUMN_DATE + " ASC");
+            // Counting fills the window, i.e. runs the whole query
+            assertEquals(DAYS, cursor.getCount());
+            cursor.close();
+        }
+        return SystemClock.elapsedRealtime() - start;
+    }
+
+    private long readDays(String[] projection) {
+        ForecastCache cache = mProvider.getForecastCache();
+        if (cache != null) {
+            cache.invalidateAll();
+        }
+        long start = SystemClock.elapsedRealtime();
+        for (int location = 0; location < LOCATIONS; location++) {
+            Cursor cursor = mContext.getContentResolver().query(
+                    WeatherEntry.buildWeatherLocationWithDate(locationSetting(location),
+                            TestUtilities.TEST_DATE + (location % DAYS) * DAY_IN_MILLIS),
+                    projection, null, null, null);
+            assertEquals(1, cursor.getCount());
+            cursor.close();
+        }
+        return SystemClock.elapsedRealtime() - start;
+    }
+}
@@ -16,8 +16,12 @@
 package com.example.android.sunshine.app.data;
 
 import android.content.ComponentName;
+import android.content.ContentProviderClient;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentUris;
 import android.content.ContentValues;
+import android.content.OperationApplicationException;
 import android.content.pm.PackageManager;
 import android.content.pm.ProviderInfo;
 import android.database.Cursor;
@@ -30,6 +34,8 @@ import android.util.Log;
 import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
 import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
 
+import java.util.ArrayList;
+
 /*
     Note: This is not a complete set of tests of the Sunshine ContentProvider, but it does test
     that at least the basic functionality has been implemented correctly.
@@ -56,6 +62,11 @@ public class TestProvider extends AndroidTestCase {
                 null,
                 null
         );
+        mContext.getContentResolver().delete(
+                WeatherContract.HistoryEntry.CONTENT_URI,
+                null,
+                null
+        );
         mContext.getContentResolver().delete(
                 LocationEntry.CONTENT_URI,
                 null,
@@ -512,4 +523,256 @@ public class TestProvider extends AndroidTestCase {
         }
         cursor.close();
     }
+
+    public void testBulkInsertSkipsUnchangedRows() {
+        ContentValues testValues = TestUtilities.createNorthPoleLocationValues();
+        Uri locationUri = mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, testValues);
+        long locationRowId = ContentUris.parseId(locationUri);
+
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI,
+                createBulkInsertWeatherValues(locationRowId));
+
+        // The same forecast again: nothing should be written and nobody told
+        TestUtilities.TestContentObserver weatherObserver = TestUtilities.getTestContentObserver();
+        mContext.getContentResolver().registerContentObserver(WeatherEntry.CONTENT_URI, true, weatherObserver);
+        int writeCount = mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI,
+                createBulkInsertWeatherValues(locationRowId));
+        weatherObserver.assertNoNotification(500);
+        mContext.getContentResolver().unregisterContentObserver(weatherObserver);
+        assertEquals("Error: unchanged rows were written again", 0, writeCount);
+
+        // One day changes: only that day is written, and only its URI is notified
+        ContentValues[] changedValues = createBulkInsertWeatherValues(locationRowId);
+        changedValues[3].put(WeatherEntry.COLUMN_SHORT_DESC, "Meteors");
+        long changedDate = changedValues[3].getAsLong(WeatherEntry.COLUMN_DATE);
+        String locationSetting = testValues.getAsString(LocationEntry.COLUMN_LOCATION_SETTING);
+
+        TestUtilities.TestContentObserver dayObserver = TestUtilities.getTestContentObserver();
+        mContext.getContentResolver().registerContentObserver(
+                WeatherEntry.buildWeatherLocationWithDate(locationSetting, changedDate), false, dayObserver);
+        TestUtilities.TestContentObserver otherDayObserver = TestUtilities.getTestContentObserver();
+        mContext.getContentResolver().registerContentObserver(
+                WeatherEntry.buildWeatherLocationWithDate(locationSetting,
+                        changedValues[4].getAsLong(WeatherEntry.COLUMN_DATE)), false, otherDayObserver);
+
+        writeCount = mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, changedValues);
+        dayObserver.waitForNotificationOrFail();
+        otherDayObserver.assertNoNotification(500);
+        mContext.getContentResolver().unregisterContentObserver(dayObserver);
+        mContext.getContentResolver().unregisterContentObserver(otherDayObserver);
+        assertEquals(1, writeCount);
+
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherEntry.buildWeatherLocationWithDate(locationSetting, changedDate),
+                null, null, null, null);
+        TestUtilities.validateCursor("testBulkInsertSkipsUnchangedRows. Error validating changed day.",
+                cursor, changedValues[3]);
+
+        cursor = mContext.getContentResolver().query(WeatherEntry.CONTENT_URI, null, null, null, null);
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT, cursor.getCount());
+        cursor.close();
+    }
+
+    // A sync's batch: upsert the location, its days with a back reference to it, then the prune
+    private static ArrayList<ContentProviderOperation> createSyncOperations() {
+        ArrayList<ContentProviderOperation> operations = new ArrayList<ContentProviderOperation>();
+        operations.add(ContentProviderOperation.newInsert(LocationEntry.CONTENT_URI)
+                .withValues(TestUtilities.createNorthPoleLocationValues())
+                .build());
+        for (ContentValues values : createBulkInsertWeatherValues(0)) {
+            values.remove(WeatherEntry.COLUMN_LOC_KEY);
+            operations.add(ContentProviderOperation.newInsert(WeatherEntry.CONTENT_URI)
+                    .withValues(values)
+                    .withValueBackReference(WeatherEntry.COLUMN_LOC_KEY, 0)
+                    .build());
+        }
+        // Nothing stored is that old, so the prune deletes nothing
+        operations.add(ContentProviderOperation.newDelete(WeatherEntry.CONTENT_URI)
+                .withSelection(WeatherEntry.COLUMN_DATE + " < ?", new String[]{"0"})
+                .build());
+        return operations;
+    }
+
+    public void testApplyBatch() throws Exception {
+        TestUtilities.TestContentObserver weatherObserver = TestUtilities.getTestContentObserver();
+        mContext.getContentResolver().registerContentObserver(WeatherEntry.CONTENT_URI, true, weatherObserver);
+        ContentProviderResult[] results = mContext.getContentResolver().applyBatch(
+                WeatherContract.CONTENT_AUTHORITY, createSyncOperations());
+        weatherObserver.waitForNotificationOrFail();
+        mContext.getContentResolver().unregisterContentObserver(weatherObserver);
+
+        long locationRowId = ContentUris.parseId(results[0].uri);
+        assertTrue(locationRowId > 0);
+        for (int i = 1; i <= BULK_INSERT_RECORDS_TO_INSERT; i++) {
+            assertFalse("Error: a new day came back as unchanged",
+                    WeatherEntry.CONTENT_URI.equals(results[i].uri));
+        }
+        assertEquals(0, results[results.length - 1].count.intValue());
+
+        Cursor cursor = mContext.getContentResolver().query(WeatherEntry.CONTENT_URI, null, null,
+                null, WeatherEntry.COLUMN_DATE + " ASC");
+        ContentValues[] expected = createBulkInsertWeatherValues(locationRowId);
+        assertEquals(expected.length, cursor.getCount());
+        cursor.moveToFirst();
+        for (int i = 0; i < expected.length; i++, cursor.moveToNext()) {
+            TestUtilities.validateCurrentRecord("testApplyBatch.  Error validating WeatherEntry " + i,
+                    cursor, expected[i]);
+        }
+        cursor.close();
+
+        // The same sync again: the location comes back as the stored row, no day is written
+        // and nobody is told
+        TestUtilities.TestContentObserver rootObserver = TestUtilities.getTestContentObserver();
+        mContext.getContentResolver().registerContentObserver(
+                WeatherContract.BASE_CONTENT_URI, true, rootObserver);
+        results = mContext.getContentResolver().applyBatch(
+                WeatherContract.CONTENT_AUTHORITY, createSyncOperations());
+        rootObserver.assertNoNotification(500);
+        mContext.getContentResolver().unregisterContentObserver(rootObserver);
+        assertEquals(locationRowId, ContentUris.parseId(results[0].uri));
+        for (int i = 1; i <= BULK_INSERT_RECORDS_TO_INSERT; i++) {
+            assertEquals(WeatherEntry.CONTENT_URI, results[i].uri);
+        }
+    }
+
+    public void testApplyBatchRollsBack() throws Exception {
+        ArrayList<ContentProviderOperation> operations = createSyncOperations();
+        // Fails after everything else has been applied
+        operations.add(ContentProviderOperation.newUpdate(LocationEntry.CONTENT_URI)
+                .withSelection(LocationEntry.COLUMN_LOCATION_SETTING + " = ?",
+                        new String[]{"nowhere"})
+                .withValue(LocationEntry.COLUMN_CITY_NAME, "Nowhere")
+                .withExpectedCount(1)
+                .build());
+
+        TestUtilities.TestContentObserver rootObserver = TestUtilities.getTestContentObserver();
+        mContext.getContentResolver().registerContentObserver(
+                WeatherContract.BASE_CONTENT_URI, true, rootObserver);
+        try {
+            mContext.getContentResolver().applyBatch(WeatherContract.CONTENT_AUTHORITY, operations);
+            fail("Error: the batch should have failed");
+        } catch (OperationApplicationException expected) {
+            // expected
+        }
+        rootObserver.assertNoNotification(500);
+        mContext.getContentResolver().unregisterContentObserver(rootObserver);
+
+        Cursor cursor = mContext.getContentResolver().query(LocationEntry.CONTENT_URI, null, null,
+                null, null);
+        assertEquals("Error: a failed batch left its location behind", 0, cursor.getCount());
+        cursor.close();
+        cursor = mContext.getContentResolver().query(WeatherEntry.CONTENT_URI, null, null, null,
+                null);
+        assertEquals("Error: a failed batch left its days behind", 0, cursor.getCount());
+        cursor.close();
+    }
+
+    public void testKnownLocationsSkipTheLocationTable() throws Exception {
+        ContentProviderClient client = mContext.getContentResolver()
+                .acquireContentProviderClient(WeatherContract.CONTENT_AUTHORITY);
+        try {
+            LocationIdCache cache =
+                    ((WeatherProvider) client.getLocalContentProvider()).getLocationIdCache();
+            ContentProviderResult[] results = mContext.getContentResolver().applyBatch(
+                    WeatherContract.CONTENT_AUTHORITY, createSyncOperations());
+            long locationRowId = ContentUris.parseId(results[0].uri);
+
+            // The sync's status update leaves the cached id alone, the next sync finds it there
+            ContentValues status = new ContentValues();
+            status.put(LocationEntry.COLUMN_SYNC_STATUS, 1);
+            mContext.getContentResolver().update(LocationEntry.CONTENT_URI, status, null, null);
+            int misses = cache.getMissCount();
+            int hits = cache.getHitCount();
+            results = mContext.getContentResolver().applyBatch(
+                    WeatherContract.CONTENT_AUTHORITY, createSyncOperations());
+            assertEquals(locationRowId, ContentUris.parseId(results[0].uri));
+            assertEquals("Error: a known location was looked up in the table", misses,
+                    cache.getMissCount());
+            assertEquals(hits + 1, cache.getHitCount());
+
+            // Renaming the location drops the cache, the old setting is a new location now
+            ContentValues setting = new ContentValues();
+            setting.put(LocationEntry.COLUMN_LOCATION_SETTING, "renamed");
+            mContext.getContentResolver().update(LocationEntry.CONTENT_URI, setting, null, null);
+            Uri locationUri = mContext.getContentResolver().insert(LocationEntry.CONTENT_URI,
+                    TestUtilities.createNorthPoleLocationValues());
+            assertTrue("Error: the renamed location's id was reused",
+                    ContentUris.parseId(locationUri) != locationRowId);
+            assertEquals(locationUri, mContext.getContentResolver().insert(
+                    LocationEntry.CONTENT_URI, TestUtilities.createNorthPoleLocationValues()));
+            Cursor cursor = mContext.getContentResolver().query(
+                    WeatherEntry.buildWeatherLocation("renamed"),
+                    new String[]{WeatherEntry.COLUMN_DATE}, null, null, null);
+            assertEquals(BULK_INSERT_RECORDS_TO_INSERT, cursor.getCount());
+            cursor.close();
+        } finally {
+            client.release();
+        }
+    }
+
+    public void testWritesNotifyOnlyTouchedDays() {
+        ContentValues testValues = TestUtilities.createNorthPoleLocationValues();
+        Uri locationUri = mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, testValues);
+        long locationRowId = ContentUris.parseId(locationUri);
+        ContentValues[] weatherValues = createBulkInsertWeatherValues(locationRowId);
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, weatherValues);
+        String locationSetting = testValues.getAsString(LocationEntry.COLUMN_LOCATION_SETTING);
+
+        Cursor cursor = mContext.getContentResolver().query(WeatherEntry.CONTENT_URI,
+                new String[]{WeatherEntry.COLUMN_DATE}, null, null, WeatherEntry.COLUMN_DATE + " ASC");
+        assertTrue(cursor.moveToPosition(2));
+        long touchedDate = cursor.getLong(0);
+        assertTrue(cursor.moveToNext());
+        long otherDate = cursor.getLong(0);
+        cursor.close();
+
+        // The forecast list, the touched day's detail, another day's detail and another location
+        TestUtilities.TestContentObserver listObserver = TestUtilities.getTestContentObserver();
+        mContext.getContentResolver().registerContentObserver(
+                WeatherEntry.buildWeatherLocation(locationSetting), true, listObserver);
+        TestUtilities.TestContentObserver dayObserver = TestUtilities.getTestContentObserver();
+        mContext.getContentResolver().registerContentObserver(
+                WeatherEntry.buildWeatherLocationWithDate(locationSetting, touchedDate), true,
+                dayObserver);
+        TestUtilities.TestContentObserver otherDayObserver = TestUtilities.getTestContentObserver();
+        mContext.getContentResolver().registerContentObserver(
+                WeatherEntry.buildWeatherLocationWithDate(locationSetting, otherDate), true,
+                otherDayObserver);
+        TestUtilities.TestContentObserver otherLocationObserver = TestUtilities.getTestContentObserver();
+        mContext.getContentResolver().registerContentObserver(
+                WeatherEntry.buildWeatherLocation("94043"), true, otherLocationObserver);
+
+        ContentValues updatedValues = new ContentValues();
+        updatedValues.put(WeatherEntry.COLUMN_SHORT_DESC, "Meteors");
+        int updated = mContext.getContentResolver().update(WeatherEntry.CONTENT_URI,
+                updatedValues, WeatherEntry.COLUMN_DATE + " = ?",
+                new String[]{Long.toString(touchedDate)});
+        assertEquals(1, updated);
+
+        listObserver.waitForNotificationOrFail();
+        dayObserver.waitForNotificationOrFail();
+        otherDayObserver.assertNoNotification(500);
+        otherLocationObserver.assertNoNotification(0);
+        mContext.getContentResolver().unregisterContentObserver(listObserver);
+        mContext.getContentResolver().unregisterContentObserver(dayObserver);
+        mContext.getContentResolver().unregisterContentObserver(otherDayObserver);
+        mContext.getContentResolver().unregisterContentObserver(otherLocationObserver);
+
+        // Same for a delete
+        dayObserver = TestUtilities.getTestContentObserver();
+        mContext.getContentResolver().registerContentObserver(
+                WeatherEntry.buildWeatherLocationWithDate(locationSetting, touchedDate), true,
+                dayObserver);
+        otherDayObserver = TestUtilities.getTestContentObserver();
+        mContext.getContentResolver().registerContentObserver(
+                WeatherEntry.buildWeatherLocationWithDate(locationSetting, otherDate), true,
+                otherDayObserver);
+        int deleted = mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI,
+                WeatherEntry.COLUMN_DATE + " = ?", new String[]{Long.toString(touchedDate)});
+        assertEquals(1, deleted);
+        dayObserver.waitForNotificationOrFail();
+        otherDayObserver.assertNoNotification(500);
+        mContext.getContentResolver().unregisterContentObserver(dayObserver);
+        mContext.getContentResolver().unregisterContentObserver(otherDayObserver);
+    }
 }
@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteQueryBuilder;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+/*
+    Runs EXPLAIN QUERY PLAN over every keyed query the provider and the sync make, and fails if
+    SQLite would answer any of them by scanning a whole table.  The plain "weather" and
+    "location" URIs with no selection read the whole table by design and aren't checked.
+ */
+public class TestQueryPlans extends AndroidTestCase {
+
+    private WeatherDbHelper mDbHelper;
+    private SQLiteDatabase mDb;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+        mDbHelper = new WeatherDbHelper(mContext);
+        mDb = mDbHelper.getWritableDatabase();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mDbHelper.close();
+        super.tearDown();
+    }
+
+    private void assertNoTableScan(String sql, String... args) {
+        Cursor plan = mDb.rawQuery("EXPLAIN QUERY PLAN " + sql, args);
+        try {
+            assertTrue("Error: no plan for " + sql, plan.moveToFirst());
+            int detailIndex = plan.getColumnIndex("detail");
+            StringBuilder details = new StringBuilder();
+            boolean scans = false;
+            do {
+                String detail = plan.getString(detailIndex);
+                details.append(detail).append("; ");
+                // "SCAN TABLE x" before SQLite 3.36, "SCAN x" after, with "USING COVERING
+                // INDEX" when it at least reads an index instead; either way every row
+                scans |= detail.startsWith("SCAN ");
+            } while (plan.moveToNext());
+            assertFalse("Error: full table scan for " + sql + ": " + details, scans);
+        } finally {
+            plan.close();
+        }
+    }
+
+    private static String weatherByLocationSetting(String selection) {
+        return WeatherProvider.sWeatherByLocationSettingQueryBuilder.buildQuery(null, selection,
+                null, null, WeatherEntry.COLUMN_DATE + " ASC", null);
+    }
+
+    private static String weatherByLocationId(String selection) {
+        return SQLiteQueryBuilder.buildQueryString(false, WeatherEntry.TABLE_NAME, null,
+                selection, null, null, WeatherEntry.COLUMN_DATE + " ASC", null);
+    }
+
+    public void testWeatherQueries() {
+        // weather/*
+        assertNoTableScan(weatherByLocationSetting(WeatherProvider.sLocationSettingSelection),
+                TestUtilities.TEST_LOCATION);
+        // weather/*?date=
+        assertNoTableScan(
+                weatherByLocationSetting(WeatherProvider.sLocationSettingWithStartDateSelection),
+                TestUtilities.TEST_LOCATION, Long.toString(TestUtilities.TEST_DATE));
+        // weather/*/#
+        assertNoTableScan(weatherByLocationSetting(WeatherProvider.sLocationSettingAndDaySelection),
+                TestUtilities.TEST_LOCATION, Long.toString(TestUtilities.TEST_DATE));
+        // The same, for projections without the joined location columns
+        assertNoTableScan(weatherByLocationId(WeatherProvider.sLocationIdSelection), "1");
+        assertNoTableScan(weatherByLocationId(WeatherProvider.sLocationIdWithStartDateSelection),
+                "1", Long.toString(TestUtilities.TEST_DATE));
+        assertNoTableScan(weatherByLocationId(WeatherProvider.sLocationIdAndDateSelection),
+                "1", Long.toString(TestUtilities.TEST_DATE));
+    }
+
+    public void testWeatherWrites() {
+        // The bulk insert's stored hash lookup and in-place update
+        assertNoTableScan(WeatherProvider.sStoredContentHashQuery, "1",
+                Long.toString(TestUtilities.TEST_DATE));
+        assertNoTableScan(WeatherProvider.sForecastUpdateStatement, "800", "Clear", "75", "65",
+                "40", "1013", "5.5", "180", "1", "1", Long.toString(TestUtilities.TEST_DATE), "1");
+        assertNoTableScan("UPDATE " + WeatherEntry.TABLE_NAME + " SET " +
+                        WeatherEntry.COLUMN_SHORT_DESC + " = ? WHERE " +
+                        WeatherProvider.sLocationIdAndDateSelection,
+                "Asteroids", "1", Long.toString(TestUtilities.TEST_DATE));
+        // The sync's prune of past days
+        assertNoTableScan("DELETE FROM " + WeatherEntry.TABLE_NAME + " WHERE " +
+                WeatherEntry.COLUMN_DATE + " <= ?", Long.toString(TestUtilities.TEST_DATE));
+    }
+
+    public void testHistoryQueries() {
+        // history/*
+        assertNoTableScan(SQLiteQueryBuilder.buildQueryString(false,
+                WeatherContract.HistoryEntry.TABLE_NAME, null, WeatherHistory.sHistoryRangeSelection,
+                null, null, WeatherContract.HistoryEntry.COLUMN_DATE + " ASC", null),
+                "1", "0", Long.toString(Long.MAX_VALUE));
+        // history/*/*
+        assertNoTableScan(SQLiteQueryBuilder.buildQueryString(false,
+                WeatherContract.HistoryRollupEntry.TABLE_NAME, null,
+                WeatherHistory.sRollupRangeSelection, null, null,
+                WeatherContract.HistoryRollupEntry.COLUMN_START_DATE + " ASC", null),
+                "1", WeatherContract.HistoryRollupEntry.PERIOD_WEEK, "0",
+                Long.toString(Long.MAX_VALUE));
+        // Rolling a period up
+        assertNoTableScan(WeatherHistory.sRollupQuery, "1", "0", Long.toString(Long.MAX_VALUE));
+        assertNoTableScan(WeatherHistory.sDominantWeatherQuery, "1", "0",
+                Long.toString(Long.MAX_VALUE));
+        // Expiring archived days
+        assertNoTableScan("DELETE FROM " + WeatherContract.HistoryEntry.TABLE_NAME + " WHERE " +
+                WeatherHistory.sExpiredSelection, Long.toString(TestUtilities.TEST_DATE));
+    }
+
+    public void testLocationQueries() {
+        // The location upsert's lookup after an ignored insert
+        assertNoTableScan(WeatherProvider.sLocationIdQuery, TestUtilities.TEST_LOCATION);
+        // The provider's change notifications
+        assertNoTableScan("SELECT " + LocationEntry.COLUMN_LOCATION_SETTING + " FROM " +
+                LocationEntry.TABLE_NAME + " WHERE " + LocationEntry._ID + " = ?", "1");
+        // The sync's status updates
+        assertNoTableScan("UPDATE " + LocationEntry.TABLE_NAME + " SET " +
+                        LocationEntry.COLUMN_SYNC_STATUS + " = ? WHERE " +
+                        LocationEntry.COLUMN_LOCATION_SETTING + " = ? AND " +
+                        LocationEntry.COLUMN_SYNC_STATUS + " != ?",
+                "0", TestUtilities.TEST_LOCATION, "0");
+    }
+}
@@ -0,0 +1,181 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Build;
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/*
+    Benchmark: READERS threads run the forecast list query while one thread keeps rewriting the
+    forecast in big transactions, first with the old rollback journal and then with write-ahead
+    logging.  The readers' p50/p99 latencies for both go to the log under this class's tag.
+ */
+public class TestReadContention extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestReadContention.class.getSimpleName();
+
+    static final int READERS = 4;
+    static final int DAYS = 14;
+    // Enough rows per transaction that a commit takes a noticeable while
+    static final int ROWS_PER_TRANSACTION = 2000;
+    static final long RUN_MILLIS = 3000;
+
+    static final String ROLLBACK_DATABASE = "contention_rollback.db";
+    static final String WAL_DATABASE = "contention_wal.db";
+
+    @Override
+    protected void tearDown() throws Exception {
+        mContext.deleteDatabase(ROLLBACK_DATABASE);
+        mContext.deleteDatabase(WAL_DATABASE);
+        super.tearDown();
+    }
+
+    public void testReadLatencyDuringSync() throws Exception {
+        long[] rollback = run(ROLLBACK_DATABASE, false);
+        long[] wal = run(WAL_DATABASE, true);
+        Log.i(LOG_TAG, READERS + " readers, " + ROWS_PER_TRANSACTION + " rows per write: " +
+                "rollback journal p50=" + percentileMicros(rollback, 50) + "us p99=" +
+                percentileMicros(rollback, 99) + "us (" + rollback.length + " queries), " +
+                "WAL p50=" + percentileMicros(wal, 50) + "us p99=" + percentileMicros(wal, 99) +
+                "us (" + wal.length + " queries)");
+    }
+
+    /**
+     * @return every reader query's latency in nanoseconds, sorted.
+     */
+    private long[] run(String databaseName, boolean writeAheadLogging) throws Exception {
+        mContext.deleteDatabase(databaseName);
+        WeatherDbHelper dbHelper = new WeatherDbHelper(mContext, databaseName, writeAheadLogging);
+        final SQLiteDatabase db = dbHelper.getWritableDatabase();
+        if (writeAheadLogging && Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+            Cursor journal = db.rawQuery("PRAGMA journal_mode", null);
+            assertTrue(journal.moveToFirst());
+            assertEquals("wal", journal.getString(0).toLowerCase());
+            journal.close();
+        }
+
+        final long locationId = db.insert(LocationEntry.TABLE_NAME, null,
+                TestUtilities.createNorthPoleLocationValues());
+        // Another location's rows make the writes big without growing what the readers read
+        final long otherLocationId = db.insert(LocationEntry.TABLE_NAME, null,
+                otherLocationValues());
+        writeForecast(db, locationId, otherLocationId, 0);
+
+        final AtomicBoolean running = new AtomicBoolean(true);
+        Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                int round = 1;
+                while (running.get()) {
+                    writeForecast(db, locationId, otherLocationId, round++);
+                }
+            }
+        });
+
+        final long[][] latencies = new long[READERS][];
+        final CountDownLatch done = new CountDownLatch(READERS);
+        final String sql = WeatherProvider.sWeatherByLocationSettingQueryBuilder.buildQuery(null,
+                WeatherProvider.sLocationSettingSelection, null, null,
+                WeatherEntry.COLUMN_DATE + " ASC", null);
+        final long end = SystemClock.elapsedRealtime() + RUN_MILLIS;
+        writer.start();
+        for (int i = 0; i < READERS; i++) {
+            final int reader = i;
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    long[] samples = new long[1024];
+                    int count = 0;
+                    while (SystemClock.elapsedRealtime() < end) {
+                        long start = System.nanoTime();
+                        Cursor cursor = db.rawQuery(sql,
+                                new String[]{TestUtilities.TEST_LOCATION});
+                        // Reading the count fills the window, which is where the wait is
+                        cursor.getCount();
+                        cursor.close();
+                        if (count == samples.length) {
+                            samples = Arrays.copyOf(samples, count * 2);
+                        }
+                        samples[count++] = System.nanoTime() - start;
+                    }
+                    latencies[reader] = Arrays.copyOf(samples, count);
+                    done.countDown();
+                }
+            }).start();
+        }
+        done.await();
+        running.set(false);
+        writer.join();
+        dbHelper.close();
+
+        int total = 0;
+        for (long[] samples : latencies) {
+            total += samples.length;
+        }
+        long[] all = new long[total];
+        int offset = 0;
+        for (long[] samples : latencies) {
+            System.arraycopy(samples, 0, all, offset, samples.length);
+            offset += samples.length;
+        }
+        Arrays.sort(all);
+        assertTrue("Error: no reads completed", all.length > 0);
+        return all;
+    }
+
+    private static void writeForecast(SQLiteDatabase db, long locationId, long otherLocationId,
+                                      int round) {
+        ContentValues values = TestUtilities.createWeatherValues(locationId);
+        db.beginTransaction();
+        try {
+            for (int row = 0; row < ROWS_PER_TRANSACTION; row++) {
+                boolean forecast = row < DAYS;
+                values.put(WeatherEntry.COLUMN_LOC_KEY, forecast ? locationId : otherLocationId);
+                values.put(WeatherEntry.COLUMN_DATE, TestUtilities.TEST_DATE + row);
+                values.put(WeatherEntry.COLUMN_MAX_TEMP, 75 + round % 10);
+                db.insert(WeatherEntry.TABLE_NAME, null, values);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    private static ContentValues otherLocationValues() {
+        ContentValues values = TestUtilities.createNorthPoleLocationValues();
+        values.put(LocationEntry.COLUMN_LOCATION_SETTING, "94043");
+        values.put(LocationEntry.COLUMN_CITY_NAME, "Mountain View");
+        return values;
+    }
+
+    private static long percentileMicros(long[] sortedNanos, int percent) {
+        int index = (int) Math.min(sortedNanos.length - 1,
+                ((long) sortedNanos.length * percent + 99) / 100 - 1);
+        return sortedNanos[Math.max(0, index)] / 1000;
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.os.Bundle;
+import android.os.Debug;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+/*
+    Benchmark: reads today's forecast the way the widgets, Muzei, the watch and the notification
+    used to, a query for the location's days from today on, and through the provider's
+    todaySummary call.  The time and allocations per read go to the log under this class's tag.
+ */
+public class TestTodaySummaryBenchmark extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestTodaySummaryBenchmark.class.getSimpleName();
+
+    static final int READS = 500;
+    static final int DAYS = 14;
+    static final long DAY_IN_MILLIS = 24 * 60 * 60 * 1000;
+
+    static final String[] SUMMARY_COLUMNS = {
+            WeatherEntry.COLUMN_DATE,
+            WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_MIN_TEMP
+    };
+
+    private long mToday;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        ContentResolver resolver = mContext.getContentResolver();
+        resolver.delete(WeatherEntry.CONTENT_URI, null, null);
+        resolver.delete(LocationEntry.CONTENT_URI, null, null);
+
+        long locationRowId = ContentUris.parseId(resolver.insert(LocationEntry.CONTENT_URI,
+                TestUtilities.createNorthPoleLocationValues()));
+        mToday = WeatherContract.normalizeDate(System.currentTimeMillis());
+        ContentValues[] values = new ContentValues[DAYS];
+        // Yesterday first, which the summary has to skip
+        for (int i = 0; i < DAYS; i++) {
+            values[i] = TestUtilities.createWeatherValues(locationRowId);
+            values[i].put(WeatherEntry.COLUMN_DATE, mToday + (i - 1) * DAY_IN_MILLIS);
+            values[i].put(WeatherEntry.COLUMN_WEATHER_ID, 800 + i);
+        }
+        assertEquals(DAYS, resolver.bulkInsert(WeatherEntry.CONTENT_URI, values));
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+        super.tearDown();
+    }
+
+    private Bundle callSummary() {
+        return mContext.getContentResolver().call(WeatherContract.BASE_CONTENT_URI,
+                WeatherContract.METHOD_TODAY_SUMMARY, TestUtilities.TEST_LOCATION, null);
+    }
+
+    private int querySummary() {
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherEntry.buildWeatherLocationWithStartDate(TestUtilities.TEST_LOCATION,
+                        System.currentTimeMillis()),
+                SUMMARY_COLUMNS, null, null, WeatherEntry.COLUMN_DATE + " ASC");
+        try {
+            assertTrue(cursor.moveToFirst());
+            return cursor.getInt(1);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    public void testSummaryMatchesQuery() {
+        Bundle summary = callSummary();
+        assertNotNull("Error: no summary for today", summary);
+        assertEquals(mToday, summary.getLong(WeatherEntry.COLUMN_DATE));
+        assertEquals(801, summary.getInt(WeatherEntry.COLUMN_WEATHER_ID));
+        assertEquals(querySummary(), summary.getInt(WeatherEntry.COLUMN_WEATHER_ID));
+        assertEquals("Asteroids", summary.getString(WeatherEntry.COLUMN_SHORT_DESC));
+        assertEquals(75.0, summary.getDouble(WeatherEntry.COLUMN_MAX_TEMP));
+        assertEquals(65.0, summary.getDouble(WeatherEntry.COLUMN_MIN_TEMP));
+
+        // An explicit start date
+        Bundle extras = new Bundle();
+        extras.putLong(WeatherEntry.COLUMN_DATE, mToday + 3 * DAY_IN_MILLIS);
+        summary = mContext.getContentResolver().call(WeatherContract.BASE_CONTENT_URI,
+                WeatherContract.METHOD_TODAY_SUMMARY, TestUtilities.TEST_LOCATION, extras);
+        assertEquals(804, summary.getInt(WeatherEntry.COLUMN_WEATHER_ID));
+
+        assertNull("Error: a summary for a location with no forecast",
+                mContext.getContentResolver().call(WeatherContract.BASE_CONTENT_URI,
+                        WeatherContract.METHOD_TODAY_SUMMARY, "nowhere", null));
+    }
+
+    @SuppressWarnings("deprecation")
+    public void testCallAgainstQuery() {
+        // Warm up both paths, and the provider's cache for the query
+        querySummary();
+        callSummary();
+
+        Debug.resetThreadAllocCount();
+        Debug.resetThreadAllocSize();
+        Debug.startAllocCounting();
+        long start = System.nanoTime();
+        for (int i = 0; i < READS; i++) {
+            querySummary();
+        }
+        long queryNanos = System.nanoTime() - start;
+        Debug.stopAllocCounting();
+        int queryAllocs = Debug.getThreadAllocCount();
+        int queryBytes = Debug.getThreadAllocSize();
+
+        Debug.resetThreadAllocCount();
+        Debug.resetThreadAllocSize();
+        Debug.startAllocCounting();
+        start = System.nanoTime();
+        for (int i = 0; i < READS; i++) {
+            assertNotNull(callSummary());
+        }
+        long callNanos = System.nanoTime() - start;
+        Debug.stopAllocCounting();
+        int callAllocs = Debug.getThreadAllocCount();
+        int callBytes = Debug.getThreadAllocSize();
+
+        Log.i(LOG_TAG, "Per read: query=" + queryNanos / READS / 1000 + "us, "
+                + queryAllocs / READS + " allocations, " + queryBytes / READS + " bytes; call="
+                + callNanos / READS / 1000 + "us, " + callAllocs / READS + " allocations, "
+                + callBytes / READS + " bytes");
+    }
+}
@@ -158,6 +158,16 @@ public class TestUtilities extends AndroidTestCase {
             }.run();
             mHT.quit();
         }
+
+        public void assertNoNotification(long waitMillis) {
+            try {
+                Thread.sleep(waitMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            assertFalse("Error: Unexpected change notification", mContentChanged);
+            mHT.quit();
+        }
     }
 
     static TestContentObserver getTestContentObserver() {
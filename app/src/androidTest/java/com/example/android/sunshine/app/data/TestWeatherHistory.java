@@ -0,0 +1,206 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.WeatherContract.HistoryEntry;
+import com.example.android.sunshine.app.data.WeatherContract.HistoryRollupEntry;
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.Calendar;
+import java.util.Locale;
+
+public class TestWeatherHistory extends AndroidTestCase {
+
+    static final long DAY_IN_MILLIS = 24 * 60 * 60 * 1000;
+    static final int RETENTION_DAYS = 92;
+
+    private long mToday;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(HistoryEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+        mToday = WeatherContract.normalizeDate(System.currentTimeMillis());
+    }
+
+    /**
+     * Stores a day for every offset from today, with its offset as the high and its negation as
+     * the low.
+     */
+    private long insertDays(int... offsets) {
+        long locationRowId = ContentUris.parseId(mContext.getContentResolver().insert(
+                LocationEntry.CONTENT_URI, TestUtilities.createNorthPoleLocationValues()));
+        ContentValues[] values = new ContentValues[offsets.length];
+        for (int i = 0; i < offsets.length; i++) {
+            values[i] = TestUtilities.createWeatherValues(locationRowId);
+            values[i].put(WeatherEntry.COLUMN_DATE, mToday + offsets[i] * DAY_IN_MILLIS);
+            values[i].put(WeatherEntry.COLUMN_MAX_TEMP, offsets[i]);
+            values[i].put(WeatherEntry.COLUMN_MIN_TEMP, -offsets[i]);
+            values[i].put(WeatherEntry.COLUMN_WEATHER_ID, offsets[i] < -2 ? 800 : 500);
+        }
+        assertEquals(offsets.length,
+                mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, values));
+        return locationRowId;
+    }
+
+    private int archiveBefore(long date) {
+        return mContext.getContentResolver().delete(WeatherEntry.buildArchiveUri(RETENTION_DAYS),
+                WeatherEntry.COLUMN_DATE + " < ?", new String[]{Long.toString(date)});
+    }
+
+    public void testArchivesExpiredDays() {
+        insertDays(-3, -2, -1, 0, 1);
+
+        TestUtilities.TestContentObserver historyObserver = TestUtilities.getTestContentObserver();
+        mContext.getContentResolver().registerContentObserver(HistoryEntry.CONTENT_URI, true,
+                historyObserver);
+        assertEquals(3, archiveBefore(mToday));
+        historyObserver.waitForNotificationOrFail();
+        mContext.getContentResolver().unregisterContentObserver(historyObserver);
+
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherEntry.buildWeatherLocation(TestUtilities.TEST_LOCATION),
+                new String[]{WeatherEntry.COLUMN_DATE}, null, null, null);
+        assertEquals("Error: archived days are still in the forecast", 2, cursor.getCount());
+        cursor.close();
+
+        cursor = mContext.getContentResolver().query(
+                HistoryEntry.buildHistoryLocation(TestUtilities.TEST_LOCATION,
+                        mToday - 2 * DAY_IN_MILLIS, mToday),
+                new String[]{HistoryEntry.COLUMN_DATE, HistoryEntry.COLUMN_MAX_TEMP,
+                        HistoryEntry.COLUMN_SHORT_DESC},
+                null, null, null);
+        assertEquals("Error: the range didn't bound the archived days", 2, cursor.getCount());
+        cursor.moveToFirst();
+        assertEquals(mToday - 2 * DAY_IN_MILLIS, cursor.getLong(0));
+        assertEquals(-2.0, cursor.getDouble(1));
+        assertEquals("Asteroids", cursor.getString(2));
+        cursor.close();
+
+        // Archiving nothing changes nothing
+        assertEquals(0, archiveBefore(mToday));
+    }
+
+    public void testRollsUpWeeksAndMonths() {
+        insertDays(-3, -2, -1);
+        archiveBefore(mToday);
+
+        Calendar calendar = Calendar.getInstance();
+        for (String period : new String[]{HistoryRollupEntry.PERIOD_WEEK,
+                HistoryRollupEntry.PERIOD_MONTH}) {
+            Cursor cursor = mContext.getContentResolver().query(
+                    HistoryEntry.buildHistoryRollup(TestUtilities.TEST_LOCATION, period, 0,
+                            Long.MAX_VALUE),
+                    new String[]{HistoryRollupEntry.COLUMN_START_DATE,
+                            HistoryRollupEntry.COLUMN_DAYS, HistoryRollupEntry.COLUMN_MIN_TEMP,
+                            HistoryRollupEntry.COLUMN_MAX_TEMP,
+                            HistoryRollupEntry.COLUMN_MEAN_TEMP,
+                            HistoryRollupEntry.COLUMN_WEATHER_ID},
+                    null, null, null);
+            // The three days may straddle the start of a period
+            int days = 0;
+            double min = Double.MAX_VALUE;
+            while (cursor.moveToNext()) {
+                long startDate = cursor.getLong(0);
+                assertEquals("Error: a " + period + " doesn't start on its first day",
+                        WeatherHistory.getPeriodStart(calendar, period, startDate), startDate);
+                days += cursor.getInt(1);
+                min = Math.min(min, cursor.getDouble(2));
+                assertTrue(cursor.getDouble(3) <= -1.0);
+                // Every day's midpoint is 0
+                assertEquals(0.0, cursor.getDouble(4));
+            }
+            assertTrue(cursor.getCount() >= 1);
+            assertEquals("Error: not every archived day went into a " + period, 3, days);
+            assertEquals(1.0, min);
+            cursor.close();
+        }
+
+        // A single period: the weather most of its days had
+        long weekStart = WeatherHistory.getPeriodStart(calendar, HistoryRollupEntry.PERIOD_WEEK,
+                mToday - 2 * DAY_IN_MILLIS);
+        Cursor cursor = mContext.getContentResolver().query(
+                HistoryEntry.buildHistoryRollup(TestUtilities.TEST_LOCATION,
+                        HistoryRollupEntry.PERIOD_WEEK, weekStart, weekStart + 1),
+                new String[]{HistoryRollupEntry.COLUMN_DAYS, HistoryRollupEntry.COLUMN_WEATHER_ID},
+                null, null, null);
+        assertTrue(cursor.moveToFirst());
+        if (cursor.getInt(0) >= 2) {
+            // -2 and -1 are in it, both 500
+            assertEquals(500, cursor.getInt(1));
+        }
+        cursor.close();
+    }
+
+    public void testWeeksStartOnMonday() {
+        // The US starts its weeks on Sunday, the rollups mustn't
+        Calendar calendar = Calendar.getInstance(Locale.US);
+        assertEquals(Calendar.SUNDAY, calendar.getFirstDayOfWeek());
+        for (int day = 0; day < 14; day++) {
+            long date = mToday - day * DAY_IN_MILLIS;
+            long weekStart = WeatherHistory.getPeriodStart(calendar,
+                    HistoryRollupEntry.PERIOD_WEEK, date);
+            assertTrue(weekStart <= date);
+            assertTrue(date < WeatherHistory.getPeriodEnd(calendar,
+                    HistoryRollupEntry.PERIOD_WEEK, weekStart));
+            calendar.setTimeInMillis(weekStart);
+            assertEquals("Error: a week started on day " + calendar.get(Calendar.DAY_OF_WEEK),
+                    Calendar.MONDAY, calendar.get(Calendar.DAY_OF_WEEK));
+        }
+    }
+
+    public void testExpiresOldDaysButKeepsRollups() {
+        insertDays(-200, -1);
+        archiveBefore(mToday);
+
+        Cursor cursor = mContext.getContentResolver().query(
+                HistoryEntry.buildHistoryLocation(TestUtilities.TEST_LOCATION, 0, Long.MAX_VALUE),
+                new String[]{HistoryEntry.COLUMN_DATE}, null, null, null);
+        assertEquals("Error: a day past the retention was kept", 1, cursor.getCount());
+        cursor.moveToFirst();
+        assertEquals(mToday - DAY_IN_MILLIS, cursor.getLong(0));
+        cursor.close();
+
+        long monthStart = WeatherHistory.getPeriodStart(Calendar.getInstance(),
+                HistoryRollupEntry.PERIOD_MONTH, mToday - 200 * DAY_IN_MILLIS);
+        cursor = mContext.getContentResolver().query(
+                HistoryEntry.buildHistoryRollup(TestUtilities.TEST_LOCATION,
+                        HistoryRollupEntry.PERIOD_MONTH, monthStart, monthStart + 1),
+                new String[]{HistoryRollupEntry.COLUMN_MAX_TEMP}, null, null, null);
+        assertTrue("Error: the expired day's month wasn't kept", cursor.moveToFirst());
+        assertEquals(-200.0, cursor.getDouble(0));
+        cursor.close();
+    }
+
+    public void testUnknownPeriod() {
+        try {
+            mContext.getContentResolver().query(HistoryEntry.buildHistoryRollup(
+                    TestUtilities.TEST_LOCATION, "fortnight", 0, Long.MAX_VALUE),
+                    null, null, null, null);
+            fail("Error: a period that isn't rolled up was queried");
+        } catch (UnsupportedOperationException expected) {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.test.AndroidTestCase;
+
+import java.util.Random;
+
+/*
+    Walks the circuit breaker through closed -> open -> half-open -> closed on a fake clock, and
+    checks that the backoff delays stay inside their jitter bounds.
+ */
+public class TestCircuitBreaker extends AndroidTestCase {
+
+    static final String PREFS_NAME = "test_circuit_breaker";
+    static final int THRESHOLD = 3;
+    static final long COOL_DOWN = 60 * 1000;
+
+    private SharedPreferences mPrefs;
+
+    /*
+        A breaker whose clock only moves when the test says so.
+     */
+    static class FakeClockBreaker extends CircuitBreaker {
+        long now = 1000000;
+
+        FakeClockBreaker(SharedPreferences prefs) {
+            // Base equals max, so every cool-down is between half and all of COOL_DOWN
+            super(prefs, new BackoffPolicy(COOL_DOWN, COOL_DOWN, Integer.MAX_VALUE), THRESHOLD);
+        }
+
+        @Override
+        long currentTimeMillis() {
+            return now;
+        }
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mPrefs = mContext.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        mPrefs.edit().clear().commit();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mPrefs.edit().clear().commit();
+        super.tearDown();
+    }
+
+    public void testOpensAfterConsecutiveFailures() {
+        FakeClockBreaker breaker = new FakeClockBreaker(mPrefs);
+        for (int i = 0; i < THRESHOLD - 1; i++) {
+            assertTrue(breaker.allowRequest());
+            breaker.recordFailure();
+        }
+        assertTrue("Error: breaker opened before reaching the threshold", breaker.allowRequest());
+        breaker.recordFailure();
+
+        assertFalse("Error: breaker should be open", breaker.allowRequest());
+        assertTrue(breaker.getRetryDelayMillis() >= COOL_DOWN / 2);
+    }
+
+    public void testSuccessResetsFailureCount() {
+        FakeClockBreaker breaker = new FakeClockBreaker(mPrefs);
+        breaker.recordFailure();
+        breaker.recordFailure();
+        breaker.recordSuccess();
+        breaker.recordFailure();
+        assertTrue(breaker.allowRequest());
+        assertFalse(breaker.isProbing());
+    }
+
+    public void testHalfOpenLetsOneProbeThrough() {
+        FakeClockBreaker breaker = new FakeClockBreaker(mPrefs);
+        for (int i = 0; i < THRESHOLD; i++) {
+            breaker.recordFailure();
+        }
+        breaker.now += COOL_DOWN;
+
+        assertTrue("Error: the probe should be let through", breaker.allowRequest());
+        assertFalse("Error: only one probe at a time", breaker.allowRequest());
+
+        // A failed probe re-opens the breaker straight away
+        breaker.recordFailure();
+        assertFalse(breaker.allowRequest());
+        assertTrue(breaker.getRetryDelayMillis() > 0);
+
+        breaker.now += COOL_DOWN;
+        assertTrue(breaker.allowRequest());
+        breaker.recordSuccess();
+        assertFalse(breaker.isProbing());
+        assertTrue(breaker.allowRequest());
+        assertTrue(breaker.allowRequest());
+    }
+
+    public void testStateSurvivesProcessDeath() {
+        FakeClockBreaker breaker = new FakeClockBreaker(mPrefs);
+        for (int i = 0; i < THRESHOLD; i++) {
+            breaker.recordFailure();
+        }
+
+        // A new instance over the same preferences stands in for a restarted process
+        FakeClockBreaker restored = new FakeClockBreaker(mPrefs);
+        restored.now = breaker.now;
+        assertFalse("Error: open state was lost", restored.allowRequest());
+        assertTrue(restored.isProbing());
+
+        // A probe that was in flight when the process died doesn't block the next one
+        restored.now += COOL_DOWN;
+        assertTrue(restored.allowRequest());
+        FakeClockBreaker afterProbe = new FakeClockBreaker(mPrefs);
+        afterProbe.now = restored.now;
+        assertTrue(afterProbe.allowRequest());
+    }
+
+    public void testBackoffIsCappedAndJittered() {
+        BackoffPolicy policy = new BackoffPolicy(1000, 8000, 5, new Random(42));
+        for (int retry = 0; retry < 10; retry++) {
+            long ceiling = Math.min(8000, 1000L << Math.min(retry, 20));
+            long delay = policy.getDelayMillis(retry);
+            assertTrue("Error: delay " + delay + " below half of " + ceiling,
+                    delay >= ceiling / 2);
+            assertTrue("Error: delay " + delay + " above " + ceiling, delay <= ceiling);
+        }
+        // Large retry counts must neither overflow nor exceed the cap
+        assertTrue(policy.getDelayMillis(Integer.MAX_VALUE) <= 8000);
+    }
+}
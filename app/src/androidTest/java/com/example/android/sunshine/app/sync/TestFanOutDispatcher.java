@@ -0,0 +1,134 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.test.AndroidTestCase;
+
+import java.util.ArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/*
+    Checks that the fan-out hands every consumer the same snapshot, doesn't make the caller wait,
+    and that a consumer overrunning its budget is interrupted without holding up the others, even
+    when a second dispatch arrives while every worker is still busy with the first.
+ */
+public class TestFanOutDispatcher extends AndroidTestCase {
+
+    static final String PREFS_NAME = "test_fan_out_metrics";
+
+    private SharedPreferences mPrefs;
+
+    static class TestConsumer implements FanOutDispatcher.Consumer {
+        final String mName;
+        final long mTimeoutMillis;
+        final long mWorkMillis;
+        final CountDownLatch mDone = new CountDownLatch(1);
+        volatile ForecastSnapshot mReceived;
+        volatile boolean mInterrupted;
+
+        TestConsumer(String name, long timeoutMillis, long workMillis) {
+            mName = name;
+            mTimeoutMillis = timeoutMillis;
+            mWorkMillis = workMillis;
+        }
+
+        @Override
+        public String getName() {
+            return mName;
+        }
+
+        @Override
+        public long getTimeoutMillis() {
+            return mTimeoutMillis;
+        }
+
+        @Override
+        public void consume(ForecastSnapshot snapshot) throws Exception {
+            mReceived = snapshot;
+            try {
+                Thread.sleep(mWorkMillis);
+            } catch (InterruptedException e) {
+                mInterrupted = true;
+                throw e;
+            } finally {
+                mDone.countDown();
+            }
+        }
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mPrefs = mContext.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        mPrefs.edit().clear().commit();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mPrefs.edit().clear().commit();
+        super.tearDown();
+    }
+
+    public void testSlowConsumerDoesNotBlockTheOthers() throws Exception {
+        SyncMetrics metrics = new SyncMetrics(mPrefs);
+        FanOutDispatcher dispatcher = new FanOutDispatcher(metrics);
+        ForecastSnapshot snapshot = new ForecastSnapshot("99705", 1419033600L, 321,
+                "Asteroids", 75, 65);
+
+        TestConsumer fast = new TestConsumer("fast", 5000, 10);
+        TestConsumer slow = new TestConsumer("slow", 200, 60000);
+        ArrayList<FanOutDispatcher.Consumer> consumers = new ArrayList<FanOutDispatcher.Consumer>();
+        consumers.add(slow);
+        consumers.add(fast);
+
+        long start = System.currentTimeMillis();
+        Future<?> finished = dispatcher.dispatch(snapshot, consumers);
+        assertTrue("Error: dispatch waited for its consumers",
+                System.currentTimeMillis() - start < 200);
+
+        assertTrue("Error: the fast consumer was held up by the slow one",
+                fast.mDone.await(1, TimeUnit.SECONDS));
+        assertSame(snapshot, fast.mReceived);
+        assertFalse(fast.mInterrupted);
+
+        finished.get(5, TimeUnit.SECONDS);
+        assertTrue("Error: the slow consumer wasn't stopped",
+                slow.mDone.await(1, TimeUnit.SECONDS));
+        assertTrue(slow.mInterrupted);
+        assertSame(snapshot, slow.mReceived);
+    }
+
+    public void testOverlappingDispatchesKeepTheirDeadlines() throws Exception {
+        SyncMetrics metrics = new SyncMetrics(mPrefs);
+        FanOutDispatcher dispatcher = new FanOutDispatcher(metrics);
+        ForecastSnapshot snapshot = new ForecastSnapshot("99705", 1419033600L, 321,
+                "Asteroids", 75, 65);
+
+        // Enough hung consumers to take every worker
+        ArrayList<FanOutDispatcher.Consumer> hung = new ArrayList<FanOutDispatcher.Consumer>();
+        for (int i = 0; i < 4; i++) {
+            hung.add(new TestConsumer("hung" + i, 300, 60000));
+        }
+        Future<?> firstFinished = dispatcher.dispatch(snapshot, hung);
+
+        // Queued behind them, it still gets its whole budget once it starts
+        TestConsumer queued = new TestConsumer("queued", 200, 100);
+        ArrayList<FanOutDispatcher.Consumer> second = new ArrayList<FanOutDispatcher.Consumer>();
+        second.add(queued);
+        Future<?> secondFinished = dispatcher.dispatch(snapshot, second);
+
+        firstFinished.get(5, TimeUnit.SECONDS);
+        for (FanOutDispatcher.Consumer consumer : hung) {
+            assertTrue("Error: a hung consumer wasn't stopped while every worker was busy",
+                    ((TestConsumer) consumer).mDone.await(1, TimeUnit.SECONDS));
+            assertTrue(((TestConsumer) consumer).mInterrupted);
+        }
+        secondFinished.get(5, TimeUnit.SECONDS);
+        assertTrue(queued.mDone.await(1, TimeUnit.SECONDS));
+        assertFalse("Error: the queued consumer's time ran out before it started",
+                queued.mInterrupted);
+        assertSame(snapshot, queued.mReceived);
+    }
+}
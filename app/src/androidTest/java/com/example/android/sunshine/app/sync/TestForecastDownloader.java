@@ -0,0 +1,412 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.BroadcastReceiver;
+import android.content.ContentProviderClient;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.SharedPreferences;
+import android.content.SyncResult;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.preference.PreferenceManager;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.R;
+import com.example.android.sunshine.app.data.WeatherContract;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/*
+    Runs ForecastDownloader against a tiny HTTP server on localhost to check that a second
+    request for the same forecast is sent conditionally and that a 304 comes back without a body,
+    and runs the sync against it to check that a 304 stores and tells nobody anything, unless
+    there is nothing stored to keep, in which case the forecast is downloaded again.
+ */
+public class TestForecastDownloader extends AndroidTestCase {
+
+    static final String ETAG = "\"forecast-v1\"";
+    static final String BODY = "{\"cod\":\"200\",\"list\":[]}";
+    static final String SYNC_LOCATION = "94043";
+
+    private StubServer mServer;
+    private File mCacheDirectory;
+
+    /*
+        Answers every request on its own thread.  Requests carrying the expected ETag get a 304,
+        everything else gets the full body, BODY unless it was given another.  The request lines
+        and headers it saw are kept so the test can look at them.
+     */
+    static class StubServer extends Thread {
+        final ServerSocket socket;
+        final byte[] body;
+        final List<String> conditionalRequests =
+                Collections.synchronizedList(new ArrayList<String>());
+        volatile int requestCount;
+
+        StubServer() throws IOException {
+            this(BODY.getBytes("UTF-8"));
+        }
+
+        StubServer(byte[] body) throws IOException {
+            socket = new ServerSocket(0, 1, InetAddress.getByName("127.0.0.1"));
+            this.body = body;
+        }
+
+        String url(String path) {
+            return "http://127.0.0.1:" + socket.getLocalPort() + path;
+        }
+
+        @Override
+        public void run() {
+            while (!socket.isClosed()) {
+                try {
+                    Socket connection = socket.accept();
+                    try {
+                        serve(connection);
+                    } finally {
+                        connection.close();
+                    }
+                } catch (IOException e) {
+                    // Closed by tearDown
+                }
+            }
+        }
+
+        private void serve(Socket connection) throws IOException {
+            BufferedReader in = new BufferedReader(
+                    new InputStreamReader(connection.getInputStream(), "UTF-8"));
+            String requestLine = in.readLine();
+            String ifNoneMatch = null;
+            String header;
+            while ((header = in.readLine()) != null && header.length() > 0) {
+                if (header.toLowerCase(Locale.US).startsWith("if-none-match:")) {
+                    ifNoneMatch = header.substring(header.indexOf(':') + 1).trim();
+                    conditionalRequests.add(requestLine);
+                }
+            }
+            requestCount++;
+
+            OutputStream out = connection.getOutputStream();
+            if (ETAG.equals(ifNoneMatch)) {
+                out.write(("HTTP/1.1 304 Not Modified\r\n"
+                        + "ETag: " + ETAG + "\r\n"
+                        + "Connection: close\r\n\r\n").getBytes("UTF-8"));
+            } else {
+                out.write(("HTTP/1.1 200 OK\r\n"
+                        + "Content-Type: application/json; charset=utf-8\r\n"
+                        + "Content-Length: " + body.length + "\r\n"
+                        + "ETag: " + ETAG + "\r\n"
+                        + "Connection: close\r\n\r\n").getBytes("UTF-8"));
+                out.write(body);
+            }
+            out.flush();
+        }
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mServer = new StubServer();
+        mServer.start();
+        mCacheDirectory = new File(mContext.getCacheDir(), "test-forecast-validators");
+        deleteDirectory(mCacheDirectory);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mServer.socket.close();
+        deleteDirectory(mCacheDirectory);
+        super.tearDown();
+    }
+
+    public void testNotModifiedShortCircuits() throws Exception {
+        ForecastResponseCache cache = new ForecastResponseCache(mCacheDirectory,
+                ForecastResponseCache.DEFAULT_MAX_ENTRIES, ForecastResponseCache.DEFAULT_MAX_BYTES);
+        ForecastDownloader downloader = new ForecastDownloader(cache);
+        String url = mServer.url("/data/2.5/forecast/daily?q=94043&mode=json&units=metric&cnt=14");
+
+        // First sync: nothing cached, so a plain GET and a full body
+        ForecastDownloader.Response response = downloader.open(url);
+        try {
+            assertFalse("Error: first request should not be answered with a 304",
+                    response.isNotModified());
+            assertNotNull(response.getBody());
+            BufferedReader reader = new BufferedReader(
+                    new InputStreamReader(response.getBody(), "UTF-8"));
+            assertEquals(BODY, reader.readLine());
+            response.commit();
+        } finally {
+            response.close();
+        }
+        assertEquals(0, mServer.conditionalRequests.size());
+        assertEquals(0, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+
+        // Second sync: validators are sent and the 304 leaves nothing to parse
+        response = downloader.open(url);
+        try {
+            assertTrue("Error: second request should have been answered with a 304",
+                    response.isNotModified());
+            assertNull(response.getBody());
+        } finally {
+            response.close();
+        }
+        assertEquals(1, mServer.conditionalRequests.size());
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+        assertEquals(2, mServer.requestCount);
+    }
+
+    public void testUncommittedResponseIsNotCached() throws Exception {
+        ForecastResponseCache cache = new ForecastResponseCache(mCacheDirectory,
+                ForecastResponseCache.DEFAULT_MAX_ENTRIES, ForecastResponseCache.DEFAULT_MAX_BYTES);
+        ForecastDownloader downloader = new ForecastDownloader(cache);
+        String url = mServer.url("/data/2.5/forecast/daily?q=99705");
+
+        // A sync that failed to store the forecast must not skip the next download
+        downloader.open(url).close();
+        ForecastDownloader.Response response = downloader.open(url);
+        try {
+            assertFalse(response.isNotModified());
+        } finally {
+            response.close();
+        }
+        assertEquals(0, mServer.conditionalRequests.size());
+    }
+
+    public void testEvictsLeastRecentlyUsed() {
+        ForecastResponseCache cache = new ForecastResponseCache(mCacheDirectory, 2,
+                ForecastResponseCache.DEFAULT_MAX_BYTES);
+        cache.put("http://example.com/a", ETAG, null);
+        cache.put("http://example.com/b", ETAG, null);
+        cache.put("http://example.com/c", ETAG, null);
+
+        assertEquals(1, cache.getEvictionCount());
+        assertEquals(2, mCacheDirectory.listFiles().length);
+    }
+
+    public void testDecodesCompressedBodies() throws Exception {
+        byte[] payload = TestForecastJsonParser.readPayload(TestForecastJsonParser.FORECAST_16_DAYS);
+
+        ByteArrayOutputStream gzipped = new ByteArrayOutputStream();
+        OutputStream out = new GZIPOutputStream(gzipped);
+        out.write(payload);
+        out.close();
+        assertDecodes(payload, gzipped.toByteArray(), "gzip");
+
+        ByteArrayOutputStream zlib = new ByteArrayOutputStream();
+        out = new DeflaterOutputStream(zlib, new Deflater(Deflater.DEFAULT_COMPRESSION, false));
+        out.write(payload);
+        out.close();
+        assertDecodes(payload, zlib.toByteArray(), "deflate");
+
+        ByteArrayOutputStream raw = new ByteArrayOutputStream();
+        out = new DeflaterOutputStream(raw, new Deflater(Deflater.DEFAULT_COMPRESSION, true));
+        out.write(payload);
+        out.close();
+        assertDecodes(payload, raw.toByteArray(), "deflate");
+
+        assertDecodes(payload, payload, "identity");
+    }
+
+    public void testNotModifiedSyncStoresNothing() throws Exception {
+        StubServer server = new StubServer(
+                TestForecastJsonParser.readPayload(TestForecastJsonParser.FORECAST_14_DAYS));
+        server.start();
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(mContext);
+        String notificationsKey = mContext.getString(R.string.pref_enable_notifications_key);
+        boolean notifications = prefs.getBoolean(notificationsKey, true);
+        // Or the first sync's fan out posts the day's notification
+        prefs.edit().putBoolean(notificationsKey, false).commit();
+        deleteWeather();
+
+        final AtomicInteger changes = new AtomicInteger();
+        // No handler, so it's called straight from the provider's notifyChange()
+        ContentObserver observer = new ContentObserver(null) {
+            @Override
+            public void onChange(boolean selfChange) {
+                changes.incrementAndGet();
+            }
+        };
+        final AtomicInteger dataUpdates = new AtomicInteger();
+        final CountDownLatch dataUpdated = new CountDownLatch(1);
+        BroadcastReceiver receiver = new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context context, Intent intent) {
+                dataUpdates.incrementAndGet();
+                dataUpdated.countDown();
+            }
+        };
+        mContext.getContentResolver().registerContentObserver(
+                WeatherContract.BASE_CONTENT_URI, true, observer);
+        mContext.registerReceiver(receiver,
+                new IntentFilter(SunshineSyncAdapter.ACTION_DATA_UPDATED));
+        ContentProviderClient provider = mContext.getContentResolver()
+                .acquireContentProviderClient(WeatherContract.CONTENT_AUTHORITY);
+        try {
+            SunshineSyncAdapter adapter = new SunshineSyncAdapter(mContext, false,
+                    server.url("/data/2.5/forecast/daily?"),
+                    new ForecastResponseCache(mCacheDirectory,
+                            ForecastResponseCache.DEFAULT_MAX_ENTRIES,
+                            ForecastResponseCache.DEFAULT_MAX_BYTES));
+
+            // Until the rows are stored the validators aren't remembered
+            assertTrue(adapter.fetchForecast(SYNC_LOCATION).hasRows());
+            LocationForecast forecast = adapter.fetchForecast(SYNC_LOCATION);
+            assertTrue("Error: a forecast that was never stored was skipped", forecast.hasRows());
+            assertEquals(0, server.conditionalRequests.size());
+
+            List<LocationForecast> forecasts = Collections.singletonList(forecast);
+            assertTrue(adapter.storeForecasts(provider, forecasts, SYNC_LOCATION,
+                    new SyncResult()) > 0);
+            assertTrue("Error: the stored forecast wasn't fanned out",
+                    dataUpdated.await(5, TimeUnit.SECONDS));
+            assertTrue(changes.get() > 0);
+            int storedDays = countWeather();
+            assertEquals(14, storedDays);
+
+            // Now the sync asks conditionally, and the 304 leaves nothing to parse, store,
+            // notify or fan out
+            changes.set(0);
+            dataUpdates.set(0);
+            forecast = adapter.fetchForecast(SYNC_LOCATION);
+            assertEquals(1, server.conditionalRequests.size());
+            assertEquals(SunshineSyncAdapter.LOCATION_STATUS_OK, forecast.mStatus);
+            assertTrue(forecast.mNotModified);
+            assertEquals("Error: a 304 was parsed", 0, forecast.mRows.size());
+
+            forecasts = Collections.singletonList(forecast);
+            assertEquals(0, adapter.storeForecasts(provider, forecasts, SYNC_LOCATION,
+                    new SyncResult()));
+            Thread.sleep(500);
+            assertEquals("Error: a 304 notified a change", 0, changes.get());
+            assertEquals("Error: a 304 was fanned out", 0, dataUpdates.get());
+            assertEquals(storedDays, countWeather());
+            assertEquals(3, server.requestCount);
+        } finally {
+            provider.release();
+            mContext.unregisterReceiver(receiver);
+            mContext.getContentResolver().unregisterContentObserver(observer);
+            server.socket.close();
+            deleteWeather();
+            prefs.edit().putBoolean(notificationsKey, notifications).commit();
+        }
+    }
+
+    public void testNotModifiedWithoutRowsIsFetchedAgain() throws Exception {
+        StubServer server = new StubServer(
+                TestForecastJsonParser.readPayload(TestForecastJsonParser.FORECAST_14_DAYS));
+        server.start();
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(mContext);
+        String notificationsKey = mContext.getString(R.string.pref_enable_notifications_key);
+        boolean notifications = prefs.getBoolean(notificationsKey, true);
+        prefs.edit().putBoolean(notificationsKey, false).commit();
+        deleteWeather();
+
+        ContentProviderClient provider = mContext.getContentResolver()
+                .acquireContentProviderClient(WeatherContract.CONTENT_AUTHORITY);
+        try {
+            SunshineSyncAdapter adapter = new SunshineSyncAdapter(mContext, false,
+                    server.url("/data/2.5/forecast/daily?"),
+                    new ForecastResponseCache(mCacheDirectory,
+                            ForecastResponseCache.DEFAULT_MAX_ENTRIES,
+                            ForecastResponseCache.DEFAULT_MAX_BYTES));
+            LocationForecast forecast = adapter.fetchForecast(SYNC_LOCATION);
+            assertTrue(adapter.storeForecasts(provider, Collections.singletonList(forecast),
+                    SYNC_LOCATION, new SyncResult()) > 0);
+            assertEquals(14, countWeather());
+
+            // The validators are remembered, but the rows they describe are gone
+            mContext.getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI,
+                    null, null);
+            forecast = adapter.fetchForecast(SYNC_LOCATION);
+            assertEquals(1, server.conditionalRequests.size());
+            assertEquals("Error: the 304 should have been followed by a full download",
+                    3, server.requestCount);
+            assertTrue("Error: a 304 was trusted with nothing stored", forecast.hasRows());
+            assertTrue(adapter.storeForecasts(provider, Collections.singletonList(forecast),
+                    SYNC_LOCATION, new SyncResult()) > 0);
+            assertEquals(14, countWeather());
+
+            // With the rows back a 304 is believed again
+            forecast = adapter.fetchForecast(SYNC_LOCATION);
+            assertEquals(2, server.conditionalRequests.size());
+            assertEquals(4, server.requestCount);
+            assertTrue(forecast.mNotModified);
+            assertFalse(forecast.hasRows());
+        } finally {
+            provider.release();
+            server.socket.close();
+            deleteWeather();
+            prefs.edit().putBoolean(notificationsKey, notifications).commit();
+        }
+    }
+
+    private void deleteWeather() {
+        mContext.getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(WeatherContract.LocationEntry.CONTENT_URI, null,
+                null);
+    }
+
+    private int countWeather() {
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherContract.WeatherEntry.CONTENT_URI, null, null, null, null);
+        assertNotNull(cursor);
+        try {
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static void assertDecodes(byte[] expected, byte[] encoded, String contentEncoding)
+            throws IOException {
+        CountingInputStream wire = new CountingInputStream(new ByteArrayInputStream(encoded));
+        InputStream in = ForecastDownloader.decode(wire, contentEncoding);
+        ByteArrayOutputStream decoded = new ByteArrayOutputStream();
+        try {
+            byte[] chunk = new byte[512];
+            int read;
+            while ((read = in.read(chunk)) != -1) {
+                decoded.write(chunk, 0, read);
+            }
+        } finally {
+            in.close();
+        }
+        assertTrue("Error: " + contentEncoding + " body didn't decode to the original payload",
+                Arrays.equals(expected, decoded.toByteArray()));
+        assertEquals(encoded.length, wire.getCount());
+    }
+
+    private static void deleteDirectory(File directory) {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+}
@@ -0,0 +1,223 @@
+package com.example.android.sunshine.app.sync;
+
+import android.os.Debug;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+    Checks that the streaming forecast parser reads the same values as the JSONObject tree
+    parser it replaces, and benchmarks the two against the 14 and 16 day sample responses.
+    The benchmark only logs its numbers (tag TestForecastJsonParser); it doesn't fail on them.
+    Also checks that the sync parses and locates into the same batches every time.
+ */
+public class TestForecastJsonParser extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestForecastJsonParser.class.getSimpleName();
+
+    static final String FORECAST_14_DAYS = "/forecast_14_days.json";
+    static final String FORECAST_16_DAYS = "/forecast_16_days.json";
+
+    private static final int WARM_UP_ITERATIONS = 20;
+    private static final int BENCHMARK_ITERATIONS = 200;
+    private static final int LOCATIONS = 3;
+    // A ForecastBatch allocates this many arrays, and the batch itself
+    private static final int BATCH_ALLOCATIONS = 11;
+
+    /*
+        Records everything the parser reports so the two parsers can be compared.
+     */
+    static class RecordingCallback implements ForecastJsonParser.Callback {
+        String cityName;
+        double latitude;
+        double longitude;
+        final ArrayList<String> days = new ArrayList<String>();
+
+        @Override
+        public void onCity(String cityName, double latitude, double longitude) {
+            this.cityName = cityName;
+            this.latitude = latitude;
+            this.longitude = longitude;
+        }
+
+        @Override
+        public void onDay(int dayIndex, double pressure, int humidity, double windSpeed,
+                          double windDirection, double high, double low, String description,
+                          int weatherId) {
+            days.add(dayIndex + "|" + pressure + "|" + humidity + "|" + windSpeed + "|"
+                    + windDirection + "|" + high + "|" + low + "|" + description + "|" + weatherId);
+        }
+    }
+
+    /*
+        Throws the values away, so the benchmark measures the parser and nothing else.
+     */
+    static class DiscardingCallback implements ForecastJsonParser.Callback {
+        int dayCount;
+
+        @Override
+        public void onCity(String cityName, double latitude, double longitude) {
+        }
+
+        @Override
+        public void onDay(int dayIndex, double pressure, int humidity, double windSpeed,
+                          double windDirection, double high, double low, String description,
+                          int weatherId) {
+            dayCount++;
+        }
+    }
+
+    static byte[] readPayload(String name) throws IOException {
+        InputStream in = TestForecastJsonParser.class.getResourceAsStream(name);
+        assertNotNull("Error: sample payload " + name + " is missing", in);
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] chunk = new byte[4096];
+            int read;
+            while ((read = in.read(chunk)) != -1) {
+                out.write(chunk, 0, read);
+            }
+            return out.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+
+    public void testStreamingMatchesTree() throws Exception {
+        for (String name : new String[]{FORECAST_14_DAYS, FORECAST_16_DAYS}) {
+            byte[] payload = readPayload(name);
+
+            RecordingCallback streamed = new RecordingCallback();
+            assertEquals(HttpURLConnection.HTTP_OK, ForecastJsonParser.parseStreaming(
+                    new ByteArrayInputStream(payload), streamed));
+
+            RecordingCallback tree = new RecordingCallback();
+            assertEquals(HttpURLConnection.HTTP_OK, ForecastJsonParser.parseTree(
+                    new ByteArrayInputStream(payload), tree));
+
+            assertEquals("Error: city doesn't match for " + name, tree.cityName, streamed.cityName);
+            assertEquals(tree.latitude, streamed.latitude);
+            assertEquals(tree.longitude, streamed.longitude);
+            assertEquals("Error: days don't match for " + name, tree.days, streamed.days);
+        }
+    }
+
+    public void testErrorCodeStopsParsing() throws Exception {
+        byte[] payload = "{\"cod\":\"404\",\"message\":\"Error: Not found city\"}".getBytes("UTF-8");
+
+        DiscardingCallback callback = new DiscardingCallback();
+        assertEquals(HttpURLConnection.HTTP_NOT_FOUND, ForecastJsonParser.parseStreaming(
+                new ByteArrayInputStream(payload), callback));
+        assertEquals(0, callback.dayCount);
+    }
+
+    public void testBenchmarkStreamingAgainstTree() throws Exception {
+        for (String name : new String[]{FORECAST_14_DAYS, FORECAST_16_DAYS}) {
+            byte[] payload = readPayload(name);
+            benchmark(name, payload, true);
+            benchmark(name, payload, false);
+        }
+    }
+
+    @SuppressWarnings("deprecation")
+    private void benchmark(String name, byte[] payload, boolean streaming) throws Exception {
+        DiscardingCallback callback = new DiscardingCallback();
+        for (int i = 0; i < WARM_UP_ITERATIONS; i++) {
+            parse(payload, streaming, callback);
+        }
+
+        Runtime.getRuntime().gc();
+        Debug.resetThreadAllocCount();
+        Debug.resetThreadAllocSize();
+        Debug.startAllocCounting();
+        long start = System.nanoTime();
+        for (int i = 0; i < BENCHMARK_ITERATIONS; i++) {
+            parse(payload, streaming, callback);
+        }
+        long elapsed = System.nanoTime() - start;
+        Debug.stopAllocCounting();
+
+        Log.i(LOG_TAG, String.format("%s %s: %d us/parse, %d allocations/parse, %d bytes/parse",
+                name,
+                streaming ? "streaming" : "tree",
+                elapsed / 1000 / BENCHMARK_ITERATIONS,
+                Debug.getThreadAllocCount() / BENCHMARK_ITERATIONS,
+                Debug.getThreadAllocSize() / BENCHMARK_ITERATIONS));
+    }
+
+    private static void parse(byte[] payload, boolean streaming,
+                              ForecastJsonParser.Callback callback) throws Exception {
+        InputStream in = new ByteArrayInputStream(payload);
+        if (streaming) {
+            ForecastJsonParser.parseStreaming(in, callback);
+        } else {
+            ForecastJsonParser.parseTree(in, callback);
+        }
+    }
+
+    public void testSyncReusesItsBatches() throws Exception {
+        byte[] payload = readPayload(FORECAST_16_DAYS);
+        // Loads the classes and fills the shared pools, with batches of another adapter's
+        parseAndLocate(new SunshineSyncAdapter(mContext, false), payload,
+                new ArrayList<LocationForecast>(LOCATIONS));
+
+        SunshineSyncAdapter adapter = new SunshineSyncAdapter(mContext, false);
+        ArrayList<LocationForecast> first = new ArrayList<LocationForecast>(LOCATIONS);
+        int firstAllocations = parseAndLocate(adapter, payload, first);
+        ArrayList<LocationForecast> second = new ArrayList<LocationForecast>(LOCATIONS);
+        int secondAllocations = parseAndLocate(adapter, payload, second);
+        Log.i(LOG_TAG, "Parse and locate " + LOCATIONS + " locations: first sync "
+                + firstAllocations + " allocations, second sync " + secondAllocations);
+
+        for (int i = 0; i < LOCATIONS; i++) {
+            assertSame("Error: the second sync parsed into a new batch",
+                    first.get(i).mRows, second.get(i).mRows);
+            assertEquals(16, second.get(i).mRows.size());
+        }
+        // The first sync allocated a batch per location and grew the one they're located into
+        assertTrue("Error: the second sync allocated batches again (" + firstAllocations
+                        + " allocations, then " + secondAllocations + ")",
+                firstAllocations - secondAllocations >= LOCATIONS * BATCH_ALLOCATIONS);
+    }
+
+    /**
+     * Runs the sync's parse and locate stages for {@link #LOCATIONS} copies of the payload.
+     *
+     * @return how many objects that allocated.
+     */
+    @SuppressWarnings("deprecation")
+    private static int parseAndLocate(SunshineSyncAdapter adapter, byte[] payload,
+                                      List<LocationForecast> forecasts) throws Exception {
+        String[] locationSettings = new String[LOCATIONS];
+        InputStream[] bodies = new InputStream[LOCATIONS];
+        for (int i = 0; i < LOCATIONS; i++) {
+            locationSettings[i] = "location" + i;
+            bodies[i] = new ByteArrayInputStream(payload);
+        }
+
+        Debug.resetThreadAllocCount();
+        Debug.startAllocCounting();
+        try {
+            adapter.recycleParseBatches();
+            for (int i = 0; i < LOCATIONS; i++) {
+                // What downloadForecast does with a response's body
+                LocationForecast forecast = new LocationForecast(locationSettings[i],
+                        adapter.obtainParseBatch());
+                ForecastJsonParser.parse(bodies[i], forecast);
+                forecast.mStatus = SunshineSyncAdapter.LOCATION_STATUS_OK;
+                forecasts.add(forecast);
+            }
+            adapter.locateForecasts(forecasts);
+        } finally {
+            Debug.stopAllocCounting();
+        }
+        return Debug.getThreadAllocCount();
+    }
+}
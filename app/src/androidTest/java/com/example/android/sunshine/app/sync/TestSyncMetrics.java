@@ -0,0 +1,87 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.database.Cursor;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.WeatherContract.MetricsEntry;
+
+/*
+    Checks the sync metrics' histogram arithmetic, that the numbers survive a restart, and that
+    the provider serves them.
+ */
+public class TestSyncMetrics extends AndroidTestCase {
+
+    static final String PREFS_NAME = "test_sync_metrics";
+
+    private SharedPreferences mPrefs;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mPrefs = mContext.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        mPrefs.edit().clear().commit();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mPrefs.edit().clear().commit();
+        super.tearDown();
+    }
+
+    public void testPercentilesAndPersistence() {
+        SyncMetrics metrics = new SyncMetrics(mPrefs);
+        // 90 fast fetches and 10 slow ones
+        for (int i = 0; i < 90; i++) {
+            metrics.recordMillis(SyncMetrics.STAGE_FETCH, 40, true);
+        }
+        for (int i = 0; i < 10; i++) {
+            metrics.recordMillis(SyncMetrics.STAGE_FETCH, 1500, false);
+        }
+        metrics.addBytes(SyncMetrics.STAGE_FETCH, 2048);
+        metrics.addRows(SyncMetrics.STAGE_PERSIST, 14);
+
+        assertEquals(50, metrics.percentile(SyncMetrics.STAGE_FETCH, 50));
+        assertEquals(2000, metrics.percentile(SyncMetrics.STAGE_FETCH, 95));
+        assertEquals(0, metrics.percentile(SyncMetrics.STAGE_PARSE, 50));
+
+        metrics.save();
+        SyncMetrics restored = new SyncMetrics(mPrefs);
+        Cursor cursor = restored.toCursor();
+        try {
+            assertTrue(cursor.moveToPosition(SyncMetrics.STAGE_FETCH));
+            assertEquals("fetch", cursor.getString(cursor.getColumnIndex(MetricsEntry.COLUMN_STAGE)));
+            assertEquals(100, cursor.getLong(cursor.getColumnIndex(MetricsEntry.COLUMN_COUNT)));
+            assertEquals(10, cursor.getLong(cursor.getColumnIndex(MetricsEntry.COLUMN_FAILURES)));
+            assertEquals(90 * 40 + 10 * 1500,
+                    cursor.getLong(cursor.getColumnIndex(MetricsEntry.COLUMN_TOTAL_MILLIS)));
+            assertEquals(1500, cursor.getLong(cursor.getColumnIndex(MetricsEntry.COLUMN_MAX_MILLIS)));
+            assertEquals(2048, cursor.getLong(cursor.getColumnIndex(MetricsEntry.COLUMN_BYTES)));
+            assertEquals("50:90,2000:10",
+                    cursor.getString(cursor.getColumnIndex(MetricsEntry.COLUMN_HISTOGRAM)));
+
+            assertTrue(cursor.moveToPosition(SyncMetrics.STAGE_PERSIST));
+            assertEquals(14, cursor.getLong(cursor.getColumnIndex(MetricsEntry.COLUMN_ROWS)));
+        } finally {
+            cursor.close();
+        }
+
+        restored.reset();
+        assertEquals(0, new SyncMetrics(mPrefs).percentile(SyncMetrics.STAGE_FETCH, 50));
+    }
+
+    public void testProviderServesMetrics() {
+        Cursor cursor = mContext.getContentResolver().query(MetricsEntry.CONTENT_URI,
+                null, null, null, null);
+        assertNotNull(cursor);
+        try {
+            assertEquals("Error: expected one row per pipeline stage",
+                    SyncMetrics.STAGE_NAMES.length, cursor.getCount());
+        } finally {
+            cursor.close();
+        }
+        assertEquals(MetricsEntry.CONTENT_TYPE,
+                mContext.getContentResolver().getType(MetricsEntry.CONTENT_URI));
+    }
+}
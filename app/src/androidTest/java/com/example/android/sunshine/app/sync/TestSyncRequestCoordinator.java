@@ -0,0 +1,152 @@
+package com.example.android.sunshine.app.sync;
+
+import android.test.AndroidTestCase;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+    Checks that overlapping requests for the same location end up as a single fetch, that a
+    fetch is only reused once its rows are stored, that a fetch that throws comes back as a
+    failed location, and that the counters tell requests and fetches apart.
+ */
+public class TestSyncRequestCoordinator extends AndroidTestCase {
+
+    static final String LOCATION = "94043";
+
+    /*
+        Stands in for the network: counts how often it runs and, when asked to, holds the fetch
+        open until the test releases it.
+     */
+    static class BlockingFetcher implements Callable<LocationForecast> {
+        final AtomicInteger runs = new AtomicInteger();
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+
+        @Override
+        public LocationForecast call() throws Exception {
+            runs.incrementAndGet();
+            started.countDown();
+            release.await(5, TimeUnit.SECONDS);
+            LocationForecast forecast = new LocationForecast(LOCATION);
+            forecast.onCity("Mountain View", 37.4, -122.1);
+            forecast.onDay(0, 1013, 80, 3.5, 270, 21, 12, "Clear", 800);
+            forecast.mStatus = SunshineSyncAdapter.LOCATION_STATUS_OK;
+            return forecast;
+        }
+    }
+
+    public void testRequestBurstIsMerged() {
+        SyncRequestCoordinator coordinator =
+                new SyncRequestCoordinator(SyncRequestCoordinator.COALESCE_WINDOW_MILLIS);
+
+        assertTrue(coordinator.requestSync(LOCATION));
+        assertFalse("Error: second request inside the window should be merged",
+                coordinator.requestSync(LOCATION));
+        assertTrue("Error: other locations must not be merged", coordinator.requestSync("99705"));
+
+        assertEquals(3, coordinator.getRequestCount());
+        assertEquals(1, coordinator.getMergedCount());
+        assertEquals(0, coordinator.getFetchCount());
+    }
+
+    public void testRequestDuringFetchIsMerged() throws Exception {
+        final SyncRequestCoordinator coordinator =
+                new SyncRequestCoordinator(SyncRequestCoordinator.COALESCE_WINDOW_MILLIS);
+        final BlockingFetcher fetcher = new BlockingFetcher();
+        final LocationForecast[] result = new LocationForecast[1];
+
+        Thread sync = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    result[0] = coordinator.fetch(LOCATION, fetcher);
+                } catch (InterruptedException ignored) {
+                }
+            }
+        };
+        sync.start();
+        assertTrue(fetcher.started.await(5, TimeUnit.SECONDS));
+        assertFalse("Error: a request while the location is being fetched should be merged",
+                coordinator.requestSync(LOCATION));
+        fetcher.release.countDown();
+        sync.join(5000);
+
+        assertTrue("Error: the fetch should have rows to store", result[0].hasRows());
+        assertTrue("Error: a request after the fetch should go through",
+                coordinator.requestSync(LOCATION));
+
+        // Once the rows are stored the sync that request asked for reuses the result
+        coordinator.markPersisted(LOCATION);
+        LocationForecast next = coordinator.fetch(LOCATION, fetcher);
+        assertFalse(next.hasRows());
+        assertEquals(SunshineSyncAdapter.LOCATION_STATUS_OK, next.mStatus);
+        assertEquals(1, fetcher.runs.get());
+
+        assertEquals(3, coordinator.getRequestCount());
+        assertEquals(1, coordinator.getFetchCount());
+        assertEquals(2, coordinator.getMergedCount());
+    }
+
+    public void testFailedFetchIsNotReused() throws Exception {
+        SyncRequestCoordinator coordinator =
+                new SyncRequestCoordinator(SyncRequestCoordinator.COALESCE_WINDOW_MILLIS);
+        Callable<LocationForecast> failing = new Callable<LocationForecast>() {
+            @Override
+            public LocationForecast call() {
+                LocationForecast forecast = new LocationForecast(LOCATION);
+                forecast.mStatus = SunshineSyncAdapter.LOCATION_STATUS_SERVER_DOWN;
+                return forecast;
+            }
+        };
+
+        coordinator.fetch(LOCATION, failing);
+        coordinator.fetch(LOCATION, failing);
+        assertEquals(2, coordinator.getFetchCount());
+    }
+
+    public void testThrowingFetchIsServerInvalid() throws Exception {
+        SyncRequestCoordinator coordinator =
+                new SyncRequestCoordinator(SyncRequestCoordinator.COALESCE_WINDOW_MILLIS);
+        Callable<LocationForecast> throwing = new Callable<LocationForecast>() {
+            @Override
+            public LocationForecast call() {
+                throw new IllegalStateException("bug");
+            }
+        };
+
+        // The sync adapter calls this on the sync thread itself, nothing may escape it
+        LocationForecast forecast = coordinator.fetch(LOCATION, throwing);
+        assertEquals(SunshineSyncAdapter.LOCATION_STATUS_SERVER_INVALID, forecast.mStatus);
+        assertFalse(forecast.hasRows());
+        assertTrue("Error: the location should be free to sync again",
+                coordinator.requestSync(LOCATION));
+    }
+
+    public void testFailedPersistIsNotReused() throws Exception {
+        SyncRequestCoordinator coordinator =
+                new SyncRequestCoordinator(SyncRequestCoordinator.COALESCE_WINDOW_MILLIS);
+        BlockingFetcher fetcher = new BlockingFetcher();
+        fetcher.release.countDown();
+
+        assertTrue(coordinator.fetch(LOCATION, fetcher).hasRows());
+        // Not stored yet, so there's nothing to reuse
+        assertTrue("Error: a fetch whose rows weren't stored yet was reused",
+                coordinator.fetch(LOCATION, fetcher).hasRows());
+        assertEquals(2, fetcher.runs.get());
+
+        // The owner's persist failed: the next fetch goes to the network and gets the rows
+        coordinator.markPersistFailed(LOCATION);
+        LocationForecast retry = coordinator.fetch(LOCATION, fetcher);
+        assertTrue("Error: the retry after a failed persist has nothing to store",
+                retry.hasRows());
+        assertEquals(3, fetcher.runs.get());
+
+        coordinator.markPersisted(LOCATION);
+        assertFalse(coordinator.fetch(LOCATION, fetcher).hasRows());
+        assertEquals(3, fetcher.runs.get());
+        assertEquals(3, coordinator.getFetchCount());
+    }
+}
@@ -0,0 +1,209 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.text.format.Time;
+import android.util.SparseArray;
+
+import java.text.SimpleDateFormat;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * Formats and caches the day labels behind {@link Utility#getFriendlyDayString},
+ * {@link Utility#getFullFriendlyDayString}, {@link Utility#getDayName} and
+ * {@link Utility#getFormattedMonthDay}.  Labels are cached by julian day, and the whole cache
+ * is dropped as soon as it is asked for a label on a different day, in a different time zone or
+ * in a different locale than it was filled in, so "Today" and "Tomorrow" move on at midnight
+ * without anyone having to tell it.
+ * <p>
+ * The list loader, the detail screen, the widgets' binder threads and the sync's notification
+ * all format through the one instance, so it is synchronized.
+ */
+class DayLabelFormatter {
+
+    // What a label is for, each cached separately
+    private static final int LABEL_FRIENDLY = 0;
+    private static final int LABEL_FRIENDLY_LONG_TODAY = 1;
+    private static final int LABEL_FULL_FRIENDLY = 2;
+    private static final int LABEL_DAY_NAME = 3;
+    private static final int LABEL_MONTH_DAY = 4;
+    private static final int LABEL_COUNT = 5;
+
+    // A year of history is the furthest anything looks; past this the cache starts over
+    private static final int MAX_CACHED_DAYS = 400;
+
+    private static DayLabelFormatter sInstance;
+
+    @SuppressWarnings("unchecked")
+    private final SparseArray<String>[] mLabels = new SparseArray[LABEL_COUNT];
+
+    // The day, zone and locale the cached labels were formatted in
+    private int mTodayJulianDay;
+    private String mTimeZoneId;
+    private Locale mLocale;
+
+    private SimpleDateFormat mShortenedDateFormat;
+    private SimpleDateFormat mDayFormat;
+    private SimpleDateFormat mMonthDayFormat;
+
+    private int mHitCount;
+    private int mMissCount;
+
+    static synchronized DayLabelFormatter getInstance() {
+        if (sInstance == null) {
+            sInstance = new DayLabelFormatter();
+        }
+        return sInstance;
+    }
+
+    DayLabelFormatter() {
+        for (int i = 0; i < LABEL_COUNT; i++) {
+            mLabels[i] = new SparseArray<String>();
+        }
+    }
+
+    synchronized String getFriendlyDayString(Context context, long dateInMillis,
+                                             boolean displayLongToday, long now) {
+        int label = displayLongToday ? LABEL_FRIENDLY_LONG_TODAY : LABEL_FRIENDLY;
+        int julianDay = anchor(dateInMillis, now);
+        String cached = get(label, julianDay);
+        if (cached != null) {
+            return cached;
+        }
+        String formatted;
+        // For today: "Today, June 8"
+        // For tomorrow:  "Tomorrow"
+        // For the next 5 days: "Wednesday" (just the day name)
+        // For all days after that: "Mon Jun 8"
+        if (displayLongToday && julianDay == mTodayJulianDay) {
+            formatted = String.format(context.getString(
+                    R.string.format_full_friendly_date,
+                    context.getString(R.string.today),
+                    getFormattedMonthDay(dateInMillis, julianDay)));
+        } else if (julianDay < mTodayJulianDay + 7) {
+            formatted = getDayName(context, dateInMillis, julianDay);
+        } else {
+            formatted = mShortenedDateFormat.format(dateInMillis);
+        }
+        return put(label, julianDay, formatted);
+    }
+
+    synchronized String getFullFriendlyDayString(Context context, long dateInMillis, long now) {
+        int julianDay = anchor(dateInMillis, now);
+        String cached = get(LABEL_FULL_FRIENDLY, julianDay);
+        if (cached != null) {
+            return cached;
+        }
+        return put(LABEL_FULL_FRIENDLY, julianDay, String.format(context.getString(
+                R.string.format_full_friendly_date,
+                getDayName(context, dateInMillis, julianDay),
+                getFormattedMonthDay(dateInMillis, julianDay))));
+    }
+
+    synchronized String getDayName(Context context, long dateInMillis, long now) {
+        return getDayName(context, dateInMillis, anchor(dateInMillis, now));
+    }
+
+    synchronized String getFormattedMonthDay(long dateInMillis, long now) {
+        return getFormattedMonthDay(dateInMillis, anchor(dateInMillis, now));
+    }
+
+    private String getDayName(Context context, long dateInMillis, int julianDay) {
+        String cached = get(LABEL_DAY_NAME, julianDay);
+        if (cached != null) {
+            return cached;
+        }
+        String formatted;
+        if (julianDay == mTodayJulianDay) {
+            formatted = context.getString(R.string.today);
+        } else if (julianDay == mTodayJulianDay + 1) {
+            formatted = context.getString(R.string.tomorrow);
+        } else {
+            // Otherwise, the format is just the day of the week (e.g "Wednesday".
+            formatted = mDayFormat.format(dateInMillis);
+        }
+        return put(LABEL_DAY_NAME, julianDay, formatted);
+    }
+
+    private String getFormattedMonthDay(long dateInMillis, int julianDay) {
+        String cached = get(LABEL_MONTH_DAY, julianDay);
+        if (cached != null) {
+            return cached;
+        }
+        return put(LABEL_MONTH_DAY, julianDay, mMonthDayFormat.format(dateInMillis));
+    }
+
+    /**
+     * Drops the cache if today, the time zone or the locale changed since it was filled.
+     *
+     * @return the julian day of {@code dateInMillis}, in the zone's offset at {@code now} as
+     * the labels always have been.
+     */
+    private int anchor(long dateInMillis, long now) {
+        TimeZone timeZone = TimeZone.getDefault();
+        Locale locale = Locale.getDefault();
+        long gmtoff = timeZone.getOffset(now) / 1000;
+        int todayJulianDay = Time.getJulianDay(now, gmtoff);
+        if (todayJulianDay != mTodayJulianDay || !timeZone.getID().equals(mTimeZoneId)
+                || !locale.equals(mLocale)) {
+            if (!locale.equals(mLocale) || !timeZone.getID().equals(mTimeZoneId)) {
+                // The formats carry both
+                mShortenedDateFormat = new SimpleDateFormat("EEE MMM dd", locale);
+                mDayFormat = new SimpleDateFormat("EEEE", locale);
+                mMonthDayFormat = new SimpleDateFormat("MMMM dd", locale);
+            }
+            clear();
+            mTodayJulianDay = todayJulianDay;
+            mTimeZoneId = timeZone.getID();
+            mLocale = locale;
+        }
+        return Time.getJulianDay(dateInMillis, gmtoff);
+    }
+
+    private String get(int label, int julianDay) {
+        String cached = mLabels[label].get(julianDay);
+        if (cached == null) {
+            mMissCount++;
+        } else {
+            mHitCount++;
+        }
+        return cached;
+    }
+
+    private String put(int label, int julianDay, String formatted) {
+        if (mLabels[label].size() >= MAX_CACHED_DAYS) {
+            mLabels[label].clear();
+        }
+        mLabels[label].put(julianDay, formatted);
+        return formatted;
+    }
+
+    synchronized void clear() {
+        for (SparseArray<String> labels : mLabels) {
+            labels.clear();
+        }
+    }
+
+    synchronized int getHitCount() {
+        return mHitCount;
+    }
+
+    synchronized int getMissCount() {
+        return mMissCount;
+    }
+}
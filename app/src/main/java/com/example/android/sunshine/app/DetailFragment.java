@@ -16,9 +16,11 @@
 package com.example.android.sunshine.app;
 
 import android.content.Intent;
+import android.database.ContentObserver;
 import android.database.Cursor;
 import android.net.Uri;
 import android.os.Bundle;
+import android.os.Handler;
 import android.support.v4.app.Fragment;
 import android.support.v4.app.LoaderManager;
 import android.support.v4.content.CursorLoader;
@@ -70,7 +72,8 @@ public class DetailFragment extends Fragment implements LoaderManager.LoaderCall
             WeatherEntry.COLUMN_DEGREES,
             WeatherEntry.COLUMN_WEATHER_ID,
             // This works because the WeatherProvider returns location data joined with
-            // weather data, even though they're stored in two different tables.
+            // weather data, even though they're stored in two different tables.  The setting
+            // itself it fills in from the URI, so this query doesn't need the join.
             WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING
     };
 
@@ -99,6 +102,20 @@ public class DetailFragment extends Fragment implements LoaderManager.LoaderCall
     private TextView mPressureView;
     private TextView mPressureLabelView;
 
+    // What the loader last delivered, and the loader still owns it
+    private Cursor mData;
+
+    // Re-binds the loaded day when only its presentation changed, see
+    // WeatherContract.PRESENTATION_URI
+    private final ContentObserver mPresentationObserver = new ContentObserver(new Handler()) {
+        @Override
+        public void onChange(boolean selfChange) {
+            if (mData != null && !mData.isClosed()) {
+                bindWeather(mData);
+            }
+        }
+    };
+
     public DetailFragment() {
         setHasOptionsMenu(true);
     }
@@ -154,9 +171,17 @@ public class DetailFragment extends Fragment implements LoaderManager.LoaderCall
     @Override
     public void onActivityCreated(Bundle savedInstanceState) {
         getLoaderManager().initLoader(DETAIL_LOADER, null, this);
+        getActivity().getContentResolver().registerContentObserver(
+                WeatherContract.PRESENTATION_URI, false, mPresentationObserver);
         super.onActivityCreated(savedInstanceState);
     }
 
+    @Override
+    public void onDestroyView() {
+        getActivity().getContentResolver().unregisterContentObserver(mPresentationObserver);
+        super.onDestroyView();
+    }
+
     void onLocationChanged( String newLocation ) {
         // replace the uri, since the location has changed
         Uri uri = mUri;
@@ -189,8 +214,11 @@ public class DetailFragment extends Fragment implements LoaderManager.LoaderCall
         return null;
     }
 
-    @Override
-    public void onLoadFinished(Loader<Cursor> loader, Cursor data) {
+    /**
+     * Shows the loaded day.  Also run again, with the same cursor, when only the units or the
+     * art pack changed.
+     */
+    private void bindWeather(Cursor data) {
         if (data != null && data.moveToFirst()) {
             ViewParent vp = getView().getParent();
             if ( vp instanceof CardView ) {
@@ -264,6 +292,12 @@ public class DetailFragment extends Fragment implements LoaderManager.LoaderCall
             mForecast = String.format("%s - %s - %s/%s", dateText, description, high, low);
 
         }
+    }
+
+    @Override
+    public void onLoadFinished(Loader<Cursor> loader, Cursor data) {
+        mData = data;
+        bindWeather(data);
         AppCompatActivity activity = (AppCompatActivity)getActivity();
         Toolbar toolbarView = (Toolbar) getView().findViewById(R.id.toolbar);
 
@@ -288,5 +322,7 @@ public class DetailFragment extends Fragment implements LoaderManager.LoaderCall
     }
 
     @Override
-    public void onLoaderReset(Loader<Cursor> loader) { }
+    public void onLoaderReset(Loader<Cursor> loader) {
+        mData = null;
+    }
 }
\ No newline at end of file
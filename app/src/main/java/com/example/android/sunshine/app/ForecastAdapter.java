@@ -16,12 +16,10 @@
 package com.example.android.sunshine.app;
 
 import android.content.Context;
-import android.database.Cursor;
-import android.os.Build;
 import android.os.Bundle;
 import android.support.v4.view.ViewCompat;
+import android.support.v7.util.DiffUtil;
 import android.support.v7.widget.RecyclerView;
-import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
@@ -30,11 +28,12 @@ import android.widget.ImageView;
 import android.widget.TextView;
 
 import com.bumptech.glide.Glide;
-import com.example.android.sunshine.app.data.WeatherContract;
+
+import java.util.List;
 
 /**
- * {@link ForecastAdapter} exposes a list of weather forecasts
- * from a {@link android.database.Cursor} to a {@link android.support.v7.widget.RecyclerView}.
+ * {@link ForecastAdapter} exposes a list of weather forecasts, as the {@link ForecastRow}s
+ * {@link ForecastRowLoader} formats, to a {@link android.support.v7.widget.RecyclerView}.
  */
 public class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.ForecastAdapterViewHolder> {
 
@@ -44,7 +43,7 @@ public class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.Foreca
     // Flag to determine if we want to use a separate view for "today".
     private boolean mUseTodayLayout = true;
 
-    private Cursor mCursor;
+    private List<ForecastRow> mRows;
     final private Context mContext;
     final private ForecastAdapterOnClickHandler mClickHandler;
     final private View mEmptyView;
@@ -73,9 +72,7 @@ public class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.Foreca
         @Override
         public void onClick(View v) {
             int adapterPosition = getAdapterPosition();
-            mCursor.moveToPosition(adapterPosition);
-            int dateColumnIndex = mCursor.getColumnIndex(WeatherContract.WeatherEntry.COLUMN_DATE);
-            mClickHandler.onClick(mCursor.getLong(dateColumnIndex), this);
+            mClickHandler.onClick(mRows.get(adapterPosition).mDate, this);
             mICM.onClick(this);
         }
     }
@@ -88,6 +85,9 @@ public class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.Foreca
         mContext = context;
         mClickHandler = dh;
         mEmptyView = emptyView;
+        // Rows are keyed by their date, so a reload keeps their views and the checked day.
+        // This has to be set before the ItemChoiceManager starts observing.
+        setHasStableIds(true);
         mICM = new ItemChoiceManager(this);
         mICM.setChoiceMode(choiceMode);
     }
@@ -124,26 +124,21 @@ public class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.Foreca
 
     @Override
     public void onBindViewHolder(ForecastAdapterViewHolder forecastAdapterViewHolder, int position) {
-        mCursor.moveToPosition(position);
-        int weatherId = mCursor.getInt(ForecastFragment.COL_WEATHER_CONDITION_ID);
-        int defaultImage;
-        boolean useLongToday;
-
-        switch (getItemViewType(position)) {
-            case VIEW_TYPE_TODAY:
-                defaultImage = Utility.getArtResourceForWeatherCondition(weatherId);
-                useLongToday = true;
-                break;
-            default:
-                defaultImage = Utility.getIconResourceForWeatherCondition(weatherId);
-                useLongToday = false;
-        }
+        bindRow(forecastAdapterViewHolder, mRows.get(position), position);
+    }
 
-        if ( Utility.usingLocalGraphics(mContext) ) {
+    /*
+        Everything here was formatted when the row was loaded, so binding is only assignment.
+     */
+    void bindRow(ForecastAdapterViewHolder forecastAdapterViewHolder, ForecastRow row, int position) {
+        boolean today = getItemViewType(position) == VIEW_TYPE_TODAY;
+        int defaultImage = today ? row.mArtResource : row.mIconResource;
+
+        if ( null == row.mArtUrl ) {
             forecastAdapterViewHolder.mIconView.setImageResource(defaultImage);
         } else {
             Glide.with(mContext)
-                    .load(Utility.getArtUrlForWeatherCondition(mContext, weatherId))
+                    .load(row.mArtUrl)
                     .error(defaultImage)
                     .crossFade()
                     .into(forecastAdapterViewHolder.mIconView);
@@ -153,34 +148,20 @@ public class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.Foreca
         // the animator can use this to re-find the original view
         ViewCompat.setTransitionName(forecastAdapterViewHolder.mIconView, "iconView" + position);
 
-        // Read date from cursor
-        long dateInMillis = mCursor.getLong(ForecastFragment.COL_WEATHER_DATE);
-
-        // Find TextView and set formatted date on it
-        forecastAdapterViewHolder.mDateView.setText(Utility.getFriendlyDayString(mContext, dateInMillis, useLongToday));
+        forecastAdapterViewHolder.mDateView.setText(today ? row.mLongDateText : row.mDateText);
 
-        // Read weather forecast from cursor
-        String description = Utility.getStringForWeatherCondition(mContext, weatherId);
-
-        // Find TextView and set weather forecast on it
-        forecastAdapterViewHolder.mDescriptionView.setText(description);
-        forecastAdapterViewHolder.mDescriptionView.setContentDescription(mContext.getString(R.string.a11y_forecast, description));
+        forecastAdapterViewHolder.mDescriptionView.setText(row.mDescription);
+        forecastAdapterViewHolder.mDescriptionView.setContentDescription(row.mDescriptionA11y);
 
         // For accessibility, we don't want a content description for the icon field
         // because the information is repeated in the description view and the icon
         // is not individually selectable
 
-        // Read high temperature from cursor
-        double high = mCursor.getDouble(ForecastFragment.COL_WEATHER_MAX_TEMP);
-        String highString = Utility.formatTemperature(mContext, high);
-        forecastAdapterViewHolder.mHighTempView.setText(highString);
-        forecastAdapterViewHolder.mHighTempView.setContentDescription(mContext.getString(R.string.a11y_high_temp, highString));
+        forecastAdapterViewHolder.mHighTempView.setText(row.mHighText);
+        forecastAdapterViewHolder.mHighTempView.setContentDescription(row.mHighA11y);
 
-        // Read low temperature from cursor
-        double low = mCursor.getDouble(ForecastFragment.COL_WEATHER_MIN_TEMP);
-        String lowString = Utility.formatTemperature(mContext, low);
-        forecastAdapterViewHolder.mLowTempView.setText(lowString);
-        forecastAdapterViewHolder.mLowTempView.setContentDescription(mContext.getString(R.string.a11y_low_temp, lowString));
+        forecastAdapterViewHolder.mLowTempView.setText(row.mLowText);
+        forecastAdapterViewHolder.mLowTempView.setContentDescription(row.mLowA11y);
 
         mICM.onBindViewHolder(forecastAdapterViewHolder, position);
     }
@@ -206,20 +187,43 @@ public class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.Foreca
         return (position == 0 && mUseTodayLayout) ? VIEW_TYPE_TODAY : VIEW_TYPE_FUTURE_DAY;
     }
 
+    @Override
+    public long getItemId(int position) {
+        // ItemChoiceManager looks up the positions a checked day was last seen at
+        if ( null == mRows || position >= mRows.size() ) return RecyclerView.NO_ID;
+        return mRows.get(position).mDate;
+    }
+
     @Override
     public int getItemCount() {
-        if ( null == mCursor ) return 0;
-        return mCursor.getCount();
+        if ( null == mRows ) return 0;
+        return mRows.size();
+    }
+
+    void swapRows(List<ForecastRow> newRows) {
+        swapRows(newRows, null, null);
     }
 
-    public void swapCursor(Cursor newCursor) {
-        mCursor = newCursor;
-        notifyDataSetChanged();
+    /**
+     * Shows {@code newRows}, dispatching only the rows {@code diff} found changed if it was
+     * computed against the rows shown now, {@code diffedFrom}.  Otherwise every row rebinds.
+     */
+    void swapRows(List<ForecastRow> newRows, List<ForecastRow> diffedFrom,
+                  DiffUtil.DiffResult diff) {
+        if ( newRows != mRows ) {
+            boolean dispatchDiff = null != diff && null != mRows && diffedFrom == mRows;
+            mRows = newRows;
+            if ( dispatchDiff ) {
+                diff.dispatchUpdatesTo(this);
+            } else {
+                notifyDataSetChanged();
+            }
+        }
         mEmptyView.setVisibility(getItemCount() == 0 ? View.VISIBLE : View.GONE);
     }
 
-    public Cursor getCursor() {
-        return mCursor;
+    List<ForecastRow> getRows() {
+        return mRows;
     }
 
     public void selectView(RecyclerView.ViewHolder viewHolder) {
@@ -20,7 +20,6 @@ import android.app.Activity;
 import android.content.Intent;
 import android.content.SharedPreferences;
 import android.content.res.TypedArray;
-import android.database.Cursor;
 import android.net.Uri;
 import android.os.Build;
 import android.os.Bundle;
@@ -28,7 +27,6 @@ import android.preference.PreferenceManager;
 import android.support.design.widget.AppBarLayout;
 import android.support.v4.app.Fragment;
 import android.support.v4.app.LoaderManager;
-import android.support.v4.content.CursorLoader;
 import android.support.v4.content.Loader;
 import android.support.v4.view.ViewCompat;
 import android.support.v7.widget.LinearLayoutManager;
@@ -48,10 +46,12 @@ import android.widget.TextView;
 import com.example.android.sunshine.app.data.WeatherContract;
 import com.example.android.sunshine.app.sync.SunshineSyncAdapter;
 
+import java.util.List;
+
 /**
  * Encapsulates fetching the forecast and displaying it as a {@link android.support.v7.widget.RecyclerView} layout.
  */
-public class ForecastFragment extends Fragment implements LoaderManager.LoaderCallbacks<Cursor>, SharedPreferences.OnSharedPreferenceChangeListener {
+public class ForecastFragment extends Fragment implements LoaderManager.LoaderCallbacks<ForecastRowLoader.Rows>, SharedPreferences.OnSharedPreferenceChangeListener {
     public static final String LOG_TAG = ForecastFragment.class.getSimpleName();
     private ForecastAdapter mForecastAdapter;
     private RecyclerView mRecyclerView;
@@ -259,6 +259,8 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
         if ( mHoldForTransition ) {
             getActivity().supportPostponeEnterTransition();
         }
+        // The loader formats the rows, and formats them again when only their presentation
+        // changed, see WeatherContract.PRESENTATION_URI
         getLoaderManager().initLoader(FORECAST_LOADER, null, this);
         super.onActivityCreated(savedInstanceState);
     }
@@ -273,11 +275,10 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
         // intent can is detailed in the "Common Intents" page of Android's developer site:
         // http://developer.android.com/guide/components/intents-common.html#Maps
         if (null != mForecastAdapter) {
-            Cursor c = mForecastAdapter.getCursor();
-            if (null != c) {
-                c.moveToPosition(0);
-                String posLat = c.getString(COL_COORD_LAT);
-                String posLong = c.getString(COL_COORD_LONG);
+            List<ForecastRow> rows = mForecastAdapter.getRows();
+            if (null != rows && !rows.isEmpty()) {
+                String posLat = rows.get(0).mCoordLat;
+                String posLong = rows.get(0).mCoordLong;
                 Uri geoLocation = Uri.parse("geo:" + posLat + "," + posLong);
 
                 Intent intent = new Intent(Intent.ACTION_VIEW);
@@ -302,7 +303,7 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
 
 
     @Override
-    public Loader<Cursor> onCreateLoader(int i, Bundle bundle) {
+    public Loader<ForecastRowLoader.Rows> onCreateLoader(int i, Bundle bundle) {
         // This is called when a new Loader needs to be created.  This
         // fragment only uses one loader, so we don't care about checking the id.
 
@@ -316,19 +317,17 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
         Uri weatherForLocationUri = WeatherContract.WeatherEntry.buildWeatherLocationWithStartDate(
                 locationSetting, System.currentTimeMillis());
 
-        return new CursorLoader(getActivity(),
+        return new ForecastRowLoader(getActivity(),
                 weatherForLocationUri,
                 FORECAST_COLUMNS,
-                null,
-                null,
                 sortOrder);
     }
 
     @Override
-    public void onLoadFinished(Loader<Cursor> loader, Cursor data) {
-        mForecastAdapter.swapCursor(data);
+    public void onLoadFinished(Loader<ForecastRowLoader.Rows> loader, ForecastRowLoader.Rows data) {
+        mForecastAdapter.swapRows(data.mRows, data.mPrevious, data.mDiff);
         updateEmptyView();
-        if ( data.getCount() == 0 ) {
+        if ( data.mRows.isEmpty() ) {
             getActivity().supportStartPostponedEnterTransition();
         } else {
             mRecyclerView.getViewTreeObserver().addOnPreDrawListener(new ViewTreeObserver.OnPreDrawListener() {
@@ -341,12 +340,10 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
                         int position = mForecastAdapter.getSelectedItemPosition();
                         if (position == RecyclerView.NO_POSITION &&
                                 -1 != mInitialSelectedDate) {
-                            Cursor data = mForecastAdapter.getCursor();
-                            int count = data.getCount();
-                            int dateColumn = data.getColumnIndex(WeatherContract.WeatherEntry.COLUMN_DATE);
+                            List<ForecastRow> data = mForecastAdapter.getRows();
+                            int count = data.size();
                             for ( int i = 0; i < count; i++ ) {
-                                data.moveToPosition(i);
-                                if ( data.getLong(dateColumn) == mInitialSelectedDate ) {
+                                if ( data.get(i).mDate == mInitialSelectedDate ) {
                                     position = i;
                                     break;
                                 }
@@ -383,8 +380,8 @@ public class ForecastFragment extends Fragment implements LoaderManager.LoaderCa
     }
 
     @Override
-    public void onLoaderReset(Loader<Cursor> loader) {
-        mForecastAdapter.swapCursor(null);
+    public void onLoaderReset(Loader<ForecastRowLoader.Rows> loader) {
+        mForecastAdapter.swapRows(null);
     }
 
     public void setUseTodayLayout(boolean useTodayLayout) {
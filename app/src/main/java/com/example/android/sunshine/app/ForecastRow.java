@@ -0,0 +1,124 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.database.Cursor;
+
+/**
+ * One day of the forecast list, formatted and ready to bind.  {@link ForecastRowLoader} builds
+ * these off the main thread, so {@link ForecastAdapter} only assigns the strings to its views.
+ * Rows are immutable; a change to the data or to how it's shown builds a new list.  Each row
+ * keeps the stored values it was formatted from, so a change of units or art pack is
+ * {@link #reformat}ted without going back to the provider.
+ */
+final class ForecastRow {
+
+    final long mDate;
+    final int mWeatherId;
+    // Celsius, as stored
+    final double mHigh;
+    final double mLow;
+
+    // The first row may be shown in the larger "today" layout, which spells today out in full
+    final String mDateText;
+    final String mLongDateText;
+
+    final String mDescription;
+    final String mDescriptionA11y;
+    final String mHighText;
+    final String mHighA11y;
+    final String mLowText;
+    final String mLowA11y;
+
+    final int mIconResource;
+    final int mArtResource;
+    // null when Sunshine is using its local graphics
+    final String mArtUrl;
+
+    final String mCoordLat;
+    final String mCoordLong;
+
+    private ForecastRow(Context context, long date, int weatherId, double high, double low,
+                        String coordLat, String coordLong, boolean isMetric,
+                        boolean localGraphics) {
+        mDate = date;
+        mWeatherId = weatherId;
+        mHigh = high;
+        mLow = low;
+
+        mDateText = Utility.getFriendlyDayString(context, mDate, false);
+        String longDateText = Utility.getFriendlyDayString(context, mDate, true);
+        mLongDateText = longDateText.equals(mDateText) ? mDateText : longDateText;
+
+        mDescription = Utility.getStringForWeatherCondition(context, mWeatherId);
+        mDescriptionA11y = context.getString(R.string.a11y_forecast, mDescription);
+
+        mHighText = Utility.formatTemperature(context, high, isMetric);
+        mHighA11y = context.getString(R.string.a11y_high_temp, mHighText);
+        mLowText = Utility.formatTemperature(context, low, isMetric);
+        mLowA11y = context.getString(R.string.a11y_low_temp, mLowText);
+
+        mIconResource = Utility.getIconResourceForWeatherCondition(mWeatherId);
+        mArtResource = Utility.getArtResourceForWeatherCondition(mWeatherId);
+        mArtUrl = localGraphics ? null
+                : Utility.getArtUrlForWeatherCondition(context, mWeatherId);
+
+        mCoordLat = coordLat;
+        mCoordLong = coordLong;
+    }
+
+    /**
+     * @return true if the rows would bind the same, so a reload that produced {@code other}
+     * doesn't need to rebind this row's views.
+     */
+    boolean hasSameContents(ForecastRow other) {
+        return mDate == other.mDate
+                && mWeatherId == other.mWeatherId
+                && mDateText.equals(other.mDateText)
+                && mLongDateText.equals(other.mLongDateText)
+                && mDescription.equals(other.mDescription)
+                && mHighText.equals(other.mHighText)
+                && mLowText.equals(other.mLowText)
+                && (mArtUrl == null ? other.mArtUrl == null : mArtUrl.equals(other.mArtUrl));
+    }
+
+    /**
+     * Formats the row the cursor is on.  Reads resources and, unless {@code localGraphics},
+     * the art pack preference, so it belongs on a background thread.
+     *
+     * @param cursor positioned on a row of {@link ForecastFragment}'s forecast columns.
+     */
+    static ForecastRow fromCursor(Context context, Cursor cursor, boolean isMetric,
+                                  boolean localGraphics) {
+        return new ForecastRow(context,
+                cursor.getLong(ForecastFragment.COL_WEATHER_DATE),
+                cursor.getInt(ForecastFragment.COL_WEATHER_CONDITION_ID),
+                cursor.getDouble(ForecastFragment.COL_WEATHER_MAX_TEMP),
+                cursor.getDouble(ForecastFragment.COL_WEATHER_MIN_TEMP),
+                cursor.getString(ForecastFragment.COL_COORD_LAT),
+                cursor.getString(ForecastFragment.COL_COORD_LONG),
+                isMetric, localGraphics);
+    }
+
+    /**
+     * Formats the same day again, for a change in how it's shown rather than in the data.
+     */
+    ForecastRow reformat(Context context, boolean isMetric, boolean localGraphics) {
+        return new ForecastRow(context, mDate, mWeatherId, mHigh, mLow, mCoordLat, mCoordLong,
+                isMetric, localGraphics);
+    }
+}
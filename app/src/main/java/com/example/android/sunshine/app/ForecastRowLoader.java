@@ -0,0 +1,233 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Handler;
+import android.support.v4.content.AsyncTaskLoader;
+import android.support.v7.util.DiffUtil;
+
+import com.example.android.sunshine.app.data.WeatherContract;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Loads the forecast list as {@link ForecastRow}s.  The query and all of the formatting run on
+ * the loader's thread and the cursor is closed before the rows are delivered, so the list the
+ * adapter gets is immutable and binding a row touches neither the cursor nor the preferences.
+ * <p>
+ * Like a {@link android.support.v4.content.CursorLoader} it reloads when the provider notifies
+ * the query's URI.  On {@link WeatherContract#PRESENTATION_URI}, a change of units or art pack,
+ * it formats the rows it already has again without querying.
+ * <p>
+ * Each reload is also diffed, by date, against the rows it last delivered, so the adapter can
+ * dispatch only the rows that changed instead of rebinding, and reloading the art of, all of
+ * them.
+ */
+class ForecastRowLoader extends AsyncTaskLoader<ForecastRowLoader.Rows> {
+
+    /**
+     * The loaded rows, and how they differ from the rows delivered before them.
+     */
+    static final class Rows {
+        final List<ForecastRow> mRows;
+        // null on the first load
+        final List<ForecastRow> mPrevious;
+        final DiffUtil.DiffResult mDiff;
+        // The data change the rows were queried after
+        final int mDataGeneration;
+
+        Rows(List<ForecastRow> rows, List<ForecastRow> previous, DiffUtil.DiffResult diff,
+             int dataGeneration) {
+            mRows = rows;
+            mPrevious = previous;
+            mDiff = diff;
+            mDataGeneration = dataGeneration;
+        }
+    }
+
+    /*
+        Rows are the same item if they're the same day.  A row moving into or out of the first
+        position is reported as changed, since the first row may use the "today" layout.
+     */
+    private static class RowDiff extends DiffUtil.Callback {
+        private final List<ForecastRow> mOld;
+        private final List<ForecastRow> mNew;
+
+        RowDiff(List<ForecastRow> oldRows, List<ForecastRow> newRows) {
+            mOld = oldRows;
+            mNew = newRows;
+        }
+
+        @Override
+        public int getOldListSize() {
+            return mOld.size();
+        }
+
+        @Override
+        public int getNewListSize() {
+            return mNew.size();
+        }
+
+        @Override
+        public boolean areItemsTheSame(int oldItemPosition, int newItemPosition) {
+            return mOld.get(oldItemPosition).mDate == mNew.get(newItemPosition).mDate;
+        }
+
+        @Override
+        public boolean areContentsTheSame(int oldItemPosition, int newItemPosition) {
+            return (oldItemPosition == 0) == (newItemPosition == 0)
+                    && mOld.get(oldItemPosition).hasSameContents(mNew.get(newItemPosition));
+        }
+    }
+
+    // What a ForceLoadContentObserver does, but counting the change first
+    private final ContentObserver mObserver = new ContentObserver(new Handler()) {
+        @Override
+        public boolean deliverSelfNotifications() {
+            return true;
+        }
+
+        @Override
+        public void onChange(boolean selfChange) {
+            mDataGeneration++;
+            onContentChanged();
+        }
+    };
+    // Only the formatting changed, the rows can be formatted again from what was loaded
+    private final ForceLoadContentObserver mPresentationObserver = new ForceLoadContentObserver();
+    private final Uri mUri;
+    private final String[] mProjection;
+    private final String mSortOrder;
+
+    // Written on the main thread, read by the next load to diff against
+    private volatile Rows mRows;
+    // Counts the provider's changes, on the main thread; a load that sees the rows it would
+    // diff against were queried after the latest one only has to reformat them
+    private volatile int mDataGeneration;
+    private boolean mObserving;
+
+    ForecastRowLoader(Context context, Uri uri, String[] projection, String sortOrder) {
+        super(context);
+        mUri = uri;
+        mProjection = projection;
+        mSortOrder = sortOrder;
+    }
+
+    @Override
+    public Rows loadInBackground() {
+        // Taken before the query, so a change during it loads again
+        int dataGeneration = mDataGeneration;
+        Rows previous = mRows;
+        List<ForecastRow> rows;
+        if (previous != null && previous.mDataGeneration == dataGeneration) {
+            rows = reformatRows(previous.mRows);
+        } else {
+            rows = queryRows();
+        }
+        if (previous == null) {
+            return new Rows(rows, null, null, dataGeneration);
+        }
+        return new Rows(rows, previous.mRows, diff(previous.mRows, rows), dataGeneration);
+    }
+
+    private List<ForecastRow> reformatRows(List<ForecastRow> loaded) {
+        Context context = getContext();
+        boolean isMetric = Utility.isMetric(context);
+        boolean localGraphics = Utility.usingLocalGraphics(context);
+        ArrayList<ForecastRow> rows = new ArrayList<ForecastRow>(loaded.size());
+        for (ForecastRow row : loaded) {
+            rows.add(row.reformat(context, isMetric, localGraphics));
+        }
+        return Collections.unmodifiableList(rows);
+    }
+
+    static DiffUtil.DiffResult diff(List<ForecastRow> oldRows, List<ForecastRow> newRows) {
+        // The days come back in date order, so nothing ever moves
+        return DiffUtil.calculateDiff(new RowDiff(oldRows, newRows), false);
+    }
+
+    private List<ForecastRow> queryRows() {
+        Context context = getContext();
+        Cursor cursor = context.getContentResolver().query(mUri, mProjection, null, null,
+                mSortOrder);
+        if (cursor == null) {
+            return Collections.emptyList();
+        }
+        try {
+            // Read once for the whole list rather than once per temperature
+            boolean isMetric = Utility.isMetric(context);
+            boolean localGraphics = Utility.usingLocalGraphics(context);
+            ArrayList<ForecastRow> rows = new ArrayList<ForecastRow>(cursor.getCount());
+            while (cursor.moveToNext()) {
+                rows.add(ForecastRow.fromCursor(context, cursor, isMetric, localGraphics));
+            }
+            return Collections.unmodifiableList(rows);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Override
+    public void deliverResult(Rows rows) {
+        if (isReset()) {
+            return;
+        }
+        mRows = rows;
+        if (isStarted()) {
+            super.deliverResult(rows);
+        }
+    }
+
+    @Override
+    protected void onStartLoading() {
+        if (!mObserving) {
+            // The same registration the provider's cursor would have made for a CursorLoader
+            getContext().getContentResolver().registerContentObserver(mUri, true, mObserver);
+            getContext().getContentResolver().registerContentObserver(
+                    WeatherContract.PRESENTATION_URI, false, mPresentationObserver);
+            mObserving = true;
+        }
+        if (mRows != null) {
+            deliverResult(mRows);
+        }
+        if (takeContentChanged() || mRows == null) {
+            forceLoad();
+        }
+    }
+
+    @Override
+    protected void onStopLoading() {
+        cancelLoad();
+    }
+
+    @Override
+    protected void onReset() {
+        super.onReset();
+        onStopLoading();
+        if (mObserving) {
+            getContext().getContentResolver().unregisterContentObserver(mObserver);
+            getContext().getContentResolver().unregisterContentObserver(mPresentationObserver);
+            mObserving = false;
+        }
+        mRows = null;
+    }
+}
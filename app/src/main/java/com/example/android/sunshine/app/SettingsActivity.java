@@ -29,7 +29,6 @@ import android.text.TextUtils;
 import android.util.Log;
 import android.view.View;
 import android.widget.ImageView;
-import com.example.android.sunshine.app.data.WeatherContract;
 import com.example.android.sunshine.app.sync.SunshineSyncAdapter;
 import com.google.android.gms.location.places.Place;
 import com.google.android.gms.location.places.ui.PlacePicker;
@@ -59,6 +58,7 @@ public class SettingsActivity extends PreferenceActivity
         bindPreferenceSummaryToValue(findPreference(getString(R.string.pref_location_key)));
         bindPreferenceSummaryToValue(findPreference(getString(R.string.pref_units_key)));
         bindPreferenceSummaryToValue(findPreference(getString(R.string.pref_art_pack_key)));
+        bindPreferenceSummaryToValue(findPreference(getString(R.string.pref_history_retention_key)));
 
 
         // If we are using a PlacePicker location, we need to show attributions.
@@ -153,6 +153,8 @@ public class SettingsActivity extends PreferenceActivity
     // start our synchronization here
     @Override
     public void onSharedPreferenceChanged(SharedPreferences sharedPreferences, String key) {
+        // The snapshot's own listener may not have run yet
+        SettingsSnapshot.refresh(this);
         if ( key.equals(getString(R.string.pref_location_key)) ) {
             // we've changed the location
             // Wipe out any potential PlacePicker latlng values so that we can use this text entry.
@@ -169,15 +171,16 @@ public class SettingsActivity extends PreferenceActivity
             Utility.resetLocationStatus(this);
             SunshineSyncAdapter.syncImmediately(this);
         } else if ( key.equals(getString(R.string.pref_units_key)) ) {
-            // units have changed. update lists of weather entries accordingly
-            getContentResolver().notifyChange(WeatherContract.WeatherEntry.CONTENT_URI, null);
+            // units have changed. update lists of weather entries accordingly, the data itself
+            // is the same so there is nothing to sync or requery
+            SunshineSyncAdapter.notifyPresentationChanged(this);
         } else if ( key.equals(getString(R.string.pref_location_status_key)) ) {
             // our location status has changed.  Update the summary accordingly
             Preference locationPreference = findPreference(getString(R.string.pref_location_key));
             bindPreferenceSummaryToValue(locationPreference);
         } else if ( key.equals(getString(R.string.pref_art_pack_key)) ) {
             // art pack have changed. update lists of weather entries accordingly
-            getContentResolver().notifyChange(WeatherContract.WeatherEntry.CONTENT_URI, null);
+            SunshineSyncAdapter.notifyPresentationChanged(this);
         }
     }
 
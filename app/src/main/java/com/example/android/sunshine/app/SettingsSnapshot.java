@@ -0,0 +1,109 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+
+import com.example.android.sunshine.app.sync.SunshineSyncAdapter;
+
+/**
+ * An immutable copy of the user's settings, so the helpers in {@link Utility} that run for every
+ * row of a list or a widget don't look up the default SharedPreferences and their keys on every
+ * call.  {@link #get(Context)} is a volatile read; a new snapshot replaces it whenever the
+ * preferences change.
+ * <p>
+ * SharedPreferences tells its listeners about a change on the main thread, after the write, so
+ * code that writes a setting and reads it back before that has to {@link #refresh(Context)}
+ * itself, as {@link Utility#resetLocationStatus} and the sync's location status do.
+ */
+public final class SettingsSnapshot {
+
+    private static volatile SettingsSnapshot sCurrent;
+    // SharedPreferences only keeps a weak reference to its listeners
+    private static SharedPreferences.OnSharedPreferenceChangeListener sListener;
+
+    public final String mLocation;
+    public final boolean mLatLonAvailable;
+    public final float mLatitude;
+    public final float mLongitude;
+    public final boolean mMetric;
+    // The art pack's URL format, or the Sunshine pack for local graphics
+    public final String mArtPack;
+    public final boolean mLocalGraphics;
+    @SunshineSyncAdapter.LocationStatus
+    public final int mLocationStatus;
+    public final int mHistoryRetentionDays;
+
+    @SuppressWarnings("ResourceType")
+    private SettingsSnapshot(Context context, SharedPreferences prefs) {
+        String latitudeKey = context.getString(R.string.pref_location_latitude);
+        String longitudeKey = context.getString(R.string.pref_location_longitude);
+        mLocation = prefs.getString(context.getString(R.string.pref_location_key),
+                context.getString(R.string.pref_location_default));
+        mLatLonAvailable = prefs.contains(latitudeKey) && prefs.contains(longitudeKey);
+        mLatitude = prefs.getFloat(latitudeKey, Utility.DEFAULT_LATLONG);
+        mLongitude = prefs.getFloat(longitudeKey, Utility.DEFAULT_LATLONG);
+
+        String metric = context.getString(R.string.pref_units_metric);
+        mMetric = prefs.getString(context.getString(R.string.pref_units_key), metric)
+                .equals(metric);
+
+        String sunshineArtPack = context.getString(R.string.pref_art_pack_sunshine);
+        mArtPack = prefs.getString(context.getString(R.string.pref_art_pack_key),
+                sunshineArtPack);
+        mLocalGraphics = mArtPack.equals(sunshineArtPack);
+
+        mLocationStatus = prefs.getInt(context.getString(R.string.pref_location_status_key),
+                SunshineSyncAdapter.LOCATION_STATUS_UNKNOWN);
+        mHistoryRetentionDays = Integer.parseInt(prefs.getString(
+                context.getString(R.string.pref_history_retention_key),
+                context.getString(R.string.pref_history_retention_default)));
+    }
+
+    /**
+     * @return the current settings.  The first call reads them and starts listening for changes.
+     */
+    public static SettingsSnapshot get(Context context) {
+        SettingsSnapshot current = sCurrent;
+        if (current == null) {
+            current = refresh(context);
+        }
+        return current;
+    }
+
+    /**
+     * Reads the settings again, for code that has just written one and reads it back before
+     * the change listener gets to run.
+     */
+    public static synchronized SettingsSnapshot refresh(Context context) {
+        final Context appContext = context.getApplicationContext();
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(appContext);
+        if (sListener == null) {
+            sListener = new SharedPreferences.OnSharedPreferenceChangeListener() {
+                @Override
+                public void onSharedPreferenceChanged(SharedPreferences prefs, String key) {
+                    refresh(appContext);
+                }
+            };
+            prefs.registerOnSharedPreferenceChangeListener(sListener);
+        }
+        // Built under the lock, so a refresh never publishes older values than the one before
+        sCurrent = new SettingsSnapshot(appContext, prefs);
+        return sCurrent;
+    }
+}
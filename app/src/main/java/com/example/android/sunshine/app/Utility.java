@@ -20,12 +20,10 @@ import android.content.SharedPreferences;
 import android.net.ConnectivityManager;
 import android.net.NetworkInfo;
 import android.preference.PreferenceManager;
-import android.text.format.Time;
 
 import com.example.android.sunshine.app.sync.SunshineSyncAdapter;
 
 import java.text.DateFormat;
-import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.Locale;
 
@@ -34,44 +32,45 @@ public class Utility {
     public static float DEFAULT_LATLONG = 0F;
 
     public static boolean isLocationLatLonAvailable(Context context) {
-        SharedPreferences prefs
-                = PreferenceManager.getDefaultSharedPreferences(context);
-        return prefs.contains(context.getString(R.string.pref_location_latitude))
-                && prefs.contains(context.getString(R.string.pref_location_longitude));
+        return SettingsSnapshot.get(context).mLatLonAvailable;
     }
 
     public static float getLocationLatitude(Context context) {
-        SharedPreferences prefs
-                = PreferenceManager.getDefaultSharedPreferences(context);
-        return prefs.getFloat(context.getString(R.string.pref_location_latitude),
-                DEFAULT_LATLONG);
+        return SettingsSnapshot.get(context).mLatitude;
     }
 
     public static float getLocationLongitude(Context context) {
-        SharedPreferences prefs
-                = PreferenceManager.getDefaultSharedPreferences(context);
-        return prefs.getFloat(context.getString(R.string.pref_location_longitude),
-                DEFAULT_LATLONG);
+        return SettingsSnapshot.get(context).mLongitude;
     }
 
     public static String getPreferredLocation(Context context) {
-        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
-        return prefs.getString(context.getString(R.string.pref_location_key),
-                context.getString(R.string.pref_location_default));
+        return SettingsSnapshot.get(context).mLocation;
+    }
+
+    /**
+     * @return how many days of past weather the history archive keeps.
+     */
+    public static int getHistoryRetentionDays(Context context) {
+        return SettingsSnapshot.get(context).mHistoryRetentionDays;
     }
 
     public static boolean isMetric(Context context) {
-        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
-        return prefs.getString(context.getString(R.string.pref_units_key),
-                context.getString(R.string.pref_units_metric))
-                .equals(context.getString(R.string.pref_units_metric));
+        return SettingsSnapshot.get(context).mMetric;
     }
 
     public static String formatTemperature(Context context, double temperature) {
+        return formatTemperature(context, temperature, isMetric(context));
+    }
+
+    /**
+     * Formats a temperature in the units already read from the preferences, for callers
+     * formatting many at once.
+     */
+    public static String formatTemperature(Context context, double temperature, boolean isMetric) {
         // Data stored in Celsius by default.  If user prefers to see in Fahrenheit, convert
         // the values here.
         String suffix = "\u00B0";
-        if (!isMetric(context)) {
+        if (!isMetric) {
             temperature = (temperature * 1.8) + 32;
         }
 
@@ -102,30 +101,8 @@ public class Utility {
         // For tomorrow:  "Tomorrow"
         // For the next 5 days: "Wednesday" (just the day name)
         // For all days after that: "Mon Jun 8"
-
-        Time time = new Time();
-        time.setToNow();
-        long currentTime = System.currentTimeMillis();
-        int julianDay = Time.getJulianDay(dateInMillis, time.gmtoff);
-        int currentJulianDay = Time.getJulianDay(currentTime, time.gmtoff);
-
-        // If the date we're building the String for is today's date, the format
-        // is "Today, June 24"
-        if (displayLongToday && julianDay == currentJulianDay) {
-            String today = context.getString(R.string.today);
-            int formatId = R.string.format_full_friendly_date;
-            return String.format(context.getString(
-                    formatId,
-                    today,
-                    getFormattedMonthDay(context, dateInMillis)));
-        } else if ( julianDay < currentJulianDay + 7 ) {
-            // If the input date is less than a week in the future, just return the day name.
-            return getDayName(context, dateInMillis);
-        } else {
-            // Otherwise, use the form "Mon Jun 3"
-            SimpleDateFormat shortenedDateFormat = new SimpleDateFormat("EEE MMM dd");
-            return shortenedDateFormat.format(dateInMillis);
-        }
+        return DayLabelFormatter.getInstance().getFriendlyDayString(context, dateInMillis,
+                displayLongToday, System.currentTimeMillis());
     }
 
     /**
@@ -137,13 +114,8 @@ public class Utility {
      * @return a user-friendly representation of the date.
      */
     public static String getFullFriendlyDayString(Context context, long dateInMillis) {
-
-        String day = getDayName(context, dateInMillis);
-        int formatId = R.string.format_full_friendly_date;
-        return String.format(context.getString(
-                formatId,
-                day,
-                getFormattedMonthDay(context, dateInMillis)));
+        return DayLabelFormatter.getInstance().getFullFriendlyDayString(context, dateInMillis,
+                System.currentTimeMillis());
     }
 
     /**
@@ -157,22 +129,8 @@ public class Utility {
     public static String getDayName(Context context, long dateInMillis) {
         // If the date is today, return the localized version of "Today" instead of the actual
         // day name.
-
-        Time t = new Time();
-        t.setToNow();
-        int julianDay = Time.getJulianDay(dateInMillis, t.gmtoff);
-        int currentJulianDay = Time.getJulianDay(System.currentTimeMillis(), t.gmtoff);
-        if (julianDay == currentJulianDay) {
-            return context.getString(R.string.today);
-        } else if ( julianDay == currentJulianDay +1 ) {
-            return context.getString(R.string.tomorrow);
-        } else {
-            Time time = new Time();
-            time.setToNow();
-            // Otherwise, the format is just the day of the week (e.g "Wednesday".
-            SimpleDateFormat dayFormat = new SimpleDateFormat("EEEE");
-            return dayFormat.format(dateInMillis);
-        }
+        return DayLabelFormatter.getInstance().getDayName(context, dateInMillis,
+                System.currentTimeMillis());
     }
 
     /**
@@ -183,12 +141,8 @@ public class Utility {
      * @return The day in the form of a string formatted "December 6"
      */
     public static String getFormattedMonthDay(Context context, long dateInMillis ) {
-        Time time = new Time();
-        time.setToNow();
-        SimpleDateFormat dbDateFormat = new SimpleDateFormat(Utility.DATE_FORMAT);
-        SimpleDateFormat monthDayFormat = new SimpleDateFormat("MMMM dd");
-        String monthDayString = monthDayFormat.format(dateInMillis);
-        return monthDayString;
+        return DayLabelFormatter.getInstance().getFormattedMonthDay(dateInMillis,
+                System.currentTimeMillis());
     }
 
     public static String getFormattedWind(Context context, float windSpeed, float degrees) {
@@ -266,10 +220,7 @@ public class Utility {
      * @return true if Sunshine is using local graphics, false otherwise.
      */
     public static boolean usingLocalGraphics(Context context) {
-        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
-        String sunshineArtPack = context.getString(R.string.pref_art_pack_sunshine);
-        return prefs.getString(context.getString(R.string.pref_art_pack_key),
-                sunshineArtPack).equals(sunshineArtPack);
+        return SettingsSnapshot.get(context).mLocalGraphics;
     }
 
     /**
@@ -281,9 +232,7 @@ public class Utility {
      * @return url for the corresponding weather artwork. null if no relation is found.
      */
     public static String getArtUrlForWeatherCondition(Context context, int weatherId) {
-        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
-        String formatArtUrl = prefs.getString(context.getString(R.string.pref_art_pack_key),
-                context.getString(R.string.pref_art_pack_sunshine));
+        String formatArtUrl = SettingsSnapshot.get(context).mArtPack;
 
         // Based on weather code data found at:
         // http://bugs.openweathermap.org/projects/api/wiki/Weather_Condition_Codes
@@ -585,8 +534,7 @@ public class Utility {
     @SuppressWarnings("ResourceType")
     static public @SunshineSyncAdapter.LocationStatus
     int getLocationStatus(Context c){
-        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(c);
-        return sp.getInt(c.getString(R.string.pref_location_status_key), SunshineSyncAdapter.LOCATION_STATUS_UNKNOWN);
+        return SettingsSnapshot.get(c).mLocationStatus;
     }
 
     /**
@@ -598,5 +546,6 @@ public class Utility {
         SharedPreferences.Editor spe = sp.edit();
         spe.putInt(c.getString(R.string.pref_location_status_key), SunshineSyncAdapter.LOCATION_STATUS_UNKNOWN);
         spe.apply();
+        SettingsSnapshot.refresh(c);
     }
 }
\ No newline at end of file
@@ -0,0 +1,234 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+
+import java.util.Arrays;
+
+/**
+ * Weather rows held column by column in primitive arrays, for moving a sync's worth of forecast
+ * days from the parser to the provider without a {@link ContentValues} and its boxed values per
+ * day.  A batch grows as needed and keeps its arrays across {@link #clear()}, so one that is
+ * reused costs no allocations once it has reached the size of a typical sync.
+ * <p>
+ * Short descriptions are interned into a small per-batch table: OWM only has a dozen or so of
+ * them, so each row just stores an index into that table.
+ * <p>
+ * A batch handed to {@link WeatherProvider#applyBatch(java.util.ArrayList, ForecastBatch)}
+ * carries back references in its location ids instead: the index of the operation that stores
+ * each row's location.
+ * <p>
+ * Not thread safe.
+ */
+public class ForecastBatch {
+    private static final int DEFAULT_CAPACITY = 16;
+
+    private int mSize;
+    private long[] mLocationIds;
+    private long[] mDates;
+    private int[] mWeatherIds;
+    private int[] mDescriptions;
+    private double[] mHighs;
+    private double[] mLows;
+    private double[] mHumidities;
+    private double[] mPressures;
+    private double[] mWindSpeeds;
+    private double[] mDegrees;
+
+    private String[] mDescriptionTable = new String[DEFAULT_CAPACITY];
+    private int mDescriptionCount;
+
+    public ForecastBatch() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public ForecastBatch(int capacity) {
+        capacity = Math.max(1, capacity);
+        mLocationIds = new long[capacity];
+        mDates = new long[capacity];
+        mWeatherIds = new int[capacity];
+        mDescriptions = new int[capacity];
+        mHighs = new double[capacity];
+        mLows = new double[capacity];
+        mHumidities = new double[capacity];
+        mPressures = new double[capacity];
+        mWindSpeeds = new double[capacity];
+        mDegrees = new double[capacity];
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    /**
+     * Empties the batch but keeps its arrays for the next use.
+     */
+    public void clear() {
+        mSize = 0;
+        for (int i = 0; i < mDescriptionCount; i++) {
+            mDescriptionTable[i] = null;
+        }
+        mDescriptionCount = 0;
+    }
+
+    /**
+     * Appends one day.
+     *
+     * @param locationId the row id of the location, or 0 if it isn't known yet and will be
+     *                   supplied by {@link #addAll(ForecastBatch, long)}.
+     */
+    public void add(long locationId, long date, int weatherId, String description, double high,
+                    double low, double humidity, double pressure, double windSpeed,
+                    double degrees) {
+        ensureCapacity(mSize + 1);
+        int row = mSize++;
+        mLocationIds[row] = locationId;
+        mDates[row] = date;
+        mWeatherIds[row] = weatherId;
+        mDescriptions[row] = intern(description);
+        mHighs[row] = high;
+        mLows[row] = low;
+        mHumidities[row] = humidity;
+        mPressures[row] = pressure;
+        mWindSpeeds[row] = windSpeed;
+        mDegrees[row] = degrees;
+    }
+
+    /**
+     * Appends all of {@code other}'s rows, stamped with {@code locationId}.
+     */
+    public void addAll(ForecastBatch other, long locationId) {
+        ensureCapacity(mSize + other.mSize);
+        for (int row = 0; row < other.mSize; row++) {
+            int to = mSize++;
+            mLocationIds[to] = locationId;
+            mDates[to] = other.mDates[row];
+            mWeatherIds[to] = other.mWeatherIds[row];
+            mDescriptions[to] = intern(other.getDescription(row));
+            mHighs[to] = other.mHighs[row];
+            mLows[to] = other.mLows[row];
+            mHumidities[to] = other.mHumidities[row];
+            mPressures[to] = other.mPressures[row];
+            mWindSpeeds[to] = other.mWindSpeeds[row];
+            mDegrees[to] = other.mDegrees[row];
+        }
+    }
+
+    public long getLocationId(int row) {
+        return mLocationIds[row];
+    }
+
+    public long getDate(int row) {
+        return mDates[row];
+    }
+
+    public int getWeatherId(int row) {
+        return mWeatherIds[row];
+    }
+
+    public String getDescription(int row) {
+        return mDescriptionTable[mDescriptions[row]];
+    }
+
+    public double getHigh(int row) {
+        return mHighs[row];
+    }
+
+    public double getLow(int row) {
+        return mLows[row];
+    }
+
+    public double getHumidity(int row) {
+        return mHumidities[row];
+    }
+
+    public double getPressure(int row) {
+        return mPressures[row];
+    }
+
+    public double getWindSpeed(int row) {
+        return mWindSpeeds[row];
+    }
+
+    public double getDegrees(int row) {
+        return mDegrees[row];
+    }
+
+    /**
+     * @return the rows as {@link ContentValues}, for a provider that has to be reached through a
+     * {@link android.content.ContentResolver}.
+     */
+    public ContentValues[] toContentValues() {
+        ContentValues[] rows = new ContentValues[mSize];
+        for (int row = 0; row < mSize; row++) {
+            rows[row] = toContentValues(row);
+        }
+        return rows;
+    }
+
+    /**
+     * @return one row as {@link ContentValues}, e.g. for a {@link
+     * android.content.ContentProviderOperation}.
+     */
+    public ContentValues toContentValues(int row) {
+        ContentValues values = new ContentValues();
+        values.put(WeatherContract.WeatherEntry.COLUMN_LOC_KEY, mLocationIds[row]);
+        values.put(WeatherContract.WeatherEntry.COLUMN_DATE, mDates[row]);
+        values.put(WeatherContract.WeatherEntry.COLUMN_HUMIDITY, mHumidities[row]);
+        values.put(WeatherContract.WeatherEntry.COLUMN_PRESSURE, mPressures[row]);
+        values.put(WeatherContract.WeatherEntry.COLUMN_WIND_SPEED, mWindSpeeds[row]);
+        values.put(WeatherContract.WeatherEntry.COLUMN_DEGREES, mDegrees[row]);
+        values.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, mHighs[row]);
+        values.put(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP, mLows[row]);
+        values.put(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC, getDescription(row));
+        values.put(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID, mWeatherIds[row]);
+        return values;
+    }
+
+    private int intern(String description) {
+        for (int i = 0; i < mDescriptionCount; i++) {
+            String interned = mDescriptionTable[i];
+            if (interned == description || (interned != null && interned.equals(description))) {
+                return i;
+            }
+        }
+        if (mDescriptionCount == mDescriptionTable.length) {
+            String[] table = new String[mDescriptionCount * 2];
+            System.arraycopy(mDescriptionTable, 0, table, 0, mDescriptionCount);
+            mDescriptionTable = table;
+        }
+        mDescriptionTable[mDescriptionCount] = description;
+        return mDescriptionCount++;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity <= mDates.length) {
+            return;
+        }
+        capacity = Math.max(capacity, mDates.length * 2);
+        mLocationIds = Arrays.copyOf(mLocationIds, capacity);
+        mDates = Arrays.copyOf(mDates, capacity);
+        mWeatherIds = Arrays.copyOf(mWeatherIds, capacity);
+        mDescriptions = Arrays.copyOf(mDescriptions, capacity);
+        mHighs = Arrays.copyOf(mHighs, capacity);
+        mLows = Arrays.copyOf(mLows, capacity);
+        mHumidities = Arrays.copyOf(mHumidities, capacity);
+        mPressures = Arrays.copyOf(mPressures, capacity);
+        mWindSpeeds = Arrays.copyOf(mWindSpeeds, capacity);
+        mDegrees = Arrays.copyOf(mDegrees, capacity);
+    }
+}
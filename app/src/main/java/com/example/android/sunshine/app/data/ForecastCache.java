@@ -0,0 +1,274 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.annotation.TargetApi;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.os.Build;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * In-memory cache of the provider's per-location forecast queries, {@code weather/<location>}
+ * and {@code weather/<location>/<date>}.  Right after a sync the widgets, Muzei, the watch, the
+ * notification and the UI all ask for the same few rows, and only the first of them needs to go
+ * to the database.
+ * <p>
+ * Results are kept as copies of their rows and served as a fresh {@link MatrixCursor} on every
+ * hit.  The cache holds at most {@link #DEFAULT_MAX_ROWS} rows across its entries and evicts
+ * the least recently used entries beyond that.  The provider invalidates it by the same URIs it
+ * notifies, so a changed day only drops the entries that could contain it.
+ * <p>
+ * Reading a cursor's values back needs {@link Cursor#getType(int)}, so the provider only uses
+ * the cache on Honeycomb and up.
+ */
+public class ForecastCache {
+
+    static final int DEFAULT_MAX_ROWS = 256;
+
+    private final int mMaxRows;
+    // In access order, so iteration starts at the least recently used entry
+    private final LinkedHashMap<Key, Entry> mEntries = new LinkedHashMap<Key, Entry>(16, 0.75f, true);
+    private int mRows;
+    // Bumped by every invalidation, so a query that raced a write doesn't store what it read
+    private long mGeneration;
+
+    private int mHitCount;
+    private int mMissCount;
+    private int mEvictionCount;
+    private int mInvalidationCount;
+
+    /**
+     * Identifies one query: its URI's match code, location and date (the start date for
+     * {@code weather/<location>}, 0 if it has none), and what it asked for.
+     */
+    static final class Key {
+        final int match;
+        final String locationSetting;
+        final long date;
+        final String[] projection;
+        final String sortOrder;
+
+        Key(int match, String locationSetting, long date, String[] projection, String sortOrder) {
+            this.match = match;
+            this.locationSetting = locationSetting;
+            this.date = date;
+            // The caller could reuse its array for something else
+            this.projection = projection == null ? null : projection.clone();
+            this.sortOrder = sortOrder;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) o;
+            return match == key.match && date == key.date
+                    && locationSetting.equals(key.locationSetting)
+                    && Arrays.equals(projection, key.projection)
+                    && (sortOrder == null ? key.sortOrder == null : sortOrder.equals(key.sortOrder));
+        }
+
+        @Override
+        public int hashCode() {
+            int result = match;
+            result = 31 * result + locationSetting.hashCode();
+            result = 31 * result + (int) (date ^ (date >>> 32));
+            result = 31 * result + Arrays.hashCode(projection);
+            result = 31 * result + (sortOrder == null ? 0 : sortOrder.hashCode());
+            return result;
+        }
+    }
+
+    private static final class Entry {
+        final String[] mColumns;
+        final Object[][] mRows;
+
+        Entry(String[] columns, Object[][] rows) {
+            mColumns = columns;
+            mRows = rows;
+        }
+    }
+
+    ForecastCache(int maxRows) {
+        mMaxRows = maxRows;
+    }
+
+    /**
+     * @return a cursor over the cached rows, or null if this query isn't cached.
+     */
+    synchronized Cursor get(Key key) {
+        Entry entry = mEntries.get(key);
+        if (entry == null) {
+            mMissCount++;
+            return null;
+        }
+        mHitCount++;
+        MatrixCursor cursor = new MatrixCursor(entry.mColumns, entry.mRows.length);
+        for (Object[] row : entry.mRows) {
+            cursor.addRow(row);
+        }
+        return cursor;
+    }
+
+    /**
+     * @return the current generation, to be taken before running a query whose result goes to
+     * {@link #put(Key, Cursor, long)}.
+     */
+    synchronized long getGeneration() {
+        return mGeneration;
+    }
+
+    /**
+     * Stores a copy of the cursor's rows, unless the cache was invalidated since
+     * {@code generation} was taken, as the rows may predate that write.  The cursor is left
+     * before its first row.
+     */
+    void put(Key key, Cursor cursor, long generation) {
+        int count = cursor.getCount();
+        if (count > mMaxRows) {
+            return;
+        }
+        // Copied outside the lock, this reads the database
+        Object[][] rows = new Object[count][];
+        int columnCount = cursor.getColumnCount();
+        cursor.moveToPosition(-1);
+        for (int row = 0; cursor.moveToNext(); row++) {
+            Object[] values = new Object[columnCount];
+            for (int column = 0; column < columnCount; column++) {
+                values[column] = getValue(cursor, column);
+            }
+            rows[row] = values;
+        }
+        cursor.moveToPosition(-1);
+        Entry entry = new Entry(cursor.getColumnNames(), rows);
+
+        synchronized (this) {
+            if (generation != mGeneration) {
+                return;
+            }
+            Entry previous = mEntries.put(key, entry);
+            if (previous != null) {
+                mRows -= previous.mRows.length;
+            }
+            mRows += count;
+            Iterator<Entry> eldest = mEntries.values().iterator();
+            while (mRows > mMaxRows && eldest.hasNext()) {
+                mRows -= eldest.next().mRows.length;
+                eldest.remove();
+                mEvictionCount++;
+            }
+        }
+    }
+
+    /**
+     * Drops every entry that could contain this location's row for {@code date}: the day
+     * itself, and the location's lists that start on or before it.
+     */
+    synchronized void invalidate(String locationSetting, long date) {
+        mGeneration++;
+        Iterator<Map.Entry<Key, Entry>> entries = mEntries.entrySet().iterator();
+        while (entries.hasNext()) {
+            Map.Entry<Key, Entry> entry = entries.next();
+            Key key = entry.getKey();
+            if (!key.locationSetting.equals(locationSetting)) {
+                continue;
+            }
+            boolean contains = key.match == WeatherProvider.WEATHER_WITH_LOCATION_AND_DATE
+                    ? key.date == date : key.date <= date;
+            if (contains) {
+                remove(entries, entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * Drops every entry for this location.
+     */
+    synchronized void invalidate(String locationSetting) {
+        mGeneration++;
+        Iterator<Map.Entry<Key, Entry>> entries = mEntries.entrySet().iterator();
+        while (entries.hasNext()) {
+            Map.Entry<Key, Entry> entry = entries.next();
+            if (entry.getKey().locationSetting.equals(locationSetting)) {
+                remove(entries, entry.getValue());
+            }
+        }
+    }
+
+    synchronized void invalidateAll() {
+        mGeneration++;
+        mInvalidationCount += mEntries.size();
+        mEntries.clear();
+        mRows = 0;
+    }
+
+    private void remove(Iterator<?> entries, Entry entry) {
+        entries.remove();
+        mRows -= entry.mRows.length;
+        mInvalidationCount++;
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private static Object getValue(Cursor cursor, int column) {
+        switch (cursor.getType(column)) {
+            case Cursor.FIELD_TYPE_INTEGER:
+                return cursor.getLong(column);
+            case Cursor.FIELD_TYPE_FLOAT:
+                return cursor.getDouble(column);
+            case Cursor.FIELD_TYPE_STRING:
+                return cursor.getString(column);
+            case Cursor.FIELD_TYPE_BLOB:
+                return cursor.getBlob(column);
+            default:
+                return null;
+        }
+    }
+
+    public synchronized int getHitCount() {
+        return mHitCount;
+    }
+
+    public synchronized int getMissCount() {
+        return mMissCount;
+    }
+
+    public synchronized int getEvictionCount() {
+        return mEvictionCount;
+    }
+
+    /**
+     * @return how many entries writes have dropped.
+     */
+    public synchronized int getInvalidationCount() {
+        return mInvalidationCount;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "ForecastCache[hits=" + mHitCount + ",misses=" + mMissCount
+                + ",evictions=" + mEvictionCount + ",invalidations=" + mInvalidationCount
+                + ",entries=" + mEntries.size() + ",rows=" + mRows + "]";
+    }
+}
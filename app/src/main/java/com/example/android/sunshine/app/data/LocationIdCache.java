@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Maps location settings to their {@code location._id}, so the provider can look forecasts up
+ * by {@code weather.location_id} without joining in the location table, and a sync's location
+ * upserts for places it already knows don't touch the table at all.  There are only ever a
+ * handful of locations, so the whole table is loaded on first use and nothing is evicted.
+ * <p>
+ * The provider adds the locations it inserts and clears the cache whenever location rows are
+ * deleted, their settings or ids are updated, or a batch that may have inserted some rolls
+ * back.  A setting that isn't cached may still be stored, e.g. by a write that didn't go
+ * through the provider, so a miss is always checked against the table.
+ */
+class LocationIdCache {
+
+    private final HashMap<String, Long> mIds = new HashMap<String, Long>();
+    private boolean mLoaded;
+    // Bumped by clear(), so a load that raced it doesn't bring back what it dropped
+    private long mGeneration;
+
+    private int mHitCount;
+    private int mMissCount;
+
+    /**
+     * @return true once the table has been loaded since the last {@link #clear()}.
+     */
+    synchronized boolean isLoaded() {
+        return mLoaded;
+    }
+
+    /**
+     * @return the current generation, to be taken before reading the table for
+     * {@link #load(Map, long)}.
+     */
+    synchronized long getGeneration() {
+        return mGeneration;
+    }
+
+    /**
+     * Adds every location read from the table, unless the cache was cleared since
+     * {@code generation} was taken.  Ids put in the meantime are newer and are kept.
+     */
+    synchronized void load(Map<String, Long> ids, long generation) {
+        if (generation != mGeneration) {
+            return;
+        }
+        for (Map.Entry<String, Long> id : ids.entrySet()) {
+            if (!mIds.containsKey(id.getKey())) {
+                mIds.put(id.getKey(), id.getValue());
+            }
+        }
+        mLoaded = true;
+    }
+
+    /**
+     * @return the location's id, or -1 if it isn't cached.
+     */
+    synchronized long get(String locationSetting) {
+        Long id = mIds.get(locationSetting);
+        if (id == null) {
+            mMissCount++;
+            return -1;
+        }
+        mHitCount++;
+        return id;
+    }
+
+    synchronized void put(String locationSetting, long id) {
+        mIds.put(locationSetting, id);
+    }
+
+    synchronized void clear() {
+        mIds.clear();
+        mLoaded = false;
+        mGeneration++;
+    }
+
+    synchronized int getHitCount() {
+        return mHitCount;
+    }
+
+    synchronized int getMissCount() {
+        return mMissCount;
+    }
+}
@@ -21,6 +21,8 @@ import android.net.Uri;
 import android.provider.BaseColumns;
 import android.text.format.Time;
 
+import java.util.TimeZone;
+
 /**
  * Defines table and column names for the weather database.
  */
@@ -43,15 +45,48 @@ public class WeatherContract {
     // At least, let's hope not.  Don't be that dev, reader.  Don't be that dev.
     public static final String PATH_WEATHER = "weather";
     public static final String PATH_LOCATION = "location";
+    public static final String PATH_METRICS = "metrics";
+    public static final String PATH_PRESENTATION = "presentation";
+    public static final String PATH_HISTORY = "history";
+
+    // Notified when only the way the weather is shown changes, e.g. the units or the art pack.
+    // The rows are the same, so observers re-bind what they already have rather than requery.
+    // The provider serves nothing at this URI.
+    public static final Uri PRESENTATION_URI =
+            BASE_CONTENT_URI.buildUpon().appendPath(PATH_PRESENTATION).build();
+
+    // ContentResolver.call() method for the first day of forecast, from today on, for the
+    // location setting passed as its arg.  Returns a Bundle keyed by WeatherEntry's
+    // COLUMN_DATE, COLUMN_WEATHER_ID, COLUMN_SHORT_DESC, COLUMN_MAX_TEMP and COLUMN_MIN_TEMP,
+    // or null if there's no forecast.  Extras may carry a COLUMN_DATE to start from instead
+    // of today.
+    public static final String METHOD_TODAY_SUMMARY = "todaySummary";
+
+    private static final long DAY_IN_MILLIS = 24 * 60 * 60 * 1000;
 
     // To make it easy to query for the exact date, we normalize all dates that go into
     // the database to the start of the the Julian day at UTC.
     public static long normalizeDate(long startDate) {
-        // normalize the start date to the beginning of the (UTC) day
-        Time time = new Time();
-        time.set(startDate);
-        int julianDay = Time.getJulianDay(startDate, time.gmtoff);
-        return time.setJulianDay(julianDay);
+        return normalizeDate(startDate, TimeZone.getDefault());
+    }
+
+    /**
+     * Same as {@link #normalizeDate(long)}, without allocating: callers normalizing many dates
+     * look up {@link TimeZone#getDefault()}, which returns a copy, once and pass it in.
+     *
+     * @return the start of the local day {@code date} falls on, like
+     * {@link Time#setJulianDay(int)} would give.
+     */
+    public static long normalizeDate(long date, TimeZone timeZone) {
+        long local = date + timeZone.getOffset(date);
+        long localMidnight = local / DAY_IN_MILLIS * DAY_IN_MILLIS;
+        if (localMidnight > local) {
+            // Dates before 1970 round towards zero, we want the day they are in
+            localMidnight -= DAY_IN_MILLIS;
+        }
+        // Across a daylight saving change the offset at midnight isn't the one at date
+        long guess = localMidnight - timeZone.getOffset(date);
+        return localMidnight - timeZone.getOffset(guess);
     }
 
     /* Inner class that defines the table contents of the location table */
@@ -81,6 +116,15 @@ public class WeatherContract {
         public static final String COLUMN_COORD_LAT = "coord_lat";
         public static final String COLUMN_COORD_LONG = "coord_long";
 
+        // Outcome of the last sync for this location, one of the
+        // SunshineSyncAdapter.LOCATION_STATUS_* values.
+        public static final String COLUMN_SYNC_STATUS = "sync_status";
+
+        // What COLUMN_SYNC_STATUS starts out as for a location nobody synced yet, the same
+        // value as SunshineSyncAdapter.LOCATION_STATUS_UNKNOWN.  It is kept here so the schema
+        // doesn't depend on the sync adapter.
+        public static final int SYNC_STATUS_DEFAULT = 3;
+
         public static Uri buildLocationUri(long id) {
             return ContentUris.withAppendedId(CONTENT_URI, id);
         }
@@ -126,6 +170,10 @@ public class WeatherContract {
         // Degrees are meteorological degrees (e.g, 0 is north, 180 is south).  Stored as floats.
         public static final String COLUMN_DEGREES = "degrees";
 
+        // Hash of the forecast values above, maintained by the provider so a sync can tell
+        // which days actually changed.  Null when it has to be recomputed.
+        public static final String COLUMN_CONTENT_HASH = "content_hash";
+
         public static Uri buildWeatherUri(long id) {
             return ContentUris.withAppendedId(CONTENT_URI, id);
         }
@@ -164,5 +212,164 @@ public class WeatherContract {
             else
                 return 0;
         }
+
+        /**
+         * @return the URI to delete weather rows through to move them into the history
+         * archive instead, keeping {@code retentionDays} days of archived days.
+         */
+        public static Uri buildArchiveUri(int retentionDays) {
+            return CONTENT_URI.buildUpon().appendQueryParameter(PARAM_ARCHIVE_RETENTION_DAYS,
+                    Integer.toString(retentionDays)).build();
+        }
+
+        /**
+         * @return the days of history to keep, or -1 if the URI doesn't archive.
+         */
+        public static int getArchiveRetentionDaysFromUri(Uri uri) {
+            String days = uri.getQueryParameter(PARAM_ARCHIVE_RETENTION_DAYS);
+            return days == null || days.length() == 0 ? -1 : Integer.parseInt(days);
+        }
+
+        private static final String PARAM_ARCHIVE_RETENTION_DAYS = "archive_retention_days";
+    }
+
+    /*
+        Past days of forecast.  The provider moves them here when the sync deletes them through
+        WeatherEntry.buildArchiveUri(), and keeps them for the retention the sync asks for.
+        Same columns as the weather table, minus the content hash.
+     */
+    public static final class HistoryEntry implements BaseColumns {
+
+        public static final Uri CONTENT_URI =
+                BASE_CONTENT_URI.buildUpon().appendPath(PATH_HISTORY).build();
+
+        public static final String CONTENT_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_HISTORY;
+
+        public static final String TABLE_NAME = "history";
+
+        public static final String COLUMN_LOC_KEY = WeatherEntry.COLUMN_LOC_KEY;
+        public static final String COLUMN_DATE = WeatherEntry.COLUMN_DATE;
+        public static final String COLUMN_WEATHER_ID = WeatherEntry.COLUMN_WEATHER_ID;
+        public static final String COLUMN_SHORT_DESC = WeatherEntry.COLUMN_SHORT_DESC;
+        public static final String COLUMN_MIN_TEMP = WeatherEntry.COLUMN_MIN_TEMP;
+        public static final String COLUMN_MAX_TEMP = WeatherEntry.COLUMN_MAX_TEMP;
+        public static final String COLUMN_HUMIDITY = WeatherEntry.COLUMN_HUMIDITY;
+        public static final String COLUMN_PRESSURE = WeatherEntry.COLUMN_PRESSURE;
+        public static final String COLUMN_WIND_SPEED = WeatherEntry.COLUMN_WIND_SPEED;
+        public static final String COLUMN_DEGREES = WeatherEntry.COLUMN_DEGREES;
+
+        // Query parameters bounding a range of days: from the start date, up to but not
+        // including the end date.  Either may be left out.
+        public static final String PARAM_START_DATE = "start";
+        public static final String PARAM_END_DATE = "end";
+
+        /**
+         * @return the archived days of a location from {@code startDate} up to but not
+         * including {@code endDate}.
+         */
+        public static Uri buildHistoryLocation(String locationSetting, long startDate,
+                                               long endDate) {
+            return appendRange(CONTENT_URI.buildUpon().appendPath(locationSetting),
+                    startDate, endDate);
+        }
+
+        /**
+         * @return the location's {@link HistoryRollupEntry#PERIOD_WEEK} or
+         * {@link HistoryRollupEntry#PERIOD_MONTH} rollups that start from {@code startDate} up
+         * to but not including {@code endDate}.
+         */
+        public static Uri buildHistoryRollup(String locationSetting, String period,
+                                             long startDate, long endDate) {
+            return appendRange(CONTENT_URI.buildUpon().appendPath(locationSetting)
+                    .appendPath(period), startDate, endDate);
+        }
+
+        private static Uri appendRange(Uri.Builder builder, long startDate, long endDate) {
+            return builder.appendQueryParameter(PARAM_START_DATE, Long.toString(startDate))
+                    .appendQueryParameter(PARAM_END_DATE, Long.toString(endDate))
+                    .build();
+        }
+
+        public static String getLocationSettingFromUri(Uri uri) {
+            return uri.getPathSegments().get(1);
+        }
+
+        public static String getPeriodFromUri(Uri uri) {
+            return uri.getPathSegments().get(2);
+        }
+
+        public static long getStartDateFromUri(Uri uri) {
+            String date = uri.getQueryParameter(PARAM_START_DATE);
+            return date == null || date.length() == 0 ? Long.MIN_VALUE : Long.parseLong(date);
+        }
+
+        public static long getEndDateFromUri(Uri uri) {
+            String date = uri.getQueryParameter(PARAM_END_DATE);
+            return date == null || date.length() == 0 ? Long.MAX_VALUE : Long.parseLong(date);
+        }
+    }
+
+    /*
+        Weekly and monthly aggregates of the history archive, kept after the days they were
+        computed from have aged out of it.  Queried through HistoryEntry.buildHistoryRollup().
+     */
+    public static final class HistoryRollupEntry implements BaseColumns {
+
+        public static final String CONTENT_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" +
+                        PATH_HISTORY + "/rollup";
+
+        public static final String TABLE_NAME = "history_rollup";
+
+        // Periods, also the last path segment of their URIs
+        public static final String PERIOD_WEEK = "week";
+        public static final String PERIOD_MONTH = "month";
+
+        public static final String COLUMN_LOC_KEY = WeatherEntry.COLUMN_LOC_KEY;
+        // PERIOD_WEEK or PERIOD_MONTH
+        public static final String COLUMN_PERIOD = "period";
+        // The normalized first day of the period: the Monday that starts the ISO week, whatever
+        // the locale's first day of the week, or the first of the month
+        public static final String COLUMN_START_DATE = "start_date";
+        // How many archived days went into the row
+        public static final String COLUMN_DAYS = "days";
+        // Lowest low and highest high of those days, in Celsius
+        public static final String COLUMN_MIN_TEMP = WeatherEntry.COLUMN_MIN_TEMP;
+        public static final String COLUMN_MAX_TEMP = WeatherEntry.COLUMN_MAX_TEMP;
+        // Mean of the days' midpoints between low and high
+        public static final String COLUMN_MEAN_TEMP = "mean";
+        // The weather id most of the days had
+        public static final String COLUMN_WEATHER_ID = WeatherEntry.COLUMN_WEATHER_ID;
+    }
+
+    /*
+        Read-only view of the sync pipeline metrics.  These aren't stored in the database, the
+        provider builds one row per pipeline stage from the sync's own bookkeeping.
+     */
+    public static final class MetricsEntry {
+
+        public static final Uri CONTENT_URI =
+                BASE_CONTENT_URI.buildUpon().appendPath(PATH_METRICS).build();
+
+        public static final String CONTENT_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_METRICS;
+
+        // Name of the pipeline stage, e.g. "fetch" or "persist"
+        public static final String COLUMN_STAGE = "stage";
+        // How many times the stage ran, and how many of those failed
+        public static final String COLUMN_COUNT = "count";
+        public static final String COLUMN_FAILURES = "failures";
+        // Wall time spent in the stage, in milliseconds
+        public static final String COLUMN_TOTAL_MILLIS = "total_ms";
+        public static final String COLUMN_MAX_MILLIS = "max_ms";
+        // Upper bounds of the histogram buckets the median and 95th percentile fall into
+        public static final String COLUMN_P50_MILLIS = "p50_ms";
+        public static final String COLUMN_P95_MILLIS = "p95_ms";
+        // Bytes and rows the stage handled, where that means something for the stage
+        public static final String COLUMN_BYTES = "bytes";
+        public static final String COLUMN_ROWS = "rows";
+        // The latency histogram as "upper bound ms:count" pairs separated by commas
+        public static final String COLUMN_HISTOGRAM = "histogram";
     }
 }
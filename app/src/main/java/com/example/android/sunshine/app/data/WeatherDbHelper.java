@@ -15,10 +15,14 @@
  */
 package com.example.android.sunshine.app.data;
 
+import android.annotation.TargetApi;
 import android.content.Context;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.os.Build;
 
+import com.example.android.sunshine.app.data.WeatherContract.HistoryEntry;
+import com.example.android.sunshine.app.data.WeatherContract.HistoryRollupEntry;
 import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
 import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
 
@@ -27,13 +31,154 @@ import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
  */
 public class WeatherDbHelper extends SQLiteOpenHelper {
 
-    // If you change the database schema, you must increment the database version.
-    private static final int DATABASE_VERSION = 2;
+    // If you change the database schema, you must increment the database version and add a
+    // migration for it to MIGRATIONS.
+    private static final int DATABASE_VERSION = 6;
 
     static final String DATABASE_NAME = "weather.db";
 
+    // Serves the forecast queries: location_id = ? with a date or a range of dates.  The UNIQUE
+    // (date, location_id) constraint's index leads with the date, so it only helps the
+    // date-only prune.  location.location_setting needs nothing extra, its UNIQUE constraint
+    // already comes with an index.
+    static final String WEATHER_LOCATION_DATE_INDEX = "weather_location_date";
+    private static final String SQL_CREATE_WEATHER_LOCATION_DATE_INDEX =
+            "CREATE INDEX " + WEATHER_LOCATION_DATE_INDEX + " ON " + WeatherEntry.TABLE_NAME +
+                    " (" + WeatherEntry.COLUMN_LOC_KEY + ", " + WeatherEntry.COLUMN_DATE + ");";
+
+    // The history archive: one row per location and past day, looked up by location and a range
+    // of dates through the UNIQUE constraint's index, and expired by date through its own
+    static final String HISTORY_DATE_INDEX = "history_date";
+    private static final String SQL_CREATE_HISTORY_TABLE =
+            "CREATE TABLE " + HistoryEntry.TABLE_NAME + " (" +
+                    HistoryEntry._ID + " INTEGER PRIMARY KEY," +
+                    HistoryEntry.COLUMN_LOC_KEY + " INTEGER NOT NULL, " +
+                    HistoryEntry.COLUMN_DATE + " INTEGER NOT NULL, " +
+                    HistoryEntry.COLUMN_SHORT_DESC + " TEXT NOT NULL, " +
+                    HistoryEntry.COLUMN_WEATHER_ID + " INTEGER NOT NULL," +
+                    HistoryEntry.COLUMN_MIN_TEMP + " REAL NOT NULL, " +
+                    HistoryEntry.COLUMN_MAX_TEMP + " REAL NOT NULL, " +
+                    HistoryEntry.COLUMN_HUMIDITY + " REAL NOT NULL, " +
+                    HistoryEntry.COLUMN_PRESSURE + " REAL NOT NULL, " +
+                    HistoryEntry.COLUMN_WIND_SPEED + " REAL NOT NULL, " +
+                    HistoryEntry.COLUMN_DEGREES + " REAL NOT NULL, " +
+                    " FOREIGN KEY (" + HistoryEntry.COLUMN_LOC_KEY + ") REFERENCES " +
+                    LocationEntry.TABLE_NAME + " (" + LocationEntry._ID + "), " +
+                    // A day archived twice keeps the later forecast
+                    " UNIQUE (" + HistoryEntry.COLUMN_LOC_KEY + ", " +
+                    HistoryEntry.COLUMN_DATE + ") ON CONFLICT REPLACE);";
+    private static final String SQL_CREATE_HISTORY_DATE_INDEX =
+            "CREATE INDEX " + HISTORY_DATE_INDEX + " ON " + HistoryEntry.TABLE_NAME +
+                    " (" + HistoryEntry.COLUMN_DATE + ");";
+
+    // Weekly and monthly rollups of the archive, looked up by location, period and a range of
+    // start dates through the UNIQUE constraint's index
+    private static final String SQL_CREATE_HISTORY_ROLLUP_TABLE =
+            "CREATE TABLE " + HistoryRollupEntry.TABLE_NAME + " (" +
+                    HistoryRollupEntry._ID + " INTEGER PRIMARY KEY," +
+                    HistoryRollupEntry.COLUMN_LOC_KEY + " INTEGER NOT NULL, " +
+                    HistoryRollupEntry.COLUMN_PERIOD + " TEXT NOT NULL, " +
+                    HistoryRollupEntry.COLUMN_START_DATE + " INTEGER NOT NULL, " +
+                    HistoryRollupEntry.COLUMN_DAYS + " INTEGER NOT NULL, " +
+                    HistoryRollupEntry.COLUMN_MIN_TEMP + " REAL NOT NULL, " +
+                    HistoryRollupEntry.COLUMN_MAX_TEMP + " REAL NOT NULL, " +
+                    HistoryRollupEntry.COLUMN_MEAN_TEMP + " REAL NOT NULL, " +
+                    HistoryRollupEntry.COLUMN_WEATHER_ID + " INTEGER NOT NULL, " +
+                    " FOREIGN KEY (" + HistoryRollupEntry.COLUMN_LOC_KEY + ") REFERENCES " +
+                    LocationEntry.TABLE_NAME + " (" + LocationEntry._ID + "), " +
+                    // Rolling a period up again replaces its row
+                    " UNIQUE (" + HistoryRollupEntry.COLUMN_LOC_KEY + ", " +
+                    HistoryRollupEntry.COLUMN_PERIOD + ", " +
+                    HistoryRollupEntry.COLUMN_START_DATE + ") ON CONFLICT REPLACE);";
+
+    /**
+     * One step in the schema's history, run inside the upgrade's transaction.
+     */
+    interface Migration {
+        void migrate(SQLiteDatabase db);
+    }
+
+    // The oldest version we can still upgrade in place.  Anything older is dropped and rebuilt.
+    static final int FIRST_MIGRATABLE_VERSION = 2;
+
+    // MIGRATIONS[i] takes the database from version FIRST_MIGRATABLE_VERSION + i to the next
+    static final Migration[] MIGRATIONS = {
+            // 2 -> 3: per-location sync status
+            new Migration() {
+                @Override
+                public void migrate(SQLiteDatabase db) {
+                    db.execSQL("ALTER TABLE " + LocationEntry.TABLE_NAME + " ADD COLUMN " +
+                            LocationEntry.COLUMN_SYNC_STATUS + " INTEGER NOT NULL DEFAULT " +
+                            LocationEntry.SYNC_STATUS_DEFAULT);
+                }
+            },
+            // 3 -> 4: content hashes.  Existing rows have none, so the next sync rewrites them
+            // once.
+            new Migration() {
+                @Override
+                public void migrate(SQLiteDatabase db) {
+                    db.execSQL("ALTER TABLE " + WeatherEntry.TABLE_NAME + " ADD COLUMN " +
+                            WeatherEntry.COLUMN_CONTENT_HASH + " INTEGER");
+                }
+            },
+            // 4 -> 5: the index for the forecast queries
+            new Migration() {
+                @Override
+                public void migrate(SQLiteDatabase db) {
+                    db.execSQL(SQL_CREATE_WEATHER_LOCATION_DATE_INDEX);
+                }
+            },
+            // 5 -> 6: the history archive and its rollups.  They start out empty, the past days
+            // the old sync deleted are gone.
+            new Migration() {
+                @Override
+                public void migrate(SQLiteDatabase db) {
+                    createHistoryTables(db);
+                }
+            }
+    };
+
+    private final boolean mWriteAheadLogging;
+
     public WeatherDbHelper(Context context) {
-        super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        this(context, DATABASE_NAME, true);
+    }
+
+    /**
+     * @param writeAheadLogging whether to journal with a write-ahead log.  With it, the sync's
+     *                          write transaction and the readers (loaders, widgets, Muzei, the
+     *                          watch) each get their own connection, and readers keep seeing the
+     *                          last committed snapshot instead of waiting for the commit.
+     *                          Only turned off to measure the difference.
+     */
+    WeatherDbHelper(Context context, String name, boolean writeAheadLogging) {
+        super(context, name, null, DATABASE_VERSION);
+        mWriteAheadLogging = writeAheadLogging;
+        if (writeAheadLogging && Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            setWriteAheadLoggingEnabledJellyBean();
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    private void setWriteAheadLoggingEnabledJellyBean() {
+        // Applied before the database is configured, so it covers onCreate and onUpgrade too
+        setWriteAheadLoggingEnabled(true);
+    }
+
+    @Override
+    public void onOpen(SQLiteDatabase db) {
+        super.onOpen(db);
+        // Honeycomb has write-ahead logging but no way to ask for it before the database opens
+        if (mWriteAheadLogging && !db.isReadOnly()
+                && Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB
+                && Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN) {
+            enableWriteAheadLoggingHoneycomb(db);
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private static void enableWriteAheadLoggingHoneycomb(SQLiteDatabase db) {
+        db.enableWriteAheadLogging();
     }
 
     @Override
@@ -45,7 +190,10 @@ public class WeatherDbHelper extends SQLiteOpenHelper {
                 LocationEntry.COLUMN_LOCATION_SETTING + " TEXT UNIQUE NOT NULL, " +
                 LocationEntry.COLUMN_CITY_NAME + " TEXT NOT NULL, " +
                 LocationEntry.COLUMN_COORD_LAT + " REAL NOT NULL, " +
-                LocationEntry.COLUMN_COORD_LONG + " REAL NOT NULL " +
+                LocationEntry.COLUMN_COORD_LONG + " REAL NOT NULL, " +
+                // Locations nobody synced yet start out as LOCATION_STATUS_UNKNOWN
+                LocationEntry.COLUMN_SYNC_STATUS + " INTEGER NOT NULL DEFAULT " +
+                LocationEntry.SYNC_STATUS_DEFAULT +
                 " );";
 
         final String SQL_CREATE_WEATHER_TABLE = "CREATE TABLE " + WeatherEntry.TABLE_NAME + " (" +
@@ -69,6 +217,7 @@ public class WeatherDbHelper extends SQLiteOpenHelper {
                 WeatherEntry.COLUMN_PRESSURE + " REAL NOT NULL, " +
                 WeatherEntry.COLUMN_WIND_SPEED + " REAL NOT NULL, " +
                 WeatherEntry.COLUMN_DEGREES + " REAL NOT NULL, " +
+                WeatherEntry.COLUMN_CONTENT_HASH + " INTEGER, " +
 
                 // Set up the location column as a foreign key to location table.
                 " FOREIGN KEY (" + WeatherEntry.COLUMN_LOC_KEY + ") REFERENCES " +
@@ -81,18 +230,34 @@ public class WeatherDbHelper extends SQLiteOpenHelper {
 
         sqLiteDatabase.execSQL(SQL_CREATE_LOCATION_TABLE);
         sqLiteDatabase.execSQL(SQL_CREATE_WEATHER_TABLE);
+        sqLiteDatabase.execSQL(SQL_CREATE_WEATHER_LOCATION_DATE_INDEX);
+        createHistoryTables(sqLiteDatabase);
+    }
+
+    private static void createHistoryTables(SQLiteDatabase db) {
+        db.execSQL(SQL_CREATE_HISTORY_TABLE);
+        db.execSQL(SQL_CREATE_HISTORY_DATE_INDEX);
+        db.execSQL(SQL_CREATE_HISTORY_ROLLUP_TABLE);
     }
 
     @Override
     public void onUpgrade(SQLiteDatabase sqLiteDatabase, int oldVersion, int newVersion) {
-        // This database is only a cache for online data, so its upgrade policy is
-        // to simply to discard the data and start over
+        // Upgrade in place, one version at a time, so an app update doesn't leave every user
+        // with an empty forecast waiting on the network.
         // Note that this only fires if you change the version number for your database.
         // It does NOT depend on the version number for your application.
-        // If you want to update the schema without wiping data, commenting out the next 2 lines
-        // should be your top priority before modifying this method.
-        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + LocationEntry.TABLE_NAME);
-        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + WeatherEntry.TABLE_NAME);
-        onCreate(sqLiteDatabase);
+        if (oldVersion < FIRST_MIGRATABLE_VERSION) {
+            // Too old to know how to migrate.  This database is only a cache for online data,
+            // so start over.
+            sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + LocationEntry.TABLE_NAME);
+            sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + WeatherEntry.TABLE_NAME);
+            sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + HistoryEntry.TABLE_NAME);
+            sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + HistoryRollupEntry.TABLE_NAME);
+            onCreate(sqLiteDatabase);
+            return;
+        }
+        for (int version = oldVersion; version < newVersion; version++) {
+            MIGRATIONS[version - FIRST_MIGRATABLE_VERSION].migrate(sqLiteDatabase);
+        }
     }
 }
@@ -0,0 +1,253 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import com.example.android.sunshine.app.data.WeatherContract.HistoryEntry;
+import com.example.android.sunshine.app.data.WeatherContract.HistoryRollupEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.HashSet;
+import java.util.Map;
+
+/**
+ * The provider's history archive.  Past days the sync deletes through
+ * {@link WeatherEntry#buildArchiveUri(int)} are copied into the history table first, and every
+ * week and month they fall in is rolled up again from the archived days.  Archived days are
+ * kept for the retention the sync asks for; the rollups, a few rows a year, are kept for good,
+ * so long-range charts still have something to show once the days behind them have expired.
+ */
+final class WeatherHistory {
+
+    // A month has to stay in the archive in full while it is rolled up
+    static final int MIN_RETENTION_DAYS = 31;
+
+    private static final long DAY_IN_MILLIS = 24 * 60 * 60 * 1000;
+    // Weeks are ISO weeks whatever the locale, so a stored rollup means the same days for
+    // everyone reading it
+    static final int FIRST_DAY_OF_WEEK = Calendar.MONDAY;
+
+    private static final String sArchivedColumns =
+            HistoryEntry.COLUMN_LOC_KEY + ", " +
+                    HistoryEntry.COLUMN_DATE + ", " +
+                    HistoryEntry.COLUMN_SHORT_DESC + ", " +
+                    HistoryEntry.COLUMN_WEATHER_ID + ", " +
+                    HistoryEntry.COLUMN_MIN_TEMP + ", " +
+                    HistoryEntry.COLUMN_MAX_TEMP + ", " +
+                    HistoryEntry.COLUMN_HUMIDITY + ", " +
+                    HistoryEntry.COLUMN_PRESSURE + ", " +
+                    HistoryEntry.COLUMN_WIND_SPEED + ", " +
+                    HistoryEntry.COLUMN_DEGREES;
+
+    //location_id = ? AND date >= ? AND date < ?
+    static final String sHistoryRangeSelection =
+            HistoryEntry.COLUMN_LOC_KEY + " = ? AND " +
+                    HistoryEntry.COLUMN_DATE + " >= ? AND " +
+                    HistoryEntry.COLUMN_DATE + " < ? ";
+
+    //location_id = ? AND period = ? AND start_date >= ? AND start_date < ?
+    static final String sRollupRangeSelection =
+            HistoryRollupEntry.COLUMN_LOC_KEY + " = ? AND " +
+                    HistoryRollupEntry.COLUMN_PERIOD + " = ? AND " +
+                    HistoryRollupEntry.COLUMN_START_DATE + " >= ? AND " +
+                    HistoryRollupEntry.COLUMN_START_DATE + " < ? ";
+
+    //date < ?
+    static final String sExpiredSelection = HistoryEntry.COLUMN_DATE + " < ? ";
+
+    //SELECT COUNT(*), MIN(min), MAX(max), AVG((min + max) / 2) FROM history WHERE <range>
+    static final String sRollupQuery =
+            "SELECT COUNT(*), MIN(" + HistoryEntry.COLUMN_MIN_TEMP + "), MAX(" +
+                    HistoryEntry.COLUMN_MAX_TEMP + "), AVG((" + HistoryEntry.COLUMN_MIN_TEMP +
+                    " + " + HistoryEntry.COLUMN_MAX_TEMP + ") / 2) FROM " +
+                    HistoryEntry.TABLE_NAME + " WHERE " + sHistoryRangeSelection;
+
+    // The weather id of the most days in the range, the latest of them on a tie
+    static final String sDominantWeatherQuery =
+            "SELECT " + HistoryEntry.COLUMN_WEATHER_ID + " FROM " + HistoryEntry.TABLE_NAME +
+                    " WHERE " + sHistoryRangeSelection +
+                    " GROUP BY " + HistoryEntry.COLUMN_WEATHER_ID +
+                    " ORDER BY COUNT(*) DESC, MAX(" + HistoryEntry.COLUMN_DATE + ") DESC LIMIT 1";
+
+    private static final String sRollupInsertStatement =
+            "INSERT OR REPLACE INTO " + HistoryRollupEntry.TABLE_NAME + " (" +
+                    HistoryRollupEntry.COLUMN_LOC_KEY + ", " +
+                    HistoryRollupEntry.COLUMN_PERIOD + ", " +
+                    HistoryRollupEntry.COLUMN_START_DATE + ", " +
+                    HistoryRollupEntry.COLUMN_DAYS + ", " +
+                    HistoryRollupEntry.COLUMN_MIN_TEMP + ", " +
+                    HistoryRollupEntry.COLUMN_MAX_TEMP + ", " +
+                    HistoryRollupEntry.COLUMN_MEAN_TEMP + ", " +
+                    HistoryRollupEntry.COLUMN_WEATHER_ID + ") VALUES (?, ?, ?, ?, ?, ?, ?, ?)";
+
+    private static final String[] sPeriods = {
+            HistoryRollupEntry.PERIOD_WEEK,
+            HistoryRollupEntry.PERIOD_MONTH
+    };
+
+    private WeatherHistory() {
+    }
+
+    static boolean isPeriod(String period) {
+        for (String knownPeriod : sPeriods) {
+            if (knownPeriod.equals(period)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Copies the weather rows the selection matches into the archive, rolls up again every
+     * period they fall in, and drops archived days older than {@code retentionDays} before
+     * {@code now}.  Has to run in the transaction that then deletes the rows.
+     *
+     * @param dates the rows' dates by location id, as the provider collects them for its
+     *              change notifications.
+     */
+    static void archive(SQLiteDatabase db, String selection, String[] selectionArgs,
+                        Map<Long, ArrayList<Long>> dates, int retentionDays, long now) {
+        db.execSQL("INSERT INTO " + HistoryEntry.TABLE_NAME + " (" + sArchivedColumns +
+                        ") SELECT " + sArchivedColumns + " FROM " + WeatherEntry.TABLE_NAME +
+                        (selection != null ? " WHERE " + selection : ""),
+                selectionArgs != null ? selectionArgs : new String[0]);
+
+        Calendar calendar = Calendar.getInstance();
+        SQLiteStatement dominantWeather = db.compileStatement(sDominantWeatherQuery);
+        SQLiteStatement insert = db.compileStatement(sRollupInsertStatement);
+        try {
+            for (Map.Entry<Long, ArrayList<Long>> entry : dates.entrySet()) {
+                long locationId = entry.getKey();
+                for (String period : sPeriods) {
+                    HashSet<Long> startDates = new HashSet<Long>();
+                    for (long date : entry.getValue()) {
+                        startDates.add(getPeriodStart(calendar, period, date));
+                    }
+                    for (long startDate : startDates) {
+                        rollUp(db, dominantWeather, insert, locationId, period, startDate,
+                                getPeriodEnd(calendar, period, startDate));
+                    }
+                }
+            }
+        } finally {
+            dominantWeather.close();
+            insert.close();
+        }
+
+        long cutoff = WeatherContract.normalizeDate(now)
+                - Math.max(retentionDays, MIN_RETENTION_DAYS) * DAY_IN_MILLIS;
+        db.delete(HistoryEntry.TABLE_NAME, sExpiredSelection, new String[]{Long.toString(cutoff)});
+    }
+
+    private static void rollUp(SQLiteDatabase db, SQLiteStatement dominantWeather,
+                               SQLiteStatement insert, long locationId, String period,
+                               long startDate, long endDate) {
+        String[] range = {Long.toString(locationId), Long.toString(startDate),
+                Long.toString(endDate)};
+        // A statement only returns one column, the aggregates need a cursor
+        Cursor cursor = db.rawQuery(sRollupQuery, range);
+        long days;
+        double min;
+        double max;
+        double mean;
+        try {
+            cursor.moveToFirst();
+            days = cursor.getLong(0);
+            min = cursor.getDouble(1);
+            max = cursor.getDouble(2);
+            mean = cursor.getDouble(3);
+        } finally {
+            cursor.close();
+        }
+        if (days == 0) {
+            return;
+        }
+        dominantWeather.clearBindings();
+        dominantWeather.bindAllArgsAsStrings(range);
+        long weatherId = dominantWeather.simpleQueryForLong();
+
+        insert.clearBindings();
+        insert.bindLong(1, locationId);
+        insert.bindString(2, period);
+        insert.bindLong(3, startDate);
+        insert.bindLong(4, days);
+        insert.bindDouble(5, min);
+        insert.bindDouble(6, max);
+        insert.bindDouble(7, mean);
+        insert.bindLong(8, weatherId);
+        insert.executeInsert();
+    }
+
+    /**
+     * @return the normalized first day of the week, a Monday, or of the month {@code date}
+     * falls in.
+     */
+    static long getPeriodStart(Calendar calendar, String period, long date) {
+        calendar.setTimeInMillis(date);
+        if (HistoryRollupEntry.PERIOD_WEEK.equals(period)) {
+            int daysIntoWeek = (calendar.get(Calendar.DAY_OF_WEEK)
+                    - FIRST_DAY_OF_WEEK + 7) % 7;
+            calendar.add(Calendar.DAY_OF_MONTH, -daysIntoWeek);
+        } else {
+            calendar.set(Calendar.DAY_OF_MONTH, 1);
+        }
+        return WeatherContract.normalizeDate(calendar.getTimeInMillis());
+    }
+
+    /**
+     * @return the normalized first day of the next period.
+     */
+    static long getPeriodEnd(Calendar calendar, String period, long startDate) {
+        calendar.setTimeInMillis(startDate);
+        if (HistoryRollupEntry.PERIOD_WEEK.equals(period)) {
+            calendar.add(Calendar.DAY_OF_MONTH, 7);
+        } else {
+            calendar.add(Calendar.MONTH, 1);
+        }
+        return WeatherContract.normalizeDate(calendar.getTimeInMillis());
+    }
+
+    /**
+     * @return the location's archived days from {@code startDate} up to but not including
+     * {@code endDate}.
+     */
+    static Cursor queryDays(SQLiteDatabase db, long locationId, String[] projection,
+                            long startDate, long endDate, String sortOrder) {
+        return db.query(HistoryEntry.TABLE_NAME, projection, sHistoryRangeSelection,
+                new String[]{Long.toString(locationId), Long.toString(startDate),
+                        Long.toString(endDate)},
+                null, null, sortOrder != null ? sortOrder : HistoryEntry.COLUMN_DATE + " ASC");
+    }
+
+    /**
+     * @return the location's rollups for the period that start from {@code startDate} up to
+     * but not including {@code endDate}.
+     */
+    static Cursor queryRollups(SQLiteDatabase db, long locationId, String period,
+                               String[] projection, long startDate, long endDate,
+                               String sortOrder) {
+        return db.query(HistoryRollupEntry.TABLE_NAME, projection, sRollupRangeSelection,
+                new String[]{Long.toString(locationId), period, Long.toString(startDate),
+                        Long.toString(endDate)},
+                null, null,
+                sortOrder != null ? sortOrder : HistoryRollupEntry.COLUMN_START_DATE + " ASC");
+    }
+}
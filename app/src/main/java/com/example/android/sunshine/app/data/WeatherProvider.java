@@ -17,25 +17,52 @@ package com.example.android.sunshine.app.data;
 
 import android.annotation.TargetApi;
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentUris;
 import android.content.ContentValues;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteDoneException;
 import android.database.sqlite.SQLiteQueryBuilder;
+import android.database.sqlite.SQLiteStatement;
 import android.net.Uri;
+import android.os.Build;
+import android.os.Bundle;
+
+import com.example.android.sunshine.app.sync.SyncMetrics;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
 
 public class WeatherProvider extends ContentProvider {
 
     // The URI Matcher used by this content provider.
     private static final UriMatcher sUriMatcher = buildUriMatcher();
     private WeatherDbHelper mOpenHelper;
+    // The applyBatch running on this thread, if any
+    private final ThreadLocal<PendingBatch> mPendingBatch = new ThreadLocal<PendingBatch>();
+    // Null before Honeycomb, see ForecastCache
+    private ForecastCache mForecastCache;
+    private final LocationIdCache mLocationIds = new LocationIdCache();
 
     static final int WEATHER = 100;
     static final int WEATHER_WITH_LOCATION = 101;
     static final int WEATHER_WITH_LOCATION_AND_DATE = 102;
     static final int LOCATION = 300;
+    static final int METRICS = 400;
+    static final int HISTORY = 500;
+    static final int HISTORY_WITH_LOCATION = 501;
+    static final int HISTORY_ROLLUP = 502;
 
-    private static final SQLiteQueryBuilder sWeatherByLocationSettingQueryBuilder;
+    static final SQLiteQueryBuilder sWeatherByLocationSettingQueryBuilder;
 
     static{
         sWeatherByLocationSettingQueryBuilder = new SQLiteQueryBuilder();
@@ -52,26 +79,298 @@ public class WeatherProvider extends ContentProvider {
     }
 
     //location.location_setting = ?
-    private static final String sLocationSettingSelection =
+    static final String sLocationSettingSelection =
             WeatherContract.LocationEntry.TABLE_NAME+
                     "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? ";
 
     //location.location_setting = ? AND date >= ?
-    private static final String sLocationSettingWithStartDateSelection =
+    static final String sLocationSettingWithStartDateSelection =
             WeatherContract.LocationEntry.TABLE_NAME+
                     "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? AND " +
                     WeatherContract.WeatherEntry.COLUMN_DATE + " >= ? ";
 
     //location.location_setting = ? AND date = ?
-    private static final String sLocationSettingAndDaySelection =
+    static final String sLocationSettingAndDaySelection =
             WeatherContract.LocationEntry.TABLE_NAME +
                     "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? AND " +
                     WeatherContract.WeatherEntry.COLUMN_DATE + " = ? ";
 
+    //location_id = ?
+    static final String sLocationIdSelection =
+            WeatherContract.WeatherEntry.COLUMN_LOC_KEY + " = ? ";
+
+    //location_id = ? AND date >= ?
+    static final String sLocationIdWithStartDateSelection =
+            WeatherContract.WeatherEntry.COLUMN_LOC_KEY + " = ? AND " +
+                    WeatherContract.WeatherEntry.COLUMN_DATE + " >= ? ";
+
+    //location_id = ? AND date = ?
+    static final String sLocationIdAndDateSelection =
+            WeatherContract.WeatherEntry.COLUMN_LOC_KEY + " = ? AND " +
+                    WeatherContract.WeatherEntry.COLUMN_DATE + " = ? ";
+
+    static final String sStoredContentHashQuery =
+            "SELECT " + WeatherContract.WeatherEntry.COLUMN_CONTENT_HASH +
+                    " FROM " + WeatherContract.WeatherEntry.TABLE_NAME +
+                    " WHERE " + sLocationIdAndDateSelection;
+
+    // The forecast columns, in the order the batch statements below bind them
+    private static final String[] sForecastColumns = {
+            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherContract.WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_HUMIDITY,
+            WeatherContract.WeatherEntry.COLUMN_PRESSURE,
+            WeatherContract.WeatherEntry.COLUMN_WIND_SPEED,
+            WeatherContract.WeatherEntry.COLUMN_DEGREES,
+            WeatherContract.WeatherEntry.COLUMN_CONTENT_HASH
+    };
+
+    //UPDATE weather SET weather_id = ?, ... WHERE location_id = ? AND date = ?
+    //    AND (content_hash IS NULL OR content_hash != ?)
+    static final String sForecastUpdateStatement;
+
+    //INSERT OR IGNORE INTO weather (weather_id, ..., location_id, date) VALUES (?, ...)
+    static final String sForecastInsertStatement;
+
+    static {
+        StringBuilder update = new StringBuilder("UPDATE ")
+                .append(WeatherContract.WeatherEntry.TABLE_NAME).append(" SET ");
+        StringBuilder insert = new StringBuilder("INSERT OR IGNORE INTO ")
+                .append(WeatherContract.WeatherEntry.TABLE_NAME).append(" (");
+        for (String column : sForecastColumns) {
+            update.append(column).append(" = ?, ");
+            insert.append(column).append(", ");
+        }
+        update.setLength(update.length() - 2);
+        // Only touches a row whose forecast differs, so an unchanged day isn't rewritten
+        sForecastUpdateStatement = update.append(" WHERE ").append(sLocationIdAndDateSelection)
+                .append(" AND (").append(WeatherContract.WeatherEntry.COLUMN_CONTENT_HASH)
+                .append(" IS NULL OR ").append(WeatherContract.WeatherEntry.COLUMN_CONTENT_HASH)
+                .append(" != ?)").toString();
+
+        // OR IGNORE overrides the table's ON CONFLICT REPLACE: a day that is already stored was
+        // either updated above or is unchanged, never to be replaced
+        insert.append(WeatherContract.WeatherEntry.COLUMN_LOC_KEY).append(", ")
+                .append(WeatherContract.WeatherEntry.COLUMN_DATE).append(") VALUES (");
+        for (int i = 0; i < sForecastColumns.length + 2; i++) {
+            insert.append(i == 0 ? "?" : ", ?");
+        }
+        sForecastInsertStatement = insert.append(")").toString();
+    }
+
+    //SELECT _id FROM location WHERE location_setting = ?
+    static final String sLocationIdQuery =
+            "SELECT " + WeatherContract.LocationEntry._ID +
+                    " FROM " + WeatherContract.LocationEntry.TABLE_NAME +
+                    " WHERE " + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ?";
+
+    //SELECT _id FROM weather WHERE location_id = ? AND date = ?
+    static final String sForecastRowIdQuery =
+            "SELECT " + WeatherContract.WeatherEntry._ID +
+                    " FROM " + WeatherContract.WeatherEntry.TABLE_NAME +
+                    " WHERE " + sLocationIdAndDateSelection;
+
+    // The columns a weather row needs to go through the compiled statements
+    private static final String[] sForecastRowColumns = {
+            WeatherContract.WeatherEntry.COLUMN_LOC_KEY,
+            WeatherContract.WeatherEntry.COLUMN_DATE,
+            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherContract.WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_HUMIDITY,
+            WeatherContract.WeatherEntry.COLUMN_PRESSURE,
+            WeatherContract.WeatherEntry.COLUMN_WIND_SPEED,
+            WeatherContract.WeatherEntry.COLUMN_DEGREES
+    };
+
+    /**
+     * What a bulk write did with its rows.
+     */
+    public static final class WriteCounts {
+        // Days that weren't stored before
+        public final int inserted;
+        // Stored days whose forecast changed, rewritten in place
+        public final int replaced;
+        // Stored days with the same forecast, left alone
+        public final int unchanged;
+
+        WriteCounts(int inserted, int replaced, int unchanged) {
+            this.inserted = inserted;
+            this.replaced = replaced;
+            this.unchanged = unchanged;
+        }
+
+        public int getWritten() {
+            return inserted + replaced;
+        }
+
+        @Override
+        public String toString() {
+            return "WriteCounts[inserted=" + inserted + ",replaced=" + replaced +
+                    ",unchanged=" + unchanged + "]";
+        }
+    }
+
+    /**
+     * What {@link #applyBatch(ArrayList, ForecastBatch)} did.
+     */
+    public static final class BatchResult {
+        // One per operation, as applyBatch(ArrayList) would have returned them
+        public final ContentProviderResult[] results;
+        // What happened to the forecast rows, the batch's and any the operations inserted
+        public final WriteCounts counts;
+
+        BatchResult(ContentProviderResult[] results, WriteCounts counts) {
+            this.results = results;
+            this.counts = counts;
+        }
+    }
+
+    /**
+     * What an {@link #applyBatch(ArrayList)} collects until it commits.
+     */
+    private static final class PendingBatch {
+        // Compiled on the batch's first forecast row
+        ForecastWriter mForecastWriter;
+        // Notified once the batch has committed, each only once
+        final LinkedHashSet<Uri> mChanges = new LinkedHashSet<Uri>();
+    }
+
+    /**
+     * The forecast write path: an UPDATE that only matches a stored day whose content hash
+     * differs, and for days it didn't match an INSERT OR IGNORE that only adds days that aren't
+     * stored yet.  Both are compiled once and then bound with primitives for every row of a
+     * bulk insert or a batch.  Has to be used inside a transaction and closed after it.
+     */
+    private static final class ForecastWriter {
+        // write()'s result for a stored day that was identical
+        static final long UNCHANGED = -1;
+
+        private final SQLiteStatement mUpdate;
+        private final SQLiteStatement mInsert;
+        // Only compiled when the caller needs the id of a row that was updated
+        private final SQLiteStatement mRowId;
+        // Gingerbread's SQLiteStatement can't tell how many rows an UPDATE changed
+        private final SQLiteStatement mChanges;
+        private final TimeZone mTimeZone = TimeZone.getDefault();
+        // location id -> dates that changed for it
+        final HashMap<Long, ArrayList<Long>> mChangedDates = new HashMap<Long, ArrayList<Long>>();
+        private int mInserted;
+        private int mReplaced;
+        private int mUnchanged;
+
+        ForecastWriter(SQLiteDatabase db, boolean needRowIds) {
+            mUpdate = db.compileStatement(sForecastUpdateStatement);
+            mInsert = db.compileStatement(sForecastInsertStatement);
+            mRowId = needRowIds ? db.compileStatement(sForecastRowIdQuery) : null;
+            mChanges = Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB
+                    ? db.compileStatement("SELECT changes()") : null;
+        }
+
+        /**
+         * @return the id of the row that was inserted or updated, 0 for an update when this
+         * writer doesn't look up row ids, or {@link #UNCHANGED}.
+         */
+        long write(long locationId, long date, int weatherId, String description, double high,
+                   double low, double humidity, double pressure, double windSpeed,
+                   double degrees) {
+            date = WeatherContract.normalizeDate(date, mTimeZone);
+            long contentHash = computeContentHash(weatherId, low, high, humidity, pressure,
+                    windSpeed, degrees, description);
+
+            long rowId;
+            bindForecast(mUpdate, weatherId, description, high, low, humidity, pressure,
+                    windSpeed, degrees, contentHash);
+            mUpdate.bindLong(sForecastColumns.length + 1, locationId);
+            mUpdate.bindLong(sForecastColumns.length + 2, date);
+            mUpdate.bindLong(sForecastColumns.length + 3, contentHash);
+            if (executeUpdate(mUpdate, mChanges) > 0) {
+                mReplaced++;
+                rowId = 0;
+                if (mRowId != null) {
+                    mRowId.bindLong(1, locationId);
+                    mRowId.bindLong(2, date);
+                    rowId = mRowId.simpleQueryForLong();
+                }
+            } else {
+                bindForecast(mInsert, weatherId, description, high, low, humidity, pressure,
+                        windSpeed, degrees, contentHash);
+                mInsert.bindLong(sForecastColumns.length + 1, locationId);
+                mInsert.bindLong(sForecastColumns.length + 2, date);
+                rowId = mInsert.executeInsert();
+                if (rowId == -1) {
+                    // Already stored with this very forecast
+                    mUnchanged++;
+                    return UNCHANGED;
+                }
+                mInserted++;
+            }
+
+            addChangedDate(mChangedDates, locationId, date);
+            return rowId;
+        }
+
+        WriteCounts getCounts() {
+            return new WriteCounts(mInserted, mReplaced, mUnchanged);
+        }
+
+        void close() {
+            mUpdate.close();
+            mInsert.close();
+            if (mRowId != null) {
+                mRowId.close();
+            }
+            if (mChanges != null) {
+                mChanges.close();
+            }
+        }
+    }
+
+    // What METHOD_TODAY_SUMMARY returns, in the order call() reads it
+    private static final String[] sTodaySummaryColumns = {
+            WeatherContract.WeatherEntry.COLUMN_DATE,
+            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherContract.WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP
+    };
+
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    // The location columns a forecast query can have without the join: its URI has the setting
+    private static final String[] sLocationSettingColumns = {
+            WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING,
+            WeatherContract.LocationEntry.TABLE_NAME + "." +
+                    WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING
+    };
+
+    // The ones it can't
+    private static final String[] sJoinedLocationColumns = {
+            WeatherContract.LocationEntry.TABLE_NAME + ".",
+            WeatherContract.LocationEntry.COLUMN_CITY_NAME,
+            WeatherContract.LocationEntry.COLUMN_COORD_LAT,
+            WeatherContract.LocationEntry.COLUMN_COORD_LONG,
+            WeatherContract.LocationEntry.COLUMN_SYNC_STATUS
+    };
+
     private Cursor getWeatherByLocationSetting(Uri uri, String[] projection, String sortOrder) {
         String locationSetting = WeatherContract.WeatherEntry.getLocationSettingFromUri(uri);
         long startDate = WeatherContract.WeatherEntry.getStartDateFromUri(uri);
 
+        if (!needsLocationJoin(projection, sortOrder)) {
+            String locationId = Long.toString(getCachedLocationId(locationSetting));
+            return startDate == 0
+                    ? getWeatherByLocationId(locationSetting, projection, sLocationIdSelection,
+                            new String[]{locationId}, sortOrder)
+                    : getWeatherByLocationId(locationSetting, projection,
+                            sLocationIdWithStartDateSelection,
+                            new String[]{locationId, Long.toString(startDate)}, sortOrder);
+        }
+
         String[] selectionArgs;
         String selection;
 
@@ -98,6 +397,13 @@ public class WeatherProvider extends ContentProvider {
         String locationSetting = WeatherContract.WeatherEntry.getLocationSettingFromUri(uri);
         long date = WeatherContract.WeatherEntry.getDateFromUri(uri);
 
+        if (!needsLocationJoin(projection, sortOrder)) {
+            return getWeatherByLocationId(locationSetting, projection, sLocationIdAndDateSelection,
+                    new String[]{Long.toString(getCachedLocationId(locationSetting)),
+                            Long.toString(date)},
+                    sortOrder);
+        }
+
         return sWeatherByLocationSettingQueryBuilder.query(mOpenHelper.getReadableDatabase(),
                 projection,
                 sLocationSettingAndDaySelection,
@@ -108,6 +414,103 @@ public class WeatherProvider extends ContentProvider {
         );
     }
 
+    /**
+     * @return true if the query asks for location columns other than the location setting, or
+     * for every column, so it has to join the location table in.
+     */
+    private static boolean needsLocationJoin(String[] projection, String sortOrder) {
+        if (projection == null) {
+            return true;
+        }
+        for (String column : projection) {
+            if (isJoinedLocationColumn(column)) {
+                return true;
+            }
+        }
+        return sortOrder != null && isJoinedLocationColumn(sortOrder);
+    }
+
+    private static boolean isJoinedLocationColumn(String column) {
+        for (String settingColumn : sLocationSettingColumns) {
+            if (column.equals(settingColumn)) {
+                return false;
+            }
+        }
+        for (String locationColumn : sJoinedLocationColumns) {
+            if (column.contains(locationColumn)) {
+                return true;
+            }
+        }
+        return column.contains(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING);
+    }
+
+    /**
+     * A forecast query against the weather table alone.  The location setting, the one location
+     * column it can have, is returned as a constant.
+     */
+    private Cursor getWeatherByLocationId(String locationSetting, String[] projection,
+                                          String selection, String[] selectionArgs,
+                                          String sortOrder) {
+        String[] columns = projection.clone();
+        for (int i = 0; i < columns.length; i++) {
+            for (String settingColumn : sLocationSettingColumns) {
+                if (columns[i].equals(settingColumn)) {
+                    columns[i] = DatabaseUtils.sqlEscapeString(locationSetting) + " AS " +
+                            WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING;
+                    break;
+                }
+            }
+        }
+        return mOpenHelper.getReadableDatabase().query(WeatherContract.WeatherEntry.TABLE_NAME,
+                columns,
+                selection,
+                selectionArgs,
+                null,
+                null,
+                sortOrder
+        );
+    }
+
+    /**
+     * @return the id of the location with this setting, from the {@link LocationIdCache} if
+     * it's there, or -1 if there is none.
+     */
+    private long getCachedLocationId(String locationSetting) {
+        SQLiteDatabase db = mOpenHelper.getReadableDatabase();
+        long locationId = getCachedLocationId(db, locationSetting);
+        if (locationId == -1) {
+            locationId = getLocationId(db, locationSetting);
+            if (locationId != -1) {
+                mLocationIds.put(locationSetting, locationId);
+            }
+        }
+        return locationId;
+    }
+
+    /**
+     * @return the id of the location with this setting if the {@link LocationIdCache} has it,
+     * loading the location table into it first if it's empty, or -1.
+     */
+    private long getCachedLocationId(SQLiteDatabase db, String locationSetting) {
+        if (!mLocationIds.isLoaded()) {
+            long generation = mLocationIds.getGeneration();
+            HashMap<String, Long> ids = new HashMap<String, Long>();
+            Cursor cursor = db.query(WeatherContract.LocationEntry.TABLE_NAME,
+                    new String[]{WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING,
+                            WeatherContract.LocationEntry._ID},
+                    null, null, null, null, null);
+            try {
+                while (cursor.moveToNext()) {
+                    ids.put(cursor.getString(0), cursor.getLong(1));
+                }
+            } finally {
+                cursor.close();
+            }
+            mLocationIds.load(ids, generation);
+        }
+        return mLocationIds.get(locationSetting);
+    }
+
     /*
         Students: Here is where you need to create the UriMatcher. This UriMatcher will
         match each URI to the WEATHER, WEATHER_WITH_LOCATION, WEATHER_WITH_LOCATION_AND_DATE,
@@ -130,6 +533,12 @@ public class WeatherProvider extends ContentProvider {
         matcher.addURI(authority, WeatherContract.PATH_WEATHER + "/*/#", WEATHER_WITH_LOCATION_AND_DATE);
 
         matcher.addURI(authority, WeatherContract.PATH_LOCATION, LOCATION);
+
+        matcher.addURI(authority, WeatherContract.PATH_METRICS, METRICS);
+
+        matcher.addURI(authority, WeatherContract.PATH_HISTORY, HISTORY);
+        matcher.addURI(authority, WeatherContract.PATH_HISTORY + "/*", HISTORY_WITH_LOCATION);
+        matcher.addURI(authority, WeatherContract.PATH_HISTORY + "/*/*", HISTORY_ROLLUP);
         return matcher;
     }
 
@@ -140,9 +549,24 @@ public class WeatherProvider extends ContentProvider {
     @Override
     public boolean onCreate() {
         mOpenHelper = new WeatherDbHelper(getContext());
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+            mForecastCache = new ForecastCache(ForecastCache.DEFAULT_MAX_ROWS);
+        }
         return true;
     }
 
+    /**
+     * @return the cache in front of the per-location forecast queries, for its statistics, or
+     * null if this device doesn't use one.
+     */
+    public ForecastCache getForecastCache() {
+        return mForecastCache;
+    }
+
+    LocationIdCache getLocationIdCache() {
+        return mLocationIds;
+    }
+
     /*
         Students: Here's where you'll code the getType function that uses the UriMatcher.  You can
         test this by uncommenting testGetType in TestProvider.
@@ -164,6 +588,13 @@ public class WeatherProvider extends ContentProvider {
                 return WeatherContract.WeatherEntry.CONTENT_TYPE;
             case LOCATION:
                 return WeatherContract.LocationEntry.CONTENT_TYPE;
+            case METRICS:
+                return WeatherContract.MetricsEntry.CONTENT_TYPE;
+            case HISTORY:
+            case HISTORY_WITH_LOCATION:
+                return WeatherContract.HistoryEntry.CONTENT_TYPE;
+            case HISTORY_ROLLUP:
+                return WeatherContract.HistoryRollupEntry.CONTENT_TYPE;
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
@@ -175,16 +606,13 @@ public class WeatherProvider extends ContentProvider {
         // Here's the switch statement that, given a URI, will determine what kind of request it is,
         // and query the database accordingly.
         Cursor retCursor;
-        switch (sUriMatcher.match(uri)) {
+        final int match = sUriMatcher.match(uri);
+        switch (match) {
             // "weather/*/*"
             case WEATHER_WITH_LOCATION_AND_DATE:
-            {
-                retCursor = getWeatherByLocationSettingAndDate(uri, projection, sortOrder);
-                break;
-            }
             // "weather/*"
             case WEATHER_WITH_LOCATION: {
-                retCursor = getWeatherByLocationSetting(uri, projection, sortOrder);
+                retCursor = queryForecast(match, uri, projection, sortOrder);
                 break;
             }
             // "weather"
@@ -213,6 +641,51 @@ public class WeatherProvider extends ContentProvider {
                 );
                 break;
             }
+            // "metrics"
+            case METRICS: {
+                retCursor = SyncMetrics.getInstance(getContext()).toCursor();
+                break;
+            }
+            // "history"
+            case HISTORY: {
+                retCursor = mOpenHelper.getReadableDatabase().query(
+                        WeatherContract.HistoryEntry.TABLE_NAME,
+                        projection,
+                        selection,
+                        selectionArgs,
+                        null,
+                        null,
+                        sortOrder
+                );
+                break;
+            }
+            // "history/*"
+            case HISTORY_WITH_LOCATION: {
+                retCursor = WeatherHistory.queryDays(mOpenHelper.getReadableDatabase(),
+                        getCachedLocationId(
+                                WeatherContract.HistoryEntry.getLocationSettingFromUri(uri)),
+                        projection,
+                        WeatherContract.HistoryEntry.getStartDateFromUri(uri),
+                        WeatherContract.HistoryEntry.getEndDateFromUri(uri),
+                        sortOrder);
+                break;
+            }
+            // "history/*/*"
+            case HISTORY_ROLLUP: {
+                String period = WeatherContract.HistoryEntry.getPeriodFromUri(uri);
+                if (!WeatherHistory.isPeriod(period)) {
+                    throw new UnsupportedOperationException("Unknown uri: " + uri);
+                }
+                retCursor = WeatherHistory.queryRollups(mOpenHelper.getReadableDatabase(),
+                        getCachedLocationId(
+                                WeatherContract.HistoryEntry.getLocationSettingFromUri(uri)),
+                        period,
+                        projection,
+                        WeatherContract.HistoryEntry.getStartDateFromUri(uri),
+                        WeatherContract.HistoryEntry.getEndDateFromUri(uri),
+                        sortOrder);
+                break;
+            }
 
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
@@ -221,6 +694,78 @@ public class WeatherProvider extends ContentProvider {
         return retCursor;
     }
 
+    /**
+     * Serves {@code weather/<location>} and {@code weather/<location>/<date>} from the
+     * {@link ForecastCache} when it can, and from the database otherwise.
+     */
+    private Cursor queryForecast(int match, Uri uri, String[] projection, String sortOrder) {
+        if (mForecastCache == null) {
+            return match == WEATHER_WITH_LOCATION_AND_DATE
+                    ? getWeatherByLocationSettingAndDate(uri, projection, sortOrder)
+                    : getWeatherByLocationSetting(uri, projection, sortOrder);
+        }
+        long date = match == WEATHER_WITH_LOCATION_AND_DATE
+                ? WeatherContract.WeatherEntry.getDateFromUri(uri)
+                : WeatherContract.WeatherEntry.getStartDateFromUri(uri);
+        ForecastCache.Key key = new ForecastCache.Key(match,
+                WeatherContract.WeatherEntry.getLocationSettingFromUri(uri), date, projection,
+                sortOrder);
+        Cursor cursor = mForecastCache.get(key);
+        if (cursor != null) {
+            return cursor;
+        }
+        long generation = mForecastCache.getGeneration();
+        cursor = match == WEATHER_WITH_LOCATION_AND_DATE
+                ? getWeatherByLocationSettingAndDate(uri, projection, sortOrder)
+                : getWeatherByLocationSetting(uri, projection, sortOrder);
+        mForecastCache.put(key, cursor, generation);
+        return cursor;
+    }
+
+    /**
+     * Answers {@link WeatherContract#METHOD_TODAY_SUMMARY}.  The widgets, the notification,
+     * Muzei and the watch only want a handful of values out of one row, and a Bundle of them
+     * costs one call instead of a query, a CursorWindow and a cursor to manage.
+     */
+    @Override
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    public Bundle call(String method, String arg, Bundle extras) {
+        if (!WeatherContract.METHOD_TODAY_SUMMARY.equals(method)) {
+            return super.call(method, arg, extras);
+        }
+        if (arg == null) {
+            throw new IllegalArgumentException("No location setting for " + method);
+        }
+        long startDate = System.currentTimeMillis();
+        if (extras != null && extras.containsKey(WeatherContract.WeatherEntry.COLUMN_DATE)) {
+            startDate = extras.getLong(WeatherContract.WeatherEntry.COLUMN_DATE);
+        }
+        Cursor cursor = mOpenHelper.getReadableDatabase().query(
+                WeatherContract.WeatherEntry.TABLE_NAME,
+                sTodaySummaryColumns,
+                sLocationIdWithStartDateSelection,
+                new String[]{Long.toString(getCachedLocationId(arg)),
+                        Long.toString(WeatherContract.normalizeDate(startDate))},
+                null,
+                null,
+                WeatherContract.WeatherEntry.COLUMN_DATE + " ASC",
+                "1");
+        try {
+            if (!cursor.moveToFirst()) {
+                return null;
+            }
+            Bundle summary = new Bundle();
+            summary.putLong(WeatherContract.WeatherEntry.COLUMN_DATE, cursor.getLong(0));
+            summary.putInt(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID, cursor.getInt(1));
+            summary.putString(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC, cursor.getString(2));
+            summary.putDouble(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, cursor.getDouble(3));
+            summary.putDouble(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP, cursor.getDouble(4));
+            return summary;
+        } finally {
+            cursor.close();
+        }
+    }
+
     /*
         Student: Add the ability to insert Locations to the implementation of this function.
      */
@@ -232,60 +777,353 @@ public class WeatherProvider extends ContentProvider {
 
         switch (match) {
             case WEATHER: {
+                PendingBatch batch = mPendingBatch.get();
+                if (batch != null && isForecastRow(values)) {
+                    return insertForecastRow(db, batch, values);
+                }
                 normalizeDate(values);
+                values.put(WeatherContract.WeatherEntry.COLUMN_CONTENT_HASH,
+                        computeContentHash(values));
                 long _id = db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, values);
                 if ( _id > 0 )
                     returnUri = WeatherContract.WeatherEntry.buildWeatherUri(_id);
                 else
                     throw new android.database.SQLException("Failed to insert row into " + uri);
+                Long locationId = values.getAsLong(WeatherContract.WeatherEntry.COLUMN_LOC_KEY);
+                Long date = values.getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE);
+                if (locationId != null && date != null) {
+                    HashMap<Long, ArrayList<Long>> changedDates =
+                            new HashMap<Long, ArrayList<Long>>(1);
+                    addChangedDate(changedDates, locationId, date);
+                    notifyChangedDates(db, changedDates);
+                    return returnUri;
+                }
                 break;
             }
             case LOCATION: {
-                long _id = db.insert(WeatherContract.LocationEntry.TABLE_NAME, null, values);
-                if ( _id > 0 )
-                    returnUri = WeatherContract.LocationEntry.buildLocationUri(_id);
-                else
-                    throw new android.database.SQLException("Failed to insert row into " + uri);
+                // An upsert: inserting a location setting that is already stored returns the
+                // stored row, so a sync can insert its locations and back-reference their ids.
+                // For a location in the LocationIdCache that is all it does.
+                String locationSetting = values.getAsString(
+                        WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING);
+                long _id = getCachedLocationId(db, locationSetting);
+                if (_id != -1) {
+                    return WeatherContract.LocationEntry.buildLocationUri(_id);
+                }
+                _id = db.insertWithOnConflict(WeatherContract.LocationEntry.TABLE_NAME, null,
+                        values, SQLiteDatabase.CONFLICT_IGNORE);
+                if (_id == -1) {
+                    _id = getLocationId(db, locationSetting);
+                    if (_id == -1) {
+                        throw new android.database.SQLException(
+                                "Failed to insert row into " + uri);
+                    }
+                    mLocationIds.put(locationSetting, _id);
+                    return WeatherContract.LocationEntry.buildLocationUri(_id);
+                }
+                mLocationIds.put(locationSetting, _id);
+                returnUri = WeatherContract.LocationEntry.buildLocationUri(_id);
                 break;
             }
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
-        getContext().getContentResolver().notifyChange(uri, null);
+        notifyChange(uri);
         return returnUri;
     }
 
+    /**
+     * A weather insert inside {@link #applyBatch(ArrayList)}: the row goes through the batch's
+     * {@link ForecastWriter} like a bulk insert's rows do.
+     *
+     * @return the row's URI if it was inserted or changed, or the weather URI itself for a day
+     * that was already stored with the same forecast.
+     */
+    private Uri insertForecastRow(SQLiteDatabase db, PendingBatch batch, ContentValues values) {
+        if (batch.mForecastWriter == null) {
+            batch.mForecastWriter = new ForecastWriter(db, true);
+        }
+        long rowId = batch.mForecastWriter.write(
+                values.getAsLong(WeatherContract.WeatherEntry.COLUMN_LOC_KEY),
+                values.getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE),
+                values.getAsInteger(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID),
+                values.getAsString(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC),
+                values.getAsDouble(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP),
+                values.getAsDouble(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP),
+                values.getAsDouble(WeatherContract.WeatherEntry.COLUMN_HUMIDITY),
+                values.getAsDouble(WeatherContract.WeatherEntry.COLUMN_PRESSURE),
+                values.getAsDouble(WeatherContract.WeatherEntry.COLUMN_WIND_SPEED),
+                values.getAsDouble(WeatherContract.WeatherEntry.COLUMN_DEGREES));
+        if (rowId == ForecastWriter.UNCHANGED) {
+            return WeatherContract.WeatherEntry.CONTENT_URI;
+        }
+        // The changed dates are notified when the batch commits
+        return WeatherContract.WeatherEntry.buildWeatherUri(rowId);
+    }
+
+    /**
+     * @return the id of the location with this setting, or -1 if there is none.
+     */
+    private static long getLocationId(SQLiteDatabase db, String locationSetting) {
+        if (locationSetting == null) {
+            return -1;
+        }
+        SQLiteStatement query = db.compileStatement(sLocationIdQuery);
+        try {
+            query.bindString(1, locationSetting);
+            return query.simpleQueryForLong();
+        } catch (SQLiteDoneException e) {
+            return -1;
+        } finally {
+            query.close();
+        }
+    }
+
+    /**
+     * Runs the whole batch in one transaction, so a sync's location upserts, weather rows and
+     * prune cost a single commit.  Weather inserts with all the forecast columns share one set
+     * of compiled statements and skip unchanged days like {@link #bulkInsert(ForecastBatch)},
+     * and the change notifications are held until the batch has committed, each URI notified
+     * once and none whose parent is notified anyway.  If any operation fails, nothing is
+     * written and nothing is notified.
+     */
+    @Override
+    public ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+        if (mPendingBatch.get() != null) {
+            // Already inside a batch on this thread, its transaction covers this one
+            return super.applyBatch(operations);
+        }
+        return applyBatch(operations, null).results;
+    }
+
+    /**
+     * The sync's write path: {@link #applyBatch(ArrayList)}, then the days of a
+     * {@link ForecastBatch} in the same transaction, bound straight from its columns rather
+     * than from a {@link ContentValues} per day.  The rows' location ids are back references:
+     * each is the index of the operation whose result is the row's location, usually its
+     * upsert.
+     * <p>
+     * Only reachable in-process, through
+     * {@link android.content.ContentProviderClient#getLocalContentProvider()}.
+     *
+     * @param rows the days to write after the operations, or null.
+     */
+    public BatchResult applyBatch(ArrayList<ContentProviderOperation> operations,
+                                  ForecastBatch rows) throws OperationApplicationException {
+        if (mPendingBatch.get() != null) {
+            throw new IllegalStateException("A batch is already being applied on this thread");
+        }
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        PendingBatch batch = new PendingBatch();
+        mPendingBatch.set(batch);
+        ContentProviderResult[] results;
+        boolean successful = false;
+        db.beginTransaction();
+        try {
+            results = super.applyBatch(operations);
+            if (rows != null && rows.size() > 0) {
+                writeForecastRows(db, batch, rows, results);
+            }
+            if (batch.mForecastWriter != null) {
+                // Resolves the changed rows' locations while the transaction can still see them
+                notifyChangedDates(db, batch.mForecastWriter.mChangedDates);
+            }
+            db.setTransactionSuccessful();
+            successful = true;
+        } finally {
+            if (batch.mForecastWriter != null) {
+                batch.mForecastWriter.close();
+            }
+            db.endTransaction();
+            mPendingBatch.remove();
+            if (!successful) {
+                // Forget the ids of locations the batch inserted, they're gone
+                mLocationIds.clear();
+            }
+        }
+
+        for (Uri uri : batch.mChanges) {
+            if (!hasNotifiedAncestor(uri, batch.mChanges)) {
+                dispatchChange(uri);
+            }
+        }
+        return new BatchResult(results, batch.mForecastWriter != null
+                ? batch.mForecastWriter.getCounts() : new WriteCounts(0, 0, 0));
+    }
+
+    /**
+     * Writes a batch's days through its {@link ForecastWriter}, each with the id of the location
+     * its back reference points at.
+     */
+    private static void writeForecastRows(SQLiteDatabase db, PendingBatch batch,
+                                          ForecastBatch rows, ContentProviderResult[] results)
+            throws OperationApplicationException {
+        if (batch.mForecastWriter == null) {
+            batch.mForecastWriter = new ForecastWriter(db, false);
+        }
+        // A location's days are added together, so each reference is only parsed once
+        int reference = -1;
+        long locationId = 0;
+        for (int row = 0; row < rows.size(); row++) {
+            if (rows.getLocationId(row) != reference) {
+                reference = (int) rows.getLocationId(row);
+                if (reference < 0 || reference >= results.length
+                        || results[reference].uri == null) {
+                    throw new OperationApplicationException(
+                            "Forecast row " + row + " has no location at " + reference);
+                }
+                locationId = ContentUris.parseId(results[reference].uri);
+            }
+            batch.mForecastWriter.write(locationId, rows.getDate(row), rows.getWeatherId(row),
+                    rows.getDescription(row), rows.getHigh(row), rows.getLow(row),
+                    rows.getHumidity(row), rows.getPressure(row), rows.getWindSpeed(row),
+                    rows.getDegrees(row));
+        }
+    }
+
+    /**
+     * Notifies the URI's observers, or if a batch is running on this thread, once it commits.
+     */
+    private void notifyChange(Uri uri) {
+        PendingBatch batch = mPendingBatch.get();
+        if (batch != null) {
+            batch.mChanges.add(uri);
+        } else {
+            dispatchChange(uri);
+        }
+    }
+
+    /**
+     * Drops what the change makes stale from the {@link ForecastCache}, then notifies.  Only
+     * called once the change has been committed.
+     */
+    private void dispatchChange(Uri uri) {
+        if (mForecastCache != null) {
+            switch (sUriMatcher.match(uri)) {
+                case WEATHER_WITH_LOCATION_AND_DATE:
+                    mForecastCache.invalidate(
+                            WeatherContract.WeatherEntry.getLocationSettingFromUri(uri),
+                            WeatherContract.WeatherEntry.getDateFromUri(uri));
+                    break;
+                case WEATHER_WITH_LOCATION:
+                    mForecastCache.invalidate(
+                            WeatherContract.WeatherEntry.getLocationSettingFromUri(uri));
+                    break;
+                case METRICS:
+                case HISTORY:
+                case HISTORY_WITH_LOCATION:
+                case HISTORY_ROLLUP:
+                    break;
+                default:
+                    // All of the weather, or the location rows the forecast queries join in
+                    mForecastCache.invalidateAll();
+            }
+        }
+        getContext().getContentResolver().notifyChange(uri, null);
+    }
+
+    /**
+     * @return true if one of {@code uri}'s ancestors is among {@code changes}.  A notification
+     * also reaches the observers of every URI below the notified one, so {@code uri} needn't be
+     * notified on its own.
+     */
+    private static boolean hasNotifiedAncestor(Uri uri, Iterable<Uri> changes) {
+        List<String> segments = uri.getPathSegments();
+        for (Uri change : changes) {
+            List<String> changeSegments = change.getPathSegments();
+            if (changeSegments.size() < segments.size()
+                    && change.getAuthority().equals(uri.getAuthority())
+                    && segments.subList(0, changeSegments.size()).equals(changeSegments)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     @Override
     public int delete(Uri uri, String selection, String[] selectionArgs) {
         final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
         final int match = sUriMatcher.match(uri);
         int rowsDeleted;
+        // Every row goes, which all of the weather's observers need to hear about anyway
+        boolean deleteAll = null == selection;
         // this makes delete all rows return the number of rows deleted
         if ( null == selection ) selection = "1";
         switch (match) {
             case WEATHER:
-                rowsDeleted = db.delete(
-                        WeatherContract.WeatherEntry.TABLE_NAME, selection, selectionArgs);
-                break;
+                int retentionDays = WeatherContract.WeatherEntry.getArchiveRetentionDaysFromUri(uri);
+                if (deleteAll && retentionDays == -1) {
+                    rowsDeleted = db.delete(
+                            WeatherContract.WeatherEntry.TABLE_NAME, selection, selectionArgs);
+                    break;
+                }
+                HashMap<Long, ArrayList<Long>> deletedDates;
+                db.beginTransaction();
+                try {
+                    deletedDates = queryWeatherDates(db, selection, selectionArgs);
+                    if (retentionDays != -1) {
+                        // Moved into the history archive rather than just dropped
+                        WeatherHistory.archive(db, selection, selectionArgs, deletedDates,
+                                retentionDays, System.currentTimeMillis());
+                    }
+                    rowsDeleted = db.delete(
+                            WeatherContract.WeatherEntry.TABLE_NAME, selection, selectionArgs);
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
+                if (rowsDeleted == 0) {
+                    return 0;
+                }
+                if (deleteAll) {
+                    notifyChange(WeatherContract.WeatherEntry.CONTENT_URI);
+                } else {
+                    notifyChangedDates(db, deletedDates);
+                }
+                if (retentionDays != -1) {
+                    notifyChange(WeatherContract.HistoryEntry.CONTENT_URI);
+                }
+                return rowsDeleted;
             case LOCATION:
                 rowsDeleted = db.delete(
                         WeatherContract.LocationEntry.TABLE_NAME, selection, selectionArgs);
+                mLocationIds.clear();
+                break;
+            case HISTORY:
+                rowsDeleted = db.delete(
+                        WeatherContract.HistoryEntry.TABLE_NAME, selection, selectionArgs);
+                if (deleteAll) {
+                    // Starting the history over, the rollups go with the days
+                    rowsDeleted += db.delete(
+                            WeatherContract.HistoryRollupEntry.TABLE_NAME, selection, null);
+                }
+                break;
+            case METRICS:
+                // Deleting the metrics starts them over, e.g. before measuring a change
+                SyncMetrics.getInstance(getContext()).reset();
+                rowsDeleted = 1;
                 break;
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
         // Because a null deletes all rows
         if (rowsDeleted != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+            notifyChange(uri);
         }
         return rowsDeleted;
     }
 
     private void normalizeDate(ContentValues values) {
+        normalizeDate(values, TimeZone.getDefault());
+    }
+
+    private void normalizeDate(ContentValues values, TimeZone timeZone) {
         // normalize the date value
         if (values.containsKey(WeatherContract.WeatherEntry.COLUMN_DATE)) {
             long dateValue = values.getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE);
-            values.put(WeatherContract.WeatherEntry.COLUMN_DATE, WeatherContract.normalizeDate(dateValue));
+            values.put(WeatherContract.WeatherEntry.COLUMN_DATE,
+                    WeatherContract.normalizeDate(dateValue, timeZone));
         }
     }
 
@@ -299,49 +1137,376 @@ public class WeatherProvider extends ContentProvider {
         switch (match) {
             case WEATHER:
                 normalizeDate(values);
-                rowsUpdated = db.update(WeatherContract.WeatherEntry.TABLE_NAME, values, selection,
-                        selectionArgs);
-                break;
+                if (!values.containsKey(WeatherContract.WeatherEntry.COLUMN_CONTENT_HASH)) {
+                    // The stored hash may no longer match the row, have the next sync rewrite it
+                    values.putNull(WeatherContract.WeatherEntry.COLUMN_CONTENT_HASH);
+                }
+                if (values.containsKey(WeatherContract.WeatherEntry.COLUMN_LOC_KEY)
+                        || values.containsKey(WeatherContract.WeatherEntry.COLUMN_DATE)) {
+                    // Rows that move to another location or day change two places, tell everyone
+                    rowsUpdated = db.update(WeatherContract.WeatherEntry.TABLE_NAME, values,
+                            selection, selectionArgs);
+                    break;
+                }
+                HashMap<Long, ArrayList<Long>> updatedDates;
+                db.beginTransaction();
+                try {
+                    updatedDates = queryWeatherDates(db, selection, selectionArgs);
+                    rowsUpdated = db.update(WeatherContract.WeatherEntry.TABLE_NAME, values,
+                            selection, selectionArgs);
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
+                notifyChangedDates(db, updatedDates);
+                return rowsUpdated;
             case LOCATION:
                 rowsUpdated = db.update(WeatherContract.LocationEntry.TABLE_NAME, values, selection,
                         selectionArgs);
+                // A sync's status updates leave the cached ids alone
+                if (values.containsKey(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING)
+                        || values.containsKey(WeatherContract.LocationEntry._ID)) {
+                    mLocationIds.clear();
+                }
                 break;
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
         if (rowsUpdated != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+            notifyChange(uri);
         }
         return rowsUpdated;
     }
 
+    /**
+     * Inserts weather rows, skipping every row whose forecast is identical to what is already
+     * stored for that location and date.  Rows that did change are updated in place rather than
+     * replaced, and only their {@code weather/<location>/<date>} URIs are notified, so a sync
+     * that brings nothing new writes nothing and wakes up no loaders.
+     * <p>
+     * Rows with exactly the forecast columns, which is what the sync sends, are written through
+     * the same compiled statements as {@link #bulkInsert(ForecastBatch)}.
+     *
+     * @return the number of rows inserted or updated.
+     */
     @Override
     public int bulkInsert(Uri uri, ContentValues[] values) {
         final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
         final int match = sUriMatcher.match(uri);
         switch (match) {
             case WEATHER:
+                if (isForecastRows(values)) {
+                    return writeForecast(toForecastBatch(values)).getWritten();
+                }
+
+                // Rows that don't carry exactly the forecast columns, e.g. from an older caller.
+                // Same rules, one ContentValues at a time.
+                TimeZone timeZone = TimeZone.getDefault();
+                // location id -> dates that changed for it
+                HashMap<Long, ArrayList<Long>> changedDates = new HashMap<Long, ArrayList<Long>>();
+                boolean changedUnkeyedRows = false;
                 db.beginTransaction();
                 int returnCount = 0;
+                SQLiteStatement storedHash = db.compileStatement(sStoredContentHashQuery);
                 try {
                     for (ContentValues value : values) {
-                        normalizeDate(value);
-                        long _id = db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, value);
-                        if (_id != -1) {
+                        normalizeDate(value, timeZone);
+                        long contentHash = computeContentHash(value);
+                        value.put(WeatherContract.WeatherEntry.COLUMN_CONTENT_HASH, contentHash);
+
+                        Long locationId = value.getAsLong(WeatherContract.WeatherEntry.COLUMN_LOC_KEY);
+                        Long date = value.getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE);
+                        if (locationId == null || date == null) {
+                            // Not a row we can match up, let the table's constraints decide
+                            if (db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, value) != -1) {
+                                returnCount++;
+                                changedUnkeyedRows = true;
+                            }
+                            continue;
+                        }
+
+                        storedHash.bindLong(1, locationId);
+                        storedHash.bindLong(2, date);
+                        boolean exists;
+                        boolean unchanged;
+                        try {
+                            String stored = storedHash.simpleQueryForString();
+                            exists = true;
+                            unchanged = stored != null && Long.parseLong(stored) == contentHash;
+                        } catch (SQLiteDoneException e) {
+                            exists = false;
+                            unchanged = false;
+                        }
+                        if (unchanged) {
+                            continue;
+                        }
+
+                        boolean written;
+                        if (exists) {
+                            written = db.update(WeatherContract.WeatherEntry.TABLE_NAME, value,
+                                    sLocationIdAndDateSelection,
+                                    new String[]{Long.toString(locationId), Long.toString(date)}) > 0;
+                        } else {
+                            written = db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, value) != -1;
+                        }
+                        if (written) {
                             returnCount++;
+                            addChangedDate(changedDates, locationId, date);
                         }
                     }
                     db.setTransactionSuccessful();
                 } finally {
+                    storedHash.close();
                     db.endTransaction();
                 }
-                getContext().getContentResolver().notifyChange(uri, null);
+                if (changedUnkeyedRows) {
+                    notifyChange(uri);
+                } else {
+                    notifyChangedDates(db, changedDates);
+                }
                 return returnCount;
             default:
                 return super.bulkInsert(uri, values);
         }
     }
 
+    /**
+     * The sync's write path: stores a {@link ForecastBatch} without turning it into
+     * {@link ContentValues} first.  Behaves like {@link #bulkInsert(Uri, ContentValues[])} on the
+     * weather URI, so unchanged days are skipped and only the changed ones are notified.
+     * <p>
+     * Only reachable in-process, through
+     * {@link android.content.ContentProviderClient#getLocalContentProvider()}.
+     */
+    public WriteCounts bulkInsert(ForecastBatch batch) {
+        return writeForecast(batch);
+    }
+
+    /**
+     * Writes the batch in one transaction through a {@link ForecastWriter}.
+     */
+    private WriteCounts writeForecast(ForecastBatch batch) {
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        ForecastWriter writer = new ForecastWriter(db, false);
+        db.beginTransaction();
+        try {
+            for (int row = 0; row < batch.size(); row++) {
+                writer.write(batch.getLocationId(row), batch.getDate(row),
+                        batch.getWeatherId(row), batch.getDescription(row), batch.getHigh(row),
+                        batch.getLow(row), batch.getHumidity(row), batch.getPressure(row),
+                        batch.getWindSpeed(row), batch.getDegrees(row));
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            writer.close();
+            db.endTransaction();
+        }
+        notifyChangedDates(db, writer.mChangedDates);
+        return writer.getCounts();
+    }
+
+    @TargetApi(11)
+    private static int executeUpdate(SQLiteStatement update, SQLiteStatement changes) {
+        if (changes == null) {
+            return update.executeUpdateDelete();
+        }
+        update.execute();
+        return (int) changes.simpleQueryForLong();
+    }
+
+    /**
+     * @return true if every row has exactly the forecast columns, with values, so the rows can
+     * be written through the compiled statements.
+     */
+    private static boolean isForecastRows(ContentValues[] values) {
+        for (ContentValues value : values) {
+            if (!isForecastRow(value)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isForecastRow(ContentValues value) {
+        int columns = 0;
+        for (String column : sForecastRowColumns) {
+            if (value.get(column) == null) {
+                return false;
+            }
+            columns++;
+        }
+        // A content hash is recomputed anyway, anything else we don't know how to bind
+        if (value.containsKey(WeatherContract.WeatherEntry.COLUMN_CONTENT_HASH)) {
+            columns++;
+        }
+        return value.size() == columns;
+    }
+
+    private static ForecastBatch toForecastBatch(ContentValues[] values) {
+        ForecastBatch batch = new ForecastBatch(values.length);
+        for (ContentValues value : values) {
+            batch.add(value.getAsLong(WeatherContract.WeatherEntry.COLUMN_LOC_KEY),
+                    value.getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE),
+                    value.getAsInteger(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID),
+                    value.getAsString(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC),
+                    value.getAsDouble(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP),
+                    value.getAsDouble(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP),
+                    value.getAsDouble(WeatherContract.WeatherEntry.COLUMN_HUMIDITY),
+                    value.getAsDouble(WeatherContract.WeatherEntry.COLUMN_PRESSURE),
+                    value.getAsDouble(WeatherContract.WeatherEntry.COLUMN_WIND_SPEED),
+                    value.getAsDouble(WeatherContract.WeatherEntry.COLUMN_DEGREES));
+        }
+        return batch;
+    }
+
+    private static void bindForecast(SQLiteStatement statement, int weatherId,
+                                     String description, double high, double low,
+                                     double humidity, double pressure, double windSpeed,
+                                     double degrees, long contentHash) {
+        // Same order as sForecastColumns
+        statement.bindLong(1, weatherId);
+        statement.bindString(2, description);
+        statement.bindDouble(3, high);
+        statement.bindDouble(4, low);
+        statement.bindDouble(5, humidity);
+        statement.bindDouble(6, pressure);
+        statement.bindDouble(7, windSpeed);
+        statement.bindDouble(8, degrees);
+        statement.bindLong(9, contentHash);
+    }
+
+    private static void addChangedDate(HashMap<Long, ArrayList<Long>> changedDates,
+                                       long locationId, long date) {
+        ArrayList<Long> dates = changedDates.get(locationId);
+        if (dates == null) {
+            dates = new ArrayList<Long>();
+            changedDates.put(locationId, dates);
+        }
+        dates.add(date);
+    }
+
+    /**
+     * @return location id -> dates of the weather rows the selection matches, read before an
+     * update or delete so that only those rows are notified.
+     */
+    private static HashMap<Long, ArrayList<Long>> queryWeatherDates(SQLiteDatabase db,
+                                                                   String selection,
+                                                                   String[] selectionArgs) {
+        HashMap<Long, ArrayList<Long>> dates = new HashMap<Long, ArrayList<Long>>();
+        Cursor cursor = db.query(WeatherContract.WeatherEntry.TABLE_NAME,
+                new String[]{WeatherContract.WeatherEntry.COLUMN_LOC_KEY,
+                        WeatherContract.WeatherEntry.COLUMN_DATE},
+                selection, selectionArgs, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                addChangedDate(dates, cursor.getLong(0), cursor.getLong(1));
+            }
+        } finally {
+            cursor.close();
+        }
+        return dates;
+    }
+
+    /**
+     * Notifies {@code weather/<location>/<date>} for every changed row.  Observers of the whole
+     * location (the forecast list) hear about it through the parent URI; other locations and
+     * the detail screens of other days don't hear about it at all.
+     */
+    private void notifyChangedDates(SQLiteDatabase db, HashMap<Long, ArrayList<Long>> changedDates) {
+        for (Map.Entry<Long, ArrayList<Long>> entry : changedDates.entrySet()) {
+            String locationSetting = null;
+            Cursor cursor = db.query(WeatherContract.LocationEntry.TABLE_NAME,
+                    new String[]{WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING},
+                    WeatherContract.LocationEntry._ID + " = ?",
+                    new String[]{Long.toString(entry.getKey())},
+                    null, null, null);
+            try {
+                if (cursor.moveToFirst()) {
+                    locationSetting = cursor.getString(0);
+                }
+            } finally {
+                cursor.close();
+            }
+
+            if (locationSetting == null) {
+                // Weather for a location we don't know, nobody can be looking at it by setting
+                notifyChange(WeatherContract.WeatherEntry.CONTENT_URI);
+                continue;
+            }
+            for (Long date : entry.getValue()) {
+                notifyChange(WeatherContract.WeatherEntry.buildWeatherLocationWithDate(
+                        locationSetting, date));
+            }
+        }
+    }
+
+    /**
+     * Hashes the forecast values of a weather row, everything but its location and date.  It
+     * only has to tell an unchanged day from a changed one, so a 64-bit FNV-1a over the values
+     * is plenty.
+     */
+    static long computeContentHash(ContentValues values) {
+        long hash = FNV_OFFSET_BASIS;
+        hash = hashNumber(hash, values, WeatherContract.WeatherEntry.COLUMN_WEATHER_ID);
+        hash = hashNumber(hash, values, WeatherContract.WeatherEntry.COLUMN_MIN_TEMP);
+        hash = hashNumber(hash, values, WeatherContract.WeatherEntry.COLUMN_MAX_TEMP);
+        hash = hashNumber(hash, values, WeatherContract.WeatherEntry.COLUMN_HUMIDITY);
+        hash = hashNumber(hash, values, WeatherContract.WeatherEntry.COLUMN_PRESSURE);
+        hash = hashNumber(hash, values, WeatherContract.WeatherEntry.COLUMN_WIND_SPEED);
+        hash = hashNumber(hash, values, WeatherContract.WeatherEntry.COLUMN_DEGREES);
+        return hashString(hash,
+                values.getAsString(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC));
+    }
+
+    /**
+     * Same as {@link #computeContentHash(ContentValues)} for a row that has all its values.
+     */
+    static long computeContentHash(int weatherId, double low, double high, double humidity,
+                                   double pressure, double windSpeed, double degrees,
+                                   String description) {
+        long hash = FNV_OFFSET_BASIS;
+        hash = hashDouble(hash, weatherId);
+        hash = hashDouble(hash, low);
+        hash = hashDouble(hash, high);
+        hash = hashDouble(hash, humidity);
+        hash = hashDouble(hash, pressure);
+        hash = hashDouble(hash, windSpeed);
+        hash = hashDouble(hash, degrees);
+        return hashString(hash, description);
+    }
+
+    private static long hashNumber(long hash, ContentValues values, String column) {
+        Double value = values.getAsDouble(column);
+        if (value == null) {
+            // Mix in a marker so a missing value doesn't hash like 0.0
+            return (hash ^ 0) * FNV_PRIME;
+        }
+        return hashDouble(hash, value);
+    }
+
+    private static long hashDouble(long hash, double value) {
+        hash = (hash ^ 1) * FNV_PRIME;
+        return hashLong(hash, Double.doubleToLongBits(value));
+    }
+
+    private static long hashString(long hash, String value) {
+        if (value == null) {
+            return hashLong(hash, 0);
+        }
+        for (int i = 0; i < value.length(); i++) {
+            hash = (hash ^ value.charAt(i)) * FNV_PRIME;
+        }
+        return hashLong(hash, value.length());
+    }
+
+    private static long hashLong(long hash, long value) {
+        for (int i = 0; i < 8; i++) {
+            hash = (hash ^ (value & 0xff)) * FNV_PRIME;
+            value >>>= 8;
+        }
+        return hash;
+    }
+
     // You do not need to call this method. This is a method specifically to assist the testing
     // framework in running smoothly. You can read more at:
     // http://developer.android.com/reference/android/content/ContentProvider.html#shutdown()
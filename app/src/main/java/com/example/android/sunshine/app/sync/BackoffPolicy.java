@@ -0,0 +1,49 @@
+package com.example.android.sunshine.app.sync;
+
+import java.util.Random;
+
+/**
+ * Capped exponential backoff with jitter.  The delay before retry {@code n} (counting from 0)
+ * is drawn from the upper half of {@code min(maxDelay, baseDelay * 2^n)}, so retries spread out
+ * instead of every device hitting OpenWeatherMap again at the same moment, but never come
+ * sooner than half the nominal delay.
+ */
+public class BackoffPolicy {
+    private final long mBaseDelayMillis;
+    private final long mMaxDelayMillis;
+    private final int mMaxAttempts;
+    private final Random mRandom;
+
+    public BackoffPolicy(long baseDelayMillis, long maxDelayMillis, int maxAttempts) {
+        this(baseDelayMillis, maxDelayMillis, maxAttempts, new Random());
+    }
+
+    BackoffPolicy(long baseDelayMillis, long maxDelayMillis, int maxAttempts, Random random) {
+        mBaseDelayMillis = baseDelayMillis;
+        mMaxDelayMillis = maxDelayMillis;
+        mMaxAttempts = maxAttempts;
+        mRandom = random;
+    }
+
+    /**
+     * @return how many times in total an operation may be tried.
+     */
+    public int getMaxAttempts() {
+        return mMaxAttempts;
+    }
+
+    /**
+     * @param retry how many retries came before this one.
+     * @return how long to wait before the retry, in milliseconds.
+     */
+    public long getDelayMillis(int retry) {
+        long ceiling = mBaseDelayMillis;
+        // Shift one step at a time so large retry counts can't overflow
+        for (int i = 0; i < retry && ceiling < mMaxDelayMillis; i++) {
+            ceiling <<= 1;
+        }
+        ceiling = Math.min(ceiling, mMaxDelayMillis);
+        long half = ceiling / 2;
+        return half + (long) (mRandom.nextDouble() * (ceiling - half));
+    }
+}
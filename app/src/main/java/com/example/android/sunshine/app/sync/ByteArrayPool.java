@@ -0,0 +1,38 @@
+package com.example.android.sunshine.app.sync;
+
+import java.util.ArrayDeque;
+
+/**
+ * A small pool of equally sized byte arrays, so that every sync download doesn't allocate (and
+ * later collect) fresh I/O buffers.  Arrays that don't fit in the pool are simply dropped.
+ */
+public class ByteArrayPool {
+    static final int BUFFER_SIZE = 8 * 1024;
+    private static final int MAX_POOLED_BUFFERS = 4;
+
+    private static final ByteArrayPool sInstance = new ByteArrayPool(BUFFER_SIZE, MAX_POOLED_BUFFERS);
+
+    private final int mBufferSize;
+    private final int mMaxBuffers;
+    private final ArrayDeque<byte[]> mBuffers = new ArrayDeque<byte[]>();
+
+    public static ByteArrayPool getInstance() {
+        return sInstance;
+    }
+
+    ByteArrayPool(int bufferSize, int maxBuffers) {
+        mBufferSize = bufferSize;
+        mMaxBuffers = maxBuffers;
+    }
+
+    public synchronized byte[] acquire() {
+        byte[] buffer = mBuffers.pollFirst();
+        return buffer != null ? buffer : new byte[mBufferSize];
+    }
+
+    public synchronized void release(byte[] buffer) {
+        if (buffer != null && buffer.length == mBufferSize && mBuffers.size() < mMaxBuffers) {
+            mBuffers.addFirst(buffer);
+        }
+    }
+}
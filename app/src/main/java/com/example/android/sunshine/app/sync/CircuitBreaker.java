@@ -0,0 +1,185 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+/**
+ * Stops us from hammering OpenWeatherMap while it is failing.
+ * <p>
+ * The breaker starts out closed and lets every request through.  After
+ * {@link #DEFAULT_FAILURE_THRESHOLD} consecutive failures it opens, and requests are refused
+ * without touching the network until a cool-down has passed.  The cool-down grows with every
+ * trip, following a {@link BackoffPolicy}.  Once it has passed the breaker goes half-open and
+ * lets exactly one probe request through: if the probe succeeds the breaker closes again, if it
+ * fails it re-opens for a longer cool-down.
+ * <p>
+ * The state lives in its own SharedPreferences file so a process restart (or the user tapping
+ * refresh in a fresh process) doesn't reset it.  Wall clock time is used for the same reason.
+ */
+public class CircuitBreaker {
+    private static final String LOG_TAG = CircuitBreaker.class.getSimpleName();
+
+    private static final String PREFS_NAME = "owm_circuit_breaker";
+    private static final String KEY_STATE = "state";
+    private static final String KEY_FAILURES = "consecutive_failures";
+    private static final String KEY_TRIPS = "consecutive_trips";
+    private static final String KEY_OPENED_AT = "opened_at";
+    private static final String KEY_COOL_DOWN = "cool_down";
+
+    static final int STATE_CLOSED = 0;
+    static final int STATE_OPEN = 1;
+    static final int STATE_HALF_OPEN = 2;
+
+    static final int DEFAULT_FAILURE_THRESHOLD = 5;
+    // First trip keeps us off for about a minute, later ones up to an hour
+    private static final long COOL_DOWN_BASE_MILLIS = 60 * 1000;
+    private static final long COOL_DOWN_MAX_MILLIS = 60 * 60 * 1000;
+
+    private static CircuitBreaker sInstance;
+
+    private final SharedPreferences mPrefs;
+    private final BackoffPolicy mCoolDownPolicy;
+    private final int mFailureThreshold;
+
+    private int mState;
+    private int mFailures;
+    private int mTrips;
+    private long mOpenedAt;
+    private long mCoolDownMillis;
+    // Not persisted: a probe can't survive the process that sent it
+    private boolean mProbeInFlight;
+
+    public static synchronized CircuitBreaker getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new CircuitBreaker(
+                    context.getApplicationContext().getSharedPreferences(
+                            PREFS_NAME, Context.MODE_PRIVATE),
+                    new BackoffPolicy(COOL_DOWN_BASE_MILLIS, COOL_DOWN_MAX_MILLIS,
+                            Integer.MAX_VALUE),
+                    DEFAULT_FAILURE_THRESHOLD);
+        }
+        return sInstance;
+    }
+
+    CircuitBreaker(SharedPreferences prefs, BackoffPolicy coolDownPolicy, int failureThreshold) {
+        mPrefs = prefs;
+        mCoolDownPolicy = coolDownPolicy;
+        mFailureThreshold = failureThreshold;
+
+        mState = prefs.getInt(KEY_STATE, STATE_CLOSED);
+        mFailures = prefs.getInt(KEY_FAILURES, 0);
+        mTrips = prefs.getInt(KEY_TRIPS, 0);
+        mOpenedAt = prefs.getLong(KEY_OPENED_AT, 0);
+        mCoolDownMillis = prefs.getLong(KEY_COOL_DOWN, 0);
+        if (mState == STATE_HALF_OPEN) {
+            // The process died waiting for the probe, let the next request probe again
+            mState = STATE_OPEN;
+        }
+    }
+
+    /**
+     * @return true if a request may go to the server now.  In the half-open state only the
+     * first caller gets true, and it must report back with {@link #recordSuccess()} or
+     * {@link #recordFailure()}.
+     */
+    public synchronized boolean allowRequest() {
+        switch (mState) {
+            case STATE_CLOSED:
+                return true;
+            case STATE_OPEN:
+                if (getRetryDelayMillis() > 0) {
+                    return false;
+                }
+                Log.d(LOG_TAG, "Cool-down over, probing OpenWeatherMap");
+                mState = STATE_HALF_OPEN;
+                mProbeInFlight = true;
+                save();
+                return true;
+            default:
+                if (mProbeInFlight) {
+                    return false;
+                }
+                mProbeInFlight = true;
+                return true;
+        }
+    }
+
+    public synchronized void recordSuccess() {
+        if (mState == STATE_CLOSED && mFailures == 0) {
+            return;
+        }
+        if (mState != STATE_CLOSED) {
+            Log.d(LOG_TAG, "OpenWeatherMap is back, closing the circuit");
+        }
+        mState = STATE_CLOSED;
+        mFailures = 0;
+        mTrips = 0;
+        mProbeInFlight = false;
+        save();
+    }
+
+    public synchronized void recordFailure() {
+        mFailures++;
+        // Stragglers sent before the breaker opened don't extend the cool-down
+        if (mState == STATE_HALF_OPEN
+                || (mState == STATE_CLOSED && mFailures >= mFailureThreshold)) {
+            trip();
+        }
+        save();
+    }
+
+    /**
+     * @return true unless the breaker is fully closed, i.e. the next request is, or is waiting
+     * to be, a probe.
+     */
+    public synchronized boolean isProbing() {
+        return mState != STATE_CLOSED;
+    }
+
+    /**
+     * @return how long until the breaker will let a probe through, 0 if requests may go now.
+     */
+    public synchronized long getRetryDelayMillis() {
+        if (mState != STATE_OPEN) {
+            return 0;
+        }
+        long now = currentTimeMillis();
+        if (now < mOpenedAt) {
+            // The clock went backwards, don't let that stretch the cool-down
+            mOpenedAt = now;
+        }
+        return Math.max(0, mOpenedAt + mCoolDownMillis - now);
+    }
+
+    long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+
+    private void trip() {
+        mCoolDownMillis = mCoolDownPolicy.getDelayMillis(mTrips);
+        mTrips++;
+        mState = STATE_OPEN;
+        mOpenedAt = currentTimeMillis();
+        mProbeInFlight = false;
+        Log.w(LOG_TAG, "Opening the circuit for " + mCoolDownMillis / 1000 + "s after "
+                + mFailures + " failures");
+    }
+
+    private void save() {
+        // Only ever called from sync threads, so committing synchronously is fine
+        mPrefs.edit()
+                .putInt(KEY_STATE, mState)
+                .putInt(KEY_FAILURES, mFailures)
+                .putInt(KEY_TRIPS, mTrips)
+                .putLong(KEY_OPENED_AT, mOpenedAt)
+                .putLong(KEY_COOL_DOWN, mCoolDownMillis)
+                .commit();
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "CircuitBreaker[state=" + mState + ",failures=" + mFailures + ",trips=" + mTrips
+                + "]";
+    }
+}
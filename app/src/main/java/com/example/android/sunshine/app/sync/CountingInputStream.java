@@ -0,0 +1,51 @@
+package com.example.android.sunshine.app.sync;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Counts the bytes read through it, so a download can report how much came over the wire and
+ * how much that decoded to.
+ */
+class CountingInputStream extends FilterInputStream {
+    private long mCount;
+
+    CountingInputStream(InputStream in) {
+        super(in);
+    }
+
+    long getCount() {
+        return mCount;
+    }
+
+    @Override
+    public int read() throws IOException {
+        int b = in.read();
+        if (b != -1) {
+            mCount++;
+        }
+        return b;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+        int read = in.read(buffer, offset, length);
+        if (read > 0) {
+            mCount += read;
+        }
+        return read;
+    }
+
+    @Override
+    public long skip(long byteCount) throws IOException {
+        long skipped = in.skip(byteCount);
+        mCount += skipped;
+        return skipped;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+}
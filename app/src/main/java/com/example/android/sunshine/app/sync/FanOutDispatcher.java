@@ -0,0 +1,175 @@
+package com.example.android.sunshine.app.sync;
+
+import android.util.Log;
+
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Hands a freshly synced {@link ForecastSnapshot} to every downstream consumer (widgets, Muzei,
+ * the notification, the watch) at the same time, without making the sync wait for them.  Each
+ * consumer runs on its own worker and gets its own time budget: one that overruns it is
+ * interrupted and logged, and doesn't hold up the others.  A slow art download for the
+ * notification therefore no longer delays the watch and the widgets.
+ * <p>
+ * The budgets are enforced from a thread of their own, apart from the workers, and each starts
+ * when its consumer does, so a consumer queued behind an earlier dispatch's still gets all of
+ * its time, and the deadlines hold even while every worker is busy.
+ */
+public class FanOutDispatcher {
+    private static final String LOG_TAG = FanOutDispatcher.class.getSimpleName();
+
+    // One worker per consumer we currently have
+    private static final int WORKER_THREADS = 4;
+
+    private static FanOutDispatcher sInstance;
+
+    private final ExecutorService mExecutor;
+    // Interrupts the consumers that overrun their budget
+    private final ScheduledExecutorService mDeadlines;
+    private final SyncMetrics mMetrics;
+
+    /**
+     * Something that wants to hear about a new forecast.
+     */
+    public interface Consumer {
+        String getName();
+
+        /**
+         * @return how long {@link #consume} may take before it is interrupted, in milliseconds.
+         */
+        long getTimeoutMillis();
+
+        /**
+         * Runs on a fan-out worker thread.  Should give up promptly when interrupted.
+         *
+         * @param snapshot today's forecast for the preferred location, or null if the sync
+         *                 didn't download it this time round and the consumer has to look it up.
+         */
+        void consume(ForecastSnapshot snapshot) throws Exception;
+    }
+
+    /**
+     * One consumer's run.  Its deadline is set when a worker picks it up, and it reports to
+     * {@code onDone} once it has finished or been cancelled.
+     */
+    private class ConsumerTask extends FutureTask<Void> {
+        private final Consumer mConsumer;
+        private final Runnable mOnDone;
+
+        ConsumerTask(final Consumer consumer, final ForecastSnapshot snapshot, Runnable onDone) {
+            super(new Runnable() {
+                @Override
+                public void run() {
+                    long start = SyncMetrics.start();
+                    boolean succeeded = false;
+                    try {
+                        consumer.consume(snapshot);
+                        // A consumer that swallowed the interrupt still ran out of time
+                        succeeded = !Thread.currentThread().isInterrupted();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } catch (Exception e) {
+                        Log.e(LOG_TAG, consumer.getName() + " failed", e);
+                    } finally {
+                        mMetrics.record(SyncMetrics.STAGE_FAN_OUT, start, succeeded);
+                    }
+                }
+            }, null);
+            mConsumer = consumer;
+            mOnDone = onDone;
+        }
+
+        @Override
+        public void run() {
+            ScheduledFuture<?> deadline = mDeadlines.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    if (cancel(true)) {
+                        Log.w(LOG_TAG, mConsumer.getName() + " timed out after "
+                                + mConsumer.getTimeoutMillis() + "ms");
+                    }
+                }
+            }, mConsumer.getTimeoutMillis(), TimeUnit.MILLISECONDS);
+            try {
+                super.run();
+            } finally {
+                deadline.cancel(false);
+            }
+        }
+
+        @Override
+        protected void done() {
+            mOnDone.run();
+        }
+    }
+
+    public static synchronized FanOutDispatcher getInstance(SyncMetrics metrics) {
+        if (sInstance == null) {
+            sInstance = new FanOutDispatcher(metrics);
+        }
+        return sInstance;
+    }
+
+    FanOutDispatcher(SyncMetrics metrics) {
+        mMetrics = metrics;
+        mExecutor = Executors.newFixedThreadPool(WORKER_THREADS, new DaemonThreadFactory("FanOut"));
+        mDeadlines = Executors.newSingleThreadScheduledExecutor(
+                new DaemonThreadFactory("FanOut deadlines"));
+    }
+
+    private static class DaemonThreadFactory implements ThreadFactory {
+        private final String mName;
+        private int mCount;
+
+        DaemonThreadFactory(String name) {
+            mName = name;
+        }
+
+        @Override
+        public synchronized Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, mName + " #" + ++mCount);
+            // Never keep the process around just for a late consumer
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+
+    /**
+     * Starts every consumer and returns straight away.
+     *
+     * @return a future that completes once every consumer has finished or timed out.
+     */
+    public Future<?> dispatch(ForecastSnapshot snapshot, List<Consumer> consumers) {
+        final FutureTask<Void> finished = new FutureTask<Void>(new Runnable() {
+            @Override
+            public void run() {
+            }
+        }, null);
+        if (consumers.isEmpty()) {
+            finished.run();
+            return finished;
+        }
+        final AtomicInteger pending = new AtomicInteger(consumers.size());
+        Runnable onDone = new Runnable() {
+            @Override
+            public void run() {
+                if (pending.decrementAndGet() == 0) {
+                    finished.run();
+                }
+            }
+        };
+        for (Consumer consumer : consumers) {
+            mExecutor.execute(new ConsumerTask(consumer, snapshot, onDone));
+        }
+        return finished;
+    }
+}
@@ -0,0 +1,219 @@
+package com.example.android.sunshine.app.sync;
+
+import android.util.Log;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Locale;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Opens forecast requests as conditional GETs.  When the {@link ForecastResponseCache} holds
+ * validators for the URL they are sent along, and a 304 from the server comes back as a
+ * {@link Response} without a body so the caller can skip the rest of the sync.
+ * <p>
+ * Responses are requested compressed.  We ask for gzip and deflate ourselves instead of
+ * relying on the platform's transparent gzip so that we can decode the body as it streams in
+ * and still count how many bytes actually came over the wire.
+ */
+public class ForecastDownloader {
+    private static final String LOG_TAG = ForecastDownloader.class.getSimpleName();
+
+    private static final String HEADER_ETAG = "ETag";
+    private static final String HEADER_LAST_MODIFIED = "Last-Modified";
+    private static final String HEADER_IF_NONE_MATCH = "If-None-Match";
+    private static final String HEADER_IF_MODIFIED_SINCE = "If-Modified-Since";
+    private static final String HEADER_ACCEPT_ENCODING = "Accept-Encoding";
+    private static final String HEADER_CONTENT_ENCODING = "Content-Encoding";
+
+    private static final String ENCODING_GZIP = "gzip";
+    private static final String ENCODING_DEFLATE = "deflate";
+    private static final String ENCODING_IDENTITY = "identity";
+
+    private final ForecastResponseCache mCache;
+
+    public ForecastDownloader(ForecastResponseCache cache) {
+        mCache = cache;
+    }
+
+    /**
+     * An open forecast response.  Always {@link #close()} it; call {@link #commit()} first if
+     * the body was processed successfully so the validators are remembered for next time.
+     */
+    public class Response {
+        private final HttpURLConnection mConnection;
+        private final String mUrl;
+        private final String mEtag;
+        private final String mLastModified;
+        private final String mContentEncoding;
+        private final CountingInputStream mWireStream;
+        private final CountingInputStream mBody;
+
+        Response(HttpURLConnection connection, String url) {
+            mConnection = connection;
+            mUrl = url;
+            mEtag = null;
+            mLastModified = null;
+            mContentEncoding = null;
+            mWireStream = null;
+            mBody = null;
+        }
+
+        Response(HttpURLConnection connection, String url, String etag, String lastModified,
+                 String contentEncoding, CountingInputStream wireStream,
+                 CountingInputStream body) {
+            mConnection = connection;
+            mUrl = url;
+            mEtag = etag;
+            mLastModified = lastModified;
+            mContentEncoding = contentEncoding;
+            mWireStream = wireStream;
+            mBody = body;
+        }
+
+        /**
+         * @return true if the server told us our copy of the forecast is still current.
+         */
+        public boolean isNotModified() {
+            return mBody == null;
+        }
+
+        /**
+         * @return the decoded response body, or null if {@link #isNotModified()}.
+         */
+        public InputStream getBody() {
+            return mBody;
+        }
+
+        /**
+         * @return how many bytes of the body have been read off the connection so far.
+         */
+        public long getWireBytes() {
+            return mWireStream == null ? 0 : mWireStream.getCount();
+        }
+
+        /**
+         * @return how many bytes of the body have been handed to the reader so far, after
+         * decompression.
+         */
+        public long getDecodedBytes() {
+            return mBody == null ? 0 : mBody.getCount();
+        }
+
+        /**
+         * @return the Content-Encoding the body was sent with, "identity" if uncompressed.
+         */
+        public String getContentEncoding() {
+            return mContentEncoding;
+        }
+
+        public void commit() {
+            if (mBody != null) {
+                mCache.put(mUrl, mEtag, mLastModified);
+            }
+        }
+
+        public void close() {
+            if (mBody != null) {
+                try {
+                    mBody.close();
+                } catch (IOException e) {
+                    Log.e(LOG_TAG, "Error closing stream", e);
+                }
+            }
+            mConnection.disconnect();
+        }
+    }
+
+    public Response open(String url) throws IOException {
+        // Create the request to OpenWeatherMap, and open the connection
+        HttpURLConnection urlConnection = (HttpURLConnection) new URL(url).openConnection();
+        try {
+            urlConnection.setRequestMethod("GET");
+            urlConnection.setRequestProperty(HEADER_ACCEPT_ENCODING,
+                    ENCODING_GZIP + ", " + ENCODING_DEFLATE);
+
+            ForecastResponseCache.Entry validators = mCache.get(url);
+            if (validators != null) {
+                if (validators.etag != null) {
+                    urlConnection.setRequestProperty(HEADER_IF_NONE_MATCH, validators.etag);
+                }
+                if (validators.lastModified != null) {
+                    urlConnection.setRequestProperty(HEADER_IF_MODIFIED_SINCE,
+                            validators.lastModified);
+                }
+            }
+            urlConnection.connect();
+
+            if (validators != null
+                    && urlConnection.getResponseCode() == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                mCache.recordResult(true);
+                return new Response(urlConnection, url);
+            }
+            mCache.recordResult(false);
+
+            InputStream body = urlConnection.getInputStream();
+            if (body == null) {
+                throw new IOException("No response body for " + url);
+            }
+            String contentEncoding = urlConnection.getHeaderField(HEADER_CONTENT_ENCODING);
+            contentEncoding = contentEncoding == null
+                    ? ENCODING_IDENTITY : contentEncoding.trim().toLowerCase(Locale.US);
+
+            CountingInputStream wireStream = new CountingInputStream(body);
+            CountingInputStream decodedStream = new CountingInputStream(
+                    decode(wireStream, contentEncoding));
+            return new Response(urlConnection, url,
+                    urlConnection.getHeaderField(HEADER_ETAG),
+                    urlConnection.getHeaderField(HEADER_LAST_MODIFIED),
+                    contentEncoding, wireStream, decodedStream);
+        } catch (IOException e) {
+            urlConnection.disconnect();
+            throw e;
+        }
+    }
+
+    /**
+     * Wraps the raw body in a decompressing stream for its Content-Encoding.  The compressed
+     * bytes are buffered through a pooled buffer, the decompressed ones go straight to the
+     * reader.
+     */
+    static InputStream decode(InputStream wireStream, String contentEncoding) throws IOException {
+        PooledBufferedInputStream buffered =
+                new PooledBufferedInputStream(wireStream, ByteArrayPool.getInstance());
+        try {
+            if (ENCODING_GZIP.equals(contentEncoding) || "x-gzip".equals(contentEncoding)) {
+                return new GZIPInputStream(buffered);
+            }
+            if (ENCODING_DEFLATE.equals(contentEncoding)) {
+                // HTTP deflate is meant to be zlib wrapped, but plenty of servers send raw
+                // deflate data.  A zlib header is a CMF byte for method 8 followed by a FLG byte
+                // that makes the pair a multiple of 31.
+                int cmf = buffered.peek(0);
+                int flg = buffered.peek(1);
+                boolean zlibWrapped = cmf != -1 && flg != -1 && (cmf & 0x0f) == 8
+                        && ((cmf << 8) | flg) % 31 == 0;
+                final Inflater inflater = new Inflater(!zlibWrapped);
+                return new InflaterInputStream(buffered, inflater) {
+                    @Override
+                    public void close() throws IOException {
+                        // InflaterInputStream only ends inflaters it created itself
+                        try {
+                            super.close();
+                        } finally {
+                            inflater.end();
+                        }
+                    }
+                };
+            }
+            return buffered;
+        } catch (IOException e) {
+            buffered.close();
+            throw e;
+        }
+    }
+}
@@ -0,0 +1,307 @@
+package com.example.android.sunshine.app.sync;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.util.JsonReader;
+import android.util.JsonToken;
+import android.util.MalformedJsonException;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.net.HttpURLConnection;
+import java.nio.charset.Charset;
+
+/**
+ * Parses the OpenWeatherMap daily forecast response and hands each day to a {@link Callback}
+ * as soon as it has been read, so the caller never holds more than one day's worth of parsed
+ * values at a time.
+ * <p>
+ * On Honeycomb and higher the response is pulled token by token straight off the stream with
+ * {@link JsonReader}.  Older devices don't have JsonReader, so they fall back to building the
+ * {@link JSONObject} tree and walking it.
+ */
+public class ForecastJsonParser {
+
+    // Location information
+    static final String OWM_CITY = "city";
+    static final String OWM_CITY_NAME = "name";
+    static final String OWM_COORD = "coord";
+
+    // Location coordinate
+    static final String OWM_LATITUDE = "lat";
+    static final String OWM_LONGITUDE = "lon";
+
+    // Weather information.  Each day's forecast info is an element of the "list" array.
+    static final String OWM_LIST = "list";
+
+    static final String OWM_PRESSURE = "pressure";
+    static final String OWM_HUMIDITY = "humidity";
+    static final String OWM_WINDSPEED = "speed";
+    static final String OWM_WIND_DIRECTION = "deg";
+
+    // All temperatures are children of the "temp" object.
+    static final String OWM_TEMPERATURE = "temp";
+    static final String OWM_MAX = "max";
+    static final String OWM_MIN = "min";
+
+    static final String OWM_WEATHER = "weather";
+    static final String OWM_DESCRIPTION = "main";
+    static final String OWM_WEATHER_ID = "id";
+
+    static final String OWM_MESSAGE_CODE = "cod";
+
+    // OWM always answers in UTF-8, don't let the platform default charset decide
+    static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * Receives the parsed forecast.  {@link #onCity} may be called before or after the days,
+     * depending on the order the server wrote the fields in.
+     */
+    public interface Callback {
+        void onCity(String cityName, double latitude, double longitude);
+
+        void onDay(int dayIndex, double pressure, int humidity, double windSpeed,
+                   double windDirection, double high, double low, String description,
+                   int weatherId);
+    }
+
+    private ForecastJsonParser() {
+    }
+
+    /**
+     * Parses the forecast using the cheapest parser available on this device.
+     *
+     * @return the "cod" message code of the response, or {@link HttpURLConnection#HTTP_OK} if
+     * the response didn't carry one.
+     * @throws IOException   if the stream could not be read.
+     * @throws JSONException if the response isn't a forecast we understand.
+     */
+    public static int parse(InputStream in, Callback callback) throws IOException, JSONException {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+            return parseStreaming(in, callback);
+        }
+        return parseTree(in, callback);
+    }
+
+    /**
+     * Pull parser: reads the response token by token and reports every day as soon as its
+     * closing brace has been read.
+     */
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    static int parseStreaming(InputStream in, Callback callback) throws IOException, JSONException {
+        JsonReader reader = new JsonReader(new InputStreamReader(in, UTF_8));
+        try {
+            return readForecast(reader, callback);
+        } catch (MalformedJsonException | IllegalStateException | NumberFormatException e) {
+            // The connection was fine, it's the payload that doesn't look like a forecast.
+            throw new JSONException(e.getMessage());
+        } finally {
+            reader.close();
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private static int readForecast(JsonReader reader, Callback callback) throws IOException {
+        int messageCode = HttpURLConnection.HTTP_OK;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (OWM_MESSAGE_CODE.equals(name)) {
+                // "cod" is sometimes a number and sometimes a string, nextInt() copes with both
+                messageCode = reader.nextInt();
+                if (messageCode != HttpURLConnection.HTTP_OK) {
+                    // An error response, nothing after this is worth reading.
+                    return messageCode;
+                }
+            } else if (OWM_CITY.equals(name)) {
+                readCity(reader, callback);
+            } else if (OWM_LIST.equals(name)) {
+                int dayIndex = 0;
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    readDay(reader, dayIndex++, callback);
+                }
+                reader.endArray();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return messageCode;
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private static void readCity(JsonReader reader, Callback callback) throws IOException {
+        String cityName = null;
+        double latitude = 0;
+        double longitude = 0;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (OWM_CITY_NAME.equals(name)) {
+                cityName = reader.nextString();
+            } else if (OWM_COORD.equals(name)) {
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String coordName = reader.nextName();
+                    if (OWM_LATITUDE.equals(coordName)) {
+                        latitude = reader.nextDouble();
+                    } else if (OWM_LONGITUDE.equals(coordName)) {
+                        longitude = reader.nextDouble();
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        if (cityName == null) {
+            throw new IllegalStateException("Forecast city has no name");
+        }
+        callback.onCity(cityName, latitude, longitude);
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private static void readDay(JsonReader reader, int dayIndex, Callback callback)
+            throws IOException {
+        double pressure = 0;
+        int humidity = 0;
+        double windSpeed = 0;
+        double windDirection = 0;
+        double high = 0;
+        double low = 0;
+        String description = null;
+        int weatherId = 0;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (reader.peek() == JsonToken.NULL) {
+                reader.skipValue();
+            } else if (OWM_PRESSURE.equals(name)) {
+                pressure = reader.nextDouble();
+            } else if (OWM_HUMIDITY.equals(name)) {
+                humidity = reader.nextInt();
+            } else if (OWM_WINDSPEED.equals(name)) {
+                windSpeed = reader.nextDouble();
+            } else if (OWM_WIND_DIRECTION.equals(name)) {
+                windDirection = reader.nextDouble();
+            } else if (OWM_TEMPERATURE.equals(name)) {
+                // Temperatures are in a child object called "temp".  Try not to name variables
+                // "temp" when working with temperature.  It confuses everybody.
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String temperatureName = reader.nextName();
+                    if (OWM_MAX.equals(temperatureName)) {
+                        high = reader.nextDouble();
+                    } else if (OWM_MIN.equals(temperatureName)) {
+                        low = reader.nextDouble();
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+            } else if (OWM_WEATHER.equals(name)) {
+                // Description is in a child array called "weather", which is 1 element long.
+                // That element also contains a weather code.
+                reader.beginArray();
+                if (reader.hasNext()) {
+                    reader.beginObject();
+                    while (reader.hasNext()) {
+                        String weatherName = reader.nextName();
+                        if (OWM_DESCRIPTION.equals(weatherName)) {
+                            description = reader.nextString();
+                        } else if (OWM_WEATHER_ID.equals(weatherName)) {
+                            weatherId = reader.nextInt();
+                        } else {
+                            reader.skipValue();
+                        }
+                    }
+                    reader.endObject();
+                }
+                while (reader.hasNext()) {
+                    reader.skipValue();
+                }
+                reader.endArray();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        if (description == null) {
+            throw new IllegalStateException("Forecast day " + dayIndex + " has no weather");
+        }
+        callback.onDay(dayIndex, pressure, humidity, windSpeed, windDirection, high, low,
+                description, weatherId);
+    }
+
+    /**
+     * Tree parser: reads the whole response into a String and builds the {@link JSONObject}
+     * hierarchy before pulling the values out.  Only used where {@link JsonReader} is missing.
+     */
+    static int parseTree(InputStream in, Callback callback) throws IOException, JSONException {
+        StringBuilder buffer = new StringBuilder();
+        Reader reader = new BufferedReader(new InputStreamReader(in, UTF_8));
+        try {
+            char[] chunk = new char[1024];
+            int read;
+            while ((read = reader.read(chunk)) != -1) {
+                buffer.append(chunk, 0, read);
+            }
+        } finally {
+            reader.close();
+        }
+        if (buffer.length() == 0) {
+            // Stream was empty.  No point in parsing.
+            throw new IOException("Empty forecast response");
+        }
+
+        JSONObject forecastJson = new JSONObject(buffer.toString());
+
+        // do we have an error?
+        if (forecastJson.has(OWM_MESSAGE_CODE)) {
+            int messageCode = forecastJson.getInt(OWM_MESSAGE_CODE);
+            if (messageCode != HttpURLConnection.HTTP_OK) {
+                return messageCode;
+            }
+        }
+
+        JSONObject cityJson = forecastJson.getJSONObject(OWM_CITY);
+        JSONObject cityCoord = cityJson.getJSONObject(OWM_COORD);
+        callback.onCity(cityJson.getString(OWM_CITY_NAME),
+                cityCoord.getDouble(OWM_LATITUDE),
+                cityCoord.getDouble(OWM_LONGITUDE));
+
+        JSONArray weatherArray = forecastJson.getJSONArray(OWM_LIST);
+        for (int i = 0; i < weatherArray.length(); i++) {
+            // Get the JSON object representing the day
+            JSONObject dayForecast = weatherArray.getJSONObject(i);
+            JSONObject weatherObject = dayForecast.getJSONArray(OWM_WEATHER).getJSONObject(0);
+            JSONObject temperatureObject = dayForecast.getJSONObject(OWM_TEMPERATURE);
+
+            callback.onDay(i,
+                    dayForecast.getDouble(OWM_PRESSURE),
+                    dayForecast.getInt(OWM_HUMIDITY),
+                    dayForecast.getDouble(OWM_WINDSPEED),
+                    dayForecast.getDouble(OWM_WIND_DIRECTION),
+                    temperatureObject.getDouble(OWM_MAX),
+                    temperatureObject.getDouble(OWM_MIN),
+                    weatherObject.getString(OWM_DESCRIPTION),
+                    weatherObject.getInt(OWM_WEATHER_ID));
+        }
+        return HttpURLConnection.HTTP_OK;
+    }
+}
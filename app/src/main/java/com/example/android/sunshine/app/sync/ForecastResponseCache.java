@@ -0,0 +1,254 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * On-disk store for the validators (ETag and Last-Modified) of forecast responses, keyed by the
+ * full query URL, so that a sync can ask OpenWeatherMap whether anything changed instead of
+ * downloading the forecast again.
+ * <p>
+ * One small file is kept per URL.  The cache is bounded both in number of entries and in bytes;
+ * when either bound is exceeded the least recently used entries are evicted.
+ */
+public class ForecastResponseCache {
+    private static final String LOG_TAG = ForecastResponseCache.class.getSimpleName();
+
+    private static final String CACHE_DIRECTORY = "forecast-validators";
+    private static final int ENTRY_FORMAT_VERSION = 1;
+
+    static final int DEFAULT_MAX_ENTRIES = 32;
+    static final long DEFAULT_MAX_BYTES = 64 * 1024;
+
+    private static ForecastResponseCache sInstance;
+
+    private final File mDirectory;
+    private final int mMaxEntries;
+    private final long mMaxBytes;
+
+    private int mHitCount;
+    private int mMissCount;
+    private int mEvictionCount;
+
+    /**
+     * The validators stored for one URL.  Either of them may be null, but not both.
+     */
+    public static class Entry {
+        public final String url;
+        public final String etag;
+        public final String lastModified;
+
+        Entry(String url, String etag, String lastModified) {
+            this.url = url;
+            this.etag = etag;
+            this.lastModified = lastModified;
+        }
+    }
+
+    public static synchronized ForecastResponseCache getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new ForecastResponseCache(
+                    new File(context.getCacheDir(), CACHE_DIRECTORY),
+                    DEFAULT_MAX_ENTRIES, DEFAULT_MAX_BYTES);
+        }
+        return sInstance;
+    }
+
+    ForecastResponseCache(File directory, int maxEntries, long maxBytes) {
+        mDirectory = directory;
+        mMaxEntries = maxEntries;
+        mMaxBytes = maxBytes;
+    }
+
+    /**
+     * @return the validators stored for this URL, or null if there are none.
+     */
+    public synchronized Entry get(String url) {
+        File file = fileFor(url);
+        if (!file.exists()) {
+            return null;
+        }
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new FileInputStream(file));
+            if (in.readInt() != ENTRY_FORMAT_VERSION) {
+                file.delete();
+                return null;
+            }
+            String storedUrl = in.readUTF();
+            if (!url.equals(storedUrl)) {
+                // Two URLs hashing to the same name.  Treat it as a miss, the next put wins.
+                return null;
+            }
+            String etag = readOptional(in);
+            String lastModified = readOptional(in);
+            // Remember that this entry was used, eviction goes by last use
+            file.setLastModified(System.currentTimeMillis());
+            return new Entry(url, etag, lastModified);
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Dropping unreadable cache entry for " + url, e);
+            file.delete();
+            return null;
+        } finally {
+            closeQuietly(in);
+        }
+    }
+
+    /**
+     * Stores the validators for this URL.  Call this only once the response has been
+     * processed successfully, otherwise the next sync would skip data we never saved.
+     */
+    public synchronized void put(String url, String etag, String lastModified) {
+        if (etag == null && lastModified == null) {
+            // Nothing to validate with next time, don't keep a stale entry around either.
+            remove(url);
+            return;
+        }
+        if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+            Log.w(LOG_TAG, "Unable to create " + mDirectory);
+            return;
+        }
+        File file = fileFor(url);
+        File tmp = new File(mDirectory, file.getName() + ".tmp");
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new FileOutputStream(tmp));
+            out.writeInt(ENTRY_FORMAT_VERSION);
+            out.writeUTF(url);
+            writeOptional(out, etag);
+            writeOptional(out, lastModified);
+            out.close();
+            out = null;
+            if (!tmp.renameTo(file)) {
+                throw new IOException("Unable to rename " + tmp + " to " + file);
+            }
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Unable to cache validators for " + url, e);
+            tmp.delete();
+        } finally {
+            closeQuietly(out);
+        }
+        trimToSize();
+    }
+
+    public synchronized void remove(String url) {
+        fileFor(url).delete();
+    }
+
+    /**
+     * Records whether the server let us skip the download.
+     */
+    public synchronized void recordResult(boolean notModified) {
+        if (notModified) {
+            mHitCount++;
+        } else {
+            mMissCount++;
+        }
+    }
+
+    public synchronized int getHitCount() {
+        return mHitCount;
+    }
+
+    public synchronized int getMissCount() {
+        return mMissCount;
+    }
+
+    public synchronized int getEvictionCount() {
+        return mEvictionCount;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "ForecastResponseCache[hits=" + mHitCount + ",misses=" + mMissCount
+                + ",evictions=" + mEvictionCount + "]";
+    }
+
+    private void trimToSize() {
+        File[] files = mDirectory.listFiles();
+        if (files == null) {
+            return;
+        }
+        long totalBytes = 0;
+        for (File file : files) {
+            totalBytes += file.length();
+        }
+        if (files.length <= mMaxEntries && totalBytes <= mMaxBytes) {
+            return;
+        }
+
+        // Least recently used first
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File lhs, File rhs) {
+                long l = lhs.lastModified();
+                long r = rhs.lastModified();
+                return l < r ? -1 : (l == r ? 0 : 1);
+            }
+        });
+        int entries = files.length;
+        for (File file : files) {
+            if (entries <= mMaxEntries && totalBytes <= mMaxBytes) {
+                break;
+            }
+            long length = file.length();
+            if (file.delete()) {
+                entries--;
+                totalBytes -= length;
+                mEvictionCount++;
+            }
+        }
+    }
+
+    private File fileFor(String url) {
+        return new File(mDirectory, hash(url));
+    }
+
+    private static String hash(String url) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(url.getBytes("UTF-8"));
+            StringBuilder name = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                name.append(Character.forDigit((b >> 4) & 0xf, 16));
+                name.append(Character.forDigit(b & 0xf, 16));
+            }
+            return name.toString();
+        } catch (NoSuchAlgorithmException | UnsupportedEncodingException e) {
+            // Both are guaranteed to exist on every Android device
+            throw new AssertionError(e);
+        }
+    }
+
+    private static String readOptional(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    private static void writeOptional(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+}
@@ -0,0 +1,177 @@
+package com.example.android.sunshine.app.sync;
+
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.content.Intent;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Build;
+import android.os.Bundle;
+
+import com.example.android.sunshine.app.data.ForecastBatch;
+import com.example.android.sunshine.app.data.WeatherContract;
+
+/**
+ * Today's forecast for one location, as handed to the widgets, Muzei, the notification and the
+ * watch after a sync.  The sync builds it straight from the rows it just parsed and ships it in
+ * the intents' extras, so none of them has to query the provider for what the sync already had
+ * in hand.  Anyone started without a snapshot can still build one from the provider with
+ * {@link #query(Context, String)}.
+ * <p>
+ * The latest snapshot the process built or received is also kept, see {@link #getLast}, so a
+ * change that only affects how today's forecast is shown can re-render it from memory.
+ */
+public class ForecastSnapshot {
+
+    private static final String EXTRA_LOCATION_SETTING =
+            "com.example.android.sunshine.app.extra.SNAPSHOT_LOCATION_SETTING";
+    private static final String EXTRA_DATE = "com.example.android.sunshine.app.extra.SNAPSHOT_DATE";
+    private static final String EXTRA_WEATHER_ID =
+            "com.example.android.sunshine.app.extra.SNAPSHOT_WEATHER_ID";
+    private static final String EXTRA_DESCRIPTION =
+            "com.example.android.sunshine.app.extra.SNAPSHOT_DESCRIPTION";
+    private static final String EXTRA_HIGH = "com.example.android.sunshine.app.extra.SNAPSHOT_HIGH";
+    private static final String EXTRA_LOW = "com.example.android.sunshine.app.extra.SNAPSHOT_LOW";
+
+    private static final String[] SNAPSHOT_COLUMNS = {
+            WeatherContract.WeatherEntry.COLUMN_DATE,
+            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherContract.WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP
+    };
+    // these indices must match the projection
+    private static final int INDEX_DATE = 0;
+    private static final int INDEX_WEATHER_ID = 1;
+    private static final int INDEX_SHORT_DESC = 2;
+    private static final int INDEX_MAX_TEMP = 3;
+    private static final int INDEX_MIN_TEMP = 4;
+
+    private static volatile ForecastSnapshot sLast;
+
+    public final String locationSetting;
+    public final long date;
+    public final int weatherId;
+    public final String description;
+    public final double high;
+    public final double low;
+
+    public ForecastSnapshot(String locationSetting, long date, int weatherId, String description,
+                            double high, double low) {
+        this.locationSetting = locationSetting;
+        this.date = date;
+        this.weatherId = weatherId;
+        this.description = description;
+        this.high = high;
+        this.low = low;
+    }
+
+    /**
+     * @return today's values out of a freshly parsed forecast, or null if it has no rows.
+     */
+    static ForecastSnapshot fromForecast(LocationForecast forecast) {
+        ForecastBatch rows = forecast.mRows;
+        if (rows.size() == 0) {
+            return null;
+        }
+        // The first day OWM sends is always today
+        return remember(new ForecastSnapshot(forecast.mLocationSetting, rows.getDate(0),
+                rows.getWeatherId(0), rows.getDescription(0), rows.getHigh(0), rows.getLow(0)));
+    }
+
+    private static ForecastSnapshot remember(ForecastSnapshot snapshot) {
+        if (snapshot != null) {
+            sLast = snapshot;
+        }
+        return snapshot;
+    }
+
+    /**
+     * @return the latest snapshot this process has seen, if it is for {@code locationSetting}
+     * and still today's, otherwise null.  Doesn't touch the provider.
+     */
+    public static ForecastSnapshot getLast(String locationSetting) {
+        ForecastSnapshot last = sLast;
+        if (last == null || !last.locationSetting.equals(locationSetting)
+                || last.date < WeatherContract.normalizeDate(System.currentTimeMillis())) {
+            return null;
+        }
+        return last;
+    }
+
+    /**
+     * Reads today's forecast for the location from the provider, for callers that weren't
+     * handed a snapshot.  From Honeycomb on this is one call to the provider's
+     * {@link WeatherContract#METHOD_TODAY_SUMMARY}, before that a query.
+     *
+     * @return the snapshot, or null if there is no forecast for today.
+     */
+    public static ForecastSnapshot query(Context context, String locationSetting) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+            return remember(callTodaySummary(context, locationSetting));
+        }
+        Uri weatherForLocationUri = WeatherContract.WeatherEntry.buildWeatherLocationWithStartDate(
+                locationSetting, System.currentTimeMillis());
+        Cursor cursor = context.getContentResolver().query(weatherForLocationUri,
+                SNAPSHOT_COLUMNS, null, null, WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
+        if (cursor == null) {
+            return null;
+        }
+        try {
+            if (!cursor.moveToFirst()) {
+                return null;
+            }
+            return remember(new ForecastSnapshot(locationSetting,
+                    cursor.getLong(INDEX_DATE),
+                    cursor.getInt(INDEX_WEATHER_ID),
+                    cursor.getString(INDEX_SHORT_DESC),
+                    cursor.getDouble(INDEX_MAX_TEMP),
+                    cursor.getDouble(INDEX_MIN_TEMP)));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private static ForecastSnapshot callTodaySummary(Context context, String locationSetting) {
+        Bundle summary = context.getContentResolver().call(WeatherContract.BASE_CONTENT_URI,
+                WeatherContract.METHOD_TODAY_SUMMARY, locationSetting, null);
+        if (summary == null) {
+            return null;
+        }
+        return new ForecastSnapshot(locationSetting,
+                summary.getLong(WeatherContract.WeatherEntry.COLUMN_DATE),
+                summary.getInt(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID),
+                summary.getString(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC),
+                summary.getDouble(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP),
+                summary.getDouble(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP));
+    }
+
+    /**
+     * @return the snapshot carried by this intent if it is for {@code locationSetting}, or null.
+     * A snapshot for another location means the preference changed after the sync sent it.
+     */
+    public static ForecastSnapshot fromIntent(Intent intent, String locationSetting) {
+        if (intent == null || !intent.hasExtra(EXTRA_LOCATION_SETTING)
+                || !intent.getStringExtra(EXTRA_LOCATION_SETTING).equals(locationSetting)) {
+            return null;
+        }
+        return remember(new ForecastSnapshot(locationSetting,
+                intent.getLongExtra(EXTRA_DATE, 0),
+                intent.getIntExtra(EXTRA_WEATHER_ID, 0),
+                intent.getStringExtra(EXTRA_DESCRIPTION),
+                intent.getDoubleExtra(EXTRA_HIGH, 0),
+                intent.getDoubleExtra(EXTRA_LOW, 0)));
+    }
+
+    public Bundle toBundle() {
+        Bundle extras = new Bundle();
+        extras.putString(EXTRA_LOCATION_SETTING, locationSetting);
+        extras.putLong(EXTRA_DATE, date);
+        extras.putInt(EXTRA_WEATHER_ID, weatherId);
+        extras.putString(EXTRA_DESCRIPTION, description);
+        extras.putDouble(EXTRA_HIGH, high);
+        extras.putDouble(EXTRA_LOW, low);
+        return extras;
+    }
+}
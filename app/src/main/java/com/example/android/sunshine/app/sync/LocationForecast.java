@@ -0,0 +1,117 @@
+package com.example.android.sunshine.app.sync;
+
+import android.text.format.Time;
+
+import com.example.android.sunshine.app.data.ForecastBatch;
+
+/**
+ * The outcome of fetching and parsing the forecast for one location setting.  Each day goes
+ * into the {@link ForecastBatch} as soon as the parser reports it; the location id is filled in
+ * by a back reference when the rows are stored, since OWM doesn't promise to send the city
+ * before the list and the location may not be in the database yet.
+ * <p>
+ * The batch belongs to the sync adapter, which hands the same ones out again every sync, so a
+ * forecast's rows are only good until the next sync starts.
+ * <p>
+ * Instances are filled in by a single worker thread and only read once that worker is done.
+ */
+class LocationForecast implements ForecastJsonParser.Callback {
+    final String mLocationSetting;
+    final ForecastBatch mRows;
+    final Time mDayTime;
+    final int mJulianStartDay;
+
+    String mCityName;
+    double mCityLatitude;
+    double mCityLongitude;
+
+    @SunshineSyncAdapter.LocationStatus
+    int mStatus = SunshineSyncAdapter.LOCATION_STATUS_UNKNOWN;
+    // True when there is nothing for this caller to store: either the server said our copy is
+    // current, or a fetch moments ago already stored the same forecast.
+    boolean mNotModified;
+
+    // Kept so the validators are only remembered once the rows have been committed
+    ForecastDownloader.Response mResponse;
+
+    /**
+     * A forecast that won't be parsed into, e.g. one the circuit breaker turned away.
+     */
+    LocationForecast(String locationSetting) {
+        this(locationSetting, new ForecastBatch(0));
+    }
+
+    /**
+     * @param rows the batch the parsed days go into, emptied first.
+     */
+    LocationForecast(String locationSetting, ForecastBatch rows) {
+        mLocationSetting = locationSetting;
+        mRows = rows;
+        rows.clear();
+
+        // OWM returns daily forecasts based upon the local time of the city that is being
+        // asked for, which means that we need to know the GMT offset to translate this data
+        // properly.
+
+        // Since this data is also sent in-order and the first day is always the
+        // current day, we're going to take advantage of that to get a nice
+        // normalized UTC date for all of our weather.
+
+        Time dayTime = new Time();
+        dayTime.setToNow();
+
+        // we start at the day returned by local time. Otherwise this is a mess.
+        mJulianStartDay = Time.getJulianDay(System.currentTimeMillis(), dayTime.gmtoff);
+
+        // now we work exclusively in UTC
+        mDayTime = new Time();
+    }
+
+    /**
+     * @return true if this forecast has fresh rows waiting to be stored.
+     */
+    boolean hasRows() {
+        return mStatus == SunshineSyncAdapter.LOCATION_STATUS_OK && !mNotModified
+                && mRows.size() > 0;
+    }
+
+    private LocationForecast(LocationForecast source) {
+        mLocationSetting = source.mLocationSetting;
+        mRows = new ForecastBatch(0);
+        mDayTime = new Time();
+        mJulianStartDay = source.mJulianStartDay;
+        mCityName = source.mCityName;
+        mCityLatitude = source.mCityLatitude;
+        mCityLongitude = source.mCityLongitude;
+        mStatus = source.mStatus;
+    }
+
+    /**
+     * @return a copy for a caller that reuses this forecast once it has been stored.  It carries
+     * the outcome but no rows.
+     */
+    LocationForecast shared() {
+        LocationForecast copy = new LocationForecast(this);
+        copy.mNotModified = true;
+        return copy;
+    }
+
+    @Override
+    public void onCity(String cityName, double latitude, double longitude) {
+        mCityName = cityName;
+        mCityLatitude = latitude;
+        mCityLongitude = longitude;
+    }
+
+    @Override
+    public void onDay(int dayIndex, double pressure, int humidity, double windSpeed,
+                      double windDirection, double high, double low, String description,
+                      int weatherId) {
+        // Cheating to convert this to UTC time, which is what we want anyhow
+        long dateTime = mDayTime.setJulianDay(mJulianStartDay + dayIndex);
+
+        // The location id isn't known yet, the sync's batch fills it in
+        mRows.add(0, dateTime, weatherId, description, high, low, humidity, pressure, windSpeed,
+                windDirection);
+    }
+}
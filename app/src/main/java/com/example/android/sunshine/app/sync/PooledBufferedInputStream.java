@@ -0,0 +1,128 @@
+package com.example.android.sunshine.app.sync;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * A buffered stream whose buffer is borrowed from a {@link ByteArrayPool} and handed back on
+ * {@link #close()}.  It can also peek ahead a few bytes, which is all the downloader needs to
+ * tell zlib wrapped from raw deflate data.
+ */
+class PooledBufferedInputStream extends FilterInputStream {
+    private final ByteArrayPool mPool;
+    private byte[] mBuffer;
+    private int mPosition;
+    private int mCount;
+
+    PooledBufferedInputStream(InputStream in, ByteArrayPool pool) {
+        super(in);
+        mPool = pool;
+        mBuffer = pool.acquire();
+    }
+
+    /**
+     * @return the byte {@code index} positions ahead of the next one {@link #read()} would
+     * return, or -1 if the stream ends before it.
+     */
+    int peek(int index) throws IOException {
+        ensureOpen();
+        if (mPosition + index >= mBuffer.length) {
+            // Compact so the peeked bytes fit in the buffer
+            System.arraycopy(mBuffer, mPosition, mBuffer, 0, mCount - mPosition);
+            mCount -= mPosition;
+            mPosition = 0;
+        }
+        while (mCount <= mPosition + index) {
+            int read = in.read(mBuffer, mCount, mBuffer.length - mCount);
+            if (read == -1) {
+                return -1;
+            }
+            mCount += read;
+        }
+        return mBuffer[mPosition + index] & 0xff;
+    }
+
+    @Override
+    public int read() throws IOException {
+        ensureOpen();
+        if (mPosition >= mCount && !fill()) {
+            return -1;
+        }
+        return mBuffer[mPosition++] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+        ensureOpen();
+        if (length == 0) {
+            return 0;
+        }
+        if (mPosition >= mCount) {
+            if (length >= mBuffer.length) {
+                // Large reads go straight through, no point copying them twice
+                return in.read(buffer, offset, length);
+            }
+            if (!fill()) {
+                return -1;
+            }
+        }
+        int copied = Math.min(length, mCount - mPosition);
+        System.arraycopy(mBuffer, mPosition, buffer, offset, copied);
+        mPosition += copied;
+        return copied;
+    }
+
+    @Override
+    public long skip(long byteCount) throws IOException {
+        ensureOpen();
+        long buffered = Math.min(byteCount, mCount - mPosition);
+        mPosition += buffered;
+        if (buffered < byteCount) {
+            return buffered + in.skip(byteCount - buffered);
+        }
+        return buffered;
+    }
+
+    @Override
+    public int available() throws IOException {
+        ensureOpen();
+        return (mCount - mPosition) + in.available();
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (mBuffer == null) {
+            return;
+        }
+        byte[] buffer = mBuffer;
+        mBuffer = null;
+        try {
+            in.close();
+        } finally {
+            mPool.release(buffer);
+        }
+    }
+
+    private boolean fill() throws IOException {
+        mPosition = 0;
+        mCount = 0;
+        int read = in.read(mBuffer, 0, mBuffer.length);
+        if (read <= 0) {
+            return false;
+        }
+        mCount = read;
+        return true;
+    }
+
+    private void ensureOpen() throws IOException {
+        if (mBuffer == null) {
+            throw new IOException("Stream is closed");
+        }
+    }
+}
@@ -3,15 +3,18 @@ package com.example.android.sunshine.app.sync;
 import android.accounts.Account;
 import android.accounts.AccountManager;
 import android.annotation.SuppressLint;
+import android.annotation.TargetApi;
 import android.app.NotificationManager;
 import android.app.PendingIntent;
 import android.content.AbstractThreadedSyncAdapter;
+import android.content.ContentProvider;
 import android.content.ContentProviderClient;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentResolver;
-import android.content.ContentUris;
-import android.content.ContentValues;
 import android.content.Context;
 import android.content.Intent;
+import android.content.OperationApplicationException;
 import android.content.SharedPreferences;
 import android.content.SyncRequest;
 import android.content.SyncResult;
@@ -22,6 +25,7 @@ import android.graphics.BitmapFactory;
 import android.net.Uri;
 import android.os.Build;
 import android.os.Bundle;
+import android.os.RemoteException;
 import android.preference.PreferenceManager;
 import android.support.annotation.IntDef;
 import android.support.v4.app.NotificationCompat;
@@ -32,48 +36,51 @@ import android.util.Log;
 import com.bumptech.glide.Glide;
 import com.example.android.sunshine.app.MainActivity;
 import com.example.android.sunshine.app.R;
+import com.example.android.sunshine.app.SettingsSnapshot;
 import com.example.android.sunshine.app.Utility;
+import com.example.android.sunshine.app.data.ForecastBatch;
 import com.example.android.sunshine.app.data.WeatherContract;
+import com.example.android.sunshine.app.data.WeatherProvider;
 import com.example.android.sunshine.app.muzei.WeatherMuzeiSource;
 
-import org.json.JSONArray;
 import org.json.JSONException;
-import org.json.JSONObject;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.net.HttpURLConnection;
-import java.net.URL;
-import java.util.Vector;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
     public final String LOG_TAG = SunshineSyncAdapter.class.getSimpleName();
     public static final String ACTION_DATA_UPDATED =
             "com.example.android.sunshine.app.ACTION_DATA_UPDATED";
+    // Only the way the weather is shown changed, e.g. the units or the art pack.  Carries the
+    // ForecastSnapshot extras when the process still has today's forecast in memory.
+    public static final String ACTION_PRESENTATION_CHANGED =
+            "com.example.android.sunshine.app.ACTION_PRESENTATION_CHANGED";
     // Interval at which to sync with the weather, in seconds.
     // 60 seconds (1 minute) * 180 = 3 hours
     public static final int SYNC_INTERVAL = 60 * 180;
     public static final int SYNC_FLEXTIME = SYNC_INTERVAL / 3;
+    // Sync extra asking for every location in the database to be refreshed, not just the
+    // preferred one.  Periodic syncs always set it.
+    public static final String SYNC_EXTRAS_ALL_LOCATIONS =
+            "com.example.android.sunshine.app.SYNC_EXTRAS_ALL_LOCATIONS";
+    // Upper bound on the forecasts downloaded at the same time when syncing all locations
+    private static final int MAX_CONCURRENT_FETCHES = 3;
+    // In-sync retries for a location whose fetch failed: 3 attempts, waiting about 1s then 2s
+    private static final BackoffPolicy RETRY_POLICY = new BackoffPolicy(1000, 8000, 3);
     private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
     private static final int WEATHER_NOTIFICATION_ID = 3004;
-    private static final int INDEX_SHORT_DESC = 3;
-
-    public static final int INDEX_WEATHER_ID = 0;
-    public static final int INDEX_MAX_TEMP = 1;
-    public static final int INDEX_MIN_TEMP = 2;
-    public static final String[] NOTIFY_WEATHER_PROJECTION = new String[]{
-            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
-            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
-            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP,
-            WeatherContract.WeatherEntry.COLUMN_SHORT_DESC
-    };
-
-    // these indices must match the projection
 
     @Retention(RetentionPolicy.SOURCE)
     @IntDef({LOCATION_STATUS_OK, LOCATION_STATUS_SERVER_DOWN, LOCATION_STATUS_SERVER_INVALID, LOCATION_STATUS_UNKNOWN, LOCATION_STATUS_INVALID})
@@ -87,307 +94,742 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
     public static final int LOCATION_STATUS_INVALID = 4;
 
 
+    // Possible parameters are avaiable at OWM's forecast API page, at
+    // http://openweathermap.org/API#forecast
+    static final String FORECAST_BASE_URL =
+            "http://api.openweathermap.org/data/2.5/forecast/daily?";
+
+    private final SyncMetrics mMetrics;
+    private final String mForecastBaseUrl;
+    private final ForecastResponseCache mResponseCache;
+    // Every sync's rows go through this one batch, so its arrays are only allocated once.  Syncs
+    // for our authority never run concurrently.
+    private final ForecastBatch mBatch = new ForecastBatch();
+    // The batches each location's forecast is parsed into, handed out again every sync for the
+    // same reason.  The fetch workers take them, so they're guarded by the list.
+    private final ArrayList<ForecastBatch> mParseBatches = new ArrayList<ForecastBatch>();
+    private int mParseBatchesInUse;
+
     public SunshineSyncAdapter(Context context, boolean autoInitialize) {
+        this(context, autoInitialize, FORECAST_BASE_URL,
+                ForecastResponseCache.getInstance(context));
+    }
+
+    /**
+     * For tests, to fetch the forecast from another server and keep its validators apart.
+     */
+    SunshineSyncAdapter(Context context, boolean autoInitialize, String forecastBaseUrl,
+                        ForecastResponseCache responseCache) {
         super(context, autoInitialize);
+        mMetrics = SyncMetrics.getInstance(context);
+        mForecastBaseUrl = forecastBaseUrl;
+        mResponseCache = responseCache;
     }
 
     @Override
     public void onPerformSync(Account account, Bundle extras, String authority, ContentProviderClient provider, SyncResult syncResult) {
         Log.d(LOG_TAG, "Starting sync");
 
-        // We no longer need just the location String, but also potentially the latitude and
-        // longitude, in case we are syncing based on a new Place Picker API result.
         Context context = getContext();
-        String locationQuery = Utility.getPreferredLocation(context);
-        String locationLatitude = String.valueOf(Utility.getLocationLatitude(context));
-        String locationLongitude = String.valueOf(Utility.getLocationLongitude(context));
+        String preferredLocation = Utility.getPreferredLocation(context);
+
+        List<String> locations;
+        if (extras.getBoolean(SYNC_EXTRAS_ALL_LOCATIONS, false)) {
+            locations = getSyncLocations(preferredLocation);
+        } else {
+            locations = Collections.singletonList(preferredLocation);
+        }
 
-        // These two need to be declared outside the try/catch
-        // so that they can be closed in the finally block.
-        HttpURLConnection urlConnection = null;
-        BufferedReader reader = null;
+        // The sync runs as a pipeline of stages, each timed into SyncMetrics:
+        // fetch + parse (per location, on the workers), locate, persist (which also prunes),
+        // fan out, status
+        long syncStart = SyncMetrics.start();
+        // The last sync's forecasts are done with
+        recycleParseBatches();
+        List<LocationForecast> forecasts = fetchForecasts(locations);
+
+        int written = storeForecasts(provider, forecasts, preferredLocation, syncResult);
+        Log.d(LOG_TAG, "Sync Complete. " + forecasts.size() + " locations, "
+                + written + " Changed");
+        saveLocationStatuses(forecasts);
+
+        for (LocationForecast forecast : forecasts) {
+            // The UI only ever shows the preferred location, so that is the only one whose
+            // status goes into the global preference.
+            if (forecast.mLocationSetting.equals(preferredLocation)) {
+                setLocationStatus(context, forecast.mStatus);
+            }
+            if (forecast.mStatus == LOCATION_STATUS_SERVER_DOWN) {
+                // A soft error, the framework will reschedule the sync with its own backoff
+                syncResult.stats.numIoExceptions++;
+            }
+        }
 
-        // Will contain the raw JSON response as a string.
-        String forecastJsonStr = null;
+        long retryDelay = CircuitBreaker.getInstance(context).getRetryDelayMillis();
+        if (retryDelay > 0) {
+            // No point in the framework retrying before the breaker lets a probe through
+            syncResult.delayUntil = retryDelay / 1000;
+        }
+
+        mMetrics.record(SyncMetrics.STAGE_TOTAL, syncStart, !syncResult.hasError());
+        mMetrics.save();
+        Log.d(LOG_TAG, mMetrics.toString());
+    }
+
+    /**
+     * @return the preferred location followed by every other location in the database.
+     */
+    private List<String> getSyncLocations(String preferredLocation) {
+        LinkedHashSet<String> locations = new LinkedHashSet<String>();
+        locations.add(preferredLocation);
+
+        Cursor cursor = getContext().getContentResolver().query(
+                WeatherContract.LocationEntry.CONTENT_URI,
+                new String[]{WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING},
+                null, null, null);
+        if (cursor != null) {
+            while (cursor.moveToNext()) {
+                locations.add(cursor.getString(0));
+            }
+            cursor.close();
+        }
+        return new ArrayList<String>(locations);
+    }
+
+    /**
+     * Downloads and parses the forecast of every location.  A single location is fetched on the
+     * sync thread; several are spread over at most {@link #MAX_CONCURRENT_FETCHES} workers so a
+     * slow response for one city doesn't hold up the others.
+     */
+    private List<LocationForecast> fetchForecasts(List<String> locations) {
+        final ArrayList<LocationForecast> forecasts = new ArrayList<LocationForecast>();
+        // While OWM is recovering the first location goes alone, as the circuit breaker's probe.
+        // If the probe fails the other locations are turned away by the breaker without
+        // touching the network.
+        int sequential = locations.size() == 1
+                || CircuitBreaker.getInstance(getContext()).isProbing() ? 1 : 0;
+        try {
+            for (int i = 0; i < sequential; i++) {
+                forecasts.add(coordinatedFetch(locations.get(i)));
+            }
+        } catch (InterruptedException e) {
+            Log.w(LOG_TAG, "Sync interrupted");
+            Thread.currentThread().interrupt();
+            return forecasts;
+        }
+        if (sequential == locations.size()) {
+            return forecasts;
+        }
+        locations = locations.subList(sequential, locations.size());
+
+        ArrayList<Callable<LocationForecast>> tasks =
+                new ArrayList<Callable<LocationForecast>>(locations.size());
+        for (final String locationSetting : locations) {
+            tasks.add(new Callable<LocationForecast>() {
+                @Override
+                public LocationForecast call() throws InterruptedException {
+                    return coordinatedFetch(locationSetting);
+                }
+            });
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(
+                Math.min(MAX_CONCURRENT_FETCHES, locations.size()));
+        try {
+            List<Future<LocationForecast>> results = executor.invokeAll(tasks);
+            for (int i = 0; i < results.size(); i++) {
+                try {
+                    forecasts.add(results.get(i).get());
+                } catch (ExecutionException e) {
+                    // coordinatedFetch handles its own failures, this would be a bug
+                    Log.e(LOG_TAG, "Error fetching " + locations.get(i), e);
+                    LocationForecast failed = new LocationForecast(locations.get(i));
+                    failed.mStatus = LOCATION_STATUS_SERVER_INVALID;
+                    forecasts.add(failed);
+                }
+            }
+        } catch (InterruptedException e) {
+            // The sync was cancelled, whatever finished so far is still worth keeping
+            Log.w(LOG_TAG, "Sync interrupted after " + forecasts.size() + " locations");
+            Thread.currentThread().interrupt();
+        } finally {
+            executor.shutdownNow();
+        }
+        return forecasts;
+    }
+
+    /**
+     * Fetches through the {@link SyncRequestCoordinator}, so a forecast that was just
+     * downloaded and stored isn't requested from OWM again.
+     */
+    private LocationForecast coordinatedFetch(final String locationSetting)
+            throws InterruptedException {
+        LocationForecast forecast = SyncRequestCoordinator.getInstance().fetch(locationSetting,
+                new Callable<LocationForecast>() {
+                    @Override
+                    public LocationForecast call() {
+                        return fetchForecast(locationSetting);
+                    }
+                });
+        Log.d(LOG_TAG, "Fetched " + locationSetting + ". " + SyncRequestCoordinator.getInstance());
+        return forecast;
+    }
+
+    /**
+     * Downloads the forecast for one location, retrying with {@link #RETRY_POLICY} while the
+     * server seems to be down.  Every attempt first asks the {@link CircuitBreaker}, so once
+     * OWM has failed often enough we stop going to the network at all until it has had time to
+     * recover.
+     */
+    LocationForecast fetchForecast(String locationSetting) {
+        CircuitBreaker breaker = CircuitBreaker.getInstance(getContext());
+        // Every attempt parses into the same batch
+        ForecastBatch rows = obtainParseBatch();
+        for (int attempt = 0; ; attempt++) {
+            if (!breaker.allowRequest()) {
+                Log.d(LOG_TAG, "Not fetching " + locationSetting + ". " + breaker);
+                LocationForecast forecast = new LocationForecast(locationSetting);
+                forecast.mStatus = LOCATION_STATUS_SERVER_DOWN;
+                return forecast;
+            }
+
+            LocationForecast forecast = downloadForecast(locationSetting, rows);
+            if (forecast.mStatus != LOCATION_STATUS_SERVER_DOWN) {
+                // Even an unknown location or an odd payload means OWM is answering
+                breaker.recordSuccess();
+                return forecast;
+            }
+            breaker.recordFailure();
+
+            if (attempt + 1 >= RETRY_POLICY.getMaxAttempts()) {
+                return forecast;
+            }
+            long delay = RETRY_POLICY.getDelayMillis(attempt);
+            Log.d(LOG_TAG, "Retrying " + locationSetting + " in " + delay + "ms");
+            try {
+                Thread.sleep(delay);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return forecast;
+            }
+        }
+    }
+
+    /**
+     * @return true if the database holds forecast rows for this location from today onward,
+     * i.e. a not-modified answer from OWM means there really is nothing to store.
+     */
+    private boolean hasStoredForecast(String locationSetting) {
+        Uri weatherForLocationUri = WeatherContract.WeatherEntry.buildWeatherLocationWithStartDate(
+                locationSetting, System.currentTimeMillis());
+        Cursor cursor = getContext().getContentResolver().query(weatherForLocationUri,
+                new String[]{WeatherContract.WeatherEntry.COLUMN_DATE}, null, null, null);
+        if (cursor == null) {
+            return false;
+        }
+        try {
+            return cursor.moveToFirst();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Downloads the forecast for one location and streams it through {@link ForecastJsonParser}
+     * into {@code rows}.  Nothing is written to the database here, and failures end up in the
+     * status of the returned forecast instead of being thrown, so that any number of these can
+     * run at once.
+     */
+    LocationForecast downloadForecast(String locationSetting, ForecastBatch rows) {
+        LocationForecast forecast = new LocationForecast(locationSetting, rows);
 
         String format = "json";
         String units = "metric";
         int numDays = 14;
         String app_key = "849048ff7b0516f9bf54069665d0e26f";
 
+        // Construct the URL for the OpenWeatherMap query
+        final String QUERY_PARAM = "q";
+        final String FORMAT_PARAM = "mode";
+        final String UNITS_PARAM = "units";
+        final String DAYS_PARAM = "cnt";
+        final String APPID_PARAM = "APPID";
+
+        Uri builtUri = Uri.parse(mForecastBaseUrl).buildUpon()
+                .appendQueryParameter(QUERY_PARAM, locationSetting)
+                .appendQueryParameter(FORMAT_PARAM, format)
+                .appendQueryParameter(UNITS_PARAM, units)
+                .appendQueryParameter(DAYS_PARAM, Integer.toString(numDays))
+                .appendQueryParameter(APPID_PARAM, app_key)
+                .build();
+
+        // This needs to be declared outside the try/catch
+        // so that it can be closed in the finally block.
+        ForecastDownloader.Response response = null;
+        // Which stage is being timed, and so gets charged with a failure
+        @SyncMetrics.Stage int stage = SyncMetrics.STAGE_FETCH;
+        boolean timing = true;
+        long start = SyncMetrics.start();
         try {
-            // Construct the URL for the OpenWeatherMap query
-            // Possible parameters are avaiable at OWM's forecast API page, at
-            // http://openweathermap.org/API#forecast
-            final String FORECAST_BASE_URL =
-                    "http://api.openweathermap.org/data/2.5/forecast/daily?";
-            final String QUERY_PARAM = "q";
-            final String FORMAT_PARAM = "mode";
-            final String UNITS_PARAM = "units";
-            final String DAYS_PARAM = "cnt";
-            final String APPID_PARAM = "APPID";
-
-            Uri builtUri = Uri.parse(FORECAST_BASE_URL).buildUpon()
-                    .appendQueryParameter(QUERY_PARAM, locationQuery)
-                    .appendQueryParameter(FORMAT_PARAM, format)
-                    .appendQueryParameter(UNITS_PARAM, units)
-                    .appendQueryParameter(DAYS_PARAM, Integer.toString(numDays))
-                    .appendQueryParameter(APPID_PARAM, app_key)
-                    .build();
-
-            URL url = new URL(builtUri.toString());
-
-            // Create the request to OpenWeatherMap, and open the connection
-            urlConnection = (HttpURLConnection) url.openConnection();
-            urlConnection.setRequestMethod("GET");
-            urlConnection.connect();
-
-            // Read the input stream into a String
-            InputStream inputStream = urlConnection.getInputStream();
-            StringBuffer buffer = new StringBuffer();
-            if (inputStream == null) {
-                // Nothing to do.
-                return;
+            // Ask for the forecast conditionally, OWM may tell us nothing changed since the
+            // last sync for this exact query
+            String url = builtUri.toString();
+            ForecastDownloader downloader = new ForecastDownloader(mResponseCache);
+            response = downloader.open(url);
+            if (response.isNotModified() && !hasStoredForecast(locationSetting)) {
+                // The validators outlived the rows they describe, e.g. the tables were
+                // recreated on an upgrade or the rows deleted through the provider.  Ask again
+                // without them.
+                Log.d(LOG_TAG, "Forecast for " + locationSetting + " not modified but not "
+                        + "stored either, downloading it again");
+                response.close();
+                response = null;
+                mResponseCache.remove(url);
+                response = downloader.open(url);
             }
-            reader = new BufferedReader(new InputStreamReader(inputStream));
-
-            String line;
-            while ((line = reader.readLine()) != null) {
-                // Since it's JSON, adding a newline isn't necessary (it won't affect parsing)
-                // But it does make debugging a *lot* easier if you print out the completed
-                // buffer for debugging.
-                buffer.append(line + "\n");
+            mMetrics.record(SyncMetrics.STAGE_FETCH, start, true);
+            stage = SyncMetrics.STAGE_PARSE;
+            start = SyncMetrics.start();
+            if (response.isNotModified()) {
+                // Everything we stored last time is still current, so there is nothing to
+                // parse or insert for this location.
+                Log.d(LOG_TAG, "Forecast for " + locationSetting + " not modified. "
+                        + mResponseCache);
+                forecast.mNotModified = true;
+                forecast.mStatus = LOCATION_STATUS_OK;
+                timing = false;
+                return forecast;
             }
 
-            if (buffer.length() == 0) {
-                // Stream was empty.  No point in parsing.
-                setLocationStatus(getContext(), LOCATION_STATUS_SERVER_DOWN);
-                return;
+            // Parse the forecast straight off the (decompressing) input stream
+            int messageCode = ForecastJsonParser.parse(response.getBody(), forecast);
+            mMetrics.addBytes(SyncMetrics.STAGE_FETCH, response.getWireBytes());
+            mMetrics.addBytes(SyncMetrics.STAGE_PARSE, response.getDecodedBytes());
+            mMetrics.addRows(SyncMetrics.STAGE_PARSE, forecast.mRows.size());
+            // An error response parsed fine too, only a forecast without its city didn't
+            mMetrics.record(SyncMetrics.STAGE_PARSE, start,
+                    messageCode != HttpURLConnection.HTTP_OK || forecast.mCityName != null);
+            timing = false;
+            Log.d(LOG_TAG, "Forecast download for " + locationSetting + ": "
+                    + response.getWireBytes() + " bytes on the wire, "
+                    + response.getDecodedBytes() + " bytes decoded ("
+                    + response.getContentEncoding() + ")");
+
+            // do we have an error?
+            switch (messageCode) {
+                case HttpURLConnection.HTTP_OK:
+                    break;
+                case HttpURLConnection.HTTP_NOT_FOUND:
+                    forecast.mStatus = LOCATION_STATUS_INVALID;
+                    return forecast;
+                default:
+                    forecast.mStatus = LOCATION_STATUS_SERVER_DOWN;
+                    return forecast;
+            }
+            if (forecast.mCityName == null) {
+                throw new JSONException("Forecast has no city");
             }
-            forecastJsonStr = buffer.toString();
-            getWeatherDataFromJson(forecastJsonStr, locationQuery);
+            forecast.mStatus = LOCATION_STATUS_OK;
+            forecast.mResponse = response;
         } catch (IOException e) {
             Log.e(LOG_TAG, "Error ", e);
             // If the code didn't successfully get the weather data, there's no point in attempting
             // to parse it.
-            setLocationStatus(getContext(), LOCATION_STATUS_SERVER_DOWN);
+            forecast.mStatus = LOCATION_STATUS_SERVER_DOWN;
+            if (timing) {
+                mMetrics.record(stage, start, false);
+            }
         } catch (JSONException e) {
             Log.e(LOG_TAG, e.getMessage(), e);
-            e.printStackTrace();
-            setLocationStatus(getContext(), LOCATION_STATUS_SERVER_INVALID);
-        } finally {
-            if (urlConnection != null) {
-                urlConnection.disconnect();
+            forecast.mStatus = LOCATION_STATUS_SERVER_INVALID;
+            if (timing) {
+                mMetrics.record(stage, start, false);
             }
-            if (reader != null) {
-                try {
-                    reader.close();
-                } catch (final IOException e) {
-                    Log.e(LOG_TAG, "Error closing stream", e);
-                }
+        } finally {
+            if (response != null) {
+                response.close();
             }
         }
-        return;
+        return forecast;
     }
 
     /**
-     * Take the String representing the complete forecast in JSON Format and
-     * pull out the data we need to construct the Strings needed for the wireframes.
-     * <p>
-     * Fortunately parsing is easy:  constructor takes the JSON string and converts it
-     * into an Object hierarchy for us.
+     * Stages locate, persist and fan out.  Forecasts that weren't modified have no rows, so when
+     * none of them has any nothing is stored, notified or fanned out.
+     *
+     * @return the number of rows written or deleted.
      */
-    private void getWeatherDataFromJson(String forecastJsonStr,
-                                        String locationSetting)
-            throws JSONException {
-
-        // Now we have a String representing the complete forecast in JSON Format.
-        // Fortunately parsing is easy:  constructor takes the JSON string and converts it
-        // into an Object hierarchy for us.
-
-        // These are the names of the JSON objects that need to be extracted.
-
-        // Location information
-        final String OWM_CITY = "city";
-        final String OWM_CITY_NAME = "name";
-        final String OWM_COORD = "coord";
-
-        // Location coordinate
-        final String OWM_LATITUDE = "lat";
-        final String OWM_LONGITUDE = "lon";
-
-        // Weather information.  Each day's forecast info is an element of the "list" array.
-        final String OWM_LIST = "list";
-
-        final String OWM_PRESSURE = "pressure";
-        final String OWM_HUMIDITY = "humidity";
-        final String OWM_WINDSPEED = "speed";
-        final String OWM_WIND_DIRECTION = "deg";
-
-        // All temperatures are children of the "temp" object.
-        final String OWM_TEMPERATURE = "temp";
-        final String OWM_MAX = "max";
-        final String OWM_MIN = "min";
+    int storeForecasts(ContentProviderClient provider, List<LocationForecast> forecasts,
+                       String preferredLocation, SyncResult syncResult) {
+        ArrayList<ContentProviderOperation> operations = locateForecasts(forecasts);
+        if (operations.isEmpty()) {
+            return 0;
+        }
+        int written = persistForecasts(provider, forecasts, operations, syncResult);
+        fanOut(forecasts, preferredLocation, written > 0);
+        return written;
+    }
 
-        final String OWM_WEATHER = "weather";
-        final String OWM_DESCRIPTION = "main";
-        final String OWM_WEATHER_ID = "id";
+    /**
+     * @return an empty batch to parse a location's forecast into, one of the last sync's if
+     * there are enough of them.
+     */
+    ForecastBatch obtainParseBatch() {
+        synchronized (mParseBatches) {
+            if (mParseBatchesInUse == mParseBatches.size()) {
+                mParseBatches.add(new ForecastBatch());
+            }
+            ForecastBatch rows = mParseBatches.get(mParseBatchesInUse++);
+            rows.clear();
+            return rows;
+        }
+    }
 
-        final String OWM_MESSAGE_CODE = "cod";
+    /**
+     * Hands all the parse batches out again.  Only called before a sync's fetches start, when
+     * nothing reads the last sync's forecasts any more.
+     */
+    void recycleParseBatches() {
+        synchronized (mParseBatches) {
+            mParseBatchesInUse = 0;
+        }
+    }
 
+    /**
+     * Stage {@link SyncMetrics#STAGE_LOCATE}: collects the days of every forecast that came back
+     * with rows into {@link #mBatch}, and builds the operations they are stored with: an upsert
+     * of each location, which the location's days refer back to, and the prune of past days.
+     */
+    ArrayList<ContentProviderOperation> locateForecasts(List<LocationForecast> forecasts) {
+        ArrayList<ContentProviderOperation> operations = new ArrayList<ContentProviderOperation>();
+        ForecastBatch rows = mBatch;
+        rows.clear();
+        long start = SyncMetrics.start();
+        boolean succeeded = false;
         try {
-            JSONObject forecastJson = new JSONObject(forecastJsonStr);
-            Context context = getContext();
-
-            // do we have an error?
-            if (forecastJson.has(OWM_MESSAGE_CODE)) {
-                int errorCode = forecastJson.getInt(OWM_MESSAGE_CODE);
-
-                switch (errorCode) {
-                    case HttpURLConnection.HTTP_OK:
-                        break;
-                    case HttpURLConnection.HTTP_NOT_FOUND:
-                        setLocationStatus(getContext(), LOCATION_STATUS_INVALID);
-                        return;
-                    default:
-                        setLocationStatus(getContext(), LOCATION_STATUS_SERVER_DOWN);
-                        return;
+            for (LocationForecast forecast : forecasts) {
+                if (!forecast.hasRows()) {
+                    continue;
                 }
+                // The days carry the upsert's index until the provider resolves it
+                rows.addAll(forecast.mRows, operations.size());
+                // Inserting a location that is already stored returns its row
+                operations.add(ContentProviderOperation
+                        .newInsert(WeatherContract.LocationEntry.CONTENT_URI)
+                        .withValue(WeatherContract.LocationEntry.COLUMN_CITY_NAME,
+                                forecast.mCityName)
+                        .withValue(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING,
+                                forecast.mLocationSetting)
+                        .withValue(WeatherContract.LocationEntry.COLUMN_COORD_LAT,
+                                forecast.mCityLatitude)
+                        .withValue(WeatherContract.LocationEntry.COLUMN_COORD_LONG,
+                                forecast.mCityLongitude)
+                        .build());
             }
+            if (!operations.isEmpty()) {
+                operations.add(buildPrune(forecasts,
+                        Utility.getHistoryRetentionDays(getContext())));
+            }
+            succeeded = true;
+        } finally {
+            mMetrics.record(SyncMetrics.STAGE_LOCATE, start, succeeded);
+        }
+        return operations;
+    }
 
-            JSONArray weatherArray = forecastJson.getJSONArray(OWM_LIST);
-
-            JSONObject cityJson = forecastJson.getJSONObject(OWM_CITY);
-            String cityName = cityJson.getString(OWM_CITY_NAME);
-
-            JSONObject cityCoord = cityJson.getJSONObject(OWM_COORD);
-            double cityLatitude = cityCoord.getDouble(OWM_LATITUDE);
-            double cityLongitude = cityCoord.getDouble(OWM_LONGITUDE);
-
-            long locationId = addLocation(locationSetting, cityName, cityLatitude, cityLongitude);
+    /**
+     * @return the delete of days before the earliest day synced, which moves them into the
+     * provider's history archive, to be kept for {@code retentionDays}.
+     */
+    private static ContentProviderOperation buildPrune(List<LocationForecast> forecasts,
+                                                       int retentionDays) {
+        int julianStartDay = Integer.MAX_VALUE;
+        Time dayTime = null;
+        for (LocationForecast forecast : forecasts) {
+            if (forecast.hasRows() && forecast.mJulianStartDay < julianStartDay) {
+                julianStartDay = forecast.mJulianStartDay;
+                dayTime = forecast.mDayTime;
+            }
+        }
+        return ContentProviderOperation
+                .newDelete(WeatherContract.WeatherEntry.buildArchiveUri(retentionDays))
+                .withSelection(WeatherContract.WeatherEntry.COLUMN_DATE + " <= ?",
+                        new String[]{Long.toString(dayTime.setJulianDay(julianStartDay - 1))})
+                .build();
+    }
 
-            // Insert the new weather information into the database
-            Vector<ContentValues> cVVector = new Vector<ContentValues>(weatherArray.length());
+    /**
+     * Stage {@link SyncMetrics#STAGE_PERSIST}: applies the locate stage's operations and
+     * {@link #mBatch} together, the last operation of which moves the past days into the
+     * history archive ({@link SyncMetrics#STAGE_PRUNE} only counts the rows).  The provider runs
+     * it all in one transaction and notifies the changes once it has committed.  Only once that
+     * has worked are the responses' validators remembered and the fetches reported stored to
+     * the {@link SyncRequestCoordinator}.
+     *
+     * @return the number of rows the batch actually wrote or deleted.
+     */
+    private int persistForecasts(ContentProviderClient provider, List<LocationForecast> forecasts,
+                                 ArrayList<ContentProviderOperation> operations,
+                                 SyncResult syncResult) {
+        long start = SyncMetrics.start();
+        boolean succeeded = false;
+        try {
+            int written;
+            ContentProviderResult[] results;
+            WeatherProvider localProvider = getLocalWeatherProvider(provider);
+            if (localProvider != null) {
+                // Hand the batch straight over, no ContentValues needed
+                WeatherProvider.BatchResult result = localProvider.applyBatch(operations, mBatch);
+                results = result.results;
+                written = result.counts.getWritten();
+            } else {
+                results = getContext().getContentResolver().applyBatch(
+                        WeatherContract.CONTENT_AUTHORITY, withRowInserts(operations, mBatch));
+                written = 0;
+                for (int i = 0; i < results.length - 1; i++) {
+                    Uri uri = results[i].uri;
+                    // A day that was already stored as it is comes back as the weather URI
+                    if (uri.getPathSegments().get(0).equals(WeatherContract.PATH_WEATHER)
+                            && !uri.equals(WeatherContract.WeatherEntry.CONTENT_URI)) {
+                        written++;
+                    }
+                }
+            }
+            int deleted = results[results.length - 1].count;
+            mMetrics.addRows(SyncMetrics.STAGE_PERSIST, written);
+            mMetrics.addRows(SyncMetrics.STAGE_PRUNE, deleted);
+
+            // Only now that the rows are stored is it safe to skip them next time, or to let
+            // another sync reuse the fetch
+            for (LocationForecast forecast : forecasts) {
+                if (forecast.hasRows()) {
+                    forecast.mResponse.commit();
+                    SyncRequestCoordinator.getInstance().markPersisted(forecast.mLocationSetting);
+                }
+            }
+            succeeded = true;
+            return written + deleted;
+        } catch (RemoteException | OperationApplicationException e) {
+            Log.e(LOG_TAG, "Error storing the forecast", e);
+            syncResult.databaseError = true;
+            for (LocationForecast forecast : forecasts) {
+                if (forecast.hasRows()) {
+                    SyncRequestCoordinator.getInstance().markPersistFailed(
+                            forecast.mLocationSetting);
+                }
+            }
+            return 0;
+        } finally {
+            mMetrics.record(SyncMetrics.STAGE_PERSIST, start, succeeded);
+        }
+    }
 
-            // OWM returns daily forecasts based upon the local time of the city that is being
-            // asked for, which means that we need to know the GMT offset to translate this data
-            // properly.
+    /**
+     * @return the operations with an insert of each of the batch's days ahead of the prune, for
+     * a provider that has to be reached through the ContentResolver and only takes operations.
+     */
+    private static ArrayList<ContentProviderOperation> withRowInserts(
+            ArrayList<ContentProviderOperation> operations, ForecastBatch rows) {
+        ArrayList<ContentProviderOperation> withRows =
+                new ArrayList<ContentProviderOperation>(operations.size() + rows.size());
+        withRows.addAll(operations.subList(0, operations.size() - 1));
+        for (int row = 0; row < rows.size(); row++) {
+            withRows.add(ContentProviderOperation
+                    .newInsert(WeatherContract.WeatherEntry.CONTENT_URI)
+                    .withValues(rows.toContentValues(row))
+                    .withValueBackReference(WeatherContract.WeatherEntry.COLUMN_LOC_KEY,
+                            (int) rows.getLocationId(row))
+                    .build());
+        }
+        withRows.add(operations.get(operations.size() - 1));
+        return withRows;
+    }
 
-            // Since this data is also sent in-order and the first day is always the
-            // current day, we're going to take advantage of that to get a nice
-            // normalized UTC date for all of our weather.
+    /**
+     * @return our provider if it lives in this process, or null if it has to be reached through
+     * the ContentResolver.
+     */
+    private static WeatherProvider getLocalWeatherProvider(ContentProviderClient provider) {
+        if (provider == null || Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) {
+            return null;
+        }
+        return getLocalWeatherProviderHoneycomb(provider);
+    }
 
-            Time dayTime = new Time();
-            dayTime.setToNow();
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private static WeatherProvider getLocalWeatherProviderHoneycomb(ContentProviderClient provider) {
+        ContentProvider localProvider = provider.getLocalContentProvider();
+        return localProvider instanceof WeatherProvider ? (WeatherProvider) localProvider : null;
+    }
 
-            // we start at the day returned by local time. Otherwise this is a mess.
-            int julianStartDay = Time.getJulianDay(System.currentTimeMillis(), dayTime.gmtoff);
+    /**
+     * Stage {@link SyncMetrics#STAGE_FAN_OUT}: hands today's forecast for the preferred location
+     * to the widgets, Muzei, the notification and the watch through the
+     * {@link FanOutDispatcher}.  They all run in parallel and the sync doesn't wait for them;
+     * each consumer's time is recorded by the dispatcher.
+     *
+     * @param changed whether any rows were written or deleted.  The provider only writes the
+     *                days that changed, so when nothing was written the widgets, Muzei and the
+     *                watch are already showing the current forecast.
+     */
+    private void fanOut(List<LocationForecast> forecasts, String preferredLocation,
+                        boolean changed) {
+        ForecastSnapshot snapshot = null;
+        for (LocationForecast forecast : forecasts) {
+            if (forecast.hasRows() && forecast.mLocationSetting.equals(preferredLocation)) {
+                snapshot = ForecastSnapshot.fromForecast(forecast);
+            }
+        }
 
-            // now we work exclusively in UTC
-            dayTime = new Time();
+        ArrayList<FanOutDispatcher.Consumer> consumers = new ArrayList<FanOutDispatcher.Consumer>(4);
+        if (changed) {
+            consumers.add(mWidgetsConsumer);
+            consumers.add(mMuzeiConsumer);
+            consumers.add(mWatchConsumer);
+        }
+        // Has its own once-a-day check, and that day may have started without any changes
+        consumers.add(mNotificationConsumer);
+        FanOutDispatcher.getInstance(mMetrics).dispatch(snapshot, consumers);
+    }
 
-            for (int i = 0; i < weatherArray.length(); i++) {
-                // These are the values that will be collected.
-                long dateTime;
-                double pressure;
-                int humidity;
-                double windSpeed;
-                double windDirection;
+    private final FanOutDispatcher.Consumer mWidgetsConsumer = new FanOutDispatcher.Consumer() {
+        @Override
+        public String getName() {
+            return "widgets";
+        }
 
-                double high;
-                double low;
+        @Override
+        public long getTimeoutMillis() {
+            return 2000;
+        }
 
-                String description;
-                int weatherId;
+        @Override
+        public void consume(ForecastSnapshot snapshot) {
+            updateWidgets(snapshot);
+        }
+    };
 
-                // Get the JSON object representing the day
-                JSONObject dayForecast = weatherArray.getJSONObject(i);
+    private final FanOutDispatcher.Consumer mMuzeiConsumer = new FanOutDispatcher.Consumer() {
+        @Override
+        public String getName() {
+            return "muzei";
+        }
 
-                // Cheating to convert this to UTC time, which is what we want anyhow
-                dateTime = dayTime.setJulianDay(julianStartDay + i);
+        @Override
+        public long getTimeoutMillis() {
+            return 2000;
+        }
 
-                pressure = dayForecast.getDouble(OWM_PRESSURE);
-                humidity = dayForecast.getInt(OWM_HUMIDITY);
-                windSpeed = dayForecast.getDouble(OWM_WINDSPEED);
-                windDirection = dayForecast.getDouble(OWM_WIND_DIRECTION);
+        @Override
+        public void consume(ForecastSnapshot snapshot) {
+            updateMuzei(snapshot);
+        }
+    };
 
-                // Description is in a child array called "weather", which is 1 element long.
-                // That element also contains a weather code.
-                JSONObject weatherObject =
-                        dayForecast.getJSONArray(OWM_WEATHER).getJSONObject(0);
-                description = weatherObject.getString(OWM_DESCRIPTION);
-                weatherId = weatherObject.getInt(OWM_WEATHER_ID);
+    private final FanOutDispatcher.Consumer mWatchConsumer = new FanOutDispatcher.Consumer() {
+        @Override
+        public String getName() {
+            return "watch";
+        }
 
-                // Temperatures are in a child object called "temp".  Try not to name variables
-                // "temp" when working with temperature.  It confuses everybody.
-                JSONObject temperatureObject = dayForecast.getJSONObject(OWM_TEMPERATURE);
-                high = temperatureObject.getDouble(OWM_MAX);
-                low = temperatureObject.getDouble(OWM_MIN);
+        @Override
+        public long getTimeoutMillis() {
+            return 10000;
+        }
 
-                ContentValues weatherValues = new ContentValues();
+        @Override
+        public void consume(ForecastSnapshot snapshot) {
+            WatchSync watchSync = WatchSync.getInstance(getContext());
+            if (snapshot != null) {
+                watchSync.sync(snapshot);
+            } else {
+                watchSync.sync();
+            }
+        }
+    };
 
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_LOC_KEY, locationId);
-                Log.d(LOG_TAG, "location id is:" + locationId);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DATE, dateTime);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_HUMIDITY, humidity);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_PRESSURE, pressure);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WIND_SPEED, windSpeed);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DEGREES, windDirection);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, high);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP, low);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC, description);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID, weatherId);
+    private final FanOutDispatcher.Consumer mNotificationConsumer = new FanOutDispatcher.Consumer() {
+        @Override
+        public String getName() {
+            return "notification";
+        }
 
-                cVVector.add(weatherValues);
-            }
+        @Override
+        public long getTimeoutMillis() {
+            // Mostly the art download
+            return 15000;
+        }
 
-            int inserted = 0;
-            // add to database
-            if (cVVector.size() > 0) {
-                ContentValues[] cvArray = new ContentValues[cVVector.size()];
-                cVVector.toArray(cvArray);
-                getContext().getContentResolver().bulkInsert(WeatherContract.WeatherEntry.CONTENT_URI, cvArray);
-
-                // delete old data so we don't build up an endless history
-                getContext().getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI,
-                        WeatherContract.WeatherEntry.COLUMN_DATE + " <= ?",
-                        new String[]{Long.toString(dayTime.setJulianDay(julianStartDay - 1))});
-
-                updateWidgets();
-                updateMuzei();
-                notifyWeather();
-                WatchSync.getInstance(getContext()).sync();
-            }
-            Log.d(LOG_TAG, "Sync Complete. " + cVVector.size() + " Inserted");
-            setLocationStatus(getContext(), LOCATION_STATUS_OK);
+        @Override
+        public void consume(ForecastSnapshot snapshot) {
+            notifyWeather(snapshot);
+        }
+    };
 
-        } catch (JSONException e) {
-            Log.e(LOG_TAG, e.getMessage(), e);
-            e.printStackTrace();
-            setLocationStatus(getContext(), LOCATION_STATUS_SERVER_INVALID);
+    /**
+     * Stage {@link SyncMetrics#STAGE_STATUS}: writes each location's sync status to its row in
+     * the location table.
+     */
+    private void saveLocationStatuses(List<LocationForecast> forecasts) {
+        long start = SyncMetrics.start();
+        boolean succeeded = false;
+        ArrayList<ContentProviderOperation> statusUpdates =
+                new ArrayList<ContentProviderOperation>(forecasts.size());
+        for (LocationForecast forecast : forecasts) {
+            statusUpdates.add(ContentProviderOperation
+                    .newUpdate(WeatherContract.LocationEntry.CONTENT_URI)
+                    // Leave rows that already have this status alone, so an idle sync writes nothing
+                    .withSelection(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING
+                                    + " = ? AND " + WeatherContract.LocationEntry.COLUMN_SYNC_STATUS
+                                    + " != ?",
+                            new String[]{forecast.mLocationSetting,
+                                    Integer.toString(forecast.mStatus)})
+                    .withValue(WeatherContract.LocationEntry.COLUMN_SYNC_STATUS, forecast.mStatus)
+                    .build());
+        }
+        try {
+            getContext().getContentResolver().applyBatch(
+                    WeatherContract.CONTENT_AUTHORITY, statusUpdates);
+            succeeded = true;
+        } catch (RemoteException | OperationApplicationException e) {
+            Log.e(LOG_TAG, "Error saving location status", e);
+        } finally {
+            mMetrics.record(SyncMetrics.STAGE_STATUS, start, succeeded);
         }
     }
 
-    private void updateWidgets() {
+    private void updateWidgets(ForecastSnapshot snapshot) {
         Context context = getContext();
         // Setting the package ensures that only components in our app will receive the broadcast
         Intent dataUpdatedIntent = new Intent(ACTION_DATA_UPDATED)
                 .setPackage(context.getPackageName());
+        if (snapshot != null) {
+            // Saves the Today widget a query for what we already have
+            dataUpdatedIntent.putExtras(snapshot.toBundle());
+        }
         context.sendBroadcast(dataUpdatedIntent);
     }
 
-    private void updateMuzei() {
+    private void updateMuzei(ForecastSnapshot snapshot) {
         // Muzei is only compatible with Jelly Bean MR1+ devices, so there's no need to update the
         // Muzei background on lower API level devices
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1) {
             Context context = getContext();
-            context.startService(new Intent(ACTION_DATA_UPDATED)
-                    .setClass(context, WeatherMuzeiSource.class));
+            Intent dataUpdatedIntent = new Intent(ACTION_DATA_UPDATED)
+                    .setClass(context, WeatherMuzeiSource.class);
+            if (snapshot != null) {
+                dataUpdatedIntent.putExtras(snapshot.toBundle());
+            }
+            context.startService(dataUpdatedIntent);
         }
     }
 
 
-    private void notifyWeather() {
+    /**
+     * @param snapshot today's forecast if the sync just downloaded it, otherwise null and it is
+     *                 read from the provider.
+     */
+    private void notifyWeather(ForecastSnapshot snapshot) {
         Context context = getContext();
         //checking the last update and notify if it' the first of the day
         SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
@@ -402,18 +844,16 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
 
             if (System.currentTimeMillis() - lastSync >= DAY_IN_MILLIS) {
                 // Last sync was more than 1 day ago, let's send a notification with the weather.
-                String locationQuery = Utility.getPreferredLocation(context);
-
-                Uri weatherUri = WeatherContract.WeatherEntry.buildWeatherLocationWithDate(locationQuery, System.currentTimeMillis());
-
-                // we'll query our contentProvider, as always
-                Cursor cursor = context.getContentResolver().query(weatherUri, NOTIFY_WEATHER_PROJECTION, null, null, null);
+                if (snapshot == null) {
+                    // Nothing new from this sync, so we'll query our contentProvider, as always
+                    snapshot = ForecastSnapshot.query(context, Utility.getPreferredLocation(context));
+                }
 
-                if (cursor.moveToFirst()) {
-                    int weatherId = cursor.getInt(INDEX_WEATHER_ID);
-                    double high = cursor.getDouble(INDEX_MAX_TEMP);
-                    double low = cursor.getDouble(INDEX_MIN_TEMP);
-                    String desc = cursor.getString(INDEX_SHORT_DESC);
+                if (snapshot != null) {
+                    int weatherId = snapshot.weatherId;
+                    double high = snapshot.high;
+                    double low = snapshot.low;
+                    String desc = snapshot.description;
 
                     int iconId = Utility.getIconResourceForWeatherCondition(weatherId);
                     Resources resources = context.getResources();
@@ -489,78 +929,54 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
                     editor.putLong(lastNotificationKey, System.currentTimeMillis());
                     editor.commit();
                 }
-                cursor.close();
             }
         }
     }
 
-    /**
-     * Helper method to handle insertion of a new location in the weather database.
-     *
-     * @param locationSetting The location string used to request updates from the server.
-     * @param cityName        A human-readable city name, e.g "Mountain View"
-     * @param lat             the latitude of the city
-     * @param lon             the longitude of the city
-     * @return the row ID of the added location.
-     */
-    long addLocation(String locationSetting, String cityName, double lat, double lon) {
-        long locationId;
-
-        // First, check if the location with this city name exists in the db
-        Cursor locationCursor = getContext().getContentResolver().query(
-                WeatherContract.LocationEntry.CONTENT_URI,
-                new String[]{WeatherContract.LocationEntry._ID},
-                WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ?",
-                new String[]{locationSetting},
-                null);
-
-        if (locationCursor.moveToFirst()) {
-            int locationIdIndex = locationCursor.getColumnIndex(WeatherContract.LocationEntry._ID);
-            locationId = locationCursor.getLong(locationIdIndex);
-        } else {
-            // Now that the content provider is set up, inserting rows of data is pretty simple.
-            // First create a ContentValues object to hold the data you want to insert.
-            ContentValues locationValues = new ContentValues();
-
-            // Then add the data, along with the corresponding name of the data type,
-            // so the content provider knows what kind of value is being inserted.
-            locationValues.put(WeatherContract.LocationEntry.COLUMN_CITY_NAME, cityName);
-            locationValues.put(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING, locationSetting);
-            locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LAT, lat);
-            locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LONG, lon);
-
-            // Finally, insert location data into the database.
-            Uri insertedUri = getContext().getContentResolver().insert(
-                    WeatherContract.LocationEntry.CONTENT_URI,
-                    locationValues
-            );
-
-            // The resulting URI contains the ID for the row.  Extract the locationId from the Uri.
-            locationId = ContentUris.parseId(insertedUri);
-        }
-
-        locationCursor.close();
-        // Wait, that worked?  Yes!
-        return locationId;
-    }
-
     /**
      * Helper method to schedule the sync adapter periodic execution
      */
     public static void configurePeriodicSync(Context context, int syncInterval, int flexTime) {
         Account account = getSyncAccount(context);
         String authority = context.getString(R.string.content_authority);
+        // Scheduled syncs keep every tracked location fresh
+        Bundle extras = new Bundle();
+        extras.putBoolean(SYNC_EXTRAS_ALL_LOCATIONS, true);
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
             // we can enable inexact timers in our periodic sync
             SyncRequest request = new SyncRequest.Builder().
                     syncPeriodic(syncInterval, flexTime).
                     setSyncAdapter(account, authority).
-                    setExtras(new Bundle()).build();
+                    setExtras(extras).build();
             ContentResolver.requestSync(request);
         } else {
             ContentResolver.addPeriodicSync(account,
-                    authority, new Bundle(), syncInterval);
+                    authority, extras, syncInterval);
+        }
+    }
+
+    /**
+     * Tells everything showing the weather that only its presentation changed, so each
+     * re-renders what it already has: the list and the detail through
+     * {@link WeatherContract#PRESENTATION_URI}, the widgets through
+     * {@link #ACTION_PRESENTATION_CHANGED}, and the watch from the last snapshot.  Nothing
+     * here queries the provider.
+     *
+     * @param context The context used to send the notifications
+     */
+    public static void notifyPresentationChanged(Context context) {
+        context.getContentResolver().notifyChange(WeatherContract.PRESENTATION_URI, null);
+
+        ForecastSnapshot snapshot = ForecastSnapshot.getLast(Utility.getPreferredLocation(context));
+        // Setting the package ensures that only components in our app will receive the broadcast
+        Intent presentationIntent = new Intent(ACTION_PRESENTATION_CHANGED)
+                .setPackage(context.getPackageName());
+        if (snapshot != null) {
+            presentationIntent.putExtras(snapshot.toBundle());
+            // Without one the watch keeps what it has until the next sync
+            WatchSync.getInstance(context.getApplicationContext()).sync(snapshot);
         }
+        context.sendBroadcast(presentationIntent);
     }
 
     /**
@@ -569,9 +985,28 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
      * @param context The context used to access the account service
      */
     public static void syncImmediately(Context context) {
+        // Several callers tend to ask at once, one sync per location is enough
+        if (!SyncRequestCoordinator.getInstance().requestSync(
+                Utility.getPreferredLocation(context))) {
+            return;
+        }
+        Bundle bundle = new Bundle();
+        bundle.putBoolean(ContentResolver.SYNC_EXTRAS_EXPEDITED, true);
+        bundle.putBoolean(ContentResolver.SYNC_EXTRAS_MANUAL, true);
+        ContentResolver.requestSync(getSyncAccount(context),
+                context.getString(R.string.content_authority), bundle);
+    }
+
+    /**
+     * Helper method to have the sync adapter refresh every location in the database at once
+     *
+     * @param context The context used to access the account service
+     */
+    public static void syncAllLocationsImmediately(Context context) {
         Bundle bundle = new Bundle();
         bundle.putBoolean(ContentResolver.SYNC_EXTRAS_EXPEDITED, true);
         bundle.putBoolean(ContentResolver.SYNC_EXTRAS_MANUAL, true);
+        bundle.putBoolean(SYNC_EXTRAS_ALL_LOCATIONS, true);
         ContentResolver.requestSync(getSyncAccount(context),
                 context.getString(R.string.content_authority), bundle);
     }
@@ -648,5 +1083,6 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
         SharedPreferences.Editor spe = sp.edit();
         spe.putInt(c.getString(R.string.pref_location_status_key), locationStatus);
         spe.commit();
+        SettingsSnapshot.refresh(c);
     }
 }
\ No newline at end of file
@@ -0,0 +1,269 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.os.SystemClock;
+import android.support.annotation.IntDef;
+
+import com.example.android.sunshine.app.data.WeatherContract.MetricsEntry;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+
+/**
+ * Per-stage bookkeeping for the sync pipeline: how often each stage ran and failed, a latency
+ * histogram, and the bytes and rows it handled.  The numbers are kept in their own
+ * SharedPreferences file so they add up across syncs and process restarts, and can be read back
+ * through {@link MetricsEntry#CONTENT_URI}.
+ */
+public class SyncMetrics {
+
+    @Retention(RetentionPolicy.SOURCE)
+    @IntDef({STAGE_FETCH, STAGE_PARSE, STAGE_LOCATE, STAGE_PERSIST, STAGE_PRUNE, STAGE_FAN_OUT,
+            STAGE_STATUS, STAGE_TOTAL})
+    public @interface Stage {
+    }
+
+    // Connecting and waiting for the response headers, retries included
+    public static final int STAGE_FETCH = 0;
+    // Streaming the body through the parser, so this includes the body's transfer time
+    public static final int STAGE_PARSE = 1;
+    // Building the batch of location upserts and weather rows
+    public static final int STAGE_LOCATE = 2;
+    // Applying that batch, in one transaction
+    public static final int STAGE_PERSIST = 3;
+    // Archiving days that are in the past.  Part of the persist batch, so only its rows count
+    public static final int STAGE_PRUNE = 4;
+    // Widgets, Muzei, the notification and the watch
+    public static final int STAGE_FAN_OUT = 5;
+    // Writing each location's sync status
+    public static final int STAGE_STATUS = 6;
+    // The whole sync, end to end
+    public static final int STAGE_TOTAL = 7;
+
+    static final String[] STAGE_NAMES = {
+            "fetch", "parse", "locate", "persist", "prune", "fan_out", "status", "total"
+    };
+
+    // Upper bounds of the latency buckets in milliseconds.  Anything slower lands in a last,
+    // open-ended bucket.
+    static final long[] BUCKET_BOUNDS_MILLIS = {
+            1, 2, 5, 10, 20, 50, 100, 200, 500, 1000, 2000, 5000, 10000, 30000
+    };
+
+    private static final String PREFS_NAME = "sync_metrics";
+
+    private static SyncMetrics sInstance;
+
+    private final SharedPreferences mPrefs;
+    private final long[] mCounts = new long[STAGE_NAMES.length];
+    private final long[] mFailures = new long[STAGE_NAMES.length];
+    private final long[] mTotalMillis = new long[STAGE_NAMES.length];
+    private final long[] mMaxMillis = new long[STAGE_NAMES.length];
+    private final long[] mBytes = new long[STAGE_NAMES.length];
+    private final long[] mRows = new long[STAGE_NAMES.length];
+    private final long[][] mHistograms = new long[STAGE_NAMES.length][BUCKET_BOUNDS_MILLIS.length + 1];
+
+    public static synchronized SyncMetrics getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new SyncMetrics(context.getApplicationContext().getSharedPreferences(
+                    PREFS_NAME, Context.MODE_PRIVATE));
+        }
+        return sInstance;
+    }
+
+    SyncMetrics(SharedPreferences prefs) {
+        mPrefs = prefs;
+        load();
+    }
+
+    /**
+     * @return a timestamp to hand back to {@link #record}.
+     */
+    public static long start() {
+        return SystemClock.elapsedRealtime();
+    }
+
+    /**
+     * Records one run of a stage that began at {@code startTime}, as returned by {@link #start()}.
+     */
+    public synchronized void record(@Stage int stage, long startTime, boolean succeeded) {
+        recordMillis(stage, SystemClock.elapsedRealtime() - startTime, succeeded);
+    }
+
+    synchronized void recordMillis(@Stage int stage, long millis, boolean succeeded) {
+        mCounts[stage]++;
+        if (!succeeded) {
+            mFailures[stage]++;
+        }
+        mTotalMillis[stage] += millis;
+        mMaxMillis[stage] = Math.max(mMaxMillis[stage], millis);
+        mHistograms[stage][bucketFor(millis)]++;
+    }
+
+    public synchronized void addBytes(@Stage int stage, long bytes) {
+        mBytes[stage] += bytes;
+    }
+
+    public synchronized void addRows(@Stage int stage, long rows) {
+        mRows[stage] += rows;
+    }
+
+    /**
+     * Writes the numbers out.  Called once at the end of every sync rather than per record, so
+     * the stages don't pay for disk writes while they are being timed.
+     */
+    public synchronized void save() {
+        SharedPreferences.Editor editor = mPrefs.edit();
+        for (int stage = 0; stage < STAGE_NAMES.length; stage++) {
+            String name = STAGE_NAMES[stage];
+            editor.putLong(name + ".count", mCounts[stage]);
+            editor.putLong(name + ".failures", mFailures[stage]);
+            editor.putLong(name + ".total_ms", mTotalMillis[stage]);
+            editor.putLong(name + ".max_ms", mMaxMillis[stage]);
+            editor.putLong(name + ".bytes", mBytes[stage]);
+            editor.putLong(name + ".rows", mRows[stage]);
+            StringBuilder histogram = new StringBuilder();
+            for (int bucket = 0; bucket < mHistograms[stage].length; bucket++) {
+                if (bucket > 0) {
+                    histogram.append(',');
+                }
+                histogram.append(mHistograms[stage][bucket]);
+            }
+            editor.putString(name + ".histogram", histogram.toString());
+        }
+        // Only ever called from the sync thread
+        editor.commit();
+    }
+
+    public synchronized void reset() {
+        for (int stage = 0; stage < STAGE_NAMES.length; stage++) {
+            mCounts[stage] = 0;
+            mFailures[stage] = 0;
+            mTotalMillis[stage] = 0;
+            mMaxMillis[stage] = 0;
+            mBytes[stage] = 0;
+            mRows[stage] = 0;
+            for (int bucket = 0; bucket < mHistograms[stage].length; bucket++) {
+                mHistograms[stage][bucket] = 0;
+            }
+        }
+        mPrefs.edit().clear().commit();
+    }
+
+    /**
+     * @return one row per stage, with the columns of {@link MetricsEntry}.
+     */
+    public synchronized Cursor toCursor() {
+        MatrixCursor cursor = new MatrixCursor(new String[]{
+                MetricsEntry.COLUMN_STAGE,
+                MetricsEntry.COLUMN_COUNT,
+                MetricsEntry.COLUMN_FAILURES,
+                MetricsEntry.COLUMN_TOTAL_MILLIS,
+                MetricsEntry.COLUMN_MAX_MILLIS,
+                MetricsEntry.COLUMN_P50_MILLIS,
+                MetricsEntry.COLUMN_P95_MILLIS,
+                MetricsEntry.COLUMN_BYTES,
+                MetricsEntry.COLUMN_ROWS,
+                MetricsEntry.COLUMN_HISTOGRAM
+        }, STAGE_NAMES.length);
+        for (int stage = 0; stage < STAGE_NAMES.length; stage++) {
+            StringBuilder histogram = new StringBuilder();
+            for (int bucket = 0; bucket < mHistograms[stage].length; bucket++) {
+                if (mHistograms[stage][bucket] == 0) {
+                    continue;
+                }
+                if (histogram.length() > 0) {
+                    histogram.append(',');
+                }
+                histogram.append(bucketLabel(bucket)).append(':')
+                        .append(mHistograms[stage][bucket]);
+            }
+            cursor.addRow(new Object[]{
+                    STAGE_NAMES[stage],
+                    mCounts[stage],
+                    mFailures[stage],
+                    mTotalMillis[stage],
+                    mMaxMillis[stage],
+                    percentile(stage, 50),
+                    percentile(stage, 95),
+                    mBytes[stage],
+                    mRows[stage],
+                    histogram.toString()
+            });
+        }
+        return cursor;
+    }
+
+    @Override
+    public synchronized String toString() {
+        StringBuilder builder = new StringBuilder("SyncMetrics[");
+        for (int stage = 0; stage < STAGE_NAMES.length; stage++) {
+            if (stage > 0) {
+                builder.append(',');
+            }
+            builder.append(STAGE_NAMES[stage]).append('=');
+            builder.append(mCounts[stage] == 0 ? 0 : mTotalMillis[stage] / mCounts[stage]);
+            builder.append("ms");
+        }
+        return builder.append(']').toString();
+    }
+
+    /**
+     * @return the upper bound of the bucket the given percentile falls into, the maximum if it
+     * is in the open-ended bucket, or 0 if the stage never ran.
+     */
+    long percentile(@Stage int stage, int percent) {
+        if (mCounts[stage] == 0) {
+            return 0;
+        }
+        long target = (mCounts[stage] * percent + 99) / 100;
+        long seen = 0;
+        for (int bucket = 0; bucket < BUCKET_BOUNDS_MILLIS.length; bucket++) {
+            seen += mHistograms[stage][bucket];
+            if (seen >= target) {
+                return BUCKET_BOUNDS_MILLIS[bucket];
+            }
+        }
+        return mMaxMillis[stage];
+    }
+
+    private static int bucketFor(long millis) {
+        for (int bucket = 0; bucket < BUCKET_BOUNDS_MILLIS.length; bucket++) {
+            if (millis <= BUCKET_BOUNDS_MILLIS[bucket]) {
+                return bucket;
+            }
+        }
+        return BUCKET_BOUNDS_MILLIS.length;
+    }
+
+    private static String bucketLabel(int bucket) {
+        return bucket < BUCKET_BOUNDS_MILLIS.length
+                ? Long.toString(BUCKET_BOUNDS_MILLIS[bucket])
+                : ">" + BUCKET_BOUNDS_MILLIS[BUCKET_BOUNDS_MILLIS.length - 1];
+    }
+
+    private void load() {
+        for (int stage = 0; stage < STAGE_NAMES.length; stage++) {
+            String name = STAGE_NAMES[stage];
+            mCounts[stage] = mPrefs.getLong(name + ".count", 0);
+            mFailures[stage] = mPrefs.getLong(name + ".failures", 0);
+            mTotalMillis[stage] = mPrefs.getLong(name + ".total_ms", 0);
+            mMaxMillis[stage] = mPrefs.getLong(name + ".max_ms", 0);
+            mBytes[stage] = mPrefs.getLong(name + ".bytes", 0);
+            mRows[stage] = mPrefs.getLong(name + ".rows", 0);
+            String histogram = mPrefs.getString(name + ".histogram", null);
+            if (histogram != null) {
+                String[] counts = histogram.split(",");
+                // A saved histogram with other buckets is simply dropped
+                if (counts.length == mHistograms[stage].length) {
+                    for (int bucket = 0; bucket < counts.length; bucket++) {
+                        mHistograms[stage][bucket] = Long.parseLong(counts[bucket]);
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,191 @@
+package com.example.android.sunshine.app.sync;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.concurrent.Callable;
+
+/**
+ * Keeps bursts of sync requests for the same location from turning into back-to-back identical
+ * downloads.  Changing the location, the Place Picker result and the first launch all ask for a
+ * sync within moments of each other, so:
+ * <ul>
+ * <li>a sync request for a location that already has a request pending or a fetch in flight is
+ * dropped, the sync that is coming will cover it;</li>
+ * <li>a fetch for a location whose forecast was fetched and stored less than
+ * {@link #COALESCE_WINDOW_MILLIS} ago reuses that result instead of going to the network.</li>
+ * </ul>
+ * A fetch only counts as done once its rows are stored: whoever stores them reports back with
+ * {@link #markPersisted(String)} or {@link #markPersistFailed(String)}, and until then, or after
+ * a failure, the next fetch goes to the network.  Callers that reuse a stored result get a copy
+ * marked as having nothing to store.
+ * <p>
+ * Fetches of the same location never overlap: only one sync runs at a time, and the locations
+ * of a sync are distinct.
+ */
+public class SyncRequestCoordinator {
+    private static final String LOG_TAG = SyncRequestCoordinator.class.getSimpleName();
+
+    static final long COALESCE_WINDOW_MILLIS = 10 * 1000;
+
+    private static SyncRequestCoordinator sInstance;
+
+    private final long mWindowMillis;
+
+    // Location setting -> elapsed realtime the sync was requested at
+    private final HashMap<String, Long> mPendingRequests = new HashMap<String, Long>();
+    private final HashSet<String> mInFlight = new HashSet<String>();
+    private final HashMap<String, CompletedFetch> mCompleted = new HashMap<String, CompletedFetch>();
+    // Fetched with rows that haven't been reported stored yet
+    private final HashMap<String, LocationForecast> mUnpersisted =
+            new HashMap<String, LocationForecast>();
+
+    private int mRequestCount;
+    private int mMergedCount;
+    private int mFetchCount;
+
+    private static class CompletedFetch {
+        final LocationForecast forecast;
+        final long completedAt;
+
+        CompletedFetch(LocationForecast forecast, long completedAt) {
+            this.forecast = forecast;
+            this.completedAt = completedAt;
+        }
+    }
+
+    public static synchronized SyncRequestCoordinator getInstance() {
+        if (sInstance == null) {
+            sInstance = new SyncRequestCoordinator(COALESCE_WINDOW_MILLIS);
+        }
+        return sInstance;
+    }
+
+    SyncRequestCoordinator(long windowMillis) {
+        mWindowMillis = windowMillis;
+    }
+
+    /**
+     * Records a request to sync this location.
+     *
+     * @return true if a sync should be requested, false if one that is already pending or
+     * running will do.
+     */
+    public synchronized boolean requestSync(String locationSetting) {
+        mRequestCount++;
+        long now = SystemClock.elapsedRealtime();
+        Long requestedAt = mPendingRequests.get(locationSetting);
+        if (mInFlight.contains(locationSetting)
+                || (requestedAt != null && now - requestedAt < mWindowMillis)) {
+            mMergedCount++;
+            Log.d(LOG_TAG, "Merged sync request for " + locationSetting + ". " + this);
+            return false;
+        }
+        mPendingRequests.put(locationSetting, now);
+        return true;
+    }
+
+    /**
+     * Returns the forecast for this location, running {@code fetcher} only if none was stored
+     * within the window.  A forecast that comes back with rows has to be reported to
+     * {@link #markPersisted(String)} or {@link #markPersistFailed(String)} once they're stored
+     * or not.  If {@code fetcher} throws, the forecast comes back as
+     * {@link SunshineSyncAdapter#LOCATION_STATUS_SERVER_INVALID}.
+     */
+    public LocationForecast fetch(String locationSetting, Callable<LocationForecast> fetcher)
+            throws InterruptedException {
+        synchronized (this) {
+            if (mPendingRequests.remove(locationSetting) == null) {
+                // Nobody asked through requestSync, e.g. a periodic sync
+                mRequestCount++;
+            }
+            long now = SystemClock.elapsedRealtime();
+            CompletedFetch completed = mCompleted.get(locationSetting);
+            if (completed != null && now - completed.completedAt < mWindowMillis) {
+                mMergedCount++;
+                return completed.forecast.shared();
+            }
+            mInFlight.add(locationSetting);
+            mFetchCount++;
+        }
+
+        LocationForecast forecast;
+        try {
+            forecast = fetcher.call();
+        } catch (InterruptedException e) {
+            throw e;
+        } catch (Exception e) {
+            // fetchForecast handles its own failures, this would be a bug
+            Log.e(LOG_TAG, "Error fetching " + locationSetting, e);
+            forecast = new LocationForecast(locationSetting);
+            forecast.mStatus = SunshineSyncAdapter.LOCATION_STATUS_SERVER_INVALID;
+        } finally {
+            synchronized (this) {
+                mInFlight.remove(locationSetting);
+            }
+        }
+
+        if (forecast.mStatus == SunshineSyncAdapter.LOCATION_STATUS_OK) {
+            synchronized (this) {
+                if (forecast.hasRows()) {
+                    mUnpersisted.put(locationSetting, forecast);
+                } else {
+                    // Not modified, what is stored is current already
+                    mCompleted.put(locationSetting,
+                            new CompletedFetch(forecast, SystemClock.elapsedRealtime()));
+                }
+            }
+        }
+        return forecast;
+    }
+
+    /**
+     * Records that the rows of the last forecast fetched for this location are stored, so
+     * fetches within the window can reuse it.
+     */
+    public synchronized void markPersisted(String locationSetting) {
+        LocationForecast forecast = mUnpersisted.remove(locationSetting);
+        if (forecast != null) {
+            mCompleted.put(locationSetting,
+                    new CompletedFetch(forecast, SystemClock.elapsedRealtime()));
+        }
+    }
+
+    /**
+     * Records that the rows of the last forecast fetched for this location couldn't be stored,
+     * so the next fetch goes to the network.
+     */
+    public synchronized void markPersistFailed(String locationSetting) {
+        mUnpersisted.remove(locationSetting);
+        mCompleted.remove(locationSetting);
+    }
+
+    /**
+     * @return how many times a sync or a fetch was asked for.
+     */
+    public synchronized int getRequestCount() {
+        return mRequestCount;
+    }
+
+    /**
+     * @return how many of those requests were folded into another one.
+     */
+    public synchronized int getMergedCount() {
+        return mMergedCount;
+    }
+
+    /**
+     * @return how many forecasts were actually fetched.
+     */
+    public synchronized int getFetchCount() {
+        return mFetchCount;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "SyncRequestCoordinator[requests=" + mRequestCount + ",merged=" + mMergedCount
+                + ",fetches=" + mFetchCount + "]";
+    }
+}
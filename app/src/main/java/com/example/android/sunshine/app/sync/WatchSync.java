@@ -1,15 +1,12 @@
 package com.example.android.sunshine.app.sync;
 
 import android.content.Context;
-import android.database.Cursor;
-import android.net.Uri;
 import android.os.Bundle;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.util.Log;
 
 import com.example.android.sunshine.app.Utility;
-import com.example.android.sunshine.app.data.WeatherContract;
 import com.google.android.gms.common.ConnectionResult;
 import com.google.android.gms.common.api.GoogleApiClient;
 import com.google.android.gms.common.api.ResultCallback;
@@ -18,9 +15,6 @@ import com.google.android.gms.wearable.PutDataMapRequest;
 import com.google.android.gms.wearable.PutDataRequest;
 import com.google.android.gms.wearable.Wearable;
 
-import static com.example.android.sunshine.app.sync.SunshineSyncAdapter.INDEX_MIN_TEMP;
-import static com.example.android.sunshine.app.sync.SunshineSyncAdapter.INDEX_WEATHER_ID;
-
 /**
  * Created by vaibhav on 11/10/16.
  */
@@ -56,23 +50,24 @@ public class WatchSync implements GoogleApiClient.ConnectionCallbacks, GoogleApi
     public void sync()
 
     {
-        String locationQuery = Utility.getPreferredLocation(context);
-        Uri weatherUri = WeatherContract.WeatherEntry.buildWeatherLocationWithDate(locationQuery, System.currentTimeMillis());
-        Cursor cursor = context.getContentResolver().query(weatherUri, SunshineSyncAdapter.NOTIFY_WEATHER_PROJECTION, null, null, null);
-        if (cursor == null) {
-            return;
-        }
+        sync(ForecastSnapshot.query(context, Utility.getPreferredLocation(context)));
+    }
 
+    /**
+     * Sends the given forecast to the watch, without going back to the provider for it.
+     */
+    public void sync(ForecastSnapshot snapshot)
+
+    {
         checkGoogleApiClient();
 
         PutDataMapRequest putDataMapRequest = PutDataMapRequest.create(WEATHER_PATH);
 
-        if (cursor.moveToFirst()) {
-            putDataMapRequest.getDataMap().putString(HIGH_TEMPERATURE, Utility.formatTemperature(context, cursor.getDouble(SunshineSyncAdapter.INDEX_MAX_TEMP)));
-            putDataMapRequest.getDataMap().putString(LOW_TEMPERATURE, Utility.formatTemperature(context, cursor.getDouble(INDEX_MIN_TEMP)));
-            putDataMapRequest.getDataMap().putInt(WEATHER_ID, cursor.getInt(INDEX_WEATHER_ID));
+        if (snapshot != null) {
+            putDataMapRequest.getDataMap().putString(HIGH_TEMPERATURE, Utility.formatTemperature(context, snapshot.high));
+            putDataMapRequest.getDataMap().putString(LOW_TEMPERATURE, Utility.formatTemperature(context, snapshot.low));
+            putDataMapRequest.getDataMap().putInt(WEATHER_ID, snapshot.weatherId);
         }
-        cursor.close();
 
         PutDataRequest weatherRequest = putDataMapRequest.asPutDataRequest();
         weatherRequest.setUrgent();
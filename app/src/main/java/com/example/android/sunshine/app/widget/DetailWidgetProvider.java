@@ -57,7 +57,13 @@ public class DetailWidgetProvider extends AppWidgetProvider {
     @Override
     public void onReceive(@NonNull Context context, @NonNull Intent intent) {
         super.onReceive(context, intent);
-        if (SunshineSyncAdapter.ACTION_DATA_UPDATED.equals(intent.getAction())) {
+        boolean dataUpdated = SunshineSyncAdapter.ACTION_DATA_UPDATED.equals(intent.getAction());
+        if (dataUpdated
+                || SunshineSyncAdapter.ACTION_PRESENTATION_CHANGED.equals(intent.getAction())) {
+            if (dataUpdated) {
+                // Otherwise the lists only have to render the days they have again
+                DetailWidgetRemoteViewsService.onDataUpdated();
+            }
             AppWidgetManager appWidgetManager = AppWidgetManager.getInstance(context);
             int[] appWidgetIds = appWidgetManager.getAppWidgetIds(
                     new ComponentName(context, getClass()));
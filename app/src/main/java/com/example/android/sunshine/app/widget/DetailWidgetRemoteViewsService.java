@@ -42,10 +42,19 @@ public class DetailWidgetRemoteViewsService extends RemoteViewsService {
     static final int INDEX_WEATHER_MAX_TEMP = 4;
     static final int INDEX_WEATHER_MIN_TEMP = 5;
 
+    // Bumped for every change to the data, so a factory whose cursor was queried after the
+    // latest one only re-renders it when the widget asks for its data again
+    private static volatile int sDataGeneration;
+
+    static void onDataUpdated() {
+        sDataGeneration++;
+    }
+
     @Override
     public RemoteViewsFactory onGetViewFactory(Intent intent) {
         return new RemoteViewsFactory() {
             private Cursor data = null;
+            private int dataGeneration;
 
             @Override
             public void onCreate() {
@@ -54,9 +63,15 @@ public class DetailWidgetRemoteViewsService extends RemoteViewsService {
 
             @Override
             public void onDataSetChanged() {
+                int generation = sDataGeneration;
                 if (data != null) {
+                    if (generation == dataGeneration) {
+                        // Only the presentation changed, getViewAt formats the same rows again
+                        return;
+                    }
                     data.close();
                 }
+                dataGeneration = generation;
                 // This method is called by the app hosting the widget (e.g., the launcher)
                 // However, our ContentProvider is not exported so it doesn't have access to the
                 // data. Therefore we need to clear (and finally restore) the calling identity so
@@ -46,8 +46,12 @@ public class TodayWidgetProvider extends AppWidgetProvider {
     @Override
     public void onReceive(@NonNull Context context, @NonNull Intent intent) {
         super.onReceive(context, intent);
-        if (SunshineSyncAdapter.ACTION_DATA_UPDATED.equals(intent.getAction())) {
-            context.startService(new Intent(context, TodayWidgetIntentService.class));
+        if (SunshineSyncAdapter.ACTION_DATA_UPDATED.equals(intent.getAction())
+                || SunshineSyncAdapter.ACTION_PRESENTATION_CHANGED.equals(intent.getAction())) {
+            // Pass on the forecast the sync or the settings attached, if any, so the service
+            // needn't query for it
+            context.startService(new Intent(context, TodayWidgetIntentService.class)
+                    .putExtras(intent));
         }
     }
 }